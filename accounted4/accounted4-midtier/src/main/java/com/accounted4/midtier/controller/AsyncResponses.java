@@ -0,0 +1,150 @@
+package com.accounted4.midtier.controller;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+/**
+ * Helpers for completing Servlet 3 async requests on a chosen executor.
+ *
+ * Returning a DeferredResult from a handler releases the container thread; the
+ * result is set from the executor thread once the work completes. Work which fails,
+ * or which the (bounded) executor refuses, is passed back as an error result so it
+ * is handled by the controller's exception handlers like any synchronous exception.
+ *
+ * Work which writes the response itself must not touch it until the request has been
+ * put in async mode, nor after the async request has ended: see stream().
+ *
+ * @author glenn
+ */
+final class AsyncResponses {
+
+    /**
+     * Timeout for stream(): the async request never times out.
+     */
+    static final long NO_TIMEOUT = 0;
+
+    private static final String STREAM_INTERCEPTOR = AsyncResponses.class.getName() + ".STREAM";
+
+
+    private AsyncResponses() {
+    }
+
+
+    /**
+     * A result which is already known, for example a 304 Not Modified: no executor
+     * hand-off is required.
+     */
+    static <T> DeferredResult<T> completed(T value) {
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(value);
+        return result;
+    }
+
+
+    /**
+     * Run the work on the given executor and complete the deferred result with its outcome.
+     *
+     * @param executor bounded executor dedicated to this kind of work
+     * @param work the computation; for streamed responses it writes the response itself and returns null
+     * @return the deferred result to return from the handler method
+     */
+    static <T> DeferredResult<T> submit(AsyncTaskExecutor executor, final Callable<T> work) {
+
+        final DeferredResult<T> result = new DeferredResult<>();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.setResult(work.call());
+                    } catch (Exception ex) {
+                        result.setErrorResult(ex);
+                    }
+                }
+            });
+        } catch (TaskRejectedException tre) {
+            result.setErrorResult(tre);
+        }
+
+        return result;
+
+    }
+
+
+    /**
+     * Run work which writes the response itself, ex: a pdf or export, on the given executor.
+     *
+     * The work is only started once Spring has put the request in async mode, so it never
+     * writes to a response the container still owns. The async request is given its own
+     * timeout, rather than the default for quick calculations; if it times out, or ends
+     * early (the client went away), the work is interrupted. It completes with null, which
+     * @ResponseBody treats as "response already handled".
+     *
+     * @param request the request being handled
+     * @param executor bounded executor dedicated to this kind of work
+     * @param timeoutMillis time allowed for the whole response, or NO_TIMEOUT
+     * @param work writes the response, returning null
+     * @return the deferred result to return from the handler method
+     */
+    static DeferredResult<Void> stream(HttpServletRequest request, final AsyncTaskExecutor executor, long timeoutMillis, final Callable<Void> work) {
+
+        final DeferredResult<Void> result = new DeferredResult<>(timeoutMillis);
+
+        WebAsyncUtils.getAsyncManager(request).registerDeferredResultInterceptor(STREAM_INTERCEPTOR, new DeferredResultProcessingInterceptorAdapter() {
+
+            private volatile Future<?> task;
+
+            @Override
+            public <T> void preProcess(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                if (deferredResult != result) {
+                    return;
+                }
+                try {
+                    task = executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                result.setResult(work.call());
+                            } catch (Exception ex) {
+                                result.setErrorResult(ex);
+                            }
+                        }
+                    });
+                } catch (TaskRejectedException tre) {
+                    result.setErrorResult(tre);
+                }
+            }
+
+            @Override
+            public <T> boolean handleTimeout(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                cancel();
+                return true;
+            }
+
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                cancel();
+            }
+
+            private void cancel() {
+                Future<?> started = task;
+                if (null != started) {
+                    started.cancel(true);
+                }
+            }
+
+        });
+
+        return result;
+
+    }
+
+}
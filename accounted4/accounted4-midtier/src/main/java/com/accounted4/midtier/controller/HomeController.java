@@ -1,31 +1,47 @@
 package com.accounted4.midtier.controller;
 
 
+import com.accounted4.midtier.service.AmortizationAttributesKey;
 import com.accounted4.midtier.service.AmortizationService;
+import com.accounted4.midtier.service.ExecutorStatistics;
 import com.accounted4.midtier.service.IdBean;
+import com.accounted4.midtier.service.InvalidAmortizationParametersException;
+import com.accounted4.midtier.service.MonitoredTaskExecutor;
+import com.accounted4.midtier.service.ScheduleExportFormat;
+import com.accounted4.midtier.service.User;
+import com.accounted4.midtier.service.UserAccountService;
 import com.accounted4.money.Money;
 import com.accounted4.money.loan.AmortizationAttributes;
 import com.accounted4.money.loan.ScheduledPayment;
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlSeeAlso;
+import javax.xml.stream.XMLStreamException;
 import net.sf.jasperreports.engine.JRException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
 
 /**
@@ -38,10 +54,26 @@ import org.springframework.web.bind.annotation.ResponseBody;
 public class HomeController {
 
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private UserAccountService userAccountService;
     @Autowired
     private AmortizationService amortizationService;
 
+    // Bounded executors for async request processing: schedule calculations, and
+    // slower pdf/export rendering kept separate so it cannot starve the former
+    @Autowired
+    @Qualifier("computeExecutor")
+    private MonitoredTaskExecutor computeExecutor;
+    @Autowired
+    @Qualifier("reportExecutor")
+    private MonitoredTaskExecutor reportExecutor;
+
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    // Pdf and export rendering may outlast the default async timeout for calculations
+    private static final long REPORT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String DEFAULT_PAGE_SIZE = "" + UserAccountService.DEFAULT_PAGE_SIZE;
+
 
     /**
      * Helper class to allow the auto-marshalling of a List of beans into an XML format.
@@ -49,7 +81,7 @@ public class HomeController {
      * @param <T>
      */
     @XmlRootElement(name = "List")
-    @XmlSeeAlso(HomeController.User.class)
+    @XmlSeeAlso(User.class)
     public static class JaxbList<T> {
 
         protected List<T> list;
@@ -69,171 +101,331 @@ public class HomeController {
     }
 
 
-    private List<User> getUsers() {
-
-        String query = "SELECT name, display_name FROM user_account";
+    /**
+     * Look up a single user by id.
+     * @param id
+     * @return the user, or a 404 if there is no such user
+     */
+    @RequestMapping(value = "/users/{id}.json", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<User> getUserJson(@PathVariable Long id) {
+        return getUser(id);
+    }
 
-        return jdbcTemplate.query(query, new SqlParameterSource() {
-            
-            @Override
-            public boolean hasValue(String string) {
-                throw new UnsupportedOperationException("Not supported yet.");
-            }
 
-            @Override
-            public Object getValue(String string) throws IllegalArgumentException {
-                throw new UnsupportedOperationException("Not supported yet.");
-            }
+    @RequestMapping(value = "/users/{id}.xml", method = RequestMethod.GET, produces = "application/xml")
+    public ResponseEntity<User> getUserXml(@PathVariable Long id) {
+        return getUser(id);
+    }
 
-            @Override
-            public int getSqlType(String string) {
-                throw new UnsupportedOperationException("Not supported yet.");
-            }
 
-            @Override
-            public String getTypeName(String string) {
-                throw new UnsupportedOperationException("Not supported yet.");
-            }
+    private ResponseEntity<User> getUser(Long id) {
+        User user = userAccountService.getUser(id);
+        return null == user ? new ResponseEntity<User>(HttpStatus.NOT_FOUND) : new ResponseEntity<>(user, HttpStatus.OK);
+    }
 
-        }, new UserMapper());
 
-    }
-    
-    
-    
     /**
-     * Hack sample demonstrating querying a db to get a list, then automarshal the
-     * list as a json response. Push db work into a service ...
-     * @param id
-     * @return 
+     * A page of users, ordered by id. To fetch the next page pass the id of the
+     * last user received as the "after" parameter; a page shorter than the limit
+     * is the last one.
+     *
+     * ex: /users.json?after=1200&amp;limit=100
      */
-    @RequestMapping(value = "/users/{id}.json", method = RequestMethod.GET, produces = "application/json")
+    @RequestMapping(value = "/users.json", method = RequestMethod.GET, produces = "application/json")
     @ResponseBody
-    public List<User> getUserJson(@PathVariable Long id) {
-        return getUsers();
+    public List<User> getUsersJson(
+            @RequestParam(value = "after", required = false) Long afterId,
+            @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        return userAccountService.getUsers(afterId, limit);
+    }
+
+
+    @RequestMapping(value = "/users.xml", method = RequestMethod.GET, produces = "application/xml")
+    @ResponseBody
+    public JaxbList<User> getUsersXml(
+            @RequestParam(value = "after", required = false) Long afterId,
+            @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        return new JaxbList<>(userAccountService.getUsers(afterId, limit));
     }
 
 
     /**
-     * Hack sample demonstrating querying a db to get a list, then automarshal the
-     * list as a xml response. Push db work into a service ...
-     * @param id
-     * @return 
+     * Every user (optionally after a given id) as xml, streamed straight from a database
+     * cursor: items are written to the response as rows are read, so the size of
+     * the export is not limited by the heap. Runs on the report executor, as the
+     * other streamed downloads do, but without a timeout, however long the export; it
+     * stops writing once the async request has ended, ex: the client went away.
+     *
+     * ex: /users/all.xml
      */
-    @RequestMapping(value = "/users/{id}.xml", method = RequestMethod.GET, produces = "application/xml")
+    @RequestMapping(value = "/users/all.xml", method = RequestMethod.GET, produces = "application/xml")
     @ResponseBody
-    public JaxbList<HomeController.User> getUserXml(@PathVariable Long id) {
-        return new JaxbList<>(getUsers());
+    public DeferredResult<Void> streamUsersXml(
+            @RequestParam(value = "after", required = false) final Long afterId,
+            HttpServletRequest request, final HttpServletResponse response) {
+
+        return AsyncResponses.stream(request, reportExecutor, AsyncResponses.NO_TIMEOUT, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, JAXBException, XMLStreamException {
+
+                response.setContentType("application/xml;charset=UTF-8");
+                final StreamingXmlListWriter<User> writer =
+                        new StreamingXmlListWriter<>(User.class, response.getOutputStream());
+
+                userAccountService.streamUsers(afterId, new UserAccountService.UserHandler() {
+                    @Override
+                    public void handle(User user) {
+                        // Interrupted when the async request ends: the response is no longer ours
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new IllegalStateException("User export abandoned at user " + user.getId());
+                        }
+                        try {
+                            writer.write(user);
+                        } catch (JAXBException je) {
+                            throw new IllegalStateException("Unable to write user " + user.getId(), je);
+                        }
+                    }
+                });
+
+                writer.finish();
+                return null;
+
+            }
+        });
+
     }
 
 
-    private static final class UserMapper implements RowMapper<User> {
+// ==============================================
 
-        @Override
-        public User mapRow(ResultSet resultset, int rowNum) throws SQLException {
-            User user = new User();
-            user.setId(7L);
-            user.setName(resultset.getString("name"));
-            user.setDisplayName(resultset.getString("display_name"));
+    /*
+     * Schedules, monthly payments and pdfs are pure functions of the amortization
+     * attributes. Each response carries an ETag derived from the normalized attributes
+     * (see AmortizationAttributesKey); a request whose If-None-Match matches is answered
+     * with a 304 before anything is computed. POSTed attributes are also answered with a
+     * Content-Location pointing to the equivalent canonical GET url, which browsers and
+     * proxies are able to cache.
+     */
 
-            return user;
-        }
+    private static final String SCHEDULE_JSON = "/amortization/schedule.json";
+    private static final String MONTHLY_PAYMENT = "/amortization/monthlyPayment";
+    private static final String SCHEDULE_PDF = "/amortization/schedule.pdf";
 
-    }
 
+    // Very fussy: all fields required, no tabs/line breaks
+    //http://localhost:8084/accounted4-midtier/amortization/schedule.json
+    // Content-Type: application/json
+    // {"loanAmount":"20000.00", "regularPayment":"200","startDate":"2013-01-05","adjustmentDate":"2013-01-15","termInMonths":"12","interestOnly":"true","amortizationPeriodMonths":"20","compoundingPeriodsPerYear":"2","interestRate":"10"}
+    @RequestMapping(value = SCHEDULE_JSON, method = RequestMethod.POST, produces = "application/json")
+    public DeferredResult<ResponseEntity<List<ScheduledPayment>>> getAmortizationSchedule(@RequestBody AmortizationAttributes amAttrs, HttpServletRequest request) {
+        return getAmortizationSchedule(amAttrs, new AmortizationAttributesKey(amAttrs), request);
+    }
 
-    @XmlRootElement
-    public static class User {
 
-        private Long id;
-        private String name;
-        private String displayName;
+    // Canonical, cacheable form:
+    //http://localhost:8084/accounted4-midtier/amortization/schedule.json?loanAmount=20000.00&regularPayment=200.00&adjustmentDate=2013-01-15&termInMonths=12&interestOnly=true&interestRate=10
+    @RequestMapping(value = SCHEDULE_JSON, method = RequestMethod.GET, produces = "application/json")
+    public DeferredResult<ResponseEntity<List<ScheduledPayment>>> getAmortizationSchedule(HttpServletRequest request) {
+        AmortizationAttributes amAttrs = AmortizationAttributesKey.fromParameters(request.getParameterMap());
+        return getAmortizationSchedule(amAttrs, new AmortizationAttributesKey(amAttrs), request);
+    }
 
 
-        public User() {
+    /*
+     * The conditional check is cheap and answered on the container thread; only the
+     * schedule calculation is handed off to the compute executor.
+     */
+    private DeferredResult<ResponseEntity<List<ScheduledPayment>>> getAmortizationSchedule(
+            final AmortizationAttributes amAttrs, AmortizationAttributesKey key, HttpServletRequest request) {
+        String eTag = key.getETag(SCHEDULE_JSON);
+        final HttpHeaders headers = HttpCaching.cacheHeaders(eTag, canonicalUrl(request, SCHEDULE_JSON, key));
+        if (HttpCaching.isNotModified(request, eTag)) {
+            return AsyncResponses.completed(new ResponseEntity<List<ScheduledPayment>>(headers, HttpStatus.NOT_MODIFIED));
         }
+        return AsyncResponses.submit(computeExecutor, new Callable<ResponseEntity<List<ScheduledPayment>>>() {
+            @Override
+            public ResponseEntity<List<ScheduledPayment>> call() {
+                return new ResponseEntity<>(amortizationService.getAmortizationSchedule(amAttrs), headers, HttpStatus.OK);
+            }
+        });
+    }
 
 
-        public User(Long id, String name, String displayName) {
-            this.id = id;
-            this.name = name;
-            this.displayName = displayName;
-        }
+    @RequestMapping(value = MONTHLY_PAYMENT, method = RequestMethod.POST, produces = "application/json")
+    public ResponseEntity<Money> getMonthlyPayment(@RequestBody AmortizationAttributes amAttrs, HttpServletRequest request) {
+        return getMonthlyPayment(amAttrs, new AmortizationAttributesKey(amAttrs), request);
+        //return new SimpleEntry<>("monthlyPayment", amortizationService.getMonthlyPayment(amAttrs) );
+    }
 
 
-        public Long getId() {
-            return id;
-        }
+    @RequestMapping(value = MONTHLY_PAYMENT, method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<Money> getMonthlyPayment(HttpServletRequest request) {
+        // The regular payment plays no part in calculating the monthly payment
+        AmortizationAttributes amAttrs = AmortizationAttributesKey.fromParameters(request.getParameterMap(), false);
+        return getMonthlyPayment(amAttrs, new AmortizationAttributesKey(amAttrs), request);
+    }
 
 
-        public void setId(Long id) {
-            this.id = id;
+    // A single closed form calculation: cheaper to answer in place than to hand off
+    private ResponseEntity<Money> getMonthlyPayment(
+            AmortizationAttributes amAttrs, AmortizationAttributesKey key, HttpServletRequest request) {
+        String eTag = key.getETag(MONTHLY_PAYMENT);
+        HttpHeaders headers = HttpCaching.cacheHeaders(eTag, canonicalUrl(request, MONTHLY_PAYMENT, key));
+        if (HttpCaching.isNotModified(request, eTag)) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
         }
+        return new ResponseEntity<>(amortizationService.getMonthlyPayment(amAttrs), headers, HttpStatus.OK);
+    }
 
 
-        public String getName() {
-            return name;
-        }
+    /**
+     * PDF generation is done in two parts:
+     *   o send in the attributes required to calculate the schedule, a document id is returned
+     *   o request the pdf document by id
+     * Alternatively, the pdf can be requested directly from its canonical url (see getAmortizationSchedulePdf).
+     */
+    @RequestMapping(value = "/amortization/prepareSchedule", method = RequestMethod.POST, produces = "application/json")
+    @ResponseBody
+    public IdBean prepareAmortizationSchedule(@RequestBody AmortizationAttributes amAttrs, HttpServletRequest request) {
+        String sessionId = request.getSession().getId();
+        IdBean result = amortizationService.cacheSchedule(sessionId, amAttrs);
+        return result;
+    }
 
 
-        public void setName(String name) {
-            this.name = name;
+    /*
+     * Streamed responses (pdf, exports) are written by the report executor directly to
+     * the response output stream, once the request is async, within REPORT_TIMEOUT_MILLIS
+     * (see AsyncResponses.stream).
+     */
+    
+    @RequestMapping(value = "/amortization/showSchedule/pdf/{id}", method = RequestMethod.GET, produces = "application/pdf")
+    @ResponseBody
+    public DeferredResult<Void> getAmortizationSchedulePdf(@PathVariable String id, HttpServletRequest request, final HttpServletResponse response) {
+        
+        final IdBean idBean = new IdBean(id);
+        AmortizationAttributes amAttrs = amortizationService.getCachedScheduleAttributes(idBean);
+        if (null != amAttrs) {
+            AmortizationAttributesKey key = new AmortizationAttributesKey(amAttrs);
+            if (writeCacheHeaders(key.getETag(SCHEDULE_PDF), canonicalUrl(request, SCHEDULE_PDF, key), request, response)) {
+                return AsyncResponses.completed(null);
+            }
         }
+        
+        return AsyncResponses.stream(request, reportExecutor, REPORT_TIMEOUT_MILLIS, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, JRException {
+                response.setContentType("application/pdf");
+                amortizationService.generateAmortizationSchedulePdf(idBean, response.getOutputStream());
+                return null;
+            }
+        });
+    }
 
 
-        public String getDisplayName() {
-            return displayName;
+    //http://localhost:8084/accounted4-midtier/amortization/schedule.pdf?loanAmount=20000.00&regularPayment=200.00&adjustmentDate=2013-01-15&termInMonths=12&interestOnly=true&interestRate=10
+    @RequestMapping(value = SCHEDULE_PDF, method = RequestMethod.GET, produces = "application/pdf")
+    @ResponseBody
+    public DeferredResult<Void> getAmortizationSchedulePdf(HttpServletRequest request, final HttpServletResponse response) {
+        
+        final AmortizationAttributes amAttrs = AmortizationAttributesKey.fromParameters(request.getParameterMap());
+        AmortizationAttributesKey key = new AmortizationAttributesKey(amAttrs);
+        if (writeCacheHeaders(key.getETag(SCHEDULE_PDF), null, request, response)) {
+            return AsyncResponses.completed(null);
         }
+        
+        return AsyncResponses.stream(request, reportExecutor, REPORT_TIMEOUT_MILLIS, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, JRException {
+                response.setContentType("application/pdf");
+                amortizationService.generateAmortizationSchedulePdf(amAttrs, response.getOutputStream());
+                return null;
+            }
+        });
+    }
 
 
-        public void setDisplayName(String name) {
-            this.displayName = name;
+    /*
+     * Set the caching headers on a streamed response.
+     * Returns true, having sent a 304, if the client's copy is still current.
+     */
+    private boolean writeCacheHeaders(String eTag, String contentLocation, HttpServletRequest request, HttpServletResponse response) {
+        for (Map.Entry<String, List<String>> header : HttpCaching.cacheHeaders(eTag, contentLocation).entrySet()) {
+            response.setHeader(header.getKey(), header.getValue().get(0));
+        }
+        if (HttpCaching.isNotModified(request, eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
         }
+        return false;
+    }
 
 
+    private String canonicalUrl(HttpServletRequest request, String path, AmortizationAttributesKey key) {
+        return request.getContextPath() + path + "?" + key.getCanonicalQuery();
     }
 
 
-// ==============================================
+    /**
+     * Malformed or missing amortization parameters on a canonical url.
+     */
+    @ExceptionHandler(InvalidAmortizationParametersException.class)
+    public void handleInvalidParameters(InvalidAmortizationParametersException iape, HttpServletResponse response) throws IOException {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, iape.getMessage());
+    }
 
-    // Very fussy: all fields required, no tabs/line breaks
-    //http://localhost:8084/accounted4-midtier/amortization/schedule.json
-    // Content-Type: application/json
-    // {"loanAmount":"20000.00", "regularPayment":"200","startDate":"2013-01-05","adjustmentDate":"2013-01-15","termInMonths":"12","interestOnly":"true","amortizationPeriodMonths":"20","compoundingPeriodsPerYear":"2","interestRate":"10"}
-    @RequestMapping(value = "/amortization/schedule.json", method = RequestMethod.POST, produces = "application/json")
-    @ResponseBody
-    public List<ScheduledPayment> getAmortizationSchedule(@RequestBody AmortizationAttributes amAttrs) {
-        return amortizationService.getAmortizationSchedule(amAttrs);
+
+    /**
+     * The executor for the request is saturated: ask the client to back off rather
+     * than queue without bound.
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public void handleTaskRejected(TaskRejectedException tre, HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, try again later");
     }
 
 
-    @RequestMapping(value = "/amortization/monthlyPayment", method = RequestMethod.POST, produces = "application/json")
+    /**
+     * Bulk export of a prepared schedule (see prepareSchedule) in a format cheaper
+     * to produce than pdf: csv, xlsx or a4c (compact columnar binary).
+     */
+    @RequestMapping(value = "/amortization/showSchedule/{format}/{id}", method = RequestMethod.GET)
     @ResponseBody
-    public Money getMonthlyPayment(@RequestBody AmortizationAttributes amAttrs) {
-        return amortizationService.getMonthlyPayment(amAttrs);
-        //return new SimpleEntry<>("monthlyPayment", amortizationService.getMonthlyPayment(amAttrs) );
+    public DeferredResult<Void> exportAmortizationSchedule(@PathVariable String format, @PathVariable final String id,
+            HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        
+        final ScheduleExportFormat exportFormat = ScheduleExportFormat.fromExtension(format);
+        if (null == exportFormat) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unsupported export format: " + format);
+            return AsyncResponses.completed(null);
+        }
+        
+        return AsyncResponses.stream(request, reportExecutor, REPORT_TIMEOUT_MILLIS, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                response.setContentType(exportFormat.getContentType());
+                response.setHeader("Content-Disposition", "attachment; filename=\"amortizationSchedule." + exportFormat.getExtension() + "\"");
+                if (!amortizationService.exportAmortizationSchedule(new IdBean(id), exportFormat, response.getOutputStream())) {
+                    response.reset();
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown schedule id: " + id);
+                }
+                return null;
+            }
+        });
     }
 
 
     /**
-     * PDF generation is done in two parts:
-     *   o send in the attributes required to calculate the schedule, a document id is returned
-     *   o request the pdf document by id
+     * Saturation figures for the request executors, for monitoring.
      */
-    @RequestMapping(value = "/amortization/prepareSchedule", method = RequestMethod.POST, produces = "application/json")
+    @RequestMapping(value = "/admin/executors.json", method = RequestMethod.GET, produces = "application/json")
     @ResponseBody
-    public IdBean prepareAmortizationSchedule(@RequestBody AmortizationAttributes amAttrs, HttpServletRequest request) {
-        String sessionId = request.getSession().getId();
-        IdBean result = amortizationService.cacheSchedule(sessionId, amAttrs);
+    public Map<String, ExecutorStatistics> getExecutorStatistics() {
+        Map<String, ExecutorStatistics> result = new LinkedHashMap<>();
+        result.put("compute", computeExecutor.getStatistics());
+        result.put("report", reportExecutor.getStatistics());
         return result;
     }
 
-    
-    @RequestMapping(value = "/amortization/showSchedule/pdf/{id}", method = RequestMethod.GET, produces = "application/pdf")
-    public void getAmortizationSchedulePdf(@PathVariable String id, HttpServletResponse response)
-            throws IOException, JRException {
-        response.setContentType("application/pdf");
-        amortizationService.generateAmortizationSchedulePdf(new IdBean(id), response.getOutputStream());
-    }
-
 }
@@ -0,0 +1,77 @@
+package com.accounted4.midtier.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Helpers for entity tag based conditional requests. Spring 3.2 only supports
+ * last-modified checks (WebRequest.checkNotModified(long)), so If-None-Match
+ * is evaluated here.
+ *
+ * @author glenn
+ */
+final class HttpCaching {
+
+    static final String IF_NONE_MATCH = "If-None-Match";
+    static final String ETAG = "ETag";
+    static final String CACHE_CONTROL = "Cache-Control";
+    static final String CONTENT_LOCATION = "Content-Location";
+
+    // Responses are pure functions of the request, but allow the calculation to be
+    // revised: shared caches may keep them a day, after which they revalidate by ETag
+    static final String CACHEABLE = "public, max-age=86400";
+
+
+    private HttpCaching() {
+    }
+
+
+    /**
+     * True if the request carries an If-None-Match header matching the given entity tag,
+     * in which case the response should be a 304 without computing a body. Weak
+     * comparison is used, as is appropriate for If-None-Match.
+     *
+     * @param request the incoming request
+     * @param eTag the current entity tag, including quotes
+     * @return true if the client already holds the current representation
+     */
+    static boolean isNotModified(HttpServletRequest request, String eTag) {
+
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (null == ifNoneMatch) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+
+    /**
+     * Response headers common to full (200) and not modified (304) responses.
+     *
+     * @param eTag the entity tag of the representation
+     * @param contentLocation canonical GET-able location of the representation, may be null
+     * @return the headers
+     */
+    static HttpHeaders cacheHeaders(String eTag, String contentLocation) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ETAG, eTag);
+        headers.set(CACHE_CONTROL, CACHEABLE);
+        if (null != contentLocation) {
+            headers.set(CONTENT_LOCATION, contentLocation);
+        }
+        return headers;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.accounted4.midtier.controller;
+
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a list of beans as xml, one item at a time, in the same shape as a
+ * marshaled JaxbList:
+ * <pre>
+ *   &lt;List&gt;&lt;Item&gt;...&lt;/Item&gt;&lt;Item&gt;...&lt;/Item&gt;&lt;/List&gt;
+ * </pre>
+ * Each item is marshaled as a fragment straight to a StAX writer over the
+ * response stream, so items can be produced from a cursor or iterator without
+ * the whole document ever being held in memory.
+ *
+ * JAXBContext creation is expensive, so contexts are cached per item type;
+ * marshallers are cheap but not thread safe, so each writer has its own.
+ *
+ * @author glenn
+ * @param <T> the JAXB annotated item type
+ */
+final class StreamingXmlListWriter<T> {
+
+    private static final String LIST_ELEMENT = "List";
+    private static final QName ITEM_ELEMENT = new QName("Item");
+
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final Class<T> type;
+    private final Marshaller marshaller;
+    private final XMLStreamWriter writer;
+
+
+    /**
+     * Writes the document prologue and the opening list element.
+     */
+    StreamingXmlListWriter(Class<T> type, OutputStream outputStream) throws JAXBException, XMLStreamException {
+
+        this.type = type;
+
+        marshaller = getContext(type).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+        writer = OUTPUT_FACTORY.createXMLStreamWriter(outputStream, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement(LIST_ELEMENT);
+
+    }
+
+
+    void write(T item) throws JAXBException {
+        marshaller.marshal(new JAXBElement<>(ITEM_ELEMENT, type, item), writer);
+    }
+
+
+    /**
+     * Closes the list element and flushes; the underlying stream is left open.
+     */
+    void finish() throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+
+    private static JAXBContext getContext(Class<?> type) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(type);
+        if (null == context) {
+            context = JAXBContext.newInstance(type);
+            JAXBContext existing = CONTEXTS.putIfAbsent(type, context);
+            if (null != existing) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.Money;
+import com.accounted4.money.loan.AmortizationAttributes;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Currency;
+import java.util.Map;
+import org.joda.time.LocalDate;
+
+/**
+ * A normalized, content derived key for a set of amortization attributes.
+ *
+ * Schedules, monthly payments and the schedule pdf are pure functions of the
+ * attributes, so two requests with the same normalized attributes produce the same
+ * response. Only attributes which influence the calculation take part in the key:
+ * the start date is not used by the calculator, and the amortization period and
+ * compounding frequency are ignored for interest only loans. Numbers are rendered
+ * without trailing zeros so that "10" and "10.0" produce the same key.
+ *
+ * The key is used both as an HTTP entity tag and to build the canonical, GET-able
+ * query string for a schedule.
+ *
+ * @author glenn
+ */
+public final class AmortizationAttributesKey {
+
+    // Bump when the calculation or report layout changes so that cached responses are invalidated
+    private static final String ALGORITHM_VERSION = "v1";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String normalized;
+    private final String hash;
+
+
+    public AmortizationAttributesKey(final AmortizationAttributes amAttrs) {
+        this.normalized = normalize(amAttrs);
+        this.hash = sha256Hex(ALGORITHM_VERSION + "|" + normalized);
+    }
+
+
+    /**
+     * @return the attributes in normalized form, as a url query string
+     */
+    public String getCanonicalQuery() {
+        return normalized;
+    }
+
+    /**
+     * @return hex encoded digest of the normalized attributes
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @param resource distinguishes representations of the same attributes (ex "schedule.json")
+     * @return a strong entity tag, including quotes, for the given representation
+     */
+    public String getETag(final String resource) {
+        return "\"" + sha256Hex(resource + "|" + hash).substring(0, 32) + "\"";
+    }
+
+
+    /**
+     * Rebuild amortization attributes from the parameters of a canonical query
+     * string (see getCanonicalQuery). Currency and rounding mode are optional and
+     * default as for any other Money amount.
+     *
+     * @param parameters request parameters, as from ServletRequest.getParameterMap()
+     * @return the attributes described by the parameters
+     * @throws InvalidAmortizationParametersException if a required parameter is missing or malformed
+     */
+    public static AmortizationAttributes fromParameters(final Map<String, String[]> parameters) {
+        return fromParameters(parameters, true);
+    }
+
+
+    /**
+     * As fromParameters(Map), for calculations which do not depend on the regular
+     * payment (ie the monthly payment itself): it may then be omitted.
+     *
+     * @param parameters request parameters, as from ServletRequest.getParameterMap()
+     * @param regularPaymentRequired false to accept parameters without a regular payment
+     * @return the attributes described by the parameters
+     * @throws InvalidAmortizationParametersException if a required parameter is missing or malformed
+     */
+    public static AmortizationAttributes fromParameters(final Map<String, String[]> parameters, final boolean regularPaymentRequired) {
+        try {
+            return parse(parameters, regularPaymentRequired);
+        } catch (IllegalArgumentException iae) {
+            // Unparseable numbers, dates, currencies and rounding modes
+            throw new InvalidAmortizationParametersException("Malformed amortization parameters: " + iae.getMessage(), iae);
+        }
+    }
+
+
+    private static AmortizationAttributes parse(final Map<String, String[]> parameters, final boolean regularPaymentRequired) {
+
+        String currencyCode = optional(parameters, "currency");
+        String roundingModeName = optional(parameters, "roundingMode");
+
+        Currency currency = null == currencyCode ? null : Currency.getInstance(currencyCode);
+        RoundingMode roundingMode = null == roundingModeName ? null : RoundingMode.valueOf(roundingModeName);
+
+        AmortizationAttributes amAttrs = new AmortizationAttributes();
+        amAttrs.setLoanAmount(toMoney(required(parameters, "loanAmount"), currency, roundingMode));
+        String regularPayment = regularPaymentRequired ? required(parameters, "regularPayment") : optional(parameters, "regularPayment");
+        if (null != regularPayment) {
+            amAttrs.setRegularPayment(toMoney(regularPayment, currency, roundingMode));
+        }
+        amAttrs.setAdjustmentDate(LocalDate.parse(required(parameters, "adjustmentDate")));
+        amAttrs.setStartDate(amAttrs.getAdjustmentDate());
+        amAttrs.setTermInMonths(Integer.parseInt(required(parameters, "termInMonths")));
+        amAttrs.setInterestOnly(Boolean.parseBoolean(required(parameters, "interestOnly")));
+        if (!amAttrs.isInterestOnly()) {
+            amAttrs.setAmortizationPeriodMonths(Integer.parseInt(required(parameters, "amortizationPeriodMonths")));
+            amAttrs.setCompoundingPeriodsPerYear(Integer.parseInt(required(parameters, "compoundingPeriodsPerYear")));
+        }
+        amAttrs.setInterestRate(Double.parseDouble(required(parameters, "interestRate")));
+
+        return amAttrs;
+
+    }
+
+
+    private static String optional(final Map<String, String[]> parameters, final String name) {
+        String[] values = parameters.get(name);
+        return (null == values || values.length == 0 || values[0].isEmpty()) ? null : values[0];
+    }
+
+
+    private static String required(final Map<String, String[]> parameters, final String name) {
+        String value = optional(parameters, name);
+        if (null == value) {
+            throw new InvalidAmortizationParametersException("Missing required parameter: " + name);
+        }
+        return value;
+    }
+
+
+    private static Money toMoney(final String amount, final Currency currency, final RoundingMode roundingMode) {
+        if (null == currency) {
+            return new Money(amount);
+        }
+        if (null == roundingMode) {
+            return new Money(amount, currency);
+        }
+        return new Money(amount, currency, roundingMode);
+    }
+
+
+    private static String normalize(final AmortizationAttributes amAttrs) {
+
+        StringBuilder sb = new StringBuilder(160);
+
+        append(sb, "loanAmount", amAttrs.getLoanAmount().toString());
+        append(sb, "currency", amAttrs.getLoanAmount().getCurrency().getCurrencyCode());
+        append(sb, "roundingMode", amAttrs.getLoanAmount().getRoundingMode().name());
+        append(sb, "regularPayment", toPlain(amAttrs.getRegularPayment()));
+        append(sb, "adjustmentDate", amAttrs.getAdjustmentDate().toString());
+        append(sb, "termInMonths", Integer.toString(amAttrs.getTermInMonths()));
+        append(sb, "interestOnly", Boolean.toString(amAttrs.isInterestOnly()));
+        if (!amAttrs.isInterestOnly()) {
+            append(sb, "amortizationPeriodMonths", Integer.toString(amAttrs.getAmortizationPeriodMonths()));
+            append(sb, "compoundingPeriodsPerYear", Integer.toString(amAttrs.getCompoundingPeriodsPerYear()));
+        }
+        append(sb, "interestRate", BigDecimal.valueOf(amAttrs.getInterestRate()).stripTrailingZeros().toPlainString());
+
+        return sb.toString();
+
+    }
+
+
+    private static void append(final StringBuilder sb, final String name, final String value) {
+        if (sb.length() > 0) {
+            sb.append('&');
+        }
+        sb.append(name).append('=').append(value);
+    }
+
+
+    private static String toPlain(final Money money) {
+        return null == money ? "0" : money.toString();
+    }
+
+
+    private static String sha256Hex(final String input) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JRE is required to support SHA-256
+            throw new IllegalStateException(nsae);
+        }
+
+        byte[] bytes = digest.digest(input.getBytes(UTF8));
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+
+    }
+
+}
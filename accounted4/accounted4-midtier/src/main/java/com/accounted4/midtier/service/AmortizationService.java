@@ -72,12 +72,32 @@ public class AmortizationService {
 
     private static final int MONTHS_PER_YEAR = 12;
     
+    /**
+     * Look up the attributes cached for a pdf request without consuming the entry.
+     * 
+     * @param idBean id returned by cacheSchedule
+     * @return the cached attributes, or null if none
+     */
+    public AmortizationAttributes getCachedScheduleAttributes(final IdBean idBean) {
+        return AM_SCHEDULE_CACHE.get(idBean);
+    }
+    
+    
     public void generateAmortizationSchedulePdf(
             final IdBean idBean,
             final OutputStream outputStream
     ) throws JRException, IOException {
         
         AmortizationAttributes amAttrs = AM_SCHEDULE_CACHE.remove(idBean);
+        generateAmortizationSchedulePdf(amAttrs, outputStream);
+        
+    }
+
+    
+    public void generateAmortizationSchedulePdf(
+            final AmortizationAttributes amAttrs,
+            final OutputStream outputStream
+    ) throws JRException, IOException {
         
         List<ScheduledPayment> payments = getAmortizationSchedule(amAttrs);
         JRBeanCollectionDataSource ds = new JRBeanCollectionDataSource(payments);
@@ -108,6 +128,34 @@ public class AmortizationService {
     }
 
     
+    /**
+     * Stream a previously cached schedule to the output stream in one of the bulk
+     * export formats. Payments are pulled from the calculator and written as they
+     * are generated rather than collected into a list first.
+     * 
+     * @param idBean id returned by cacheSchedule
+     * @param format the export format
+     * @param outputStream destination, typically the servlet response stream
+     * @return false if no schedule was cached under the given id
+     * @throws IOException 
+     */
+    public boolean exportAmortizationSchedule(
+            final IdBean idBean,
+            final ScheduleExportFormat format,
+            final OutputStream outputStream
+    ) throws IOException {
+        
+        AmortizationAttributes amAttrs = AM_SCHEDULE_CACHE.remove(idBean);
+        if (null == amAttrs) {
+            return false;
+        }
+        
+        format.getExporter().export(AmortizationCalculator.getPayments(amAttrs), outputStream);
+        return true;
+        
+    }
+
+    
     public Money getMonthlyPayment(final AmortizationAttributes amAttrs) {
         return AmortizationCalculator.getMonthlyPayment(amAttrs);
     }
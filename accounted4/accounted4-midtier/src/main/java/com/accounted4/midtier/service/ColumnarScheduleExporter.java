@@ -0,0 +1,224 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.Money;
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+/**
+ * Export an amortization schedule in a compact, column oriented binary format
+ * intended for analytics consumers which only need the numbers.
+ *
+ * Layout (all multi-byte fixed width values big-endian, as per DataOutputStream):
+ * <pre>
+ *   header:    "A4SC" magic, version byte, currency code (modified utf-8), fraction digits byte
+ *   row group: int rowCount, followed by the columns of the group in order:
+ *                paymentNumber, paymentDate (days since 1970-01-01),
+ *                interest, principal, balance (unscaled amounts in minor currency units)
+ *   trailer:   int 0 (an empty row group)
+ * </pre>
+ *
+ * The payment itself is not written: it is always interest plus principal, so
+ * read(InputStream) recomputes it from those two columns.
+ *
+ * Within a row group each column is delta encoded against the previous row and
+ * written as zig-zag variable length integers, so the regular, slowly changing
+ * values of a schedule mostly take one or two bytes each. Rows are buffered a
+ * group at a time in fixed size primitive arrays: memory use is constant
+ * regardless of the schedule length.
+ *
+ * @author glenn
+ */
+public class ColumnarScheduleExporter implements ScheduleExporter {
+
+    static final byte[] MAGIC = { 'A', '4', 'S', 'C' };
+    static final byte VERSION = 1;
+
+    static final int ROW_GROUP_SIZE = 1024;
+
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+
+    @Override
+    public void export(Iterator<ScheduledPayment> payments, OutputStream outputStream) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+
+        long[] paymentNumbers = new long[ROW_GROUP_SIZE];
+        long[] paymentDates = new long[ROW_GROUP_SIZE];
+        long[] interest = new long[ROW_GROUP_SIZE];
+        long[] principal = new long[ROW_GROUP_SIZE];
+        long[] balance = new long[ROW_GROUP_SIZE];
+
+        boolean headerWritten = false;
+        int rows = 0;
+
+        while (payments.hasNext()) {
+
+            ScheduledPayment payment = payments.next();
+
+            if (!headerWritten) {
+                writeHeader(out, payment.getBalance());
+                headerWritten = true;
+            }
+
+            paymentNumbers[rows] = payment.getPaymentNumber();
+            paymentDates[rows] = Days.daysBetween(EPOCH, payment.getPaymentDate()).getDays();
+            interest[rows] = unscaled(payment.getInterest());
+            principal[rows] = unscaled(payment.getPrincipal());
+            balance[rows] = unscaled(payment.getBalance());
+            rows++;
+
+            if (rows == ROW_GROUP_SIZE) {
+                writeRowGroup(out, rows, paymentNumbers, paymentDates, interest, principal, balance);
+                rows = 0;
+            }
+
+        }
+
+        if (!headerWritten) {
+            writeHeader(out, null);
+        }
+
+        if (rows > 0) {
+            writeRowGroup(out, rows, paymentNumbers, paymentDates, interest, principal, balance);
+        }
+
+        out.writeInt(0);
+        out.flush();
+
+    }
+
+
+    /**
+     * Decode a schedule written by export.
+     *
+     * @param inputStream The exported schedule, read up to and including the trailer
+     * @return The payments, in schedule order
+     * @throws IOException If the stream could not be read, or is not in this format
+     */
+    public static List<ScheduledPayment> read(InputStream inputStream) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a columnar schedule");
+        }
+        byte version = in.readByte();
+        if (VERSION != version) {
+            throw new IOException("Unsupported columnar schedule version: " + version);
+        }
+        String currencyCode = in.readUTF();
+        int fractionDigits = in.readByte();
+
+        List<ScheduledPayment> payments = new ArrayList<>();
+        int rows;
+        while ((rows = in.readInt()) > 0) {
+
+            if (rows > ROW_GROUP_SIZE) {
+                throw new IOException("Row group too large: " + rows);
+            }
+
+            long[][] columns = new long[5][rows];
+            for (long[] column : columns) {
+                long previous = 0L;
+                for (int i = 0; i < rows; i++) {
+                    previous += unZigZag(readVarLong(in));
+                    column[i] = previous;
+                }
+            }
+
+            Currency currency = Currency.getInstance(currencyCode);
+            for (int i = 0; i < rows; i++) {
+                ScheduledPayment payment = new ScheduledPayment();
+                payment.setPaymentNumber((int) columns[0][i]);
+                payment.setPaymentDate(EPOCH.plusDays((int) columns[1][i]));
+                payment.setInterest(new Money(BigDecimal.valueOf(columns[2][i], fractionDigits), currency));
+                payment.setPrincipal(new Money(BigDecimal.valueOf(columns[3][i], fractionDigits), currency));
+                payment.setBalance(new Money(BigDecimal.valueOf(columns[4][i], fractionDigits), currency));
+                payments.add(payment);
+            }
+
+        }
+
+        return payments;
+
+    }
+
+
+    private void writeHeader(DataOutputStream out, Money sample) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(null == sample ? "" : sample.getCurrency().getCurrencyCode());
+        out.writeByte(null == sample ? 0 : sample.getCurrency().getDefaultFractionDigits());
+    }
+
+
+    private void writeRowGroup(DataOutputStream out, int rows, long[]... columns) throws IOException {
+        out.writeInt(rows);
+        for (long[] column : columns) {
+            long previous = 0L;
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, zigZag(column[i] - previous));
+                previous = column[i];
+            }
+        }
+    }
+
+
+    /*
+     * Money amounts carry exactly the currency's default number of fraction digits,
+     * so the unscaled value is the amount in minor units (ie cents).
+     */
+    private static long unscaled(Money money) {
+        return money.getAmount().unscaledValue().longValue();
+    }
+
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+}
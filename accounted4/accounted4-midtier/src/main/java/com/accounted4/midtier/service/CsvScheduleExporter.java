@@ -0,0 +1,70 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Export an amortization schedule as comma separated values, one payment per line
+ * preceded by a header line. Amounts are written as plain decimals without
+ * currency symbols or grouping. Fields are quoted, as per RFC 4180, only if they
+ * contain a separator, quote or line break.
+ *
+ * @author glenn
+ */
+public class CsvScheduleExporter implements ScheduleExporter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HEADER = "paymentNumber,paymentDate,payment,interest,principal,balance";
+    private static final char SEPARATOR = ',';
+    private static final String LINE_END = "\r\n";
+
+
+    @Override
+    public void export(Iterator<ScheduledPayment> payments, OutputStream outputStream) throws IOException {
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF8));
+
+        writer.write(HEADER);
+        writer.write(LINE_END);
+
+        while (payments.hasNext()) {
+            ScheduledPayment payment = payments.next();
+            writer.write(quote(Integer.toString(payment.getPaymentNumber())));
+            writer.write(SEPARATOR);
+            writer.write(quote(payment.getPaymentDate().toString()));
+            writer.write(SEPARATOR);
+            writer.write(quote(payment.getPayment().toString()));
+            writer.write(SEPARATOR);
+            writer.write(quote(payment.getInterest().toString()));
+            writer.write(SEPARATOR);
+            writer.write(quote(payment.getPrincipal().toString()));
+            writer.write(SEPARATOR);
+            writer.write(quote(payment.getBalance().toString()));
+            writer.write(LINE_END);
+        }
+
+        writer.flush();
+
+    }
+
+
+    /*
+     * The field as is, or enclosed in quotes with embedded quotes doubled
+     */
+    static String quote(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (SEPARATOR == c || '"' == c || '\r' == c || '\n' == c) {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+        }
+        return field;
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.accounted4.midtier.service;
+
+import lombok.Data;
+
+/**
+ * Point in time saturation figures for a MonitoredTaskExecutor, for
+ * auto-marshaling to the client.
+ * 
+ * @author glenn
+ */
+@Data
+public class ExecutorStatistics {
+
+    private String name;
+    private int poolSize;
+    private int maxPoolSize;
+    private int largestPoolSize;
+    private int activeCount;
+    private int queueSize;
+    private int queueRemainingCapacity;
+    private long completedTaskCount;
+    private long rejectedTaskCount;
+
+}
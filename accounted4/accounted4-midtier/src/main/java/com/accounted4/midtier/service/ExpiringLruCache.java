@@ -0,0 +1,107 @@
+package com.accounted4.midtier.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small, thread safe, size bounded cache whose entries also expire after a
+ * fixed time to live. The least recently used entry is dropped once the cache
+ * is full.
+ * 
+ * The time to live bounds how stale an entry can get when the underlying data
+ * is changed by something other than this process (ex directly in the database);
+ * changes made through the application should call invalidate or clear.
+ * 
+ * @author glenn
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private long hits;
+    private long misses;
+
+
+    public ExpiringLruCache(final int maxEntries, final long timeToLiveMillis) {
+        
+        this.timeToLiveMillis = timeToLiveMillis;
+        
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > maxEntries;
+            }
+            
+        };
+        
+    }
+
+
+    /**
+     * @param key
+     * @return the cached value, or null if absent or expired
+     */
+    public synchronized V get(final K key) {
+        
+        CacheEntry<V> entry = entries.get(key);
+        
+        if (null != entry && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+        
+        if (null == entry) {
+            misses++;
+            return null;
+        }
+        
+        hits++;
+        return entry.value;
+        
+    }
+
+
+    public synchronized void put(final K key, final V value) {
+        entries.put(key, new CacheEntry<>(value, System.currentTimeMillis() + timeToLiveMillis));
+    }
+
+
+    public synchronized void invalidate(final K key) {
+        entries.remove(key);
+    }
+
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    private static final class CacheEntry<V> {
+        
+        private final V value;
+        private final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+        
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.accounted4.midtier.service;
+
+/**
+ * Amortization attributes given as request parameters are missing or malformed:
+ * a client error, as opposed to an IllegalArgumentException raised by a bug.
+ *
+ * @author glenn
+ */
+public class InvalidAmortizationParametersException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public InvalidAmortizationParametersException(final String message) {
+        super(message);
+    }
+
+
+    public InvalidAmortizationParametersException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.accounted4.midtier.service;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * A bounded thread pool for request processing off the servlet container's
+ * threads. Slow work (pdf rendering, large schedules) is queued here rather than
+ * holding a container thread, so one kind of slow request cannot starve the
+ * others.
+ *
+ * The pool and queue should be configured with fixed bounds: once both are full
+ * further submissions are rejected (and counted) instead of queueing without
+ * limit, and the caller is expected to answer with a 503.
+ *
+ * @author glenn
+ */
+public class MonitoredTaskExecutor extends ThreadPoolTaskExecutor {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+
+    public MonitoredTaskExecutor() {
+        setRejectedExecutionHandler(new CountingAbortPolicy());
+    }
+
+
+    /**
+     * @return a snapshot of the current pool and queue occupancy
+     */
+    public ExecutorStatistics getStatistics() {
+
+        ThreadPoolExecutor executor = getThreadPoolExecutor();
+
+        ExecutorStatistics stats = new ExecutorStatistics();
+        stats.setName(getThreadNamePrefix());
+        stats.setPoolSize(executor.getPoolSize());
+        stats.setMaxPoolSize(executor.getMaximumPoolSize());
+        stats.setLargestPoolSize(executor.getLargestPoolSize());
+        stats.setActiveCount(executor.getActiveCount());
+        stats.setQueueSize(executor.getQueue().size());
+        stats.setQueueRemainingCapacity(executor.getQueue().remainingCapacity());
+        stats.setCompletedTaskCount(executor.getCompletedTaskCount());
+        stats.setRejectedTaskCount(rejectedCount.get());
+        return stats;
+
+    }
+
+
+    /*
+     * Same behaviour as ThreadPoolExecutor.AbortPolicy, but keeps count of rejections
+     * as a saturation signal.
+     */
+    private final class CountingAbortPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Task rejected by saturated executor " + getThreadNamePrefix());
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.accounted4.midtier.service;
+
+/**
+ * The bulk formats, other than pdf, in which an amortization schedule can be
+ * exported. Each format is streamed payment by payment so memory use does not
+ * grow with the length of the schedule.
+ *
+ * @author glenn
+ */
+public enum ScheduleExportFormat {
+
+    CSV("csv", "text/csv", new CsvScheduleExporter())
+    ,XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", new XlsxScheduleExporter())
+    ,COLUMNAR("a4c", "application/octet-stream", new ColumnarScheduleExporter())
+    ;
+
+    private final String extension;
+    private final String contentType;
+    private final ScheduleExporter exporter;
+
+
+    private ScheduleExportFormat(String extension, String contentType, ScheduleExporter exporter) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.exporter = exporter;
+    }
+
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public ScheduleExporter getExporter() {
+        return exporter;
+    }
+
+
+    /**
+     * Look up an export format by its file extension (case insensitive).
+     *
+     * @param extension ex "csv"
+     * @return the matching format, or null if the extension is not supported
+     */
+    public static ScheduleExportFormat fromExtension(String extension) {
+        for (ScheduleExportFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+}
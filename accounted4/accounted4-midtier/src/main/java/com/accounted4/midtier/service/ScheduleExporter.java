@@ -0,0 +1,21 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Writes an amortization schedule to a stream in a specific format.
+ *
+ * Implementations pull payments from the iterator one at a time and write them
+ * straight through to the output stream: the schedule is never materialized as
+ * a list. The output stream is flushed but not closed.
+ *
+ * @author glenn
+ */
+public interface ScheduleExporter {
+
+    void export(Iterator<ScheduledPayment> payments, OutputStream outputStream) throws IOException;
+
+}
@@ -0,0 +1,59 @@
+package com.accounted4.midtier.service;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The publicly visible attributes of a user account.
+ * 
+ * @author Glenn Heinze 
+ */
+@XmlRootElement
+public class User {
+
+    private Long id;
+    private String name;
+    private String displayName;
+
+
+    public User() {
+    }
+
+
+    public User(Long id, String name, String displayName) {
+        this.id = id;
+        this.name = name;
+        this.displayName = displayName;
+    }
+
+
+    public Long getId() {
+        return id;
+    }
+
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+
+    public void setDisplayName(String name) {
+        this.displayName = name;
+    }
+
+
+}
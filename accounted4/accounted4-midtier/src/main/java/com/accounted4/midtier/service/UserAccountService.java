@@ -0,0 +1,214 @@
+package com.accounted4.midtier.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Read access to user accounts: lookup by id and keyset paginated listing.
+ *
+ * Listing pages are keyed on the user_account primary key ("the next n users with
+ * an id greater than x"), so each page is an index range scan no matter how deep
+ * into the table it is, unlike OFFSET paging which scans and discards all the
+ * preceding rows.
+ *
+ * Lookups and pages are kept in small read-through caches. Accounts are written
+ * by the database functions (ie user_account_create), not through this service,
+ * so nothing invalidates the caches: staleness is bounded by the time to live only.
+ *
+ * @author glenn
+ */
+@Service
+public class UserAccountService {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String USER_COLUMNS = "SELECT id, name, display_name FROM user_account";
+
+    private static final String USER_BY_ID = USER_COLUMNS + " WHERE id = :id";
+
+    private static final String USER_PAGE = USER_COLUMNS + " WHERE id > :afterId ORDER BY id LIMIT :limit";
+
+    private static final String USER_STREAM = USER_COLUMNS + " WHERE id > ? ORDER BY id";
+
+    private static final RowMapper<User> USER_MAPPER = new UserMapper();
+
+    @Autowired
+    @Qualifier("dataSource")
+    private DataSource dataSource;
+
+    // Rows fetched per round trip when reading pages of users
+    @Value("${userAccount.fetchSize:500}")
+    private int fetchSize;
+
+    @Value("${userAccount.cache.maxEntries:1000}")
+    private int cacheMaxEntries;
+
+    @Value("${userAccount.cache.timeToLiveSeconds:30}")
+    private int cacheTimeToLiveSeconds;
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private ExpiringLruCache<Long, User> userCache;
+    private ExpiringLruCache<String, List<User>> pageCache;
+
+
+    @PostConstruct
+    public void init() {
+
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(fetchSize);
+        jdbcTemplate = new NamedParameterJdbcTemplate(template);
+
+        long timeToLiveMillis = cacheTimeToLiveSeconds * 1000L;
+        userCache = new ExpiringLruCache<>(cacheMaxEntries, timeToLiveMillis);
+        pageCache = new ExpiringLruCache<>(cacheMaxEntries, timeToLiveMillis);
+
+    }
+
+
+    /**
+     * @param id user_account primary key
+     * @return the user, or null if there is no user with the given id
+     */
+    public User getUser(final long id) {
+
+        User user = userCache.get(id);
+        if (null != user) {
+            return user;
+        }
+
+        List<User> result = jdbcTemplate.query(USER_BY_ID, new MapSqlParameterSource("id", id), USER_MAPPER);
+        if (result.isEmpty()) {
+            return null;
+        }
+
+        user = result.get(0);
+        userCache.put(id, user);
+        return user;
+
+    }
+
+
+    /**
+     * A page of users ordered by id.
+     *
+     * @param afterId the id of the last user of the previous page, or null for the first page
+     * @param limit maximum number of users to return, capped at MAX_PAGE_SIZE
+     * @return users with an id greater than afterId. Fewer than limit users indicates the last page.
+     */
+    public List<User> getUsers(final Long afterId, final int limit) {
+
+        long after = null == afterId ? Long.MIN_VALUE : afterId;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        String cacheKey = after + ":" + pageSize;
+        List<User> page = pageCache.get(cacheKey);
+        if (null != page) {
+            return page;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", after)
+                .addValue("limit", pageSize);
+
+        page = Collections.unmodifiableList(jdbcTemplate.query(USER_PAGE, params, USER_MAPPER));
+        pageCache.put(cacheKey, page);
+        for (User user : page) {
+            userCache.put(user.getId(), user);
+        }
+
+        return page;
+
+    }
+
+
+    /**
+     * Callback receiving users one at a time as they are read from the database.
+     */
+    public interface UserHandler {
+        void handle(User user);
+    }
+
+
+    /**
+     * Read every user with an id greater than afterId, in id order, handing each to
+     * the handler as its row is read. Rows are pulled from a database cursor fetchSize
+     * at a time rather than collected first, so an export of the whole table runs in
+     * constant memory. The caches are bypassed.
+     *
+     * The query runs with auto-commit off since the PostgreSQL driver otherwise
+     * ignores the fetch size and reads the entire result set into memory.
+     *
+     * @param afterId the id after which to start, or null to read from the beginning
+     * @param handler receives each user
+     */
+    public void streamUsers(final Long afterId, final UserHandler handler) {
+
+        final long after = null == afterId ? Long.MIN_VALUE : afterId;
+
+        jdbcTemplate.getJdbcOperations().execute(new ConnectionCallback<Void>() {
+
+            @Override
+            public Void doInConnection(Connection connection) throws SQLException {
+
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement statement = connection.prepareStatement(USER_STREAM)) {
+
+                    statement.setFetchSize(fetchSize);
+                    statement.setLong(1, after);
+
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        int rowNum = 0;
+                        while (resultSet.next()) {
+                            handler.handle(USER_MAPPER.mapRow(resultSet, rowNum++));
+                        }
+                    }
+
+                    // Read only: nothing to commit, just end the transaction opened for the cursor
+                    connection.rollback();
+
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+
+    private static final class UserMapper implements RowMapper<User> {
+
+        @Override
+        public User mapRow(ResultSet resultset, int rowNum) throws SQLException {
+            User user = new User();
+            user.setId(resultset.getLong("id"));
+            user.setName(resultset.getString("name"));
+            user.setDisplayName(resultset.getString("display_name"));
+
+            return user;
+        }
+
+    }
+
+}
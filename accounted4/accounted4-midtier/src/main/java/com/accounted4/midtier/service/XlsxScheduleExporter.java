@@ -0,0 +1,81 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Export an amortization schedule as an Excel (xlsx) workbook.
+ *
+ * Uses the POI streaming workbook: only a small window of rows is kept in
+ * memory, older rows are flushed to a temporary file which is copied to the
+ * output stream when the workbook is written, then discarded.
+ *
+ * @author glenn
+ */
+public class XlsxScheduleExporter implements ScheduleExporter {
+
+    // Number of rows kept in memory before flushing to the backing temp file
+    private static final int ROW_ACCESS_WINDOW = 100;
+
+    private static final String SHEET_NAME = "Amortization Schedule";
+    private static final String[] HEADER = {
+        "Payment Number", "Payment Date", "Payment", "Interest", "Principal", "Balance"
+    };
+
+
+    @Override
+    public void export(Iterator<ScheduledPayment> payments, OutputStream outputStream) throws IOException {
+
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+
+        try {
+
+            Sheet sheet = workbook.createSheet(SHEET_NAME);
+
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            CellStyle moneyStyle = workbook.createCellStyle();
+            moneyStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("#,##0.00"));
+
+            int rowIndex = 0;
+            Row header = sheet.createRow(rowIndex++);
+            for (int i = 0; i < HEADER.length; i++) {
+                header.createCell(i).setCellValue(HEADER[i]);
+            }
+
+            while (payments.hasNext()) {
+                ScheduledPayment payment = payments.next();
+                Row row = sheet.createRow(rowIndex++);
+                row.createCell(0).setCellValue(payment.getPaymentNumber());
+                row.createCell(1).setCellValue(payment.getPaymentDate().toDate());
+                row.getCell(1).setCellStyle(dateStyle);
+                setMoneyCell(row, 2, payment.getPayment().getAmount().doubleValue(), moneyStyle);
+                setMoneyCell(row, 3, payment.getInterest().getAmount().doubleValue(), moneyStyle);
+                setMoneyCell(row, 4, payment.getPrincipal().getAmount().doubleValue(), moneyStyle);
+                setMoneyCell(row, 5, payment.getBalance().getAmount().doubleValue(), moneyStyle);
+            }
+
+            workbook.write(outputStream);
+            outputStream.flush();
+
+        } finally {
+            // Remove the temporary files backing the streamed sheet
+            workbook.dispose();
+        }
+
+    }
+
+
+    private void setMoneyCell(Row row, int column, double value, CellStyle style) {
+        row.createCell(column).setCellValue(value);
+        row.getCell(column).setCellStyle(style);
+    }
+
+}
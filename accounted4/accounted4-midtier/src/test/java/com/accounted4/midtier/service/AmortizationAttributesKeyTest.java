@@ -0,0 +1,102 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.loan.AmortizationAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Amortization attributes from canonical query parameters, and the client errors
+ * raised for bad parameters.
+ *
+ * @author glenn
+ */
+public class AmortizationAttributesKeyTest {
+
+
+    /**
+     * The canonical query of parsed parameters parses back to the same key
+     */
+    @Test
+    public void testCanonicalQueryRoundTrip() {
+        AmortizationAttributes amAttrs = AmortizationAttributesKey.fromParameters(parameters());
+        AmortizationAttributesKey key = new AmortizationAttributesKey(amAttrs);
+        AmortizationAttributesKey reparsed = new AmortizationAttributesKey(
+                AmortizationAttributesKey.fromParameters(parse(key.getCanonicalQuery())));
+        assertEquals(key.getHash(), reparsed.getHash());
+    }
+
+
+    @Test
+    public void testMissingParameter() {
+        Map<String, String[]> parameters = parameters();
+        parameters.remove("termInMonths");
+        try {
+            AmortizationAttributesKey.fromParameters(parameters);
+            fail("termInMonths is required");
+        } catch (InvalidAmortizationParametersException iape) {
+            assertEquals("Missing required parameter: termInMonths", iape.getMessage());
+        }
+    }
+
+
+    @Test
+    public void testMalformedParameters() {
+        for (String[] bad : new String[][] {{"loanAmount", "lots"}, {"adjustmentDate", "2013-13-45"},
+                {"termInMonths", "12.5"}, {"currency", "XXXX"}, {"roundingMode", "SIDEWAYS"}}) {
+            Map<String, String[]> parameters = parameters();
+            parameters.put(bad[0], new String[] {bad[1]});
+            try {
+                AmortizationAttributesKey.fromParameters(parameters);
+                fail(bad[0] + " is malformed");
+            } catch (InvalidAmortizationParametersException iape) {
+                assertTrue(iape.getMessage(), iape.getMessage().startsWith("Malformed amortization parameters: "));
+            }
+        }
+    }
+
+
+    /**
+     * The regular payment may be omitted only where it is not needed
+     */
+    @Test
+    public void testOptionalRegularPayment() {
+
+        Map<String, String[]> parameters = parameters();
+        parameters.remove("regularPayment");
+
+        AmortizationAttributes amAttrs = AmortizationAttributesKey.fromParameters(parameters, false);
+        assertNull(amAttrs.getRegularPayment());
+        assertEquals("20000.00", amAttrs.getLoanAmount().toString());
+        new AmortizationAttributesKey(amAttrs);
+
+        try {
+            AmortizationAttributesKey.fromParameters(parameters);
+            fail("regularPayment is required");
+        } catch (InvalidAmortizationParametersException iape) {
+            assertEquals("Missing required parameter: regularPayment", iape.getMessage());
+        }
+
+    }
+
+
+    private static Map<String, String[]> parameters() {
+        return parse("loanAmount=20000.00&regularPayment=200.00&adjustmentDate=2013-01-15&termInMonths=12"
+                + "&interestOnly=false&amortizationPeriodMonths=240&compoundingPeriodsPerYear=2&interestRate=10");
+    }
+
+
+    private static Map<String, String[]> parse(String query) {
+        Map<String, String[]> parameters = new HashMap<>();
+        for (String parameter : query.split("&")) {
+            String[] nameValue = parameter.split("=", 2);
+            parameters.put(nameValue[0], new String[] {nameValue[1]});
+        }
+        return parameters;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.Money;
+import com.accounted4.money.loan.AmortizationAttributes;
+import com.accounted4.money.loan.AmortizationCalculator;
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+/**
+ * Round trip amortization schedules through the columnar export format.
+ *
+ * @author glenn
+ */
+public class ColumnarScheduleExporterTest {
+
+
+    /**
+     * Schedules spanning several row groups, and ending exactly on a group boundary
+     */
+    @Test
+    public void testRoundTripAcrossRowGroups() throws IOException {
+
+        List<ScheduledPayment> schedule = new ArrayList<>();
+        Iterator<ScheduledPayment> payments = AmortizationCalculator.getPayments(terms(3000));
+        while (payments.hasNext()) {
+            schedule.add(payments.next());
+        }
+        assertTrue(schedule.size() > 2 * ColumnarScheduleExporter.ROW_GROUP_SIZE);
+
+        roundTrip(schedule);
+        roundTrip(schedule.subList(0, ColumnarScheduleExporter.ROW_GROUP_SIZE));
+        roundTrip(schedule.subList(0, 1));
+
+    }
+
+
+    @Test
+    public void testEmptySchedule() throws IOException {
+        assertTrue(export(new ArrayList<ScheduledPayment>().iterator()).length > 0);
+        assertTrue(ColumnarScheduleExporter.read(new ByteArrayInputStream(export(new ArrayList<ScheduledPayment>().iterator()))).isEmpty());
+    }
+
+
+    @Test(expected=IOException.class)
+    public void testNotColumnar() throws IOException {
+        ColumnarScheduleExporter.read(new ByteArrayInputStream("paymentNumber,paymentDate".getBytes("UTF-8")));
+    }
+
+
+    private static void roundTrip(List<ScheduledPayment> expected) throws IOException {
+
+        List<ScheduledPayment> actual = ColumnarScheduleExporter.read(new ByteArrayInputStream(export(expected.iterator())));
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ScheduledPayment e = expected.get(i);
+            ScheduledPayment a = actual.get(i);
+            assertEquals(e.getPaymentNumber(), a.getPaymentNumber());
+            assertEquals(e.getPaymentDate(), a.getPaymentDate());
+            assertEquals(e.getInterest().toStringWithCurrency(), a.getInterest().toStringWithCurrency());
+            assertEquals(e.getPrincipal().toStringWithCurrency(), a.getPrincipal().toStringWithCurrency());
+            assertEquals(e.getBalance().toStringWithCurrency(), a.getBalance().toStringWithCurrency());
+            assertEquals(e.getPayment().toStringWithCurrency(), a.getPayment().toStringWithCurrency());
+        }
+
+    }
+
+
+    private static byte[] export(Iterator<ScheduledPayment> payments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ColumnarScheduleExporter().export(payments, out);
+        return out.toByteArray();
+    }
+
+
+    private static AmortizationAttributes terms(int months) {
+
+        Money amount = new Money("200000.00", Currency.getInstance("CAD"), RoundingMode.HALF_UP);
+
+        AmortizationAttributes terms = new AmortizationAttributes();
+        terms.setInterestOnly(false);
+        terms.setLoanAmount(amount);
+        terms.setTermInMonths(months);
+        terms.setAmortizationPeriodMonths(months);
+        terms.setCompoundingPeriodsPerYear(2);
+        terms.setInterestRate(8.0);
+        terms.setStartDate(new LocalDate(2013, 1, 1));
+        terms.setAdjustmentDate(new LocalDate(2013, 1, 1));
+
+        double monthlyPayment = AmortizationCalculator.getAmortizedMonthlyPayment(amount, 8.0, 2, months);
+        terms.setRegularPayment(new Money(BigDecimal.valueOf(monthlyPayment), amount.getCurrency(), amount.getRoundingMode()));
+
+        return terms;
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.accounted4.midtier.service;
+
+import com.accounted4.money.Money;
+import com.accounted4.money.loan.ScheduledPayment;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Currency;
+import static org.junit.Assert.assertEquals;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+/**
+ * CSV schedule export layout and field quoting.
+ *
+ * @author glenn
+ */
+public class CsvScheduleExporterTest {
+
+
+    @Test
+    public void testExport() throws IOException {
+
+        Currency cad = Currency.getInstance("CAD");
+        ScheduledPayment payment = new ScheduledPayment();
+        payment.setPaymentNumber(1);
+        payment.setPaymentDate(new LocalDate(2013, 2, 1));
+        payment.setInterest(new Money("1316.40", cad, RoundingMode.HALF_UP));
+        payment.setPrincipal(new Money("-0.40", cad, RoundingMode.HALF_UP));
+        payment.setBalance(new Money("200000.40", cad, RoundingMode.HALF_UP));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvScheduleExporter().export(Arrays.asList(payment).iterator(), out);
+
+        assertEquals("paymentNumber,paymentDate,payment,interest,principal,balance\r\n"
+                + "1,2013-02-01,1316.00,1316.40,-0.40,200000.40\r\n", out.toString("UTF-8"));
+
+    }
+
+
+    @Test
+    public void testQuote() {
+        assertEquals("1316.40", CsvScheduleExporter.quote("1316.40"));
+        assertEquals("", CsvScheduleExporter.quote(""));
+        assertEquals("\"1,316.40\"", CsvScheduleExporter.quote("1,316.40"));
+        assertEquals("\"say \"\"when\"\"\"", CsvScheduleExporter.quote("say \"when\""));
+        assertEquals("\"two\r\nlines\"", CsvScheduleExporter.quote("two\r\nlines"));
+    }
+
+}
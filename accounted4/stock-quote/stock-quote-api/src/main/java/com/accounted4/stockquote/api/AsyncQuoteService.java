@@ -0,0 +1,38 @@
+package com.accounted4.stockquote.api;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A quote service which can be queried without blocking the caller, so that queries
+ * to several providers, or for several security lists, may overlap.
+ *
+ * Services which only implement the blocking QuoteService can be used asynchronously
+ * through an AsyncQuoteServiceAdapter.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public interface AsyncQuoteService extends QuoteService {
+
+    /**
+     * Start a query and return immediately.
+     *
+     * @param securityList List of securities to query
+     * @param quoteAttributes A list of attribute to look up for each security
+     * @param listener Receives the result for each security as it arrives. May be null.
+     * @param timeout Time allowed for the whole query, zero for no deadline
+     * @param unit Unit of the timeout
+     *
+     * @return The pending result, as executeQuery would return it. Cancelling it
+     * aborts the query. If the deadline passes first it fails with a TimeoutException.
+     */
+    QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeQueryAsync(
+            List<String> securityList,
+            List<QuoteAttribute> quoteAttributes,
+            QuoteListener listener,
+            long timeout,
+            TimeUnit unit);
+
+}
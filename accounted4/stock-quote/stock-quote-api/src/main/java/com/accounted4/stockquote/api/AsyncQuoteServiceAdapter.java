@@ -0,0 +1,132 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs a blocking QuoteService on an executor to provide the asynchronous api.
+ * Results are passed to the listener once the blocking query returns. Cancellation
+ * interrupts the thread running the query, which the service may or may not honour.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class AsyncQuoteServiceAdapter implements AsyncQuoteService {
+
+    private final QuoteService delegate;
+    private final ExecutorService executor;
+
+
+    /**
+     * @param delegate The blocking service
+     * @param executor Executor on which to run queries
+     */
+    public AsyncQuoteServiceAdapter(QuoteService delegate, ExecutorService executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+
+    /**
+     * The asynchronous api of the given service: the service itself if it implements
+     * it natively, otherwise an adapter running on a shared pool of its own. The
+     * service's query may itself wait on the default batch executor, so it is not run
+     * there.
+     *
+     * @param service Any quote service
+     * @return An asynchronous view of the service
+     */
+    public static AsyncQuoteService adapt(QuoteService service) {
+        if (service instanceof AsyncQuoteService) {
+            return (AsyncQuoteService) service;
+        }
+        return new AsyncQuoteServiceAdapter(service, AdapterExecutorHolder.EXECUTOR);
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return delegate.getServiceName();
+    }
+
+
+    @Override
+    public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+        return delegate.executeQuery(securityList, quoteAttributes);
+    }
+
+
+    @Override
+    public QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeQueryAsync(
+            final List<String> securityList,
+            final List<QuoteAttribute> quoteAttributes,
+            final QuoteListener listener,
+            long timeout,
+            TimeUnit unit) {
+
+        final QuoteFuture<List<HashMap<QuoteAttribute, String>>> result = new QuoteFuture<>();
+
+        final Future<?> task;
+        try {
+            task = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<HashMap<QuoteAttribute, String>> quotes = delegate.executeQuery(securityList, quoteAttributes);
+                        if (null != listener && !result.isDone()) {
+                            for (HashMap<QuoteAttribute, String> quote : quotes) {
+                                listener.onQuote(quote);
+                            }
+                        }
+                        result.complete(quotes);
+                    } catch (RuntimeException ex) {
+                        result.fail(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            result.fail(ree);
+            return result;
+        }
+
+        result.addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                task.cancel(true);
+            }
+        });
+
+        return result.withDeadline(timeout, unit);
+
+    }
+
+
+    // Daemon threads created as needed, one per query in progress, idle ones retired
+    private static class AdapterExecutorHolder {
+
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE,
+                60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "stock-quote-adapter-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Decorates any QuoteService so that large security lists are split into batches
+ * and queried concurrently (see QueryBatcher).
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class BatchingQuoteService implements QuoteService {
+
+    private final QuoteService delegate;
+    private final QueryBatcher batcher;
+
+
+    /**
+     * @param delegate The service to query, one batch at a time
+     * @param batcher Batch limits of the delegate's provider
+     */
+    public BatchingQuoteService(QuoteService delegate, QueryBatcher batcher) {
+        this.delegate = delegate;
+        this.batcher = batcher;
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return delegate.getServiceName();
+    }
+
+
+    @Override
+    public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+        return batcher.executeQuery(delegate, securityList, quoteAttributes);
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Stops requests to a quote provider which keeps failing, so that callers fall back
+ * to other providers straight away instead of waiting on it.
+ *
+ * After a number of consecutive failures the breaker opens and refuses requests. Once
+ * it has been open for a while a single trial request is let through (half open): if
+ * it succeeds the breaker closes, if it fails the breaker opens again.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private long rejectedCount;
+
+
+    /**
+     * @param failureThreshold Consecutive failures which open the breaker
+     * @param openMillis How long the breaker stays open before a trial request is allowed
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+
+    /**
+     * Ask to make a request. A caller which is allowed must report the outcome with
+     * recordSuccess() or recordFailure().
+     *
+     * @return true if the request may be made
+     */
+    public synchronized boolean allowRequest() {
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos >= openNanos) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                break;
+            default:
+                // A trial request is already under way
+                break;
+        }
+
+        rejectedCount++;
+        return false;
+
+    }
+
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Report that an allowed request was abandoned before its outcome was known: if it
+     * was the trial request, another may be made.
+     */
+    public synchronized void recordAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+
+    public synchronized State getState() {
+        return state;
+    }
+
+
+    /**
+     * @return Requests refused since the breaker was created
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return state + " (" + consecutiveFailures + " consecutive failures, " + rejectedCount + " rejected)";
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Counts query latencies in buckets which double in width: under 1ms, under 2ms,
+ * under 4ms, ... under 65.5s, and a final bucket for anything longer. Recording is lock free
+ * and allocation free, so it can be done on every query. Percentiles are reported as
+ * the upper bound of the bucket they fall in.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class LatencyHistogram {
+
+    // Bucket i counts latencies below 2^i ms; the last bucket everything longer
+    private static final int BUCKETS = 18;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+
+    /**
+     * @param nanos A query's latency
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(nanos, 0));
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+
+    /**
+     * @return Number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return Milliseconds within which the given percentage of queries completed, or
+     * -1 if no latencies have been recorded. Long.MAX_VALUE if beyond the last bucket.
+     */
+    public long getPercentileMillis(double percentile) {
+
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return -1;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+
+    }
+
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + " p50<" + getPercentileMillis(50) + "ms"
+                + " p90<" + getPercentileMillis(90) + "ms"
+                + " p99<" + getPercentileMillis(99) + "ms";
+    }
+
+}
@@ -0,0 +1,493 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Splits a large security list into batches a quote provider will accept, queries
+ * the batches concurrently, and merges the results back in the order of the
+ * securities requested.
+ *
+ * A batch holds at most maxBatchSize securities, and the security names in it add up
+ * to at most maxBatchLength characters (counting a separator between each), so that a
+ * provider which lists the securities in the url does not exceed its url length.
+ *
+ * Each batcher limits its provider to maxConcurrentRequests requests in flight and
+ * maxRequestsPerSecond requests started per second; batches beyond the limits wait
+ * in a queue rather than holding a thread. Batches run on the given executor;
+ * executors may be shared between batchers of different providers, see
+ * getDefaultExecutor(). The executor is for batch I/O only: a caller must not block
+ * on its threads waiting for a query, or it takes a thread its batches need.
+ *
+ * Any QuoteService can be batched by wrapping it in a BatchingQuoteService, or an
+ * implementation can use a QueryBatcher within its own executeQuery.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QueryBatcher {
+
+    private static final int DEFAULT_EXECUTOR_THREADS = 8;
+
+    // States of a caller waiting for a slot to query on its own thread
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int ABANDONED = 2;
+
+    private final int maxBatchSize;
+    private final int maxBatchLength;
+    private final int maxConcurrentRequests;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService executor;
+
+    // Batches waiting for a free slot, and the number of batches in progress
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+
+    /**
+     * @param maxBatchSize Maximum number of securities in a single query
+     * @param maxBatchLength Maximum total length of the security names in a single query,
+     * including a one character separator between names
+     * @param maxConcurrentRequests Maximum number of queries to the provider at once
+     * @param maxRequestsPerSecond Maximum number of queries started per second, zero for no limit
+     * @param executor Executor on which to run batches
+     */
+    public QueryBatcher(
+            int maxBatchSize,
+            int maxBatchLength,
+            int maxConcurrentRequests,
+            double maxRequestsPerSecond,
+            ExecutorService executor) {
+
+        if (maxBatchSize < 1 || maxBatchLength < 1 || maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("Batch size, length and concurrency must be positive");
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchLength = maxBatchLength;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.rateLimiter = new RateLimiter(maxRequestsPerSecond);
+        this.executor = executor;
+
+    }
+
+
+    /**
+     * Split the security list into batches within the size and length limits, in order.
+     * A security name longer than maxBatchLength is put in a batch of its own.
+     *
+     * @param securityList Securities to query
+     * @return Consecutive sub-lists of the security list
+     */
+    public List<List<String>> partition(List<String> securityList) {
+
+        List<List<String>> batches = new ArrayList<>();
+
+        int batchStart = 0;
+        int batchLength = 0;
+        for (int i = 0; i < securityList.size(); i++) {
+
+            int length = securityList.get(i).length();
+            int batchSize = i - batchStart;
+
+            if (batchSize > 0 && (batchSize == maxBatchSize || batchLength + 1 + length > maxBatchLength)) {
+                batches.add(securityList.subList(batchStart, i));
+                batchStart = i;
+                batchSize = 0;
+                batchLength = 0;
+            }
+
+            batchLength += batchSize == 0 ? length : 1 + length;
+
+        }
+
+        if (batchStart < securityList.size()) {
+            batches.add(securityList.subList(batchStart, securityList.size()));
+        }
+
+        return batches;
+
+    }
+
+
+    /**
+     * Query the service for the securities, batch by batch, waiting for the result.
+     *
+     * A single batch is queried on the calling thread, once it has a slot within the
+     * provider's concurrency and rate limits like any other batch. If the calling
+     * thread is interrupted, outstanding batches are cancelled and an empty list is
+     * returned with the interrupt status set.
+     *
+     * Called on a thread of the default executor, the batches are instead queried one
+     * after another on that thread, within the rate limit only: the thread is already
+     * one of those querying, and waiting on the executor from it could leave no thread
+     * to run the batches.
+     *
+     * @param service Service which queries a single batch
+     * @param securityList Securities to query
+     * @param quoteAttributes Attributes to look up for each security
+     * @return The results of each batch, concatenated in batch order
+     */
+    public List<HashMap<QuoteAttribute, String>> executeQuery(
+            QuoteService service,
+            List<String> securityList,
+            List<QuoteAttribute> quoteAttributes) {
+
+        if (Thread.currentThread() instanceof BatchThread) {
+            return executeInline(service, securityList, quoteAttributes);
+        }
+
+        if (partition(securityList).size() <= 1) {
+            if (!awaitSlot()) {
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
+            }
+            try {
+                return service.executeQuery(securityList, quoteAttributes);
+            } finally {
+                release();
+            }
+        }
+
+        QuoteFuture<List<HashMap<QuoteAttribute, String>>> future =
+                executeQueryAsync(service, securityList, quoteAttributes, null, 0, TimeUnit.MILLISECONDS);
+
+        try {
+            return future.get();
+
+        } catch (InterruptedException ie) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+    }
+
+
+    /**
+     * Query the service for the securities, batch by batch, without waiting.
+     *
+     * Batches are started as the provider's concurrency and rate limits allow: the
+     * calling thread never waits, and neither does a pool thread. If the service
+     * implements AsyncQuoteService its native asynchronous query is used for each
+     * batch, otherwise the blocking query is run on this batcher's executor.
+     *
+     * Cancelling the result, or missing the deadline, cancels the batches in progress
+     * and drops those not yet started. The first batch to fail fails the query.
+     *
+     * @param service Service which queries a single batch
+     * @param securityList Securities to query
+     * @param quoteAttributes Attributes to look up for each security
+     * @param listener Receives the result for each security as it arrives. May be null.
+     * @param timeout Time allowed for the whole query, zero for no deadline
+     * @param unit Unit of the timeout
+     * @return The results of each batch, concatenated in batch order
+     */
+    public QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeQueryAsync(
+            QuoteService service,
+            List<String> securityList,
+            final List<QuoteAttribute> quoteAttributes,
+            final QuoteListener listener,
+            long timeout,
+            TimeUnit unit) {
+
+        final AsyncQuoteService batchService = service instanceof AsyncQuoteService
+                ? (AsyncQuoteService) service
+                : new AsyncQuoteServiceAdapter(service, executor);
+
+        final QuoteFuture<List<HashMap<QuoteAttribute, String>>> result = new QuoteFuture<>();
+
+        final List<List<String>> batches = partition(securityList);
+        if (batches.isEmpty()) {
+            result.complete(new ArrayList<HashMap<QuoteAttribute, String>>());
+            return result;
+        }
+
+        final AtomicReferenceArray<List<HashMap<QuoteAttribute, String>>> batchResults = new AtomicReferenceArray<>(batches.size());
+        final AtomicInteger remaining = new AtomicInteger(batches.size());
+        final List<QuoteFuture<List<HashMap<QuoteAttribute, String>>>> started =
+                Collections.synchronizedList(new ArrayList<QuoteFuture<List<HashMap<QuoteAttribute, String>>>>());
+
+        result.addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll(started);
+            }
+        });
+
+        for (int i = 0; i < batches.size(); i++) {
+
+            final int index = i;
+            final List<String> batch = batches.get(i);
+
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+
+                    // Cancelled, timed out or failed while waiting its turn
+                    if (result.isDone()) {
+                        release();
+                        return;
+                    }
+
+                    final QuoteFuture<List<HashMap<QuoteAttribute, String>>> batchFuture;
+                    try {
+                        batchFuture = batchService.executeQueryAsync(batch, quoteAttributes, listener, 0, TimeUnit.MILLISECONDS);
+                    } catch (RuntimeException ex) {
+                        release();
+                        result.fail(ex);
+                        cancelAll(started);
+                        return;
+                    }
+
+                    started.add(batchFuture);
+                    if (result.isDone()) {
+                        batchFuture.cancel(true);
+                    }
+
+                    batchFuture.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            release();
+                            try {
+                                batchResults.set(index, batchFuture.get());
+                            } catch (ExecutionException ee) {
+                                result.fail(ee.getCause());
+                                cancelAll(started);
+                                return;
+                            } catch (CancellationException | InterruptedException ex) {
+                                result.fail(new CancellationException("Batch cancelled"));
+                                cancelAll(started);
+                                return;
+                            }
+                            if (remaining.decrementAndGet() == 0) {
+                                result.complete(concatenate(batchResults));
+                            }
+                        }
+                    });
+
+                }
+            });
+
+        }
+
+        return result.withDeadline(timeout, unit);
+
+    }
+
+
+    /**
+     * @return The executor on which batches run
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+
+    /*
+     * Query each batch in turn on the calling thread, a batch thread, which already
+     * counts against the threads querying at once.
+     */
+    private List<HashMap<QuoteAttribute, String>> executeInline(
+            QuoteService service,
+            List<String> securityList,
+            List<QuoteAttribute> quoteAttributes) {
+
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+        for (List<String> batch : partition(securityList)) {
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
+            }
+            result.addAll(service.executeQuery(batch, quoteAttributes));
+        }
+        return result;
+
+    }
+
+
+    /*
+     * Queue the start of a batch, to be run once the provider's limits allow.
+     */
+    private void dispatch(Runnable start) {
+        pending.add(start);
+        drain();
+    }
+
+
+    /*
+     * Wait in the queue of pending batches until the calling thread may start one.
+     * Returns false, holding no slot, if interrupted first.
+     */
+    private boolean awaitSlot() {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger state = new AtomicInteger(WAITING);
+
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (state.compareAndSet(WAITING, GRANTED)) {
+                    started.countDown();
+                } else {
+                    // The caller gave up waiting: pass the slot on
+                    release();
+                }
+            }
+        });
+
+        try {
+            started.await();
+            return true;
+        } catch (InterruptedException ie) {
+            if (!state.compareAndSet(WAITING, ABANDONED)) {
+                // Granted just as the wait was interrupted
+                release();
+            }
+            return false;
+        }
+
+    }
+
+
+    /*
+     * A batch has finished: let the next one start.
+     */
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+
+    /*
+     * Start pending batches while there are free slots. A batch over the rate limit is
+     * started by the timer thread when its turn comes.
+     */
+    private void drain() {
+
+        while (!pending.isEmpty()) {
+
+            int count = inFlight.get();
+            if (count >= maxConcurrentRequests) {
+                return;
+            }
+            if (!inFlight.compareAndSet(count, count + 1)) {
+                continue;
+            }
+
+            Runnable start = pending.poll();
+            if (null == start) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+
+            long waitNanos = rateLimiter.reserve();
+            if (waitNanos > 0) {
+                Scheduler.schedule(start, waitNanos, TimeUnit.NANOSECONDS);
+            } else {
+                start.run();
+            }
+
+        }
+
+    }
+
+
+    private static List<HashMap<QuoteAttribute, String>> concatenate(AtomicReferenceArray<List<HashMap<QuoteAttribute, String>>> batchResults) {
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+        for (int i = 0; i < batchResults.length(); i++) {
+            result.addAll(batchResults.get(i));
+        }
+        return result;
+    }
+
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        List<Future<?>> copy;
+        synchronized (futures) {
+            copy = new ArrayList<Future<?>>(futures);
+        }
+        for (Future<?> future : copy) {
+            future.cancel(true);
+        }
+    }
+
+
+    /**
+     * A process wide executor for batch queries: a fixed number of daemon threads,
+     * shared by all providers. When every thread is busy further batches wait in the
+     * executor's queue; the number queued is bounded by each batcher's concurrency limit.
+     * Tasks run on it must not block waiting for other tasks on it.
+     *
+     * @return the shared executor
+     */
+    public static ExecutorService getDefaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+
+    private static class DefaultExecutorHolder {
+
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                DEFAULT_EXECUTOR_THREADS, DEFAULT_EXECUTOR_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new BatchThread(runnable, "stock-quote-batch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            ((ThreadPoolExecutor) EXECUTOR).allowCoreThreadTimeOut(true);
+        }
+
+    }
+
+
+    /*
+     * Marks the threads of the default executor, on which executeQuery runs batches
+     * inline rather than waiting on the executor.
+     */
+    private static class BatchThread extends Thread {
+
+        BatchThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+package com.accounted4.stockquote.api;
+
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The typed result of a query for one security.
+ *
+ * Numeric attributes are parsed once, when the quote is built, into exact decimals
+ * packed into a long (unscaled value and scale), so reading a price neither parses a
+ * string nor allocates. Text attributes are kept as strings. Values live in two small
+ * arrays indexed through a table by the attribute's ordinal, rather than in a hash map
+ * of entries, which is several times smaller (see QuoteMemoryDemo in the tests).
+ *
+ * An attribute is either absent (not requested or not returned), present without a
+ * value (the provider answered "N/A", or a number could not be read), or present with
+ * a value.
+ *
+ * Quotes are immutable. toMap() and fromMap() convert to and from the
+ * HashMap&lt;QuoteAttribute, String&gt; rows returned by QuoteService.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public final class Quote {
+
+    /** Text given for attributes which are present but have no value */
+    public static final String NOT_AVAILABLE = "N/A";
+
+    private static final QuoteAttribute[] ATTRIBUTES = QuoteAttribute.values();
+
+    // Index of each attribute, by ordinal, in the numbers or the texts array
+    private static final int[] SLOT = new int[ATTRIBUTES.length];
+    private static final int NUMBER_COUNT;
+    private static final int TEXT_COUNT;
+
+    static {
+        int numbers = 0;
+        int texts = 0;
+        for (QuoteAttribute attribute : ATTRIBUTES) {
+            SLOT[attribute.ordinal()] = attribute.isNumeric() ? numbers++ : texts++;
+        }
+        NUMBER_COUNT = numbers;
+        TEXT_COUNT = texts;
+    }
+
+    // A number is packed as (unscaled value << 8 | scale)
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int SCALE_BITS = 8;
+    private static final long MAX_UNSCALED = (1L << (63 - SCALE_BITS)) - 1;
+    private static final int MAX_FAST_DIGITS = 16;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Bit per attribute ordinal: set if the attribute is in the quote
+    private final long present;
+    private final long[] numbers;
+    private final String[] texts;
+
+
+    private Quote(long present, long[] numbers, String[] texts) {
+        this.present = present;
+        this.numbers = numbers;
+        this.texts = texts;
+    }
+
+
+    /**
+     * @return A builder for a new quote
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+
+    /**
+     * @return true if the attribute is in this quote, with or without a value
+     */
+    public boolean contains(QuoteAttribute attribute) {
+        return (present & bit(attribute)) != 0;
+    }
+
+
+    /**
+     * @return true if the attribute is in this quote and has a value
+     */
+    public boolean hasValue(QuoteAttribute attribute) {
+        if (!contains(attribute)) {
+            return false;
+        }
+        int slot = SLOT[attribute.ordinal()];
+        return attribute.isNumeric() ? numbers[slot] != NO_VALUE : null != texts[slot];
+    }
+
+
+    /**
+     * @return The ticker symbol, or null if it is not in the quote
+     */
+    public String getSymbol() {
+        return getText(QuoteAttribute.SYMBOL);
+    }
+
+
+    /**
+     * A numeric attribute as a double, without allocating.
+     *
+     * @param attribute A numeric attribute
+     * @return The value, or NaN if the attribute has no value
+     * @throws IllegalArgumentException If the attribute is not numeric
+     */
+    public double getDouble(QuoteAttribute attribute) {
+        long packed = number(attribute);
+        if (packed == NO_VALUE) {
+            return Double.NaN;
+        }
+        long unscaled = packed >> SCALE_BITS;
+        int scale = (int) (packed & 0xFF);
+        return scale < POWERS_OF_TEN.length ? unscaled / POWERS_OF_TEN[scale] : BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+
+    /**
+     * A numeric attribute exactly as the provider gave it.
+     *
+     * @param attribute A numeric attribute
+     * @return The value, or null if the attribute has no value
+     * @throws IllegalArgumentException If the attribute is not numeric
+     */
+    public BigDecimal getDecimal(QuoteAttribute attribute) {
+        long packed = number(attribute);
+        return packed == NO_VALUE ? null : BigDecimal.valueOf(packed >> SCALE_BITS, (int) (packed & 0xFF));
+    }
+
+
+    /**
+     * Any attribute as text: numbers are given in plain decimal notation.
+     *
+     * @param attribute Any attribute
+     * @return The value, or null if the attribute has no value
+     */
+    public String getText(QuoteAttribute attribute) {
+        if (attribute.isNumeric()) {
+            BigDecimal decimal = getDecimal(attribute);
+            return null == decimal ? null : decimal.toPlainString();
+        }
+        return contains(attribute) ? texts[SLOT[attribute.ordinal()]] : null;
+    }
+
+
+    /**
+     * Adapter to the QuoteService result shape.
+     *
+     * @return The attributes in this quote, mapped to their text. Attributes without a
+     * value map to NOT_AVAILABLE.
+     */
+    public HashMap<QuoteAttribute, String> toMap() {
+        HashMap<QuoteAttribute, String> map = new HashMap<>();
+        for (QuoteAttribute attribute : ATTRIBUTES) {
+            if (contains(attribute)) {
+                String text = getText(attribute);
+                map.put(attribute, null == text ? NOT_AVAILABLE : text);
+            }
+        }
+        return map;
+    }
+
+
+    /**
+     * Adapter from the QuoteService result shape: numbers are parsed here, once.
+     *
+     * @param map Attribute values as text
+     * @return The typed quote
+     */
+    public static Quote fromMap(Map<QuoteAttribute, String> map) {
+        Builder builder = new Builder();
+        for (Map.Entry<QuoteAttribute, String> entry : map.entrySet()) {
+            builder.set(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * @param maps Rows as returned by QuoteService.executeQuery
+     * @return The typed quotes, in the same order
+     */
+    public static List<Quote> fromMaps(List<? extends Map<QuoteAttribute, String>> maps) {
+        List<Quote> quotes = new ArrayList<>(maps.size());
+        for (Map<QuoteAttribute, String> map : maps) {
+            quotes.add(fromMap(map));
+        }
+        return quotes;
+    }
+
+
+    /**
+     * @param quotes Typed quotes
+     * @return The quotes as QuoteService rows, in the same order
+     */
+    public static List<HashMap<QuoteAttribute, String>> toMaps(List<Quote> quotes) {
+        List<HashMap<QuoteAttribute, String>> maps = new ArrayList<>(quotes.size());
+        for (Quote quote : quotes) {
+            maps.add(quote.toMap());
+        }
+        return maps;
+    }
+
+
+    private long number(QuoteAttribute attribute) {
+        if (!attribute.isNumeric()) {
+            throw new IllegalArgumentException(attribute + " is not numeric");
+        }
+        return contains(attribute) ? numbers[SLOT[attribute.ordinal()]] : NO_VALUE;
+    }
+
+
+    private static long bit(QuoteAttribute attribute) {
+        return 1L << attribute.ordinal();
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Quote)) {
+            return false;
+        }
+        Quote quote = (Quote) other;
+        return present == quote.present && Arrays.equals(numbers, quote.numbers) && Arrays.equals(texts, quote.texts);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.valueOf(present).hashCode() + Arrays.hashCode(numbers)) + Arrays.hashCode(texts);
+    }
+
+
+    @Override
+    public String toString() {
+        return "Quote" + toMap();
+    }
+
+
+    /**
+     * Collects attribute values for a Quote. Not thread safe.
+     */
+    public static final class Builder {
+
+        private long present;
+        private long[] numbers = newNumbers();
+        private String[] texts = new String[TEXT_COUNT];
+
+
+        private Builder() {
+        }
+
+
+        /**
+         * Set an attribute from the provider's text. Numeric values are parsed; text which
+         * is not a plain decimal number (including "N/A") leaves the attribute without a value.
+         *
+         * @param attribute The attribute
+         * @param value Its text, may be null for no value
+         * @return this builder
+         */
+        public Builder set(QuoteAttribute attribute, String value) {
+            present |= bit(attribute);
+            int slot = SLOT[attribute.ordinal()];
+            if (attribute.isNumeric()) {
+                numbers[slot] = null == value ? NO_VALUE : parse(value.trim());
+            } else {
+                texts[slot] = NOT_AVAILABLE.equals(value) ? null : value;
+            }
+            return this;
+        }
+
+
+        /**
+         * Set a numeric attribute.
+         *
+         * @param attribute A numeric attribute
+         * @param value Its value, may be null for no value
+         * @return this builder
+         */
+        public Builder set(QuoteAttribute attribute, BigDecimal value) {
+            if (!attribute.isNumeric()) {
+                throw new IllegalArgumentException(attribute + " is not numeric");
+            }
+            present |= bit(attribute);
+            numbers[SLOT[attribute.ordinal()]] = null == value ? NO_VALUE : pack(value);
+            return this;
+        }
+
+
+        /**
+         * @return The quote. The builder is reset and may be reused.
+         */
+        public Quote build() {
+            Quote quote = new Quote(present, numbers, texts);
+            present = 0;
+            numbers = newNumbers();
+            texts = new String[TEXT_COUNT];
+            return quote;
+        }
+
+
+        private static long[] newNumbers() {
+            long[] numbers = new long[NUMBER_COUNT];
+            Arrays.fill(numbers, NO_VALUE);
+            return numbers;
+        }
+
+    }
+
+
+    /*
+     * Plain decimals ("-58.50") of up to 16 digits are read directly; anything else
+     * falls back to BigDecimal.
+     */
+    private static long parse(String text) {
+
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return parseSlow(text);
+            }
+        }
+
+        if (digits == 0) {
+            return NO_VALUE;
+        }
+        if (digits > MAX_FAST_DIGITS) {
+            return parseSlow(text);
+        }
+
+        return ((negative ? -unscaled : unscaled) << SCALE_BITS) | Math.max(scale, 0);
+
+    }
+
+
+    private static long parseSlow(String text) {
+        try {
+            return pack(new BigDecimal(text));
+        } catch (NumberFormatException | ArithmeticException ex) {
+            return NO_VALUE;
+        }
+    }
+
+
+    private static long pack(BigDecimal value) {
+
+        if (value.scale() < 0) {
+            value = value.setScale(0);
+        }
+        if (value.scale() > 0xFF) {
+            throw new ArithmeticException("Scale too large: " + value);
+        }
+
+        long unscaled = value.unscaledValue().longValue();
+        if (value.unscaledValue().bitLength() > 63 - SCALE_BITS || unscaled > MAX_UNSCALED || unscaled < -MAX_UNSCALED) {
+            throw new ArithmeticException("Too many digits: " + value);
+        }
+
+        return (unscaled << SCALE_BITS) | value.scale();
+
+    }
+
+}
@@ -4,22 +4,39 @@ package com.accounted4.stockquote.api;
 /**
  * Supported attributes for which to query a stock quote service.
  * 
+ * Numeric attributes are held as decimal numbers in a Quote; the others as text.
+ * 
  * @author gheinze
  */
 public enum QuoteAttribute {
 
-    SYMBOL
-    ,COMPANY_NAME
-    ,LAST_TRADE_PRICE
-    ,BOOK_VALUE
-    ,EARNINGS_PS
-    ,DIVIDEND_PS
-    ,EX_DIVIDEND_DATE
-    ,DIVIDEND_DATE
-    ,DIVIDEND_YIELD
-    ,PRICE_SALES
-    ,PRICE_BOOK
-    ,PRICE_EARNINGS
+    SYMBOL(false)
+    ,COMPANY_NAME(false)
+    ,LAST_TRADE_PRICE(true)
+    ,BOOK_VALUE(true)
+    ,EARNINGS_PS(true)
+    ,DIVIDEND_PS(true)
+    ,EX_DIVIDEND_DATE(false)
+    ,DIVIDEND_DATE(false)
+    ,DIVIDEND_YIELD(true)
+    ,PRICE_SALES(true)
+    ,PRICE_BOOK(true)
+    ,PRICE_EARNINGS(true)
     ;
     
+    private final boolean numeric;
+    
+    
+    private QuoteAttribute(boolean numeric) {
+        this.numeric = numeric;
+    }
+    
+    
+    /**
+     * @return true if the attribute's value is a decimal number
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+    
 }
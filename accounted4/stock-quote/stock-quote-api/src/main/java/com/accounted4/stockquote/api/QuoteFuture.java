@@ -0,0 +1,260 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * The pending result of an asynchronous query, completed by the quote service
+ * which started it.
+ *
+ * Besides blocking with get(), callers may register listeners to run when the
+ * query completes, by any means. Cancelling the future runs the cancellation hooks
+ * registered by the service, which abort work in progress (for example close the
+ * connection a response is being read from). A deadline fails the query with a
+ * TimeoutException, and cancels the work, if it has not completed in time.
+ *
+ * Listeners and hooks run on the thread which completes or cancels the future, so
+ * should be short.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ * @param <T> The type of the result
+ */
+public class QuoteFuture<T> implements Future<T> {
+
+    private enum State { PENDING, COMPLETED, FAILED, CANCELLED }
+
+    private State state = State.PENDING;
+    private T value;
+    private Throwable failure;
+
+    private List<Runnable> listeners = new ArrayList<>();
+    private List<Runnable> cancelHooks = new ArrayList<>();
+    private ScheduledFuture<?> deadline;
+
+
+    /**
+     * Complete the query with its result. Has no effect if the future is already done.
+     *
+     * @param result The result of the query
+     * @return true if this call completed the future
+     */
+    public boolean complete(T result) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            value = result;
+            state = State.COMPLETED;
+        }
+        done();
+        return true;
+    }
+
+
+    /**
+     * Complete the query with a failure. Has no effect if the future is already done.
+     *
+     * @param cause Why the query failed
+     * @return true if this call completed the future
+     */
+    public boolean fail(Throwable cause) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            failure = cause;
+            state = State.FAILED;
+        }
+        done();
+        return true;
+    }
+
+
+    /**
+     * Cancel the query, running any cancellation hooks.
+     *
+     * @param mayInterruptIfRunning Ignored: hooks always abort work in progress
+     * @return true if this call cancelled the future
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            state = State.CANCELLED;
+        }
+        abort();
+        done();
+        return true;
+    }
+
+
+    /**
+     * Fail the query with a TimeoutException, and abort the work, if it is not done
+     * within the given time.
+     *
+     * @param timeout Time allowed from now. Zero or less for no deadline.
+     * @param unit Unit of the timeout
+     * @return this future
+     */
+    public QuoteFuture<T> withDeadline(final long timeout, final TimeUnit unit) {
+
+        if (timeout <= 0) {
+            return this;
+        }
+
+        ScheduledFuture<?> scheduled = Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (fail(new TimeoutException("Query not complete within " + timeout + " " + unit))) {
+                    abort();
+                }
+            }
+        }, timeout, unit);
+
+        synchronized (this) {
+            if (state == State.PENDING) {
+                deadline = scheduled;
+                return this;
+            }
+        }
+
+        scheduled.cancel(false);
+        return this;
+
+    }
+
+
+    /**
+     * Register a task to run when the future is done: immediately if it already is.
+     *
+     * @param listener Task to run on completion, failure or cancellation
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+
+    /**
+     * Register a task which aborts the work producing the result, run if the future is
+     * cancelled or misses its deadline: immediately if it already has been.
+     *
+     * @param hook Task aborting the query
+     */
+    public void addCancelHook(Runnable hook) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                cancelHooks.add(hook);
+                return;
+            }
+            if (!isAborted()) {
+                return;
+            }
+        }
+        hook.run();
+    }
+
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state == State.PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (state == State.PENDING) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+
+    private T result() throws ExecutionException {
+        switch (state) {
+            case COMPLETED:
+                return value;
+            case CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new ExecutionException(failure);
+        }
+    }
+
+
+    // Cancelled, or failed by the deadline
+    private boolean isAborted() {
+        return state == State.CANCELLED || (state == State.FAILED && failure instanceof TimeoutException);
+    }
+
+
+    private void abort() {
+        List<Runnable> hooks;
+        synchronized (this) {
+            hooks = cancelHooks;
+            cancelHooks = new ArrayList<>();
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+    }
+
+
+    private void done() {
+
+        List<Runnable> toRun;
+        synchronized (this) {
+            notifyAll();
+            if (null != deadline) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            toRun = listeners;
+            listeners = new ArrayList<>();
+            if (!isAborted()) {
+                cancelHooks.clear();
+            }
+        }
+
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+
+    }
+
+}
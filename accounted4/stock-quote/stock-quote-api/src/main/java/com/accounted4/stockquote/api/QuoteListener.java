@@ -0,0 +1,23 @@
+package com.accounted4.stockquote.api;
+
+import java.util.HashMap;
+
+
+/**
+ * Receives the result for each security of an asynchronous query as soon as it is
+ * available, ahead of the complete result list.
+ *
+ * When a query is split into concurrent batches, results of different batches may
+ * arrive interleaved: the order of the complete result list is the reliable one.
+ * Called from the threads running the query, so implementations must be thread safe.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public interface QuoteListener {
+
+    /**
+     * @param quote Attribute values for one security
+     */
+    void onQuote(HashMap<QuoteAttribute, String> quote);
+
+}
@@ -0,0 +1,62 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Spaces out requests to a quote provider so that no more than a given number are
+ * started per second. Callers reserve the next free slot and sleep until it comes
+ * round, so requests are admitted in the order they asked.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private long nextFreeNanos;
+
+
+    /**
+     * @param requestsPerSecond Maximum rate at which requests may start. Zero or less for no limit.
+     */
+    public RateLimiter(double requestsPerSecond) {
+        intervalNanos = requestsPerSecond <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        nextFreeNanos = System.nanoTime();
+    }
+
+
+    /**
+     * Wait until a request may start.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+
+    /**
+     * Reserve the next free slot without waiting for it.
+     *
+     * @return nanoseconds from now until the reserved slot, at which the request may start
+     */
+    public long reserve() {
+
+        if (intervalNanos == 0) {
+            return 0;
+        }
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextFreeNanos);
+            nextFreeNanos = slot + intervalNanos;
+            return slot - now;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A single daemon timer thread for query deadlines and delayed (rate limited) batches.
+ * Scheduled tasks only hand work off, so one thread suffices.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+final class Scheduler {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "stock-quote-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        // Deadlines are usually cancelled: don't keep them queued until they would have fired
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+
+    private Scheduler() {
+    }
+
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+
+/**
+ * QueryBatcher partitioning, its concurrency limit applied to callers querying a
+ * single batch on their own thread, and callers on the batch executor's own threads.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QueryBatcherTest extends TestCase {
+
+    private static final List<QuoteAttribute> ATTRIBUTES = Arrays.asList(QuoteAttribute.SYMBOL);
+
+    private ExecutorService callers;
+
+
+    @Override
+    protected void setUp() {
+        callers = Executors.newCachedThreadPool();
+    }
+
+
+    @Override
+    protected void tearDown() {
+        callers.shutdownNow();
+    }
+
+
+    public void testPartition() {
+
+        QueryBatcher batcher = new QueryBatcher(3, 10, 1, 0, QueryBatcher.getDefaultExecutor());
+
+        assertEquals(Arrays.asList(Arrays.asList("A", "B", "C"), Arrays.asList("D")),
+                batcher.partition(Arrays.asList("A", "B", "C", "D")));
+        assertEquals(Arrays.asList(Arrays.asList("ABCD", "EFGH"), Arrays.asList("IJ"), Arrays.asList("KLMNOPQRSTUV")),
+                batcher.partition(Arrays.asList("ABCD", "EFGH", "IJ", "KLMNOPQRSTUV")));
+        assertTrue(batcher.partition(Collections.<String>emptyList()).isEmpty());
+
+    }
+
+
+    public void testSingleBatchCallersShareTheConcurrencyLimit() throws Exception {
+
+        final int maxConcurrent = 2;
+        final QueryBatcher batcher = new QueryBatcher(10, 100, maxConcurrent, 0, QueryBatcher.getDefaultExecutor());
+        final CountingService service = new CountingService(50);
+
+        // More callers than slots, all at once
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<List<HashMap<QuoteAttribute, String>>>> results = new ArrayList<>();
+        for (int i = 0; i < 3 * maxConcurrent; i++) {
+            final String symbol = "S" + i;
+            results.add(callers.submit(new Callable<List<HashMap<QuoteAttribute, String>>>() {
+                @Override
+                public List<HashMap<QuoteAttribute, String>> call() throws InterruptedException {
+                    go.await();
+                    return batcher.executeQuery(service, Arrays.asList(symbol), ATTRIBUTES);
+                }
+            }));
+        }
+        go.countDown();
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("S" + i, results.get(i).get(5, TimeUnit.SECONDS).get(0).get(QuoteAttribute.SYMBOL));
+        }
+        assertEquals(3 * maxConcurrent, service.queries.get());
+        assertEquals(maxConcurrent, service.maxInFlight.get());
+
+    }
+
+
+    public void testInterruptedCallerDoesNotKeepASlot() throws Exception {
+
+        final QueryBatcher batcher = new QueryBatcher(10, 100, 1, 0, QueryBatcher.getDefaultExecutor());
+        final CountingService service = new CountingService(300);
+
+        // Hold the only slot
+        Future<List<HashMap<QuoteAttribute, String>>> first = callers.submit(query(batcher, service, "A"));
+        while (service.inFlight.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        // Give up waiting for it
+        final AtomicInteger interrupted = new AtomicInteger();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<HashMap<QuoteAttribute, String>> result = batcher.executeQuery(service, Arrays.asList("B"), ATTRIBUTES);
+                if (result.isEmpty() && Thread.currentThread().isInterrupted()) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        waiter.interrupt();
+        waiter.join(5000);
+        assertEquals(1, interrupted.get());
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, callers.submit(query(batcher, service, "C")).get(5, TimeUnit.SECONDS).size());
+        assertEquals(2, service.queries.get());
+
+    }
+
+
+    /**
+     * Callers blocked on the batch executor's own threads, more of them than it has
+     * threads, must not starve the batches they wait on
+     */
+    public void testCallersOnBatchThreadsDoNotStarveTheirBatches() throws Exception {
+
+        final QueryBatcher batcher = new QueryBatcher(1, 100, 4, 0, QueryBatcher.getDefaultExecutor());
+        final CountingService service = new CountingService(20);
+
+        List<Future<List<HashMap<QuoteAttribute, String>>>> results = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            final List<String> symbols = Arrays.asList("A" + i, "B" + i);
+            results.add(QueryBatcher.getDefaultExecutor().submit(new Callable<List<HashMap<QuoteAttribute, String>>>() {
+                @Override
+                public List<HashMap<QuoteAttribute, String>> call() {
+                    return batcher.executeQuery(service, symbols, ATTRIBUTES);
+                }
+            }));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            List<HashMap<QuoteAttribute, String>> result = results.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals("A" + i, result.get(0).get(QuoteAttribute.SYMBOL));
+            assertEquals("B" + i, result.get(1).get(QuoteAttribute.SYMBOL));
+        }
+        assertEquals(24, service.queries.get());
+
+    }
+
+
+    private static Callable<List<HashMap<QuoteAttribute, String>>> query(
+            final QueryBatcher batcher, final QuoteService service, final String symbol) {
+        return new Callable<List<HashMap<QuoteAttribute, String>>>() {
+            @Override
+            public List<HashMap<QuoteAttribute, String>> call() {
+                return batcher.executeQuery(service, Arrays.asList(symbol), ATTRIBUTES);
+            }
+        };
+    }
+
+
+    /*
+     * Answers each security with its symbol after a delay, counting queries in flight
+     */
+    private static class CountingService implements QuoteService {
+
+        final AtomicInteger queries = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private final long delayMillis;
+
+
+        CountingService(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return "Counting";
+        }
+
+
+        @Override
+        public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+            queries.incrementAndGet();
+            int count = inFlight.incrementAndGet();
+            int max;
+            while ((max = maxInFlight.get()) < count && !maxInFlight.compareAndSet(max, count)) {
+                // retry
+            }
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+            List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+            for (String security : securityList) {
+                HashMap<QuoteAttribute, String> quote = new HashMap<>();
+                quote.put(QuoteAttribute.SYMBOL, security);
+                result.add(quote);
+            }
+            return result;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.accounted4.stockquote.api;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Heap retained by a 5,000 security result with every attribute, held as
+ * HashMap&lt;QuoteAttribute, String&gt; rows and as Quotes, plus the time to sum a
+ * price column from each. Also checks that the old shape round trips through Quote.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.accounted4.stockquote.api.QuoteMemoryDemo -Dexec.classpathScope=test
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteMemoryDemo {
+
+    private static final int SECURITIES = 5000;
+
+
+    public static void main(String[] args) {
+
+        long baseline = usedMemory();
+        List<HashMap<QuoteAttribute, String>> maps = syntheticResult();
+        long mapBytes = usedMemory() - baseline;
+
+        // Quotes share the text attribute strings with the rows: measure them on their own
+        List<Quote> quotes = Quote.fromMaps(maps);
+        maps = null;
+        long quoteBytes = usedMemory() - baseline;
+        maps = Quote.toMaps(quotes);
+
+        System.out.println(String.format("%d securities, %d attributes each", SECURITIES, QuoteAttribute.values().length));
+        System.out.println(String.format("HashMap rows: %8d KB (%d bytes/security)", mapBytes / 1024, mapBytes / SECURITIES));
+        System.out.println(String.format("Quotes:       %8d KB (%d bytes/security)", quoteBytes / 1024, quoteBytes / SECURITIES));
+
+        // Summing a column: parse on every read versus read a parsed value
+        double sum = 0;
+        for (int pass = 0; pass < 20; pass++) {
+            sum += sumFromMaps(maps) + sumFromQuotes(quotes);
+        }
+
+        long start = System.nanoTime();
+        for (int pass = 0; pass < 100; pass++) {
+            sum += sumFromMaps(maps);
+        }
+        long mapNanos = (System.nanoTime() - start) / 100;
+
+        start = System.nanoTime();
+        for (int pass = 0; pass < 100; pass++) {
+            sum += sumFromQuotes(quotes);
+        }
+        long quoteNanos = (System.nanoTime() - start) / 100;
+
+        System.out.println(String.format("Sum of last trade price, HashMap rows: %6d us, Quotes: %6d us (%s)", mapNanos / 1000, quoteNanos / 1000, sum > 0 ? "ok" : "?"));
+
+        // The adapter round trips
+        if (!Quote.fromMaps(maps).equals(quotes)) {
+            throw new IllegalStateException("Adapter did not round trip");
+        }
+
+    }
+
+
+    private static List<HashMap<QuoteAttribute, String>> syntheticResult() {
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>(SECURITIES);
+        for (int i = 0; i < SECURITIES; i++) {
+            HashMap<QuoteAttribute, String> row = new HashMap<>();
+            row.put(QuoteAttribute.SYMBOL, "SYM" + i + ".TO");
+            row.put(QuoteAttribute.COMPANY_NAME, "COMPANY " + i + " LTD");
+            row.put(QuoteAttribute.LAST_TRADE_PRICE, (i % 100) + ".25");
+            row.put(QuoteAttribute.BOOK_VALUE, "12.5" + (i % 10));
+            row.put(QuoteAttribute.EARNINGS_PS, "1.7" + (i % 10));
+            row.put(QuoteAttribute.DIVIDEND_PS, "0.9" + (i % 10));
+            row.put(QuoteAttribute.EX_DIVIDEND_DATE, "Feb " + (1 + i % 28));
+            row.put(QuoteAttribute.DIVIDEND_DATE, "Mar " + (1 + i % 28));
+            row.put(QuoteAttribute.DIVIDEND_YIELD, "3.4" + (i % 10));
+            row.put(QuoteAttribute.PRICE_SALES, "2.1" + (i % 10));
+            row.put(QuoteAttribute.PRICE_BOOK, "1.8" + (i % 10));
+            row.put(QuoteAttribute.PRICE_EARNINGS, i % 7 == 0 ? "N/A" : "18.2" + (i % 10));
+            result.add(row);
+        }
+        return result;
+    }
+
+
+    private static double sumFromMaps(List<HashMap<QuoteAttribute, String>> maps) {
+        double sum = 0;
+        for (HashMap<QuoteAttribute, String> row : maps) {
+            sum += Double.parseDouble(row.get(QuoteAttribute.LAST_TRADE_PRICE));
+        }
+        return sum;
+    }
+
+
+    private static double sumFromQuotes(List<Quote> quotes) {
+        double sum = 0;
+        for (Quote quote : quotes) {
+            sum += quote.getDouble(QuoteAttribute.LAST_TRADE_PRICE);
+        }
+        return sum;
+    }
+
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
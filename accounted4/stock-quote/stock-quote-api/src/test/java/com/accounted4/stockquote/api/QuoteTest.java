@@ -0,0 +1,171 @@
+package com.accounted4.stockquote.api;
+
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * Quote number packing and parsing, both the fast path and the BigDecimal fallback, and
+ * conversion to and from the QuoteService row shape.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteTest extends TestCase {
+
+    private static final QuoteAttribute PRICE = QuoteAttribute.LAST_TRADE_PRICE;
+
+
+    public void testPlainDecimals() {
+        assertNumber("58.50", 58.5, "58.50");
+        assertNumber("0", 0, "0");
+        assertNumber("7.", 7, "7");
+        assertNumber(".25", 0.25, "0.25");
+        assertNumber("  12.5 ", 12.5, "12.5");
+    }
+
+
+    public void testNegativeValues() {
+        assertNumber("-58.50", -58.5, "-58.50");
+        assertNumber("-0.01", -0.01, "-0.01");
+        assertNumber("-1234567890.123456", -1234567890.123456, "-1234567890.123456");
+    }
+
+
+    public void testPlusSign() {
+        assertNumber("+1.25", 1.25, "1.25");
+        assertNumber("+0", 0, "0");
+    }
+
+
+    /**
+     * More than 16 digits are read by BigDecimal, exactly as long as they fit
+     */
+    public void testManyDigits() {
+        assertNumber("12345678901234.567", 12345678901234.567, "12345678901234.567");
+        assertNumber("-0.00000000000000001", -1e-17, "-0.00000000000000001");
+        assertNumber("1.5E+3", 1500, "1500");
+    }
+
+
+    /**
+     * Scales beyond the table of powers of ten are converted through BigDecimal
+     */
+    public void testLargeScale() {
+        String tiny = "0.0000000000000000000000012";
+        Quote quote = quote(tiny);
+        assertEquals(25, quote.getDecimal(PRICE).scale());
+        assertEquals(1.2e-24, quote.getDouble(PRICE), 1e-38);
+        assertEquals(tiny, quote.getText(PRICE));
+    }
+
+
+    /**
+     * Numbers which cannot be packed are present without a value
+     */
+    public void testOverflow() {
+        for (String text : new String[] {"123456789012345678", "-123456789012345678", "1E+30", "99999999999999999.9"}) {
+            Quote quote = quote(text);
+            assertTrue(text, quote.contains(PRICE));
+            assertFalse(text, quote.hasValue(PRICE));
+            assertTrue(text, Double.isNaN(quote.getDouble(PRICE)));
+            assertNull(text, quote.getDecimal(PRICE));
+        }
+
+        // Largest unscaled value which fits in 55 bits
+        assertNumber("36028797018963967", 36028797018963967d, "36028797018963967");
+        assertFalse(quote("36028797018963968").hasValue(PRICE));
+
+        try {
+            Quote.builder().set(PRICE, new BigDecimal("1E+30"));
+            fail("Expected the value not to fit");
+        } catch (ArithmeticException ae) {
+            // expected
+        }
+    }
+
+
+    public void testUnreadableNumbers() {
+        for (String text : new String[] {"N/A", "", "-", ".", "1.2.3", "12%", "--1"}) {
+            Quote quote = quote(text);
+            assertTrue(text, quote.contains(PRICE));
+            assertFalse(text, quote.hasValue(PRICE));
+        }
+    }
+
+
+    public void testNotAvailableVersusAbsent() {
+
+        Quote quote = Quote.builder()
+                .set(QuoteAttribute.SYMBOL, "BMO.TO")
+                .set(QuoteAttribute.COMPANY_NAME, "N/A")
+                .set(PRICE, "N/A")
+                .build();
+
+        assertTrue(quote.contains(QuoteAttribute.COMPANY_NAME));
+        assertFalse(quote.hasValue(QuoteAttribute.COMPANY_NAME));
+        assertNull(quote.getText(QuoteAttribute.COMPANY_NAME));
+        assertTrue(quote.contains(PRICE));
+        assertFalse(quote.hasValue(PRICE));
+
+        assertFalse(quote.contains(QuoteAttribute.BOOK_VALUE));
+        assertFalse(quote.hasValue(QuoteAttribute.BOOK_VALUE));
+        assertTrue(Double.isNaN(quote.getDouble(QuoteAttribute.BOOK_VALUE)));
+        assertNull(quote.getText(QuoteAttribute.DIVIDEND_DATE));
+
+        HashMap<QuoteAttribute, String> map = quote.toMap();
+        assertEquals(3, map.size());
+        assertEquals(Quote.NOT_AVAILABLE, map.get(QuoteAttribute.COMPANY_NAME));
+        assertEquals(Quote.NOT_AVAILABLE, map.get(PRICE));
+        assertFalse(map.containsKey(QuoteAttribute.BOOK_VALUE));
+
+    }
+
+
+    public void testTextIsNotNumeric() {
+        try {
+            quote("1.00").getDouble(QuoteAttribute.SYMBOL);
+            fail("Expected SYMBOL not to be numeric");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+
+    public void testMapRoundTrip() {
+
+        HashMap<QuoteAttribute, String> row = new HashMap<>();
+        row.put(QuoteAttribute.SYMBOL, "BMO.TO");
+        row.put(QuoteAttribute.COMPANY_NAME, "Bank of Montreal");
+        row.put(PRICE, "-58.50");
+        row.put(QuoteAttribute.BOOK_VALUE, "N/A");
+        row.put(QuoteAttribute.DIVIDEND_YIELD, "1.2345678901234567");
+        row.put(QuoteAttribute.EX_DIVIDEND_DATE, "N/A");
+
+        List<HashMap<QuoteAttribute, String>> rows = Arrays.asList(row);
+        List<Quote> quotes = Quote.fromMaps(rows);
+        assertEquals(rows, Quote.toMaps(quotes));
+        assertEquals(quotes.get(0), Quote.fromMap(quotes.get(0).toMap()));
+        assertEquals(quotes.get(0).hashCode(), Quote.fromMap(row).hashCode());
+        assertEquals("BMO.TO", quotes.get(0).getSymbol());
+
+    }
+
+
+    private static Quote quote(String price) {
+        return Quote.builder().set(PRICE, price).build();
+    }
+
+
+    private static void assertNumber(String text, double expected, String expectedText) {
+        Quote quote = quote(text);
+        assertTrue(text, quote.hasValue(PRICE));
+        assertEquals(text, expected, quote.getDouble(PRICE), Math.abs(expected) * 1e-15);
+        assertEquals(text, expectedText, quote.getText(PRICE));
+        assertEquals(text, new BigDecimal(expectedText), quote.getDecimal(PRICE));
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.accounted4.stockquote.tmx;
+
+
+/**
+ * Black-Scholes pricing of European options on a non dividend paying underlying: option
+ * price, implied volatility and the Greeks.
+ *
+ * Arguments are primitives: spot and strike prices, time to expiry in years, the
+ * continuously compounded risk free rate, and volatility as a fraction (0.2 for 20%).
+ * Nothing is allocated, so the functions can be run over large arrays of options; see
+ * impliedVolatilities() and OptionAnalytics.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public final class BlackScholes {
+
+    private static final double SQRT_2_PI = Math.sqrt(2 * Math.PI);
+
+    // Implied volatility search
+    private static final double MIN_VOLATILITY = 1e-6;
+    private static final double MAX_VOLATILITY = 5;
+    private static final double PRICE_TOLERANCE = 1e-9;
+    private static final int MAX_ITERATIONS = 100;
+
+
+    private BlackScholes() {
+    }
+
+
+    /**
+     * @return The option's price
+     */
+    public static double price(boolean call, double spot, double strike, double years, double rate, double volatility) {
+
+        double volatilityRootTime = volatility * Math.sqrt(years);
+        double d1 = (Math.log(spot / strike) + (rate + volatility * volatility / 2) * years) / volatilityRootTime;
+        double d2 = d1 - volatilityRootTime;
+        double discountedStrike = strike * Math.exp(-rate * years);
+
+        if (call) {
+            return spot * normalCdf(d1) - discountedStrike * normalCdf(d2);
+        }
+        return discountedStrike * normalCdf(-d2) - spot * normalCdf(-d1);
+
+    }
+
+
+    /**
+     * @return Change in option price per unit change in the spot price
+     */
+    public static double delta(boolean call, double spot, double strike, double years, double rate, double volatility) {
+        double d1 = d1(spot, strike, years, rate, volatility);
+        return call ? normalCdf(d1) : normalCdf(d1) - 1;
+    }
+
+
+    /**
+     * @return Change in delta per unit change in the spot price, the same for calls and puts
+     */
+    public static double gamma(double spot, double strike, double years, double rate, double volatility) {
+        double d1 = d1(spot, strike, years, rate, volatility);
+        return normalPdf(d1) / (spot * volatility * Math.sqrt(years));
+    }
+
+
+    /**
+     * @return Change in option price per unit (100 percentage points) change in volatility,
+     * the same for calls and puts
+     */
+    public static double vega(double spot, double strike, double years, double rate, double volatility) {
+        double d1 = d1(spot, strike, years, rate, volatility);
+        return spot * normalPdf(d1) * Math.sqrt(years);
+    }
+
+
+    /**
+     * @return Change in option price per year passing
+     */
+    public static double theta(boolean call, double spot, double strike, double years, double rate, double volatility) {
+
+        double rootTime = Math.sqrt(years);
+        double d1 = d1(spot, strike, years, rate, volatility);
+        double d2 = d1 - volatility * rootTime;
+        double decay = -spot * normalPdf(d1) * volatility / (2 * rootTime);
+        double discountedStrike = strike * Math.exp(-rate * years);
+
+        if (call) {
+            return decay - rate * discountedStrike * normalCdf(d2);
+        }
+        return decay + rate * discountedStrike * normalCdf(-d2);
+
+    }
+
+
+    /**
+     * @return Change in option price per unit (100 percentage points) change in the rate
+     */
+    public static double rho(boolean call, double spot, double strike, double years, double rate, double volatility) {
+
+        double d2 = d1(spot, strike, years, rate, volatility) - volatility * Math.sqrt(years);
+        double discountedStrike = strike * Math.exp(-rate * years);
+
+        if (call) {
+            return years * discountedStrike * normalCdf(d2);
+        }
+        return -years * discountedStrike * normalCdf(-d2);
+
+    }
+
+
+    /**
+     * The volatility at which the model price is the given price: Newton's method on vega,
+     * kept within a bracket around the root and falling back to bisection when a step would
+     * leave it.
+     *
+     * @return The implied volatility, or NaN if the price is outside what any volatility
+     * between 0.0001% and 500% could give (ex: below intrinsic value), or the option has
+     * expired
+     */
+    public static double impliedVolatility(boolean call, double price, double spot, double strike, double years, double rate) {
+
+        if (!(years > 0) || !(price > 0) || !(spot > 0) || !(strike > 0)) {
+            return Double.NaN;
+        }
+
+        double low = MIN_VOLATILITY;
+        double high = MAX_VOLATILITY;
+        if (price < price(call, spot, strike, years, rate, low) || price > price(call, spot, strike, years, rate, high)) {
+            return Double.NaN;
+        }
+
+        // Brenner and Subrahmanyam's at the money estimate as a start
+        double volatility = Math.min(Math.max(SQRT_2_PI / Math.sqrt(years) * price / spot, 0.01), 2);
+
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+
+            double difference = price(call, spot, strike, years, rate, volatility) - price;
+            if (Math.abs(difference) < PRICE_TOLERANCE) {
+                return volatility;
+            }
+
+            // The price rises with volatility
+            if (difference > 0) {
+                high = volatility;
+            } else {
+                low = volatility;
+            }
+
+            double vega = vega(spot, strike, years, rate, volatility);
+            double next = volatility - difference / vega;
+            volatility = (vega > 1e-12 && next > low && next < high) ? next : (low + high) / 2;
+
+            if (high - low < 1e-12) {
+                return volatility;
+            }
+
+        }
+
+        return volatility;
+
+    }
+
+
+    /**
+     * Implied volatilities of many options on one underlying, into an array: the loop over
+     * impliedVolatility(), without allocation.
+     *
+     * @param spot Price of the underlying
+     * @param rate Risk free rate
+     * @param calls Whether each option is a call
+     * @param prices Price of each option
+     * @param strikes Strike of each option
+     * @param years Time to expiry of each option
+     * @param volatilities Receives the implied volatility of each option, NaN where there is none
+     * @param count Number of options: the first count entries of the arrays are used
+     */
+    public static void impliedVolatilities(double spot, double rate, boolean[] calls, double[] prices,
+            double[] strikes, double[] years, double[] volatilities, int count) {
+        for (int i = 0; i < count; i++) {
+            volatilities[i] = impliedVolatility(calls[i], prices[i], spot, strikes[i], years[i], rate);
+        }
+    }
+
+
+    private static double d1(double spot, double strike, double years, double rate, double volatility) {
+        return (Math.log(spot / strike) + (rate + volatility * volatility / 2) * years) / (volatility * Math.sqrt(years));
+    }
+
+
+    static double normalPdf(double x) {
+        return Math.exp(-x * x / 2) / SQRT_2_PI;
+    }
+
+
+    /**
+     * Standard normal cumulative distribution, to double precision: Hart's algorithm as given
+     * by G. West, "Better approximations to cumulative normal functions" (2005).
+     */
+    static double normalCdf(double x) {
+
+        double xAbs = Math.abs(x);
+        double tail;
+
+        if (xAbs > 37) {
+            tail = 0;
+        } else {
+            double exponential = Math.exp(-xAbs * xAbs / 2);
+            if (xAbs < 7.07106781186547) {
+                double b = 3.52624965998911E-02 * xAbs + 0.700383064443688;
+                b = b * xAbs + 6.37396220353165;
+                b = b * xAbs + 33.912866078383;
+                b = b * xAbs + 112.079291497871;
+                b = b * xAbs + 221.213596169931;
+                b = b * xAbs + 220.206867912376;
+                tail = exponential * b;
+                b = 8.83883476483184E-02 * xAbs + 1.75566716318264;
+                b = b * xAbs + 16.064177579207;
+                b = b * xAbs + 86.7807322029461;
+                b = b * xAbs + 296.564248779674;
+                b = b * xAbs + 637.333633378831;
+                b = b * xAbs + 793.826512519948;
+                b = b * xAbs + 440.413735824752;
+                tail = tail / b;
+            } else {
+                double b = xAbs + 0.65;
+                b = xAbs + 4 / b;
+                b = xAbs + 3 / b;
+                b = xAbs + 2 / b;
+                b = xAbs + 1 / b;
+                tail = exponential / b / 2.506628274631;
+            }
+        }
+
+        return x > 0 ? 1 - tail : tail;
+
+    }
+
+}
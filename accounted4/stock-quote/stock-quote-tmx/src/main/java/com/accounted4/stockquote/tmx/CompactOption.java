@@ -0,0 +1,325 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+
+/**
+ * An immutable option in a few primitive fields: the expiry as a day count from
+ * 1970-01-01, and strike, bid, ask and last prices as longs in thousandths (the TMX
+ * quotes to three decimals), with open interest and volume. About 72 bytes, against
+ * several hundred for an Option with its GregorianCalendar and BigDecimals.
+ *
+ * Formatting needs no shared formatter objects, so it is safe from any thread, and
+ * appendTo() allocates nothing beyond growing the given StringBuilder. Output is as
+ * Option.toString(), ex: "CALL BMO 2012-Jun-16 44.00 bid: 10.00 ask: 10.15 last: 11.15",
+ * except that it is the same in every locale: English month names, prices rounded half
+ * even to two decimals without grouping.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public final class CompactOption implements Comparable<CompactOption> {
+
+    /** Price units per dollar */
+    public static final int PRICE_SCALE = 1000;
+    private static final int PRICE_SCALE_DIGITS = 3;
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private final OptionType optionType;
+    private final String symbol;
+    private final int expiryEpochDay;
+    private final long strike;
+    private final long bid;
+    private final long ask;
+    private final long last;
+    private final long openInterest;
+    private final long volume;
+
+
+    /**
+     * @param optionType CALL or PUT
+     * @param symbol The underlying security
+     * @param expiryEpochDay Expiry date, as days since 1970-01-01
+     * @param strike Strike price, in thousandths
+     * @param bid Bid price, in thousandths
+     * @param ask Ask price, in thousandths
+     * @param last Last price, in thousandths
+     * @param openInterest Contracts outstanding
+     * @param volume Contracts traded on the day
+     */
+    public CompactOption(OptionType optionType, String symbol, int expiryEpochDay, long strike, long bid, long ask, long last,
+            long openInterest, long volume) {
+        this.optionType = optionType;
+        this.symbol = symbol;
+        this.expiryEpochDay = expiryEpochDay;
+        this.strike = strike;
+        this.bid = bid;
+        this.ask = ask;
+        this.last = last;
+        this.openInterest = openInterest;
+        this.volume = volume;
+    }
+
+
+    /**
+     * @param option An option
+     * @return The option in compact form, prices rounded half even to thousandths
+     */
+    public static CompactOption of(Option option) {
+        Calendar expiry = option.getExpiryDate();
+        return new CompactOption(
+                option.getOptionType(),
+                option.getSymbol(),
+                toEpochDay(expiry.get(Calendar.YEAR), expiry.get(Calendar.MONTH) + 1, expiry.get(Calendar.DAY_OF_MONTH)),
+                toScaled(option.getStrikePrice()),
+                toScaled(option.getBidPrice()),
+                toScaled(option.getAskPrice()),
+                toScaled(option.getLastPrice()),
+                option.getOpenInterest(),
+                option.getVolume());
+    }
+
+
+    /**
+     * @return A new Option with the same values, prices to two decimals unless a third
+     * is needed
+     */
+    public Option toOption() {
+        int date = toDate(expiryEpochDay);
+        GregorianCalendar expiry = new GregorianCalendar(date / 10000, date / 100 % 100 - 1, date % 100);
+        expiry.getTimeInMillis();
+        return new Option(optionType, symbol, expiry, toBigDecimal(strike), toBigDecimal(bid), toBigDecimal(ask), toBigDecimal(last),
+                openInterest, volume);
+    }
+
+
+    /**
+     * Append the option as Option.toString() would.
+     *
+     * @param sb Receives the text
+     * @return sb
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        sb.append(optionType).append(' ').append(symbol).append(' ');
+        appendDate(sb, expiryEpochDay).append(' ');
+        appendPrice(sb, strike).append(" bid: ");
+        appendPrice(sb, bid).append(" ask: ");
+        appendPrice(sb, ask).append(" last: ");
+        return appendPrice(sb, last);
+    }
+
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(64)).toString();
+    }
+
+
+    /**
+     * Append a date as yyyy-MMM-dd, ex: 2012-Jun-16.
+     *
+     * @param sb Receives the text
+     * @param epochDay The date, as days since 1970-01-01
+     * @return sb
+     */
+    public static StringBuilder appendDate(StringBuilder sb, int epochDay) {
+        int date = toDate(epochDay);
+        int day = date % 100;
+        sb.append(date / 10000).append('-').append(MONTHS[date / 100 % 100 - 1]).append('-');
+        if (day < 10) {
+            sb.append('0');
+        }
+        return sb.append(day);
+    }
+
+
+    /**
+     * Append a price in thousandths to two decimals, rounding half even, ex: 10150 as 10.15.
+     *
+     * @param sb Receives the text
+     * @param scaled The price, in thousandths
+     * @return sb
+     */
+    public static StringBuilder appendPrice(StringBuilder sb, long scaled) {
+
+        long magnitude = Math.abs(scaled);
+        long cents = magnitude / 10;
+        long remainder = magnitude % 10;
+        if (remainder > 5 || (remainder == 5 && (cents & 1) == 1)) {
+            cents++;
+        }
+
+        if (scaled < 0 && cents != 0) {
+            sb.append('-');
+        }
+        sb.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+
+    }
+
+
+    /**
+     * @param year Year
+     * @param month Month, 1 - 12
+     * @param day Day of the month
+     * @return Days from 1970-01-01 to the date
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+
+    /*
+     * Days to civil date, as yyyymmdd: H. Hinnant, "chrono-Compatible Low-Level Date Algorithms"
+     */
+    static int toDate(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+
+    private static long toScaled(BigDecimal price) {
+        return price.setScale(PRICE_SCALE_DIGITS, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+    }
+
+
+    /*
+     * Two decimals where they are enough, as the TMX page quotes prices: Option equality
+     * is on the strike BigDecimal, scale included
+     */
+    private static BigDecimal toBigDecimal(long scaled) {
+        if (scaled % 10 == 0) {
+            return BigDecimal.valueOf(scaled / 10, PRICE_SCALE_DIGITS - 1);
+        }
+        return BigDecimal.valueOf(scaled, PRICE_SCALE_DIGITS);
+    }
+
+
+    /**
+     * Order by:  SYMBOL, OPTION_TYPE, EXPIRY_DATE, STRIKE_PRICE, as Option
+     */
+    @Override
+    public int compareTo(CompactOption other) {
+
+        int result = symbol.compareTo(other.symbol);
+        if (0 != result) { return result; }
+
+        result = optionType.compareTo(other.optionType);
+        if (0 != result) { return result; }
+
+        result = Integer.compare(expiryEpochDay, other.expiryEpochDay);
+        if (0 != result) { return result; }
+
+        return Long.compare(strike, other.strike);
+
+    }
+
+
+    /**
+     * Equal when the same option (type, symbol, expiry and strike), as Option
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CompactOption)) {
+            return false;
+        }
+        CompactOption other = (CompactOption) obj;
+        return optionType == other.optionType && symbol.equals(other.symbol)
+                && expiryEpochDay == other.expiryEpochDay && strike == other.strike;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 83 * hash + optionType.hashCode();
+        hash = 83 * hash + symbol.hashCode();
+        hash = 83 * hash + expiryEpochDay;
+        hash = 83 * hash + (int) (strike ^ (strike >>> 32));
+        return hash;
+    }
+
+
+    public OptionType getOptionType() {
+        return optionType;
+    }
+
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+
+    /**
+     * @return the expiry date, as days since 1970-01-01
+     */
+    public int getExpiryEpochDay() {
+        return expiryEpochDay;
+    }
+
+
+    /**
+     * @return the strike price, in thousandths
+     */
+    public long getStrike() {
+        return strike;
+    }
+
+
+    /**
+     * @return the bid price, in thousandths
+     */
+    public long getBid() {
+        return bid;
+    }
+
+
+    /**
+     * @return the ask price, in thousandths
+     */
+    public long getAsk() {
+        return ask;
+    }
+
+
+    /**
+     * @return the last price, in thousandths
+     */
+    public long getLast() {
+        return last;
+    }
+
+
+    public long getOpenInterest() {
+        return openInterest;
+    }
+
+
+    public long getVolume() {
+        return volume;
+    }
+
+}
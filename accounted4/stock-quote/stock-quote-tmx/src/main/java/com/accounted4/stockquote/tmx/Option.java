@@ -16,13 +16,20 @@ import java.util.Objects;
  */
 public class Option implements Comparable {
 
-    private static final NumberFormat numberFormat = NumberFormat.getInstance();
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MMM-dd");
-    
-    static { 
-        numberFormat.setMinimumFractionDigits(2);
-        numberFormat.setMaximumFractionDigits(2);
-    }
+    // Formats are not thread safe: one of each per thread
+    private static final ThreadLocal<NumberFormat> numberFormat = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            return priceFormat();
+        }
+    };
+
+    private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MMM-dd");
+        }
+    };
     
     private OptionType optionType;
     private String symbol;
@@ -33,6 +40,9 @@ public class Option implements Comparable {
     private BigDecimal askPrice;
     private BigDecimal lastPrice;
 
+    private long openInterest;
+    private long volume;
+
     /**
      * Assume ZERO prices as indicators of unknown values
      * 
@@ -57,6 +67,29 @@ public class Option implements Comparable {
         
     }
 
+
+    /**
+     * With open interest and volume: contracts outstanding, and traded on the day. ZERO
+     * prices are unknown values.
+     */
+    public Option(
+             OptionType optionType
+            ,String symbol
+            ,GregorianCalendar expiryDate
+            ,BigDecimal strikePrice
+            ,BigDecimal bidPrice
+            ,BigDecimal askPrice
+            ,BigDecimal lastPrice
+            ,long openInterest
+            ,long volume
+            ) {
+
+        this(optionType, symbol, expiryDate, strikePrice, bidPrice, askPrice, lastPrice);
+        this.openInterest = openInterest;
+        this.volume = volume;
+
+    }
+
     
     @Override
     public String toString() {
@@ -65,6 +98,10 @@ public class Option implements Comparable {
     }
 
 
+    /**
+     * Equal when the same option: type, symbol, expiry and strike. Strikes are compared
+     * by value, ex: 44.0 and 44.00 are the same strike, as in compareTo().
+     */
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -83,10 +120,10 @@ public class Option implements Comparable {
         if (!Objects.equals(this.expiryDate, other.expiryDate)) {
             return false;
         }
-        if (!Objects.equals(this.strikePrice, other.strikePrice)) {
-            return false;
+        if (null == this.strikePrice || null == other.strikePrice) {
+            return this.strikePrice == other.strikePrice;
         }
-        return true;
+        return this.strikePrice.compareTo(other.strikePrice) == 0;
     }
 
 
@@ -96,7 +133,8 @@ public class Option implements Comparable {
         hash = 83 * hash + (this.optionType != null ? this.optionType.hashCode() : 0);
         hash = 83 * hash + Objects.hashCode(this.symbol);
         hash = 83 * hash + Objects.hashCode(this.expiryDate);
-        hash = 83 * hash + Objects.hashCode(this.strikePrice);
+        // By value, whatever the scale
+        hash = 83 * hash + (null == this.strikePrice ? 0 : Double.valueOf(this.strikePrice.doubleValue()).hashCode());
         return hash;
     }
     
@@ -133,24 +171,45 @@ public class Option implements Comparable {
     
     
     
+    /**
+     * A number format for prices, to two decimals. For use by one thread.
+     *
+     * @return A new format
+     */
+    static NumberFormat priceFormat() {
+        NumberFormat format = NumberFormat.getInstance();
+        format.setMinimumFractionDigits(2);
+        format.setMaximumFractionDigits(2);
+        return format;
+    }
+
+
+    /**
+     * @return The option in compact, immutable form
+     */
+    public CompactOption toCompactOption() {
+        return CompactOption.of(this);
+    }
+
+
     public String getDisplayExpiryDate() {
-        return dateFormat.format(expiryDate.getTime());
+        return dateFormat.get().format(expiryDate.getTime());
     }
 
     public String getDisplayStrikePrice() {
-        return numberFormat.format(getStrikePrice());
+        return numberFormat.get().format(getStrikePrice());
     }
 
     public String getDisplayBidPrice() {
-        return numberFormat.format(getBidPrice());
+        return numberFormat.get().format(getBidPrice());
     }
 
     public String getDisplayAskPrice() {
-        return numberFormat.format(getAskPrice());
+        return numberFormat.get().format(getAskPrice());
     }
 
     public String getDisplayLastPrice() {
-        return numberFormat.format(getLastPrice());
+        return numberFormat.get().format(getLastPrice());
     }
 
 
@@ -250,6 +309,38 @@ public class Option implements Comparable {
     }
 
 
+    /**
+     * @return the number of contracts outstanding
+     */
+    public long getOpenInterest() {
+        return openInterest;
+    }
+
+
+    /**
+     * @param openInterest the openInterest to set
+     */
+    public void setOpenInterest(long openInterest) {
+        this.openInterest = openInterest;
+    }
+
+
+    /**
+     * @return the number of contracts traded on the day
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+
+    /**
+     * @param volume the volume to set
+     */
+    public void setVolume(long volume) {
+        this.volume = volume;
+    }
+
+
     /**
      * @return the symbol
      */
@@ -0,0 +1,228 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Black-Scholes analytics for every option of a chain, as of a valuation time: implied
+ * volatility from the option's market price, a model price at the underlying's historical
+ * volatility, and the Greeks.
+ *
+ * Results are held in arrays indexed like the options: calls then puts, each by expiry
+ * and strike. Where a value cannot be computed it is NaN: an option without a usable
+ * market price has no implied volatility, and one expired at the valuation time has no
+ * values at all. The Greeks are at the implied volatility, or at the historical
+ * volatility for an option without one.
+ *
+ * The market price is the mid point of bid and ask when both are quoted, else the last
+ * trade. Time to expiry runs to the start of the expiry date, in years of 365 days.
+ *
+ * Immutable once evaluated; prices updated in the chain afterwards are not reflected.
+ * See OptionAnalyticsEngine to evaluate many chains.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionAnalytics {
+
+    private static final double MILLIS_PER_YEAR = TimeUnit.DAYS.toMillis(365);
+
+    private final String symbol;
+    private final long valuationMillis;
+    private final double rate;
+    private final double spot;
+    private final double historicalVolatility;
+
+    private final Option[] options;
+    private final double[] years;
+    private final double[] marketPrices;
+    private final double[] impliedVolatilities;
+    private final double[] modelPrices;
+    private final double[] deltas;
+    private final double[] gammas;
+    private final double[] vegas;
+    private final double[] thetas;
+    private final double[] rhos;
+
+
+    /**
+     * Evaluate a chain.
+     *
+     * @param optionChain The chain
+     * @param valuationMillis Time of the valuation, in epoch milliseconds
+     * @param rate Risk free rate, continuously compounded, as a fraction
+     */
+    public OptionAnalytics(OptionChain optionChain, long valuationMillis, double rate) {
+
+        this.symbol = optionChain.getSymbol();
+        this.valuationMillis = valuationMillis;
+        this.rate = rate;
+        this.spot = optionChain.getLastPrice().doubleValue();
+        BigDecimal historical = optionChain.getHistoricalVolatility();
+        this.historicalVolatility = (null == historical) ? Double.NaN : historical.doubleValue() / 100;
+
+        int count = optionChain.getCalls().size() + optionChain.getPuts().size();
+        options = new Option[count];
+        years = new double[count];
+        marketPrices = new double[count];
+        impliedVolatilities = new double[count];
+        modelPrices = new double[count];
+        deltas = new double[count];
+        gammas = new double[count];
+        vegas = new double[count];
+        thetas = new double[count];
+        rhos = new double[count];
+
+        boolean[] calls = new boolean[count];
+        double[] strikes = new double[count];
+
+        int i = 0;
+        for (Option option : optionChain.getCalls()) {
+            options[i++] = option;
+        }
+        for (Option option : optionChain.getPuts()) {
+            options[i++] = option;
+        }
+
+        for (i = 0; i < count; i++) {
+            Option option = options[i];
+            calls[i] = OptionType.CALL == option.getOptionType();
+            strikes[i] = option.getStrikePrice().doubleValue();
+            years[i] = (option.getExpiryDate().getTimeInMillis() - valuationMillis) / MILLIS_PER_YEAR;
+            marketPrices[i] = marketPrice(option);
+        }
+
+        BlackScholes.impliedVolatilities(spot, rate, calls, marketPrices, strikes, years, impliedVolatilities, count);
+
+        for (i = 0; i < count; i++) {
+
+            if (!(years[i] > 0)) {
+                modelPrices[i] = deltas[i] = gammas[i] = vegas[i] = thetas[i] = rhos[i] = Double.NaN;
+                continue;
+            }
+
+            modelPrices[i] = BlackScholes.price(calls[i], spot, strikes[i], years[i], rate, historicalVolatility);
+
+            double volatility = Double.isNaN(impliedVolatilities[i]) ? historicalVolatility : impliedVolatilities[i];
+            deltas[i] = BlackScholes.delta(calls[i], spot, strikes[i], years[i], rate, volatility);
+            gammas[i] = BlackScholes.gamma(spot, strikes[i], years[i], rate, volatility);
+            vegas[i] = BlackScholes.vega(spot, strikes[i], years[i], rate, volatility);
+            thetas[i] = BlackScholes.theta(calls[i], spot, strikes[i], years[i], rate, volatility);
+            rhos[i] = BlackScholes.rho(calls[i], spot, strikes[i], years[i], rate, volatility);
+
+        }
+
+    }
+
+
+    private static double marketPrice(Option option) {
+        double bid = option.getBidPrice().doubleValue();
+        double ask = option.getAskPrice().doubleValue();
+        if (bid > 0 && ask >= bid) {
+            return (bid + ask) / 2;
+        }
+        double last = option.getLastPrice().doubleValue();
+        return last > 0 ? last : Double.NaN;
+    }
+
+
+    /**
+     * @param option An option of the chain
+     * @return Its index in the results, -1 if it is not in the chain
+     */
+    public int indexOf(Option option) {
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].equals(option)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return Number of options evaluated
+     */
+    public int size() {
+        return options.length;
+    }
+
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+
+    public long getValuationMillis() {
+        return valuationMillis;
+    }
+
+
+    public double getRate() {
+        return rate;
+    }
+
+
+    public Option getOption(int index) {
+        return options[index];
+    }
+
+
+    /**
+     * @return Time to expiry in years
+     */
+    public double getYears(int index) {
+        return years[index];
+    }
+
+
+    public double getMarketPrice(int index) {
+        return marketPrices[index];
+    }
+
+
+    /**
+     * @return Implied volatility as a fraction (0.2 for 20%)
+     */
+    public double getImpliedVolatility(int index) {
+        return impliedVolatilities[index];
+    }
+
+
+    /**
+     * @return Model price at the underlying's historical volatility
+     */
+    public double getModelPrice(int index) {
+        return modelPrices[index];
+    }
+
+
+    public double getDelta(int index) {
+        return deltas[index];
+    }
+
+
+    public double getGamma(int index) {
+        return gammas[index];
+    }
+
+
+    public double getVega(int index) {
+        return vegas[index];
+    }
+
+
+    /**
+     * @return Theta, per year
+     */
+    public double getTheta(int index) {
+        return thetas[index];
+    }
+
+
+    public double getRho(int index) {
+        return rhos[index];
+    }
+
+}
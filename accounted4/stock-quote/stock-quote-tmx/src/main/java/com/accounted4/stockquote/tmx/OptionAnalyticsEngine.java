@@ -0,0 +1,137 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Evaluates OptionAnalytics for many chains at once, one chain per task, spread over the
+ * processors.
+ *
+ * The work is all computation, so it runs on its own executor rather than the shared
+ * quote executor, whose threads spend their time waiting on the network: by default an
+ * executor of daemon threads, one per processor, shared by all engines.
+ *
+ * The risk free rate may be set with the system property stockquote.options.riskFreeRate
+ * (a fraction, default 0.01).
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionAnalyticsEngine {
+
+    public static final double DEFAULT_RISK_FREE_RATE = 0.01;
+
+    private final double rate;
+    private final ExecutorService executor;
+
+
+    /**
+     * An engine at the default rate, or as set by system property, on the shared executor.
+     */
+    public OptionAnalyticsEngine() {
+        this(Double.parseDouble(System.getProperty("stockquote.options.riskFreeRate", String.valueOf(DEFAULT_RISK_FREE_RATE))),
+             DefaultExecutorHolder.EXECUTOR);
+    }
+
+
+    /**
+     * @param rate Risk free rate, continuously compounded, as a fraction
+     * @param executor Executor on which to evaluate chains
+     */
+    public OptionAnalyticsEngine(double rate, ExecutorService executor) {
+        this.rate = rate;
+        this.executor = executor;
+    }
+
+
+    /**
+     * Evaluate one chain, on the calling thread.
+     *
+     * @param optionChain The chain
+     * @param valuationMillis Time of the valuation, in epoch milliseconds
+     * @return The analytics of each option in the chain
+     */
+    public OptionAnalytics evaluate(OptionChain optionChain, long valuationMillis) {
+        return new OptionAnalytics(optionChain, valuationMillis, rate);
+    }
+
+
+    /**
+     * Evaluate many chains in parallel.
+     *
+     * @param optionChains The chains
+     * @param valuationMillis Time of the valuation, in epoch milliseconds
+     * @return The analytics of each chain, in the order given
+     * @throws InterruptedException If interrupted while waiting: evaluations not yet
+     * started are cancelled
+     */
+    public List<OptionAnalytics> evaluate(List<OptionChain> optionChains, final long valuationMillis) throws InterruptedException {
+
+        List<Callable<OptionAnalytics>> tasks = new ArrayList<>(optionChains.size());
+        for (final OptionChain optionChain : optionChains) {
+            tasks.add(new Callable<OptionAnalytics>() {
+                @Override
+                public OptionAnalytics call() {
+                    return evaluate(optionChain, valuationMillis);
+                }
+            });
+        }
+
+        List<OptionAnalytics> result = new ArrayList<>(optionChains.size());
+        for (Future<OptionAnalytics> future : executor.invokeAll(tasks)) {
+            try {
+                result.add(future.get());
+            } catch (ExecutionException ee) {
+                // Nothing checked is thrown: a bug or an error
+                Throwable cause = ee.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (RuntimeException) cause;
+            }
+        }
+        return result;
+
+    }
+
+
+    public double getRate() {
+        return rate;
+    }
+
+
+    private static class DefaultExecutorHolder {
+
+        static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                THREADS, THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "stock-quote-analytics-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            ((ThreadPoolExecutor) EXECUTOR).allowCoreThreadTimeOut(true);
+        }
+
+    }
+
+}
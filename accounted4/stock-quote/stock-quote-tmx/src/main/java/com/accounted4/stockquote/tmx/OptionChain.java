@@ -3,6 +3,16 @@ package com.accounted4.stockquote.tmx;
 
 import java.math.BigDecimal;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 
@@ -10,23 +20,49 @@ import java.util.TreeSet;
 /**
  * A collection of the available options (CALL and PUT) available for
  * a given company.
+ *
+ * A chain can be kept up to date in place with update(), which reports only the
+ * options whose prices moved. Not thread safe.
+ *
+ * Besides the calls and puts sets, ordered by expiry then strike, the chain answers
+ * range queries by expiry and strike (or moneyness: strike over the last price of the
+ * underlying commodity). They use an index of sorted strike arrays per expiry, so cost
+ * a binary search plus the options returned rather than a scan of the chain.
+ *
+ * Along with the last price, the chain holds the rest of the underlying commodity's quote
+ * from the option page: net change, bid, ask and historical volatility, each null where
+ * the page did not give it. See OptionChainSnapshot to archive chains.
  * 
  * @author Glenn Heinze <glenn@gheinze.com>
  */
 public class OptionChain {
 
-    private static final NumberFormat numberFormat = NumberFormat.getInstance();
-    static { 
-        numberFormat.setMinimumFractionDigits(2); 
-        numberFormat.setMaximumFractionDigits(2); 
-    } 
+    // Formats are not thread safe: one per thread
+    private static final ThreadLocal<NumberFormat> numberFormat = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            return Option.priceFormat();
+        }
+    };
     
     
     private String symbol;
     private BigDecimal lastPrice;
     private String queryTime;
+    private BigDecimal netChange;
+    private BigDecimal bidPrice;
+    private BigDecimal askPrice;
+    private BigDecimal historicalVolatility;
     private final TreeSet<Option> calls = new TreeSet<>();
     private final TreeSet<Option> puts = new TreeSet<>();
+
+    // Each option by its key (type, symbol, expiry, strike: see Option.equals), to itself
+    private final HashMap<Option, Option> optionsByKey = new HashMap<>();
+
+    // For range queries: expiry (in millis) to the strikes of that expiry. Built on first
+    // query, dropped when options are added or removed.
+    private TreeMap<Long, StrikeIndex> callIndex;
+    private TreeMap<Long, StrikeIndex> putIndex;
     
     
     public OptionChain(String symbol, BigDecimal lastPrice, String queryTime) {
@@ -43,6 +79,12 @@ public class OptionChain {
                     " to an option chain for: " + getSymbol() );
         }
         
+        if (optionsByKey.containsKey(option)) {
+            return;
+        }
+        optionsByKey.put(option, option);
+        dropStrikeIndex();
+
         if (option.getOptionType().equals(OptionType.CALL)) {
             calls.add(option);
         } else {
@@ -51,6 +93,280 @@ public class OptionChain {
         
     }
 
+
+    /**
+     * Bring this chain up to date with a newer query of the same symbol, in place. Options
+     * are matched on type, expiry and strike; the prices of a matched option are updated on
+     * the existing Option object, so references to it stay current. Options not in the
+     * newer chain are removed, and new ones added. Open interest and volume are brought up
+     * to date too, but are not reported as changes.
+     *
+     * @param latest A newer chain for the same symbol
+     * @return The changes: options added, removed, or with a bid, ask or last price which
+     * moved. Calls first, then puts; for each, the removals and then the other changes,
+     * by expiry and strike.
+     */
+    public List<OptionChange> update(OptionChain latest) {
+
+        if (!latest.getSymbol().equals(symbol)) {
+            throw new IllegalArgumentException("Attempt to update option chain for: " + getSymbol() +
+                    " with a chain for: " + latest.getSymbol() );
+        }
+
+        List<OptionChange> changes = new ArrayList<>();
+        update(calls, latest.calls, changes);
+        update(puts, latest.puts, changes);
+
+        lastPrice = latest.lastPrice;
+        queryTime = latest.queryTime;
+        netChange = latest.netChange;
+        bidPrice = latest.bidPrice;
+        askPrice = latest.askPrice;
+        historicalVolatility = latest.historicalVolatility;
+
+        return changes;
+
+    }
+
+
+    /*
+     * Merge one side of the chain
+     */
+    private void update(TreeSet<Option> current, TreeSet<Option> latest, List<OptionChange> changes) {
+
+        // Gone from the latest chain
+        for (Iterator<Option> it = current.iterator(); it.hasNext();) {
+            Option option = it.next();
+            if (!latest.contains(option)) {
+                it.remove();
+                optionsByKey.remove(option);
+                dropStrikeIndex();
+                changes.add(new OptionChange(OptionChange.Kind.REMOVED, option, option.getBidPrice(), option.getAskPrice(), option.getLastPrice()));
+            }
+        }
+
+        for (Option option : latest) {
+
+            Option existing = optionsByKey.get(option);
+            if (null == existing) {
+                Option added = copy(option);
+                optionsByKey.put(added, added);
+                current.add(added);
+                dropStrikeIndex();
+                changes.add(new OptionChange(OptionChange.Kind.ADDED, added, null, null, null));
+                continue;
+            }
+
+            existing.setOpenInterest(option.getOpenInterest());
+            existing.setVolume(option.getVolume());
+
+            BigDecimal previousBid = existing.getBidPrice();
+            BigDecimal previousAsk = existing.getAskPrice();
+            BigDecimal previousLast = existing.getLastPrice();
+            if (previousBid.compareTo(option.getBidPrice()) != 0
+                    || previousAsk.compareTo(option.getAskPrice()) != 0
+                    || previousLast.compareTo(option.getLastPrice()) != 0) {
+                existing.setBidPrice(option.getBidPrice());
+                existing.setAskPrice(option.getAskPrice());
+                existing.setLastPrice(option.getLastPrice());
+                changes.add(new OptionChange(OptionChange.Kind.CHANGED, existing, previousBid, previousAsk, previousLast));
+            }
+
+        }
+
+    }
+
+
+    /**
+     * @return The expiry dates of the chain's options, calls or puts, soonest first
+     */
+    public List<GregorianCalendar> getExpiryDates() {
+        TreeMap<Long, GregorianCalendar> expiries = new TreeMap<>();
+        for (StrikeIndex strikeIndex : getStrikeIndex(OptionType.CALL).values()) {
+            expiries.put(strikeIndex.expiry, strikeIndex.expiryDate);
+        }
+        for (StrikeIndex strikeIndex : getStrikeIndex(OptionType.PUT).values()) {
+            expiries.put(strikeIndex.expiry, strikeIndex.expiryDate);
+        }
+        return new ArrayList<>(expiries.values());
+    }
+
+
+    /**
+     * @param optionType CALL or PUT
+     * @param expiryDate Expiry date
+     * @return The options of the expiry, by strike
+     */
+    public List<Option> getOptions(OptionType optionType, Calendar expiryDate) {
+        return getOptions(optionType, expiryDate, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+
+    /**
+     * @param optionType CALL or PUT
+     * @param expiryDate Expiry date
+     * @param minStrike Lowest strike, inclusive
+     * @param maxStrike Highest strike, inclusive
+     * @return The options of the expiry with a strike in the range, by strike
+     */
+    public List<Option> getOptions(OptionType optionType, Calendar expiryDate, double minStrike, double maxStrike) {
+        StrikeIndex strikeIndex = getStrikeIndex(optionType).get(expiryDate.getTimeInMillis());
+        if (null == strikeIndex) {
+            return Collections.emptyList();
+        }
+        return strikeIndex.range(minStrike, maxStrike);
+    }
+
+
+    /**
+     * @param optionType CALL or PUT
+     * @param fromExpiryDate Earliest expiry date, inclusive
+     * @param toExpiryDate Latest expiry date, inclusive
+     * @param minStrike Lowest strike, inclusive
+     * @param maxStrike Highest strike, inclusive
+     * @return The options in the ranges, by expiry then strike
+     */
+    public List<Option> getOptions(OptionType optionType, Calendar fromExpiryDate, Calendar toExpiryDate, double minStrike, double maxStrike) {
+        List<Option> result = new ArrayList<>();
+        Map<Long, StrikeIndex> expiries = getStrikeIndex(optionType).subMap(fromExpiryDate.getTimeInMillis(), true, toExpiryDate.getTimeInMillis(), true);
+        for (StrikeIndex strikeIndex : expiries.values()) {
+            result.addAll(strikeIndex.range(minStrike, maxStrike));
+        }
+        return result;
+    }
+
+
+    /**
+     * Options by moneyness: the strike as a multiple of the last price of the underlying
+     * commodity, ex: 0.9 to 1.1 for strikes within 10% of the price.
+     *
+     * @param optionType CALL or PUT
+     * @param expiryDate Expiry date
+     * @param minMoneyness Lowest strike over last price, inclusive
+     * @param maxMoneyness Highest strike over last price, inclusive
+     * @return The options of the expiry with a strike in the range, by strike
+     */
+    public List<Option> getOptionsByMoneyness(OptionType optionType, Calendar expiryDate, double minMoneyness, double maxMoneyness) {
+        double price = lastPrice.doubleValue();
+        return getOptions(optionType, expiryDate, minMoneyness * price, maxMoneyness * price);
+    }
+
+
+    /**
+     * @param optionType CALL or PUT
+     * @param expiryDate Expiry date
+     * @param fraction How near, as a fraction of the last price, ex: 0.1 for within 10%
+     * @return The options of the expiry with a strike within the fraction of the last price
+     * of the underlying commodity, by strike
+     */
+    public List<Option> getNearTheMoney(OptionType optionType, Calendar expiryDate, double fraction) {
+        return getOptionsByMoneyness(optionType, expiryDate, 1 - fraction, 1 + fraction);
+    }
+
+
+    private TreeMap<Long, StrikeIndex> getStrikeIndex(OptionType optionType) {
+        if (OptionType.CALL == optionType) {
+            if (null == callIndex) {
+                callIndex = buildStrikeIndex(calls);
+            }
+            return callIndex;
+        }
+        if (null == putIndex) {
+            putIndex = buildStrikeIndex(puts);
+        }
+        return putIndex;
+    }
+
+
+    private void dropStrikeIndex() {
+        callIndex = null;
+        putIndex = null;
+    }
+
+
+    /*
+     * The set is in expiry then strike order: each expiry is a run of options with
+     * ascending strikes
+     */
+    private static TreeMap<Long, StrikeIndex> buildStrikeIndex(TreeSet<Option> options) {
+
+        TreeMap<Long, StrikeIndex> strikeIndex = new TreeMap<>();
+        Option[] ordered = options.toArray(new Option[options.size()]);
+
+        int start = 0;
+        while (start < ordered.length) {
+            long expiry = ordered[start].getExpiryDate().getTimeInMillis();
+            int end = start + 1;
+            while (end < ordered.length && ordered[end].getExpiryDate().getTimeInMillis() == expiry) {
+                end++;
+            }
+            strikeIndex.put(expiry, new StrikeIndex(Arrays.copyOfRange(ordered, start, end)));
+            start = end;
+        }
+
+        return strikeIndex;
+
+    }
+
+
+    /*
+     * The options of one expiry, and their strikes as a sorted primitive array
+     */
+    private static class StrikeIndex {
+
+        private final long expiry;
+        private final GregorianCalendar expiryDate;
+        private final double[] strikes;
+        private final List<Option> options;
+
+
+        StrikeIndex(Option[] options) {
+            this.expiryDate = options[0].getExpiryDate();
+            this.expiry = expiryDate.getTimeInMillis();
+            this.options = Collections.unmodifiableList(Arrays.asList(options));
+            strikes = new double[options.length];
+            for (int i = 0; i < options.length; i++) {
+                strikes[i] = options[i].getStrikePrice().doubleValue();
+            }
+        }
+
+
+        List<Option> range(double minStrike, double maxStrike) {
+            int from = countBelow(minStrike, false);
+            int to = countBelow(maxStrike, true);
+            return from < to ? options.subList(from, to) : Collections.<Option>emptyList();
+        }
+
+
+        /*
+         * Number of strikes below the given one, or at or below it: by binary search
+         */
+        private int countBelow(double strike, boolean orAt) {
+            int low = 0;
+            int high = strikes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (strikes[mid] < strike || (orAt && strikes[mid] == strike)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+    }
+
+
+    /*
+     * The latest chain's options are not shared: later updates change prices in place
+     */
+    private static Option copy(Option option) {
+        return new Option(option.getOptionType(), option.getSymbol(), option.getExpiryDate(),
+                option.getStrikePrice(), option.getBidPrice(), option.getAskPrice(), option.getLastPrice(),
+                option.getOpenInterest(), option.getVolume());
+    }
+
     
     @Override
     public String toString() {
@@ -75,7 +391,7 @@ public class OptionChain {
     
 
     public String getDisplayLastPrice() {
-        return numberFormat.format(lastPrice);
+        return numberFormat.get().format(lastPrice);
     }
 
     
@@ -126,6 +442,85 @@ public class OptionChain {
         this.queryTime = queryTime;
     }
 
+    /**
+     * @return the net change in the underlying commodity's price on the day, null if not known
+     */
+    public BigDecimal getNetChange() {
+        return netChange;
+    }
+
+
+    /**
+     * @param netChange the netChange to set
+     */
+    public void setNetChange(BigDecimal netChange) {
+        this.netChange = netChange;
+    }
+
+
+    /**
+     * @return the underlying commodity's bid price, null if not known
+     */
+    public BigDecimal getBidPrice() {
+        return bidPrice;
+    }
+
+
+    /**
+     * @param bidPrice the bidPrice to set
+     */
+    public void setBidPrice(BigDecimal bidPrice) {
+        this.bidPrice = bidPrice;
+    }
+
+
+    /**
+     * @return the underlying commodity's ask price, null if not known
+     */
+    public BigDecimal getAskPrice() {
+        return askPrice;
+    }
+
+
+    /**
+     * @param askPrice the askPrice to set
+     */
+    public void setAskPrice(BigDecimal askPrice) {
+        this.askPrice = askPrice;
+    }
+
+
+    /**
+     * @return the 30 day historical volatility of the underlying commodity, in percent as
+     * quoted (18.42 for 18.42%); null if not known
+     */
+    public BigDecimal getHistoricalVolatility() {
+        return historicalVolatility;
+    }
+
+
+    /**
+     * @param historicalVolatility the historical volatility to set, in percent
+     */
+    public void setHistoricalVolatility(BigDecimal historicalVolatility) {
+        this.historicalVolatility = historicalVolatility;
+    }
+
+    /**
+     * @return The chain's options in compact, immutable form: calls then puts, each by
+     * expiry and strike
+     */
+    public List<CompactOption> getCompactOptions() {
+        List<CompactOption> options = new ArrayList<>(calls.size() + puts.size());
+        for (Option option : calls) {
+            options.add(CompactOption.of(option));
+        }
+        for (Option option : puts) {
+            options.add(CompactOption.of(option));
+        }
+        return options;
+    }
+
     // TODO: return copy. or not.
     public TreeSet<Option> getCalls() {
         return calls;
@@ -0,0 +1,221 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+
+/**
+ * A compact binary form of option chains, to archive them and load them again without
+ * fetching or parsing the option page.
+ *
+ * A stream holds any number of chains one after the other; read() returns null at the end
+ * of the stream. Each chain is:
+ *
+ *     int      MAGIC, "TMXC"
+ *     byte     VERSION
+ *     UTF      symbol
+ *     UTF      query time, empty for none
+ *     decimal  last price, net change, bid, ask, historical volatility
+ *     varint   number of options, then for each option:
+ *       byte     CALL (0) or PUT (1)
+ *       varint   expiry, as days since 1970-01-01
+ *       decimal  strike, bid, ask, last
+ *       varint   open interest, volume
+ *
+ * A decimal is a byte for its scale (NULL_SCALE for null) then its unscaled value as a
+ * varint, so prices keep their scale and compare equal after a round trip. A varint is a
+ * long zig-zag encoded into seven bits a byte, low bits first: most prices and counts take
+ * one to three bytes. An option is about 20 bytes, against some 200 of html.
+ *
+ * The streams are not buffered here: pass buffered streams when writing to files.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public final class OptionChainSnapshot {
+
+    public static final int MAGIC = 0x544D5843;
+    public static final byte VERSION = 1;
+
+    private static final byte NULL_SCALE = Byte.MIN_VALUE;
+    private static final byte CALL = 0;
+    private static final byte PUT = 1;
+
+
+    private OptionChainSnapshot() {
+    }
+
+
+    /**
+     * Write a chain.
+     *
+     * @param optionChain The chain
+     * @param out Receives the chain
+     * @throws IOException If the chain could not be written
+     * @throws IllegalArgumentException If a value has more than 127 decimals or more than 18
+     * digits
+     */
+    public static void write(OptionChain optionChain, OutputStream out) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(out);
+
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeUTF(optionChain.getSymbol());
+        data.writeUTF(null == optionChain.getQueryTime() ? "" : optionChain.getQueryTime());
+
+        writeDecimal(data, optionChain.getLastPrice());
+        writeDecimal(data, optionChain.getNetChange());
+        writeDecimal(data, optionChain.getBidPrice());
+        writeDecimal(data, optionChain.getAskPrice());
+        writeDecimal(data, optionChain.getHistoricalVolatility());
+
+        writeVarLong(data, optionChain.getCalls().size() + optionChain.getPuts().size());
+        for (Option option : optionChain.getCalls()) {
+            writeOption(data, option);
+        }
+        for (Option option : optionChain.getPuts()) {
+            writeOption(data, option);
+        }
+
+        data.flush();
+
+    }
+
+
+    /**
+     * Read the next chain.
+     *
+     * @param in The chains
+     * @return The next chain, null at the end of the stream
+     * @throws IOException If the stream could not be read, is not a snapshot, or ends within
+     * a chain
+     */
+    public static OptionChain read(InputStream in) throws IOException {
+
+        DataInputStream data = new DataInputStream(in);
+
+        int first = data.read();
+        if (first < 0) {
+            return null;
+        }
+        int magic = (first << 24) | (data.readUnsignedByte() << 16) | data.readUnsignedShort();
+        if (MAGIC != magic) {
+            throw new IOException("Not an option chain snapshot");
+        }
+        byte version = data.readByte();
+        if (VERSION != version) {
+            throw new IOException("Unsupported option chain snapshot version: " + version);
+        }
+
+        String symbol = data.readUTF();
+        String queryTime = data.readUTF();
+
+        OptionChain optionChain = new OptionChain(symbol, readDecimal(data), queryTime.isEmpty() ? null : queryTime);
+        optionChain.setNetChange(readDecimal(data));
+        optionChain.setBidPrice(readDecimal(data));
+        optionChain.setAskPrice(readDecimal(data));
+        optionChain.setHistoricalVolatility(readDecimal(data));
+
+        long count = readVarLong(data);
+        for (long i = 0; i < count; i++) {
+            optionChain.addOption(readOption(data, symbol));
+        }
+
+        return optionChain;
+
+    }
+
+
+    private static void writeOption(DataOutputStream data, Option option) throws IOException {
+        Calendar expiry = option.getExpiryDate();
+        data.writeByte(OptionType.CALL == option.getOptionType() ? CALL : PUT);
+        writeVarLong(data, CompactOption.toEpochDay(expiry.get(Calendar.YEAR), expiry.get(Calendar.MONTH) + 1, expiry.get(Calendar.DAY_OF_MONTH)));
+        writeDecimal(data, option.getStrikePrice());
+        writeDecimal(data, option.getBidPrice());
+        writeDecimal(data, option.getAskPrice());
+        writeDecimal(data, option.getLastPrice());
+        writeVarLong(data, option.getOpenInterest());
+        writeVarLong(data, option.getVolume());
+    }
+
+
+    private static Option readOption(DataInputStream data, String symbol) throws IOException {
+
+        byte type = data.readByte();
+        if (CALL != type && PUT != type) {
+            throw new IOException("Bad option type in snapshot: " + type);
+        }
+
+        int date = CompactOption.toDate((int) readVarLong(data));
+        GregorianCalendar expiry = new GregorianCalendar(date / 10000, date / 100 % 100 - 1, date % 100);
+        // As the page handler: compute the time once, before the chain compares options
+        expiry.getTimeInMillis();
+
+        return new Option(
+                CALL == type ? OptionType.CALL : OptionType.PUT,
+                symbol,
+                expiry,
+                readDecimal(data),
+                readDecimal(data),
+                readDecimal(data),
+                readDecimal(data),
+                readVarLong(data),
+                readVarLong(data));
+
+    }
+
+
+    private static void writeDecimal(DataOutputStream data, BigDecimal value) throws IOException {
+        if (null == value) {
+            data.writeByte(NULL_SCALE);
+            return;
+        }
+        BigInteger unscaled = value.unscaledValue();
+        if (value.scale() <= NULL_SCALE || value.scale() > Byte.MAX_VALUE || unscaled.bitLength() > 63) {
+            throw new IllegalArgumentException("Value out of range for a snapshot: " + value);
+        }
+        data.writeByte(value.scale());
+        writeVarLong(data, unscaled.longValue());
+    }
+
+
+    private static BigDecimal readDecimal(DataInputStream data) throws IOException {
+        byte scale = data.readByte();
+        if (NULL_SCALE == scale) {
+            return null;
+        }
+        return BigDecimal.valueOf(readVarLong(data), scale);
+    }
+
+
+    private static void writeVarLong(DataOutputStream data, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            data.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        data.writeByte((int) zigZag);
+    }
+
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("Malformed number in snapshot");
+    }
+
+}
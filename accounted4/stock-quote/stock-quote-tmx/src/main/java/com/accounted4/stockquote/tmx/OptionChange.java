@@ -0,0 +1,122 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.math.BigDecimal;
+
+
+/**
+ * A difference in one option between two versions of its chain: the option is new,
+ * gone, or one or more of its bid, ask and last prices moved.
+ *
+ * Prices compare by value, so 1.5 and 1.50 are the same price. For an added option
+ * the previous prices are null; for a removed one the option holds its last known
+ * prices.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionChange {
+
+    public enum Kind { ADDED, CHANGED, REMOVED }
+
+    private final Kind kind;
+    private final Option option;
+    private final BigDecimal previousBidPrice;
+    private final BigDecimal previousAskPrice;
+    private final BigDecimal previousLastPrice;
+
+
+    /**
+     * @param kind Kind of change
+     * @param option The option, with its current prices
+     * @param previousBidPrice Bid before the change, null for an added option
+     * @param previousAskPrice Ask before the change, null for an added option
+     * @param previousLastPrice Last before the change, null for an added option
+     */
+    public OptionChange(Kind kind, Option option, BigDecimal previousBidPrice, BigDecimal previousAskPrice, BigDecimal previousLastPrice) {
+        this.kind = kind;
+        this.option = option;
+        this.previousBidPrice = previousBidPrice;
+        this.previousAskPrice = previousAskPrice;
+        this.previousLastPrice = previousLastPrice;
+    }
+
+
+    public boolean isBidPriceChanged() {
+        return Kind.CHANGED == kind && option.getBidPrice().compareTo(previousBidPrice) != 0;
+    }
+
+
+    public boolean isAskPriceChanged() {
+        return Kind.CHANGED == kind && option.getAskPrice().compareTo(previousAskPrice) != 0;
+    }
+
+
+    public boolean isLastPriceChanged() {
+        return Kind.CHANGED == kind && option.getLastPrice().compareTo(previousLastPrice) != 0;
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder result = new StringBuilder();
+        result.append(kind).append(" ").append(option.getOptionType()).append(" ").append(option.getSymbol())
+                .append(" ").append(option.getDisplayExpiryDate()).append(" ").append(option.getDisplayStrikePrice());
+
+        if (Kind.CHANGED != kind) {
+            return result.toString();
+        }
+        if (isBidPriceChanged()) {
+            result.append(" bid: ").append(previousBidPrice).append(" -> ").append(option.getBidPrice());
+        }
+        if (isAskPriceChanged()) {
+            result.append(" ask: ").append(previousAskPrice).append(" -> ").append(option.getAskPrice());
+        }
+        if (isLastPriceChanged()) {
+            result.append(" last: ").append(previousLastPrice).append(" -> ").append(option.getLastPrice());
+        }
+        return result.toString();
+
+    }
+
+
+    /**
+     * @return the kind of change
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+
+    /**
+     * @return the option, as it now is in the chain (or was, if removed)
+     */
+    public Option getOption() {
+        return option;
+    }
+
+
+    /**
+     * @return the bid price before the change
+     */
+    public BigDecimal getPreviousBidPrice() {
+        return previousBidPrice;
+    }
+
+
+    /**
+     * @return the ask price before the change
+     */
+    public BigDecimal getPreviousAskPrice() {
+        return previousAskPrice;
+    }
+
+
+    /**
+     * @return the last price before the change
+     */
+    public BigDecimal getPreviousLastPrice() {
+        return previousLastPrice;
+    }
+
+}
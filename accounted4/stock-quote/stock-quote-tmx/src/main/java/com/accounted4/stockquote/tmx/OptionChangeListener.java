@@ -0,0 +1,19 @@
+package com.accounted4.stockquote.tmx;
+
+
+/**
+ * Receives the differences found when an option chain is refreshed, one event per
+ * option added, removed or repriced.
+ *
+ * Called on the thread refreshing the chain, in the order given by OptionChain.update().
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public interface OptionChangeListener {
+
+    /**
+     * @param change What changed for one option
+     */
+    void onOptionChange(OptionChange change);
+
+}
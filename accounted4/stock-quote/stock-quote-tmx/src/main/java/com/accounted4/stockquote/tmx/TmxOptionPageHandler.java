@@ -5,7 +5,6 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.regex.Pattern;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -13,75 +12,127 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * SAX parsing:
- * 
+ *
  * Parse out the response page received from an option query to the TMX:
  * ex query:  http://www.m-x.ca/nego_cotes_en.php?pageTopPrint=yes&symbol=cm
- * 
+ *
  * 1. Scan until the text: "Last update:" is encountered, and grab the string, this gives quote time
- * 
+ *
  * 2. Keep scanning until the text for one of the "price" fields is found. The text will set the type
  *    of the price field (last, bid, ask, ...) for the underlying commodity. This will be picked up
  *    via the sub-element <STRONG>. Start collection with this tag, end collection at end of tag.
  *    If the "30-Day Historical Volatility:" has been collected, then collection of the underlying
- *    commodity information is considered complete and "priceState" is cleared.
- * 
+ *    commodity information is considered complete and the field to collect is cleared.
+ *
  * 3. Keep scanning until the text "Calls" is encountered. This sets the optionType state. Now, when
  *    <TR> elements are encountered, they are considered rows for CALL options.
- * 
+ *
+ * The page is a few hundred option rows, and each row a handful of text nodes, so the handler
+ * works on the parser's character buffer directly: labels are matched in place, cell text is
+ * gathered into a reused buffer and numbers are read from it, and the row title is scanned by
+ * hand. No String is created for a text node, only the values kept in the chain.
+ *
+ * Besides the prices, each option's volume is taken from its row and its open interest from
+ * the row title. The underlying commodity's net change, bid, ask and volatility go to the chain
+ * along with its last price.
+ *
  * @author Glenn Heinze <glenn@gheinze.com>
  */
 public class TmxOptionPageHandler extends DefaultHandler {
 
-    private boolean collectUnderlyingCommodityPrice = false;
-    private String underlyingCommodoityPriceFieldToCollect = "";
-    
+    /*
+     * Where the parse is: in the page text looking for labels, in a <STRONG> holding a
+     * value of the underlying commodity, or in a row (or cell of a row) of option data.
+     */
+    private enum State { PAGE, UNDERLYING_VALUE, OPTION_ROW, OPTION_CELL }
+
+    // Columns of an option row. Column 0 repeats the strike, which is taken from the row title.
+    private static final int BID_COLUMN = 1;
+    private static final int ASK_COLUMN = 2;
+    private static final int LAST_COLUMN = 3;
+    private static final int VOLUME_COLUMN = 5;
+
+    private State state = State.PAGE;
+    private String underlyingCommodityPriceFieldToCollect = null;
     private OptionType optionType = null;
-    private boolean optionRowProcessing = false;
-    private boolean optionColumnProcessing = false;
+
+    private char[] text = new char[64];
+    private int textLength = 0;
+
     private int optionColumnIndex = -1;
-    
-    private String[] optionBuilder = new String[6];
-    private HashMap<String, String> underlyingCommodityPriceInfo = new HashMap<>();
-    
+    private GregorianCalendar expiryDate;
+    private BigDecimal strikePrice;
+    private BigDecimal bidPrice;
+    private BigDecimal askPrice;
+    private BigDecimal lastPrice;
+    private long openInterest;
+    private long volume;
+
+    private final HashMap<String, String> underlyingCommodityPriceInfo = new HashMap<>();
+
     private String symbol;
-    private ArrayList<Option> optionList = new ArrayList<>();
-    
-    
+    private final ArrayList<Option> optionList = new ArrayList<>();
+
+
     public TmxOptionPageHandler(String symbol) {
         this.symbol = symbol;
     }
-    
-    
-    
+
+
+    /**
+     * Ready the handler for another page, forgetting everything from the last one, so a
+     * handler can be reused along with its parser.
+     *
+     * @param symbol The underlying security of the next page
+     */
+    public void reset(String symbol) {
+        this.symbol = symbol;
+        state = State.PAGE;
+        underlyingCommodityPriceFieldToCollect = null;
+        optionType = null;
+        textLength = 0;
+        optionColumnIndex = -1;
+        underlyingCommodityPriceInfo.clear();
+        optionList.clear();
+    }
+
+
+
     @Override
     public void startElement(String uri, String localName, String qName,
                              Attributes attributes) throws SAXException {
 
-        if ( !underlyingCommodoityPriceFieldToCollect.isEmpty() && qName.equalsIgnoreCase("STRONG")) {
-            collectUnderlyingCommodityPrice = true;
-            return;
-        }
-        
-        // If we haven't hit the option data, then the rest of the checks are moot.
-        if (null == optionType) {
-            return;
-        }
-        
-        // Entering a new row of option data, initialize all option variables
-        if ( qName.equalsIgnoreCase("TR") && null != attributes.getValue("title") ) {
-            String title = attributes.getValue("title");
-            optionBuilder = new String[6];
-            optionBuilder[0] = title;
-            optionRowProcessing = true;
-            optionColumnIndex = -1;
-            return;
-        }
+        switch (state) {
+
+            case PAGE:
+                if (null != underlyingCommodityPriceFieldToCollect && qName.equalsIgnoreCase("STRONG")) {
+                    state = State.UNDERLYING_VALUE;
+                    textLength = 0;
+                    return;
+                }
+                // If we haven't hit the option data, then rows are of no interest
+                if (null != optionType && qName.equalsIgnoreCase("TR")) {
+                    String title = attributes.getValue("title");
+                    if (null != title) {
+                        startOption(title);
+                        state = State.OPTION_ROW;
+                    }
+                }
+                return;
+
+            case OPTION_ROW:
+            case OPTION_CELL:
+                // Moving on to a new column for the option data
+                if (qName.equalsIgnoreCase("TD")) {
+                    optionColumnIndex++;
+                    textLength = 0;
+                    state = State.OPTION_CELL;
+                }
+                return;
+
+            default:
+                return;
 
-        // Moving on to a new column for the option data, increment the column
-        if (optionRowProcessing && qName.equalsIgnoreCase("TD")) {
-            optionColumnIndex++;
-            optionColumnProcessing = true;
-            return;
         }
 
     }
@@ -91,196 +142,440 @@ public class TmxOptionPageHandler extends DefaultHandler {
     public void endElement(String uri, String localName,
                            String qName) throws SAXException {
 
-        // Completed gathering all the info for an option, wrap it up and exit processing mode
-        if (optionRowProcessing && qName.equalsIgnoreCase("TR")) {
-            optionRowProcessing = false;
-            addOption(optionBuilder);
-            //System.out.println(optionBuilder[0] + " | " + optionBuilder[1] + " | " + optionBuilder[2] + " | " + optionBuilder[3] + " | " + optionBuilder[4] + " | " + optionBuilder[5]);
-            return;
-        }
+        switch (state) {
 
-        // Completed gathering option data for a column, exit column mode processing
-        if (optionColumnProcessing && qName.equalsIgnoreCase("TD")) {
-            optionColumnProcessing = false;
-            return;
-        }
+            case OPTION_CELL:
+                // Completed gathering option data for a column
+                if (qName.equalsIgnoreCase("TD")) {
+                    endOptionColumn();
+                    state = State.OPTION_ROW;
+                } else if (qName.equalsIgnoreCase("TR")) {
+                    // A row may end without closing its last cell
+                    endOptionColumn();
+                    addOption();
+                    state = State.PAGE;
+                }
+                return;
+
+            case OPTION_ROW:
+                // Completed gathering all the info for an option, wrap it up
+                if (qName.equalsIgnoreCase("TR")) {
+                    addOption();
+                    state = State.PAGE;
+                }
+                return;
+
+            case UNDERLYING_VALUE:
+                // Completed gathering some info for the underlying commodity. Could have been split
+                // over several strong elements: add it to what is there.
+                if (qName.equalsIgnoreCase("STRONG")) {
+                    String value = underlyingCommodityPriceInfo.get(underlyingCommodityPriceFieldToCollect);
+                    String collected = new String(text, 0, textLength);
+                    underlyingCommodityPriceInfo.put(underlyingCommodityPriceFieldToCollect, (null == value) ? collected : value + collected);
+                    if (ULC_VOLATILITY_PREFIX.equals(underlyingCommodityPriceFieldToCollect)) {
+                        underlyingCommodityPriceFieldToCollect = null;
+                    }
+                    state = State.PAGE;
+                }
+                return;
+
+            default:
+                return;
 
-        // Completed gathering some info for the underlying commodity
-        if (collectUnderlyingCommodityPrice && qName.equalsIgnoreCase("STRONG")) {
-            collectUnderlyingCommodityPrice = false;
-            if (ULC_VOLATILITY_PREFIX.equals(underlyingCommodoityPriceFieldToCollect)) {
-                underlyingCommodoityPriceFieldToCollect = "";
-                //System.out.println(underlyingCommodityPriceInfo);
-            }
-            return;
         }
 
     }
 
 
     // ULC: Underlying Commodity. Not the option itself.
-    
+
     private static final String ULC_LAST_UPDATE_PREFIX = "Last update:";
-    
+
     private static final String ULC_LAST_PRICE_PREFIX = "Last Price:";
     private static final String ULC_NET_CHANGE_PREFIX = "Net Change:";
-    private static final String ULC_BID_PRICE_PREFIX = " Bid Price:";
+    private static final String ULC_BID_PRICE_PREFIX = "Bid Price:";
     private static final String ULC_ASK_PRICE_PREFIX = "Ask Price:";
     private static final String ULC_VOLATILITY_PREFIX = "30-Day Historical Volatility:";
     private static final String ULC_QUERY_TIME = "Query Time";
-    
+
     private static final String CALLS = "Calls";
     private static final String PUTS = "Puts";
-    
+
 
     @Override
     public void characters(char ch[], int start, int length) throws SAXException {
 
-        
-        String text = new String(ch, start, length).trim();
+        int end = start + length;
+
+        switch (state) {
+
+            case OPTION_CELL:
+                appendText(ch, start, end);
+                return;
+
+            case UNDERLYING_VALUE:
+                // Each piece is trimmed, as the value may be split over lines
+                int valueStart = trimStart(ch, start, end);
+                appendText(ch, valueStart, trimEnd(ch, valueStart, end));
+                return;
+
+            case PAGE:
+                matchLabel(ch, trimStart(ch, start, end), end);
+                return;
+
+            default:
+                return;
 
-        if (text.equals(CALLS)) {
-            optionType = OptionType.CALL;
-            // System.out.println("Entering CALL section");
-            return;
-            
-        } else if (text.equals(PUTS)) {
-            optionType = OptionType.PUT;
-            // System.out.println("Entering PUT section");
-            return;
-            
-        } else if (text.startsWith(ULC_LAST_UPDATE_PREFIX)) {
-            // The rest of the text has info about the query time
-            String updateString = text.substring(ULC_LAST_UPDATE_PREFIX.length()).trim();
-            underlyingCommodityPriceInfo.put(ULC_QUERY_TIME, updateString);
-            // System.out.println(updateString);
-            return;
-            
-        // Change state of what to collect in the underlying commodity: the data is under the sub-element <STRONG>, not here
-        } else if (text.startsWith(ULC_LAST_PRICE_PREFIX)) {
-            underlyingCommodoityPriceFieldToCollect = ULC_LAST_PRICE_PREFIX;
-        } else if (text.startsWith(ULC_NET_CHANGE_PREFIX)) {
-            underlyingCommodoityPriceFieldToCollect = ULC_NET_CHANGE_PREFIX;
-        } else if (text.startsWith(ULC_BID_PRICE_PREFIX)) {
-            underlyingCommodoityPriceFieldToCollect = ULC_BID_PRICE_PREFIX;
-        } else if (text.startsWith(ULC_ASK_PRICE_PREFIX)) {
-            underlyingCommodoityPriceFieldToCollect = ULC_ASK_PRICE_PREFIX;
-        } else if (text.startsWith(ULC_VOLATILITY_PREFIX)) {
-            underlyingCommodoityPriceFieldToCollect = ULC_VOLATILITY_PREFIX;
-            
-        } else if (collectUnderlyingCommodityPrice) {
-            // In a state for collecting a field of info for an underlying commodity. Could be split over
-            // lines. Grab it and through it in a hash.
-            String value = underlyingCommodityPriceInfo.get(underlyingCommodoityPriceFieldToCollect);
-            underlyingCommodityPriceInfo.put(underlyingCommodoityPriceFieldToCollect, (null == value) ? text : value + text);
         }
 
-        if (!optionRowProcessing || !optionColumnProcessing) {
+    }
+
+
+    /*
+     * Page text outside the option rows: look for the section headings and the labels of
+     * the underlying commodity's fields, by the first character and then in place.
+     */
+    private void matchLabel(char[] ch, int start, int end) {
+
+        end = trimEnd(ch, start, end);
+        if (start == end) {
             return;
         }
-        
-        if ( optionColumnIndex > 0 && optionColumnIndex < 6 ) {
-            optionBuilder[optionColumnIndex] = text;
+
+        switch (ch[start]) {
+
+            case 'C':
+                if (matches(ch, start, end, CALLS)) {
+                    optionType = OptionType.CALL;
+                }
+                return;
+
+            case 'P':
+                if (matches(ch, start, end, PUTS)) {
+                    optionType = OptionType.PUT;
+                }
+                return;
+
+            case 'L':
+                if (startsWith(ch, start, end, ULC_LAST_UPDATE_PREFIX)) {
+                    // The rest of the text has info about the query time
+                    int timeStart = trimStart(ch, start + ULC_LAST_UPDATE_PREFIX.length(), end);
+                    underlyingCommodityPriceInfo.put(ULC_QUERY_TIME, new String(ch, timeStart, end - timeStart));
+                } else {
+                    collectIfLabel(ch, start, end, ULC_LAST_PRICE_PREFIX);
+                }
+                return;
+
+            // Change state of what to collect in the underlying commodity: the data is under the sub-element <STRONG>, not here
+            case 'N':
+                collectIfLabel(ch, start, end, ULC_NET_CHANGE_PREFIX);
+                return;
+
+            case 'B':
+                collectIfLabel(ch, start, end, ULC_BID_PRICE_PREFIX);
+                return;
+
+            case 'A':
+                collectIfLabel(ch, start, end, ULC_ASK_PRICE_PREFIX);
+                return;
+
+            case '3':
+                collectIfLabel(ch, start, end, ULC_VOLATILITY_PREFIX);
+                return;
+
+            default:
+                return;
+
+        }
+
+    }
+
+
+    private void collectIfLabel(char[] ch, int start, int end, String label) {
+        if (startsWith(ch, start, end, label)) {
+            underlyingCommodityPriceFieldToCollect = label;
         }
-        
     }
 
+
     /*
-     * The raw data for an option row has been parsed out and stored as a set of strings.
-     * Attempt to convert the strings into appropriate date and numeric formats to creae
-     * an "Option" object. Store the created object into a collection.
+     * Entering a new row of option data: the title holds the expiry, strike and open interest, ex:
+     *
+     *     header=[ BMO   120616C44.00] body=[Open Interest: 0] delay=[5] fade=[off]
+     *
+     * Note the "spaces" after the symbol are actually "&nbsp;" (ie \u00A0), and are skipped
+     * as any space character. The expiry is yyMMdd, followed by C or P, then the strike up to
+     * the closing bracket.
      */
-    private void addOption(String[] optionBuilder) {
-        
-        // Field format example:
-        // Field 0 (strike): header=[ BMO   120616C44.00] body=[Open Interest: 0] delay=[5] fade=[off] 
-        // Field 1 (bid)   : 10.000
-        // Field 2 (ask)   : 10.150
-        // Field 3 (last)  : 11.150
-        
-        // Chop off all the stuff upto the symbol
-        String work = optionBuilder[0].replaceAll("^header=" + Pattern.quote("[") + "\\s", "");
-        
-        // Split the symbol from the rest of the string. Note the "spaces" in the returned document
-        // are actually "&nbsp;" symbols (ie \u00A0) which is not picked up by "\\s" regex
-        String symbolString = work.split("(\\p{Z})+")[0];
-        work = work.substring(symbolString.length()).replaceAll("(\\p{Z})*", "");
-        
-        String year = "20" + work.substring(0, 2);
-        String month = work.substring(2, 4);
-        String day = work.substring(4, 6);
-        String strikePriceString = work.substring(7, work.indexOf("]"));
-
-        GregorianCalendar expiryDate;
-        try {
-            expiryDate = new GregorianCalendar( Integer.parseInt(year), Integer.parseInt(month) - 1, Integer.parseInt(day) );
-        } catch(NumberFormatException nfe) {
-            expiryDate = new GregorianCalendar(1900, 0, 1);
+    private void startOption(String title) {
+
+        optionColumnIndex = -1;
+        bidPrice = BigDecimal.ZERO;
+        askPrice = BigDecimal.ZERO;
+        lastPrice = BigDecimal.ZERO;
+        volume = 0;
+        openInterest = toLong(title, title.indexOf(TITLE_OPEN_INTEREST));
+
+        int end = title.indexOf(']');
+        if (end < 0) {
+            end = title.length();
         }
-        
-        BigDecimal strikePrice;
-        try {
-            strikePrice = new BigDecimal(strikePriceString);
-        } catch(NumberFormatException nfe) {
-            strikePrice = BigDecimal.ZERO;
+
+        // Past the header and its leading space, the symbol and the spaces after it
+        int i = title.startsWith(TITLE_HEADER) ? TITLE_HEADER.length() : 0;
+        i = skipSpaces(title, i, end);
+        while (i < end && !Character.isSpaceChar(title.charAt(i))) {
+            i++;
         }
-        
-        BigDecimal bid;
-        try {
-            bid = new BigDecimal(optionBuilder[1]);
-        } catch(NumberFormatException nfe) {
-            bid = BigDecimal.ZERO;
+        i = skipSpaces(title, i, end);
+
+        int year = digits(title, i, end);
+        int month = digits(title, i + 2, end);
+        int day = digits(title, i + 4, end);
+        if (year < 0 || month < 0 || day < 0) {
+            expiryDate = new GregorianCalendar(1900, 0, 1);
+        } else {
+            expiryDate = new GregorianCalendar(2000 + year, month - 1, day);
         }
-        
-        BigDecimal ask;
-        try {
-            ask = new BigDecimal(optionBuilder[2]);
-        } catch(NumberFormatException nfe) {
-            ask = BigDecimal.ZERO;
+        // Compute the time once now: Calendar.compareTo clones a calendar whose time is not
+        // computed, and the chain's TreeSet compares each option several times
+        expiryDate.getTimeInMillis();
+
+        int strikeStart = Math.min(i + 7, end);
+        ensureCapacity(end - strikeStart);
+        title.getChars(strikeStart, end, text, 0);
+        strikePrice = toBigDecimal(text, 0, end - strikeStart);
+
+    }
+
+    private static final String TITLE_HEADER = "header=[";
+    private static final String TITLE_OPEN_INTEREST = "Open Interest:";
+
+
+    /*
+     * A cell of the option row is complete: pick up the prices
+     */
+    private void endOptionColumn() {
+
+        if (VOLUME_COLUMN == optionColumnIndex) {
+            volume = toLong(text, 0, textLength);
+            return;
         }
-        
-        BigDecimal last;
-        try {
-            last = new BigDecimal(optionBuilder[3]);
-        } catch(NumberFormatException nfe) {
-            last = BigDecimal.ZERO;
+
+        if (optionColumnIndex < BID_COLUMN || optionColumnIndex > LAST_COLUMN) {
+            return;
+        }
+
+        int start = trimStart(text, 0, textLength);
+        BigDecimal value = toBigDecimal(text, start, trimEnd(text, start, textLength) - start);
+
+        switch (optionColumnIndex) {
+            case BID_COLUMN:
+                bidPrice = value;
+                break;
+            case ASK_COLUMN:
+                askPrice = value;
+                break;
+            default:
+                lastPrice = value;
         }
-        
+
+    }
+
+
+    /*
+     * The data for an option row has been parsed out: create an "Option" object and store it
+     * into a collection.
+     */
+    private void addOption() {
+
         Option option = new Option(
              optionType
             ,symbol
             ,expiryDate
             ,strikePrice
-            ,bid
-            ,ask
-            ,last
+            ,bidPrice
+            ,askPrice
+            ,lastPrice
+            ,openInterest
+            ,volume
                 );
-        
+
         optionList.add(option);
-        
+
+    }
+
+
+    private void appendText(char[] ch, int start, int end) {
+        ensureCapacity(textLength + end - start);
+        System.arraycopy(ch, start, text, textLength, end - start);
+        textLength += end - start;
+    }
+
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > text.length) {
+            char[] grown = new char[Math.max(capacity, text.length * 2)];
+            System.arraycopy(text, 0, grown, 0, textLength);
+            text = grown;
+        }
     }
-    
-    
+
+
+    /*
+     * Unknown or unreadable prices are ZERO
+     */
+    private static BigDecimal toBigDecimal(char[] ch, int start, int length) {
+        if (length <= 0) {
+            return BigDecimal.ZERO;
+        }
+        try {
+            return new BigDecimal(ch, start, length);
+        } catch (NumberFormatException nfe) {
+            return BigDecimal.ZERO;
+        }
+    }
+
+
+    /*
+     * A count: the digits from the first one in the region, ignoring thousands separators.
+     * Zero if there are none.
+     */
+    private static long toLong(char[] ch, int start, int end) {
+        while (start < end && !Character.isDigit(ch[start])) {
+            start++;
+        }
+        long value = 0;
+        for (; start < end; start++) {
+            if (Character.isDigit(ch[start])) {
+                value = value * 10 + (ch[start] - '0');
+            } else if (ch[start] != ',') {
+                break;
+            }
+        }
+        return value;
+    }
+
+
+    /*
+     * A count in the title, after the label at the index: zero if the label is absent (-1)
+     * or has no digits before its closing bracket
+     */
+    private static long toLong(String title, int index) {
+        if (index < 0) {
+            return 0;
+        }
+        int i = index + TITLE_OPEN_INTEREST.length();
+        int end = title.indexOf(']', i);
+        if (end < 0) {
+            end = title.length();
+        }
+        long value = 0;
+        for (i = skipSpaces(title, i, end); i < end; i++) {
+            char c = title.charAt(i);
+            if (Character.isDigit(c)) {
+                value = value * 10 + (c - '0');
+            } else if (c != ',') {
+                break;
+            }
+        }
+        return value;
+    }
+
+
+    /*
+     * Value of the two digits at the index, -1 if they are not digits
+     */
+    private static int digits(String s, int index, int end) {
+        if (index + 2 > end) {
+            return -1;
+        }
+        int tens = Character.digit(s.charAt(index), 10);
+        int units = Character.digit(s.charAt(index + 1), 10);
+        return (tens < 0 || units < 0) ? -1 : tens * 10 + units;
+    }
+
+
+    private static int skipSpaces(String s, int index, int end) {
+        while (index < end && (Character.isSpaceChar(s.charAt(index)) || Character.isWhitespace(s.charAt(index)))) {
+            index++;
+        }
+        return index;
+    }
+
+
+    // Trimming as String.trim() does, on a region of a buffer
+
+    private static int trimStart(char[] ch, int start, int end) {
+        while (start < end && ch[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+
+    private static int trimEnd(char[] ch, int start, int end) {
+        while (end > start && ch[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+
+    private static boolean startsWith(char[] ch, int start, int end, String prefix) {
+        int length = prefix.length();
+        if (end - start < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (ch[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean matches(char[] ch, int start, int end, String s) {
+        return end - start == s.length() && startsWith(ch, start, end, s);
+    }
+
+
     /**
      * Don't call until after the parse has been done...
-     * 
-     * @return 
+     *
+     * @return
      */
     public OptionChain getOptionChain() {
-        
-        BigDecimal lastPrice = BigDecimal.ZERO;
-        try {
-            lastPrice = new BigDecimal( underlyingCommodityPriceInfo.get(ULC_LAST_PRICE_PREFIX) );
-        } catch(NumberFormatException nfe) {
-        }
-        
-        OptionChain optionChain = new OptionChain(symbol, lastPrice, underlyingCommodityPriceInfo.get(ULC_QUERY_TIME));
+
+        BigDecimal underlyingLastPrice = toBigDecimal(underlyingCommodityPriceInfo.get(ULC_LAST_PRICE_PREFIX), BigDecimal.ZERO);
+
+        OptionChain optionChain = new OptionChain(symbol, underlyingLastPrice, underlyingCommodityPriceInfo.get(ULC_QUERY_TIME));
+        optionChain.setNetChange(toBigDecimal(underlyingCommodityPriceInfo.get(ULC_NET_CHANGE_PREFIX), null));
+        optionChain.setBidPrice(toBigDecimal(underlyingCommodityPriceInfo.get(ULC_BID_PRICE_PREFIX), null));
+        optionChain.setAskPrice(toBigDecimal(underlyingCommodityPriceInfo.get(ULC_ASK_PRICE_PREFIX), null));
+        optionChain.setHistoricalVolatility(toBigDecimal(underlyingCommodityPriceInfo.get(ULC_VOLATILITY_PREFIX), null));
         for (Option option : optionList) {
             optionChain.addOption(option);
         }
-        
+
         return optionChain;
-        
+
+    }
+
+
+    /*
+     * A value of the underlying commodity, ignoring any percent sign
+     */
+    private static BigDecimal toBigDecimal(String value, BigDecimal unknown) {
+        if (null == value) {
+            return unknown;
+        }
+        try {
+            return new BigDecimal(value.replace("%", "").trim());
+        } catch(NumberFormatException nfe) {
+            return unknown;
+        }
     }
 
 }
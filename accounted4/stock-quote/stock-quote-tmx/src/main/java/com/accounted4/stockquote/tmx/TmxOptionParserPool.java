@@ -0,0 +1,107 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * A pool of html parsers for TMX option pages, each with its own page handler.
+ *
+ * Setting up a parser (the NekoHTML configuration, with its scanner, tag balancer and
+ * the Xerces components behind them) costs more than parsing an option page, so parsers
+ * are reset and reused rather than created per query. A parser and its handler are used
+ * by one thread at a time: taken from the pool for a parse and put back after it, so the
+ * handler needs no synchronization. A parser whose parse failed is not put back.
+ *
+ * At most maxIdle parsers are kept. When more threads parse at once, more parsers are
+ * created, and those which do not fit back in the pool are dropped.
+ *
+ * Thread safe.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class TmxOptionParserPool {
+
+    private final BlockingQueue<PooledParser> idle;
+    private final AtomicInteger createdCount = new AtomicInteger();
+
+
+    /**
+     * @param maxIdle Maximum number of parsers kept for reuse
+     */
+    public TmxOptionParserPool(int maxIdle) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("Pool must hold at least one parser");
+        }
+        idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+
+    /**
+     * Parse an option page into a chain.
+     *
+     * @param symbol The underlying security
+     * @param source The page
+     * @return The option chain on the page
+     * @throws SAXException If the page could not be parsed
+     * @throws IOException If the page could not be read
+     */
+    public OptionChain parse(String symbol, InputSource source) throws SAXException, IOException {
+
+        PooledParser parser = idle.poll();
+        if (null == parser) {
+            parser = new PooledParser();
+            createdCount.incrementAndGet();
+        }
+
+        OptionChain optionChain = parser.parse(symbol, source);
+        idle.offer(parser);
+        return optionChain;
+
+    }
+
+
+    /**
+     * @return Number of parsers created: those in the pool, in use, and any dropped
+     */
+    public int getCreatedCount() {
+        return createdCount.get();
+    }
+
+
+    /**
+     * @return Number of parsers waiting in the pool
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+
+    private static class PooledParser {
+
+        private final HtmlSaxParser parser = new HtmlSaxParser();
+        private final TmxOptionPageHandler handler = new TmxOptionPageHandler(null);
+
+
+        PooledParser() {
+            parser.setContentHandler(handler);
+        }
+
+
+        OptionChain parse(String symbol, InputSource source) throws SAXException, IOException {
+            handler.reset(symbol);
+            parser.parse(source);
+            OptionChain optionChain = handler.getOptionChain();
+            // Don't hold on to the page's options while idle
+            handler.reset(null);
+            return optionChain;
+        }
+
+    }
+
+}
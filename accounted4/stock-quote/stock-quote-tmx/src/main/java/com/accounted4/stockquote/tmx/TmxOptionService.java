@@ -1,11 +1,39 @@
 package com.accounted4.stockquote.tmx;
 
 
+import com.accounted4.stockquote.api.QuoteFuture;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
  * Query the Montreal Stock Exchange for Option information.
+ *
+ * Pages are parsed by a pool of reusable parsers, one per concurrent query. Many
+ * symbols can be queried at once with getOptionChains(), at most maxConcurrentQueries
+ * at a time.
+ *
+ * The exchange has moved the page before: the url used by the default constructor may be
+ * set with the system property stockquote.tmx.url, a template with ${symbol} in place of
+ * the symbol, ex: to point at a local replay server.
  * 
  * @author Glenn Heinze <glenn@gheinze.com>
  */
@@ -13,8 +41,39 @@ public class TmxOptionService {
     
     private static String SERVICE_NAME = "TMX Option Quotes";
     
-    //TODO: get url from a properties file: url info has changed in the past, shouldn't require a recompile
-    private static final String BASE_URL = "http://www.m-x.ca/nego_cotes_en.php?pageTopPrint=yes&symbol=${symbol}";
+    public static final String BASE_URL = "http://www.m-x.ca/nego_cotes_en.php?pageTopPrint=yes&symbol=${symbol}";
+    public static final String BASE_URL_PROPERTY = "stockquote.tmx.url";
+    private static final String SYMBOL_PLACEHOLDER = "${symbol}";
+
+    public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+
+    private static final int QUERY_THREADS = 8;
+
+    private final String urlTemplate;
+    private final int maxConcurrentQueries;
+    private final TmxOptionParserPool parserPool;
+
+
+    /**
+     * A service at BASE_URL, unless set by system property.
+     */
+    public TmxOptionService() {
+        this(System.getProperty(BASE_URL_PROPERTY, BASE_URL), DEFAULT_MAX_CONCURRENT_QUERIES);
+    }
+
+
+    /**
+     * @param urlTemplate Url of the option page, with ${symbol} in place of the symbol
+     * @param maxConcurrentQueries Maximum number of queries at once from getOptionChains()
+     */
+    public TmxOptionService(String urlTemplate, int maxConcurrentQueries) {
+        if (maxConcurrentQueries < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.urlTemplate = urlTemplate;
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.parserPool = new TmxOptionParserPool(maxConcurrentQueries);
+    }
 
 
     public String getServiceName() {
@@ -32,18 +91,204 @@ public class TmxOptionService {
      * @throws IOException 
      */
     public OptionChain getOptionChain(String symbol) throws SAXException, IOException {
-        
-        String urlString = BASE_URL.replaceAll("\\$\\{symbol\\}", symbol);
-        System.out.println("Query url: " + urlString);
-        
-        //urlString = "file:///C:/temp/tmxOptionResult.html";
-        
-        HtmlSaxParser saxParser = new HtmlSaxParser();
-        TmxOptionPageHandler tmxOptionPageHandler = new TmxOptionPageHandler(symbol);
-        saxParser.setContentHandler(tmxOptionPageHandler);
-        saxParser.parse(urlString);
-        
-        return tmxOptionPageHandler.getOptionChain();
+        return parse(symbol, openConnection(symbol));
+    }
+
+
+    /**
+     * Query for the option chain of a given symbol without blocking the caller. The query
+     * runs on a pool of threads shared by the option services, and only by them.
+     * Cancelling the result, or missing the deadline, closes the connection to the exchange.
+     *
+     * @param symbol The underlying security
+     * @param timeout Time allowed for the query, zero for no deadline
+     * @param unit Unit of the timeout
+     * @return The pending option chain
+     */
+    public QuoteFuture<OptionChain> getOptionChainAsync(final String symbol, long timeout, TimeUnit unit) {
+
+        final QuoteFuture<OptionChain> result = new QuoteFuture<>();
+        final AtomicReference<URLConnection> connection = new AtomicReference<>();
+
+        // Closes the socket: unblocks a thread reading the page
+        result.addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                disconnect(connection.get());
+            }
+        });
+
+        try {
+            QueryExecutorHolder.EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    if (result.isDone()) {
+                        return;
+                    }
+
+                    try {
+                        URLConnection openConnection = openConnection(symbol);
+                        connection.set(openConnection);
+                        // Cancelled before the hook could see the connection
+                        if (result.isDone()) {
+                            disconnect(openConnection);
+                            return;
+                        }
+                        result.complete(parse(symbol, openConnection));
+                    } catch (SAXException | IOException | RuntimeException ex) {
+                        result.fail(ex);
+                    }
+
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            result.fail(ree);
+        }
+
+        return result.withDeadline(timeout, unit);
+
+    }
+
+
+    /**
+     * Query again for the option chain of a symbol, and bring a chain from an earlier
+     * query up to date in place, reporting only what changed.
+     *
+     * @param optionChain The chain to refresh
+     * @param listener Receives each option added, removed or repriced
+     * @return Number of changes
+     * @throws SAXException
+     * @throws IOException
+     */
+    public int refreshOptionChain(OptionChain optionChain, OptionChangeListener listener) throws SAXException, IOException {
+
+        List<OptionChange> changes = optionChain.update(getOptionChain(optionChain.getSymbol()));
+        for (OptionChange change : changes) {
+            listener.onOptionChange(change);
+        }
+        return changes.size();
+
+    }
+
+
+    /**
+     * Query for the option chains of many symbols, at most maxConcurrentQueries at a time.
+     * A symbol whose query fails is left out of the result; see the two argument form to
+     * learn which failed and why.
+     *
+     * @param symbols The underlying securities
+     * @return The option chain of each symbol, in the order given
+     * @throws InterruptedException If interrupted while waiting: queries in progress are cancelled
+     */
+    public Map<String, OptionChain> getOptionChains(Collection<String> symbols) throws InterruptedException {
+        return getOptionChains(symbols, null);
+    }
+
+
+    /**
+     * Query for the option chains of many symbols, at most maxConcurrentQueries at a time.
+     * A symbol whose query fails is left out of the result, and its failure added to
+     * failures.
+     *
+     * @param symbols The underlying securities
+     * @param failures Receives the cause of each failed query, by symbol in the order
+     * given. May be null.
+     * @return The option chain of each symbol, in the order given
+     * @throws InterruptedException If interrupted while waiting: queries in progress are cancelled
+     */
+    public Map<String, OptionChain> getOptionChains(Collection<String> symbols, Map<String, Throwable> failures) throws InterruptedException {
+
+        final Semaphore permits = new Semaphore(maxConcurrentQueries);
+        Map<String, QuoteFuture<OptionChain>> pending = new LinkedHashMap<>();
+
+        try {
+
+            for (String symbol : symbols) {
+                if (pending.containsKey(symbol)) {
+                    continue;
+                }
+                permits.acquire();
+                QuoteFuture<OptionChain> future = getOptionChainAsync(symbol, 0, TimeUnit.MILLISECONDS);
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        permits.release();
+                    }
+                });
+                pending.put(symbol, future);
+            }
+
+            Map<String, OptionChain> result = new LinkedHashMap<>();
+            for (Map.Entry<String, QuoteFuture<OptionChain>> entry : pending.entrySet()) {
+                try {
+                    result.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException ee) {
+                    if (null != failures) {
+                        failures.put(entry.getKey(), ee.getCause());
+                    }
+                }
+            }
+            return result;
+
+        } catch (InterruptedException ie) {
+            for (QuoteFuture<OptionChain> future : pending.values()) {
+                future.cancel(true);
+            }
+            throw ie;
+        }
+
+    }
+
+
+    private URLConnection openConnection(String symbol) throws IOException {
+        String urlString = urlTemplate.replace(SYMBOL_PLACEHOLDER, symbol);
+        return new URL(urlString).openConnection();
+    }
+
+
+    // Page queries block on the exchange: they are kept off the quote batch executor
+    private static class QueryExecutorHolder {
+
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                QUERY_THREADS, QUERY_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "stock-quote-tmx-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            ((ThreadPoolExecutor) EXECUTOR).allowCoreThreadTimeOut(true);
+        }
+
+    }
+
+
+    private static void disconnect(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+
+    /*
+     * Parse out the html response into a chain object
+     */
+    private OptionChain parse(String symbol, URLConnection connection) throws SAXException, IOException {
+
+        try (InputStream in = connection.getInputStream()) {
+            InputSource source = new InputSource(in);
+            source.setSystemId(connection.getURL().toString());
+            return parserPool.parse(symbol, source);
+        }
+
     }
  
     
@@ -0,0 +1,99 @@
+package com.accounted4.stockquote.tmx;
+
+
+import junit.framework.TestCase;
+
+
+/**
+ * BlackScholes against textbook values: spot 100, strike 100, one year, 5% rate,
+ * 20% volatility.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class BlackScholesTest extends TestCase {
+
+    private static final double S = 100;
+    private static final double K = 100;
+    private static final double T = 1;
+    private static final double R = 0.05;
+    private static final double SIGMA = 0.2;
+
+
+    public void testPrices() {
+        assertEquals(10.450584, BlackScholes.price(true, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(5.573526, BlackScholes.price(false, S, K, T, R, SIGMA), 1e-6);
+
+        // Put-call parity away from the money
+        double call = BlackScholes.price(true, S, 120, 0.5, R, 0.35);
+        double put = BlackScholes.price(false, S, 120, 0.5, R, 0.35);
+        assertEquals(S - 120 * Math.exp(-R * 0.5), call - put, 1e-9);
+    }
+
+
+    public void testGreeks() {
+        assertEquals(0.636831, BlackScholes.delta(true, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(-0.363169, BlackScholes.delta(false, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(0.018762, BlackScholes.gamma(S, K, T, R, SIGMA), 1e-6);
+        assertEquals(37.524035, BlackScholes.vega(S, K, T, R, SIGMA), 1e-6);
+        assertEquals(-6.414028, BlackScholes.theta(true, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(-1.657880, BlackScholes.theta(false, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(53.232482, BlackScholes.rho(true, S, K, T, R, SIGMA), 1e-6);
+        assertEquals(-41.890461, BlackScholes.rho(false, S, K, T, R, SIGMA), 1e-6);
+    }
+
+
+    public void testImpliedVolatilityRecoversVolatility() {
+        double[] volatilities = { 0.05, 0.2, 0.6, 1.5 };
+        double[] strikes = { 60, 95, 100, 140 };
+        for (double volatility : volatilities) {
+            for (double strike : strikes) {
+                for (boolean call : new boolean[] { true, false }) {
+                    if (BlackScholes.vega(S, strike, 0.25, R, volatility) < 1e-3) {
+                        // So far from the money that the price hardly depends on volatility
+                        continue;
+                    }
+                    double price = BlackScholes.price(call, S, strike, 0.25, R, volatility);
+                    assertEquals(volatility, BlackScholes.impliedVolatility(call, price, S, strike, 0.25, R), 1e-6);
+                }
+            }
+        }
+    }
+
+
+    public void testNoImpliedVolatilityOutsideArbitrageBounds() {
+        // Below intrinsic value, above the spot price, expired
+        assertTrue(Double.isNaN(BlackScholes.impliedVolatility(true, 15, S, 80, 0.5, R)));
+        assertTrue(Double.isNaN(BlackScholes.impliedVolatility(true, 101, S, 80, 0.5, R)));
+        assertTrue(Double.isNaN(BlackScholes.impliedVolatility(true, 25, S, 80, 0, R)));
+        assertTrue(Double.isNaN(BlackScholes.impliedVolatility(false, Double.NaN, S, 80, 0.5, R)));
+    }
+
+
+    public void testImpliedVolatilitiesOverArrays() {
+        boolean[] calls = { true, false, true };
+        double[] strikes = { 90, 100, 110 };
+        double[] years = { 0.5, 1, 2 };
+        double[] prices = new double[3];
+        for (int i = 0; i < 3; i++) {
+            prices[i] = BlackScholes.price(calls[i], S, strikes[i], years[i], R, 0.3);
+        }
+        double[] volatilities = new double[4];
+        volatilities[3] = -1;
+
+        BlackScholes.impliedVolatilities(S, R, calls, prices, strikes, years, volatilities, 3);
+
+        assertEquals(0.3, volatilities[0], 1e-6);
+        assertEquals(0.3, volatilities[1], 1e-6);
+        assertEquals(0.3, volatilities[2], 1e-6);
+        assertEquals(-1.0, volatilities[3]);
+    }
+
+
+    public void testNormalCdf() {
+        assertEquals(0.5, BlackScholes.normalCdf(0), 1e-15);
+        assertEquals(0.975002104851780, BlackScholes.normalCdf(1.96), 1e-14);
+        assertEquals(1.0 - 0.975002104851780, BlackScholes.normalCdf(-1.96), 1e-14);
+        assertEquals(0.0, BlackScholes.normalCdf(-40));
+    }
+
+}
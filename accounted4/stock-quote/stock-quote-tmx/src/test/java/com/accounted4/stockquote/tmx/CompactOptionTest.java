@@ -0,0 +1,142 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+import org.xml.sax.SAXException;
+
+
+/**
+ * CompactOption conversion and formatting, and formatting from many threads at once.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CompactOptionTest extends TestCase {
+
+    public void testRoundTrip() throws SAXException, IOException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        List<CompactOption> compact = chain.getCompactOptions();
+        assertEquals(240, compact.size());
+
+        int i = 0;
+        for (Option option : chain.getCalls()) {
+            CompactOption compactOption = compact.get(i++);
+            Option back = compactOption.toOption();
+            assertEquals(option, back);
+            assertEquals(0, option.getBidPrice().compareTo(back.getBidPrice()));
+            assertEquals(0, option.getAskPrice().compareTo(back.getAskPrice()));
+            assertEquals(0, option.getLastPrice().compareTo(back.getLastPrice()));
+            assertEquals(compactOption, back.toCompactOption());
+            assertEquals(option.getOpenInterest(), back.getOpenInterest());
+            assertEquals(option.getVolume(), back.getVolume());
+        }
+
+        CompactOption first = compact.get(0);
+        assertEquals(OptionType.CALL, first.getOptionType());
+        assertEquals(CompactOption.toEpochDay(2012, 6, 16), first.getExpiryEpochDay());
+        assertEquals(46000, first.getStrike());
+
+    }
+
+
+    public void testFormat() {
+
+        CompactOption option = new CompactOption(OptionType.CALL, "BMO", CompactOption.toEpochDay(2012, 6, 16), 58000, 970, 1120, 1020, 0, 0);
+        assertEquals("CALL BMO 2012-Jun-16 58.00 bid: 0.97 ask: 1.12 last: 1.02", option.toString());
+
+        assertEquals("1.04", price(1045));
+        assertEquals("1.06", price(1055));
+        assertEquals("1.05", price(1046));
+        assertEquals("-0.31", price(-310));
+        assertEquals("0.00", price(-4));
+        assertEquals("0.00", price(0));
+        assertEquals("123456.79", price(123456789));
+
+        StringBuilder sb = new StringBuilder();
+        CompactOption.appendDate(sb, CompactOption.toEpochDay(2013, 1, 5));
+        assertEquals("2013-Jan-05", sb.toString());
+
+    }
+
+
+    public void testEpochDaysMatchCalendar() {
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MMM-dd", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(1950, 0, 1);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 365 * 100; i += 3) {
+            long epochDay = calendar.getTimeInMillis() / 86400000L;
+            assertEquals(epochDay, CompactOption.toEpochDay(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH)));
+            sb.setLength(0);
+            assertEquals(format.format(calendar.getTime()), CompactOption.appendDate(sb, (int) epochDay).toString());
+            calendar.add(Calendar.DAY_OF_MONTH, 3);
+        }
+
+    }
+
+
+    public void testConcurrentFormatting() throws Exception {
+
+        final OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        final List<CompactOption> compact = chain.getCompactOptions();
+        final List<String> expectedCompact = new ArrayList<>();
+        for (CompactOption option : compact) {
+            expectedCompact.add(option.toString());
+        }
+        final String expectedChain = chain.toString();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        StringBuilder sb = new StringBuilder();
+                        for (int round = 0; round < 50; round++) {
+                            for (int i = 0; i < compact.size(); i++) {
+                                sb.setLength(0);
+                                if (!expectedCompact.get(i).equals(compact.get(i).appendTo(sb).toString())) {
+                                    return false;
+                                }
+                            }
+                            // Option and OptionChain display formats, one per thread
+                            if (!expectedChain.equals(chain.toString())) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
+
+    private static String price(long scaled) {
+        return CompactOption.appendPrice(new StringBuilder(), scaled).toString();
+    }
+
+}
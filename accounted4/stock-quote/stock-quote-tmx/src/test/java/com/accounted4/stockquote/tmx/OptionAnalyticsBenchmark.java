@@ -0,0 +1,78 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Evaluates 1,000 copies of the saved BMO option chain (240,000 options, about the
+ * size of the whole exchange's listing) on one thread and with OptionAnalyticsEngine
+ * over all processors.
+ *
+ * Run from the test classpath: java com.accounted4.stockquote.tmx.OptionAnalyticsBenchmark
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionAnalyticsBenchmark {
+
+    private static final int CHAINS = 1000;
+    private static final int ROUNDS = 5;
+
+
+    public static void main(String[] args) throws SAXException, IOException, InterruptedException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        List<OptionChain> chains = new ArrayList<>();
+        for (int i = 0; i < CHAINS; i++) {
+            chains.add(chain);
+        }
+        int options = CHAINS * (chain.getCalls().size() + chain.getPuts().size());
+        long valuation = new GregorianCalendar(2012, 5, 1, 16, 30).getTimeInMillis();
+
+        OptionAnalyticsEngine engine = new OptionAnalyticsEngine();
+        System.out.println(options + " options, " + Runtime.getRuntime().availableProcessors() + " processors");
+
+        // Warm up
+        double checksum = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            checksum += sequential(engine, chains, valuation);
+            checksum += engine.evaluate(chains, valuation).get(0).getDelta(0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            checksum += sequential(engine, chains, valuation);
+        }
+        report("one thread", options, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            checksum += engine.evaluate(chains, valuation).get(0).getDelta(0);
+        }
+        report("parallel  ", options, System.nanoTime() - start);
+
+        // Keep the work from being optimized away
+        System.out.println("(checksum " + checksum + ")");
+
+    }
+
+
+    private static double sequential(OptionAnalyticsEngine engine, List<OptionChain> chains, long valuation) {
+        double sum = 0;
+        for (OptionChain chain : chains) {
+            sum += engine.evaluate(chain, valuation).getDelta(0);
+        }
+        return sum;
+    }
+
+
+    private static void report(String name, int options, long nanos) {
+        double seconds = nanos / 1e9 / ROUNDS;
+        System.out.println(String.format("%s %8.1f ms %12.0f options/s", name, seconds * 1000, options / seconds));
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import junit.framework.TestCase;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Option analytics over the saved BMO option chain, valued at the page's query time.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionAnalyticsEngineTest extends TestCase {
+
+    private static final long VALUATION = new GregorianCalendar(2012, 5, 1, 16, 30).getTimeInMillis();
+
+
+    public void testChainIsEvaluated() throws SAXException, IOException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        assertEquals(new BigDecimal("18.42"), chain.getHistoricalVolatility());
+
+        OptionAnalytics analytics = new OptionAnalyticsEngine(0.01, null).evaluate(chain, VALUATION);
+        assertEquals(240, analytics.size());
+
+        int withVolatility = 0;
+        for (int i = 0; i < analytics.size(); i++) {
+
+            Option option = analytics.getOption(i);
+            boolean call = OptionType.CALL == option.getOptionType();
+            assertTrue(analytics.getYears(i) > 0);
+
+            double volatility = analytics.getImpliedVolatility(i);
+            if (!Double.isNaN(volatility)) {
+                withVolatility++;
+                // Pricing at the implied volatility gives back the market price
+                double price = BlackScholes.price(call, 58.50, option.getStrikePrice().doubleValue(),
+                        analytics.getYears(i), 0.01, volatility);
+                assertEquals(analytics.getMarketPrice(i), price, 1e-6);
+            }
+
+            assertFalse(Double.isNaN(analytics.getModelPrice(i)));
+            assertFalse(Double.isNaN(analytics.getDelta(i)));
+            assertTrue(call ? analytics.getDelta(i) > 0 : analytics.getDelta(i) < 0);
+            assertTrue(analytics.getGamma(i) >= 0);
+
+        }
+        assertTrue(withVolatility > 100);
+
+        // June 58 call: bid 0.97, ask 1.12
+        int june58 = analytics.indexOf(new Option(OptionType.CALL, "BMO", new GregorianCalendar(2012, 5, 16),
+                new BigDecimal("58.00"), BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO));
+        assertEquals(1.045, analytics.getMarketPrice(june58), 1e-9);
+        assertEquals(0.164, analytics.getImpliedVolatility(june58), 0.001);
+
+    }
+
+
+    public void testExpiredOptionsHaveNoValues() throws SAXException, IOException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        long afterJune = new GregorianCalendar(2012, 5, 20).getTimeInMillis();
+
+        OptionAnalytics analytics = new OptionAnalyticsEngine(0.01, null).evaluate(chain, afterJune);
+
+        // The first 20 calls are the June expiry
+        assertTrue(Double.isNaN(analytics.getImpliedVolatility(0)));
+        assertTrue(Double.isNaN(analytics.getDelta(19)));
+        assertFalse(Double.isNaN(analytics.getDelta(20)));
+
+    }
+
+
+    public void testParallelMatchesSequential() throws SAXException, IOException, InterruptedException {
+
+        OptionChain bmo = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+        OptionChain small = new OptionChain("BMO", new BigDecimal("58.50"), null);
+        small.addOption(bmo.getCalls().first());
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            OptionAnalyticsEngine engine = new OptionAnalyticsEngine(0.02, executor);
+            List<OptionAnalytics> results = engine.evaluate(Arrays.asList(bmo, small, bmo, bmo), VALUATION);
+
+            assertEquals(4, results.size());
+            assertEquals(1, results.get(1).size());
+            // No historical volatility: no model price
+            assertTrue(Double.isNaN(results.get(1).getModelPrice(0)));
+
+            OptionAnalytics sequential = engine.evaluate(bmo, VALUATION);
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.getImpliedVolatility(i), results.get(3).getImpliedVolatility(i));
+                assertEquals(sequential.getTheta(i), results.get(3).getTheta(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+import org.xml.sax.SAXException;
+
+
+/**
+ * OptionChainSnapshot round trips of the saved option pages.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionChainSnapshotTest extends TestCase {
+
+    public void testRoundTrip() throws SAXException, IOException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OptionChainSnapshot.write(chain, out);
+        byte[] bytes = out.toByteArray();
+        assertTrue("Snapshot of " + bytes.length + " bytes", bytes.length < 240 * 24);
+
+        InputStream in = new ByteArrayInputStream(bytes);
+        assertSameChain(chain, OptionChainSnapshot.read(in));
+        assertNull(OptionChainSnapshot.read(in));
+
+    }
+
+
+    public void testSeveralChains() throws SAXException, IOException {
+
+        List<OptionChain> chains = new ArrayList<>();
+        chains.add(TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE));
+        chains.add(TmxOptionPageHandlerTest.parse("cm-options.html"));
+
+        // Unknown values and a negative price
+        OptionChain sparse = new OptionChain("XYZ", BigDecimal.ZERO, null);
+        sparse.addOption(new Option(OptionType.PUT, "XYZ", new GregorianCalendar(1900, 0, 1),
+                new BigDecimal("-1.5"), BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO));
+        chains.add(sparse);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (OptionChain chain : chains) {
+            OptionChainSnapshot.write(chain, out);
+        }
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (OptionChain chain : chains) {
+            assertSameChain(chain, OptionChainSnapshot.read(in));
+        }
+        assertNull(OptionChainSnapshot.read(in));
+
+    }
+
+
+    public void testBadInput() throws SAXException, IOException {
+
+        try {
+            OptionChainSnapshot.read(new ByteArrayInputStream("<html>".getBytes("US-ASCII")));
+            fail("Not a snapshot");
+        } catch (IOException expected) {
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OptionChainSnapshot.write(TmxOptionPageHandlerTest.parse("cm-options.html"), out);
+        byte[] bytes = out.toByteArray();
+        try {
+            OptionChainSnapshot.read(new ByteArrayInputStream(bytes, 0, bytes.length - 3));
+            fail("Truncated");
+        } catch (EOFException expected) {
+        }
+
+    }
+
+
+    private static void assertSameChain(OptionChain expected, OptionChain actual) {
+
+        assertEquals(expected.getSymbol(), actual.getSymbol());
+        assertEquals(expected.getQueryTime(), actual.getQueryTime());
+        assertEquals(expected.getLastPrice(), actual.getLastPrice());
+        assertEquals(expected.getNetChange(), actual.getNetChange());
+        assertEquals(expected.getBidPrice(), actual.getBidPrice());
+        assertEquals(expected.getAskPrice(), actual.getAskPrice());
+        assertEquals(expected.getHistoricalVolatility(), actual.getHistoricalVolatility());
+
+        assertSameOptions(expected.getCalls().iterator(), actual.getCalls().iterator());
+        assertSameOptions(expected.getPuts().iterator(), actual.getPuts().iterator());
+
+    }
+
+
+    private static void assertSameOptions(Iterator<Option> expected, Iterator<Option> actual) {
+        while (expected.hasNext()) {
+            Option option = expected.next();
+            Option other = actual.next();
+            assertEquals(option, other);
+            assertEquals(option.getBidPrice(), other.getBidPrice());
+            assertEquals(option.getAskPrice(), other.getAskPrice());
+            assertEquals(option.getLastPrice(), other.getLastPrice());
+            assertEquals(option.getOpenInterest(), other.getOpenInterest());
+            assertEquals(option.getVolume(), other.getVolume());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+}
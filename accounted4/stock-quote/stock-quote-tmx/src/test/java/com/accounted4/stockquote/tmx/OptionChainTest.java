@@ -0,0 +1,190 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import junit.framework.TestCase;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Refreshing an OptionChain in place, and its range queries.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class OptionChainTest extends TestCase {
+
+    private static final GregorianCalendar JUNE = new GregorianCalendar(2012, 5, 16);
+    private static final GregorianCalendar JULY = new GregorianCalendar(2012, 6, 21);
+
+
+    public void testUnchangedChainHasNoChanges() {
+
+        OptionChain chain = chain("58.50", option(OptionType.CALL, JUNE, "44.00", "1.00", "1.10", "1.05"));
+        OptionChain latest = chain("58.50", option(OptionType.CALL, JUNE, "44.00", "1.000", "1.1", "1.05"));
+
+        assertTrue(chain.update(latest).isEmpty());
+
+    }
+
+
+    public void testStrikeScaleDoesNotMakeANewOption() {
+
+        OptionChain chain = chain("58.50", option(OptionType.CALL, JUNE, "44.0", "1.00", "1.10", "1.05"));
+        OptionChain latest = chain("58.50", option(OptionType.CALL, JUNE, "44.00", "1.00", "1.15", "1.05"));
+
+        List<OptionChange> changes = chain.update(latest);
+        assertEquals(1, changes.size());
+        assertEquals(OptionChange.Kind.CHANGED, changes.get(0).getKind());
+        assertEquals(1, chain.getCalls().size());
+
+        // Not added again either
+        chain.addOption(option(OptionType.CALL, JUNE, "44", "1.00", "1.10", "1.05"));
+        assertEquals(1, chain.getCalls().size());
+
+    }
+
+
+    public void testPriceChangesAreUpdatedInPlace() {
+
+        Option call = option(OptionType.CALL, JUNE, "44.00", "1.00", "1.10", "1.05");
+        Option put = option(OptionType.PUT, JUNE, "44.00", "0.20", "0.30", "0.25");
+        OptionChain chain = chain("58.50", call, put);
+
+        OptionChain latest = chain("58.75",
+                option(OptionType.CALL, JUNE, "44.00", "1.00", "1.15", "1.05"),
+                option(OptionType.PUT, JUNE, "44.00", "0.20", "0.30", "0.25"));
+
+        List<OptionChange> changes = chain.update(latest);
+
+        assertEquals(1, changes.size());
+        OptionChange change = changes.get(0);
+        assertEquals(OptionChange.Kind.CHANGED, change.getKind());
+        assertSame(call, change.getOption());
+        assertFalse(change.isBidPriceChanged());
+        assertTrue(change.isAskPriceChanged());
+        assertFalse(change.isLastPriceChanged());
+        assertEquals(new BigDecimal("1.10"), change.getPreviousAskPrice());
+
+        // The chain's own option now has the new price
+        assertEquals(new BigDecimal("1.15"), call.getAskPrice());
+        assertSame(call, chain.getCalls().first());
+        assertEquals(new BigDecimal("58.75"), chain.getLastPrice());
+
+    }
+
+
+    public void testOptionsAddedAndRemoved() {
+
+        OptionChain chain = chain("58.50",
+                option(OptionType.CALL, JUNE, "44.00", "1.00", "1.10", "1.05"),
+                option(OptionType.CALL, JUNE, "46.00", "0.50", "0.60", "0.55"));
+
+        OptionChain latest = chain("58.50",
+                option(OptionType.CALL, JUNE, "46.00", "0.50", "0.60", "0.55"),
+                option(OptionType.CALL, JULY, "44.00", "1.50", "1.60", "0"));
+
+        List<OptionChange> changes = chain.update(latest);
+
+        assertEquals(2, changes.size());
+        assertEquals(OptionChange.Kind.REMOVED, changes.get(0).getKind());
+        assertEquals(new BigDecimal("44.00"), changes.get(0).getOption().getStrikePrice());
+        assertEquals(OptionChange.Kind.ADDED, changes.get(1).getKind());
+        assertEquals(JULY, changes.get(1).getOption().getExpiryDate());
+
+        assertEquals(2, chain.getCalls().size());
+        assertEquals(JULY, chain.getCalls().last().getExpiryDate());
+
+        // Added options belong to the chain, not the latest query
+        assertNotSame(latest.getCalls().last(), chain.getCalls().last());
+        assertTrue(chain.update(latest).isEmpty());
+
+    }
+
+
+    public void testUpdateWithOtherSymbolIsRefused() {
+        try {
+            chain("58.50").update(new OptionChain("CM", BigDecimal.ONE, null));
+            fail("expected a chain for another symbol to be refused");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+
+    public void testStrikeRanges() throws SAXException, IOException {
+
+        OptionChain chain = TmxOptionPageHandlerTest.parse(TmxOptionPageHandlerTest.FIXTURE);
+
+        assertEquals(6, chain.getExpiryDates().size());
+        assertEquals(JUNE, chain.getExpiryDates().get(0));
+        assertEquals(20, chain.getOptions(OptionType.PUT, JULY).size());
+
+        // Bounds are inclusive
+        assertEquals(Arrays.asList("50.00", "52.00", "54.00"), strikes(chain.getOptions(OptionType.CALL, JUNE, 50, 54)));
+        assertTrue(chain.getOptions(OptionType.CALL, JUNE, 50.5, 51.5).isEmpty());
+        assertTrue(chain.getOptions(OptionType.CALL, new GregorianCalendar(2012, 5, 15)).isEmpty());
+
+        // Last price 58.50: within 10% is 52.65 to 64.35
+        assertEquals(Arrays.asList("54.00", "56.00", "58.00", "60.00", "62.00", "64.00"),
+                strikes(chain.getNearTheMoney(OptionType.PUT, JULY, 0.1)));
+        assertEquals(Arrays.asList("46.00", "48.00"), strikes(chain.getOptionsByMoneyness(OptionType.CALL, JUNE, 0, 0.83)));
+
+        List<Option> twoExpiries = chain.getOptions(OptionType.CALL, JUNE, JULY, 80, 1000);
+        assertEquals(Arrays.asList("80.00", "82.00", "84.00", "80.00", "82.00", "84.00"), strikes(twoExpiries));
+        assertEquals(JULY, twoExpiries.get(5).getExpiryDate());
+
+        // Same options as a scan of the set
+        List<Option> scanned = new ArrayList<>();
+        for (Option option : chain.getCalls()) {
+            if (option.getExpiryDate().equals(JULY) && option.getStrikePrice().doubleValue() >= 55 && option.getStrikePrice().doubleValue() <= 70) {
+                scanned.add(option);
+            }
+        }
+        assertEquals(scanned, chain.getOptions(OptionType.CALL, JULY, 55, 70));
+
+    }
+
+
+    public void testRangesFollowUpdates() {
+
+        OptionChain chain = chain("58.50", option(OptionType.CALL, JUNE, "44.00", "1.00", "1.10", "1.05"));
+        assertEquals(1, chain.getOptions(OptionType.CALL, JUNE).size());
+
+        chain.update(chain("58.50",
+                option(OptionType.CALL, JUNE, "44.00", "1.00", "1.10", "1.05"),
+                option(OptionType.CALL, JUNE, "46.00", "0.50", "0.60", "0.55")));
+        assertEquals(2, chain.getOptions(OptionType.CALL, JUNE).size());
+
+        chain.addOption(option(OptionType.CALL, JULY, "44.00", "1.50", "1.60", "0"));
+        assertEquals(Arrays.asList(JUNE, JULY), chain.getExpiryDates());
+
+    }
+
+
+    private static List<String> strikes(List<Option> options) {
+        List<String> strikes = new ArrayList<>();
+        for (Option option : options) {
+            strikes.add(option.getStrikePrice().toPlainString());
+        }
+        return strikes;
+    }
+
+
+    private static OptionChain chain(String lastPrice, Option... options) {
+        OptionChain chain = new OptionChain("BMO", new BigDecimal(lastPrice), "2012-06-01, 16:30");
+        for (Option option : options) {
+            chain.addOption(option);
+        }
+        return chain;
+    }
+
+
+    private static Option option(OptionType type, GregorianCalendar expiry, String strike, String bid, String ask, String last) {
+        return new Option(type, "BMO", expiry, new BigDecimal(strike), new BigDecimal(bid), new BigDecimal(ask), new BigDecimal(last));
+    }
+
+}
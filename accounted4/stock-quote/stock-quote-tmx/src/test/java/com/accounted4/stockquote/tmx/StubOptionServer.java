@@ -0,0 +1,153 @@
+package com.accounted4.stockquote.tmx;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A local stand-in for the exchange's option page, replaying saved pages. Answers
+ * "?symbol=cm" with the saved page cm-options.html, as for any symbol with a saved page,
+ * "?symbol=xyz" with a 404, and any other symbol with the saved BMO page.
+ *
+ * Records the most requests it has seen in progress at once. Point the default
+ * TmxOptionService at it with the system property TmxOptionService.BASE_URL_PROPERTY set
+ * to getUrlTemplate().
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class StubOptionServer implements HttpHandler {
+
+    public static final String PATH = "/nego_cotes_en.php";
+
+    static {
+        // The JDK server writes headers and body separately: without TCP_NODELAY the body of
+        // a response on a persistent connection waits on the client's delayed ack (~40ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final byte[] bmoPage;
+    private final ConcurrentHashMap<String, byte[]> pages = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+    private volatile long delayMillis;
+
+
+    public StubOptionServer() throws IOException {
+        bmoPage = readFixture("bmo-options.html");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext(PATH, this);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+
+    /**
+     * @return Url template for TmxOptionService
+     */
+    public String getUrlTemplate() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH + "?symbol=${symbol}";
+    }
+
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+
+    public int getMaxInProgress() {
+        return maxInProgress.get();
+    }
+
+
+    /**
+     * @param delayMillis Time to wait before answering each request
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+
+    public void stop() {
+        server.stop(0);
+    }
+
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+
+        requestCount.incrementAndGet();
+        int current = inProgress.incrementAndGet();
+        int max;
+        while (current > (max = maxInProgress.get()) && !maxInProgress.compareAndSet(max, current)) {
+        }
+
+        try {
+
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String symbol = exchange.getRequestURI().getRawQuery().replaceFirst("^.*symbol=", "");
+            if (symbol.equalsIgnoreCase("xyz")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = page(symbol.toLowerCase());
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=iso-8859-1");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+
+        } finally {
+            inProgress.decrementAndGet();
+        }
+
+    }
+
+
+    /*
+     * The saved page of the symbol, else BMO's
+     */
+    private byte[] page(String symbol) throws IOException {
+        byte[] page = pages.get(symbol);
+        if (null == page) {
+            String fixture = symbol + "-options.html";
+            page = (null == StubOptionServer.class.getResource(fixture)) ? bmoPage : readFixture(fixture);
+            pages.putIfAbsent(symbol, page);
+        }
+        return page;
+    }
+
+
+    static byte[] readFixture(String name) throws IOException {
+        try (InputStream in = StubOptionServer.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Parses the saved BMO option chain page over and over and reports option rows per
+ * second and bytes allocated per page, html parsing included: once with a new parser
+ * for every page, and once with parsers from a TmxOptionParserPool.
+ *
+ * Run from the test classpath: java com.accounted4.stockquote.tmx.TmxOptionPageHandlerBenchmark
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class TmxOptionPageHandlerBenchmark {
+
+    private static final int ITERATIONS = 2000;
+
+
+    public static void main(String[] args) throws SAXException, IOException {
+
+        byte[] page = StubOptionServer.readFixture(TmxOptionPageHandlerTest.FIXTURE);
+        TmxOptionParserPool pool = new TmxOptionParserPool(1);
+        int rows = parse(page);
+        System.out.println("Page: " + page.length + " bytes, " + rows + " option rows");
+
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(page);
+            parse(pool, page);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(page);
+        }
+        report("new parser:   ", rows, System.nanoTime() - start, allocatedBytes() - allocatedBefore);
+
+        allocatedBefore = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(pool, page);
+        }
+        report("pooled parser:", rows, System.nanoTime() - start, allocatedBytes() - allocatedBefore);
+
+    }
+
+
+    private static void report(String name, int rows, long nanos, long bytes) {
+        System.out.println(String.format("%s %8.3f ms/page %10.0f rows/s %8d KB allocated/page",
+                name, nanos / 1e6 / ITERATIONS, rows * ITERATIONS / (nanos / 1e9), bytes / ITERATIONS / 1024));
+    }
+
+
+    private static int parse(byte[] page) throws SAXException, IOException {
+        HtmlSaxParser parser = new HtmlSaxParser();
+        TmxOptionPageHandler handler = new TmxOptionPageHandler("BMO");
+        parser.setContentHandler(handler);
+        parser.parse(new InputSource(new ByteArrayInputStream(page)));
+        return size(handler.getOptionChain());
+    }
+
+
+    private static int parse(TmxOptionParserPool pool, byte[] page) throws SAXException, IOException {
+        return size(pool.parse("BMO", new InputSource(new ByteArrayInputStream(page))));
+    }
+
+
+    private static int size(OptionChain chain) {
+        return chain.getCalls().size() + chain.getPuts().size();
+    }
+
+
+    /*
+     * Bytes allocated by this thread so far, where the JVM can tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.GregorianCalendar;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * TmxOptionPageHandler over a saved option chain page for BMO: 6 expiries of 20 strikes,
+ * calls and puts.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class TmxOptionPageHandlerTest extends TestCase {
+
+    static final String FIXTURE = "bmo-options.html";
+
+
+    public void testUnderlyingCommodity() throws SAXException, IOException {
+
+        OptionChain chain = parse(FIXTURE);
+
+        assertEquals("BMO", chain.getSymbol());
+        assertEquals(new BigDecimal("58.50"), chain.getLastPrice());
+        assertEquals("2012-06-01, 16:30", chain.getQueryTime());
+        assertEquals(new BigDecimal("-0.31"), chain.getNetChange());
+        assertEquals(new BigDecimal("58.49"), chain.getBidPrice());
+        assertEquals(new BigDecimal("58.52"), chain.getAskPrice());
+        assertEquals(new BigDecimal("18.42"), chain.getHistoricalVolatility());
+
+    }
+
+
+    public void testOptionRows() throws SAXException, IOException {
+
+        OptionChain chain = parse(FIXTURE);
+        assertEquals(120, chain.getCalls().size());
+        assertEquals(120, chain.getPuts().size());
+
+        Option call = find(chain, OptionType.CALL, new GregorianCalendar(2012, 5, 16), "58.00");
+        assertEquals(new BigDecimal("0.970"), call.getBidPrice());
+        assertEquals(new BigDecimal("1.120"), call.getAskPrice());
+        assertEquals(new BigDecimal("1.020"), call.getLastPrice());
+        assertEquals(406, call.getOpenInterest());
+        assertEquals(14, call.getVolume());
+
+        Option put = find(chain, OptionType.PUT, new GregorianCalendar(2014, 0, 18), "60.00");
+        assertEquals(new BigDecimal("3.710"), put.getBidPrice());
+        assertEquals(new BigDecimal("3.860"), put.getAskPrice());
+
+        // No trade: the empty cell is ZERO
+        assertEquals(BigDecimal.ZERO, put.getLastPrice());
+
+    }
+
+
+    public void testUnreadableTitle() throws SAXException, IOException {
+
+        String page = "<html><body><table><tr><th>Calls</th></tr>"
+                + "<tr title=\"header=[ XYZ&nbsp;ABCDEFC] body=[]\"><td>?</td><td>1.5</td><td>-</td></tr>"
+                + "</table></body></html>";
+
+        OptionChain chain = parse("XYZ", new InputSource(new StringReader(page)));
+        assertEquals(1, chain.getCalls().size());
+        Option option = chain.getCalls().first();
+        assertEquals(new GregorianCalendar(1900, 0, 1), option.getExpiryDate());
+        assertEquals(BigDecimal.ZERO, option.getStrikePrice());
+        assertEquals(new BigDecimal("1.5"), option.getBidPrice());
+        assertEquals(BigDecimal.ZERO, option.getAskPrice());
+        assertEquals(0, option.getOpenInterest());
+        assertEquals(0, option.getVolume());
+        assertNull(chain.getNetChange());
+
+    }
+
+
+    private static Option find(OptionChain chain, OptionType type, GregorianCalendar expiry, String strike) {
+        for (Option option : OptionType.CALL == type ? chain.getCalls() : chain.getPuts()) {
+            if (option.getExpiryDate().equals(expiry) && option.getStrikePrice().compareTo(new BigDecimal(strike)) == 0) {
+                return option;
+            }
+        }
+        fail("No " + type + " " + strike + " in the chain");
+        return null;
+    }
+
+
+    static OptionChain parse(String fixture) throws SAXException, IOException {
+        try (InputStream in = TmxOptionPageHandlerTest.class.getResourceAsStream(fixture)) {
+            return parse("BMO", new InputSource(in));
+        }
+    }
+
+
+    private static OptionChain parse(String symbol, InputSource source) throws SAXException, IOException {
+        HtmlSaxParser parser = new HtmlSaxParser();
+        TmxOptionPageHandler handler = new TmxOptionPageHandler(symbol);
+        parser.setContentHandler(handler);
+        parser.parse(source);
+        return handler.getOptionChain();
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.accounted4.stockquote.tmx;
+
+
+import com.accounted4.stockquote.api.LatencyHistogram;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * End to end throughput of TmxOptionService under concurrent clients: fetch of the saved
+ * BMO page from a local StubOptionServer, parse, and build of the OptionChain. Each client
+ * queries in a loop for a fixed time; reported are chains and options per second, and
+ * latency percentiles.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.accounted4.stockquote.tmx.TmxOptionServiceBenchmark -Dexec.classpathScope=test
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class TmxOptionServiceBenchmark {
+
+    private static final int[] CLIENTS = {1, 2, 4, 8, 16};
+    private static final long WARM_UP_MILLIS = 2000;
+    private static final long RUN_MILLIS = 3000;
+
+
+    public static void main(String[] args) throws Exception {
+
+        // The service prints each query url: report on stdout directly, and drop the rest
+        PrintStream report = new PrintStream(new FileOutputStream(FileDescriptor.out), true);
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        StubOptionServer server = new StubOptionServer();
+        try {
+
+            report.println("Warming up");
+            run(server, 4, WARM_UP_MILLIS);
+
+            for (int clients : CLIENTS) {
+                report.println(run(server, clients, RUN_MILLIS));
+            }
+
+        } finally {
+            server.stop();
+        }
+
+    }
+
+
+    private static String run(StubOptionServer server, int clients, final long millis) throws Exception {
+
+        final TmxOptionService service = new TmxOptionService(server.getUrlTemplate(), clients);
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            results.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long options = 0;
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        OptionChain chain = service.getOptionChain("bmo");
+                        latencies.record(System.nanoTime() - now);
+                        options += chain.getCalls().size() + chain.getPuts().size();
+                    }
+                    return options;
+                }
+            }));
+        }
+
+        long options = 0;
+        for (Future<Long> result : results) {
+            options += result.get();
+        }
+        executor.shutdown();
+
+        double seconds = millis / 1000.0;
+        return String.format("%2d clients: %8.1f chains/s %10.0f options/s  p50 < %d ms  p99 < %d ms",
+                clients, latencies.getCount() / seconds, options / seconds,
+                latencies.getPercentileMillis(50), latencies.getPercentileMillis(99));
+
+    }
+
+}
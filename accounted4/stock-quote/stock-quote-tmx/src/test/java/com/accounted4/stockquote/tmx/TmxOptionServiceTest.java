@@ -0,0 +1,165 @@
+package com.accounted4.stockquote.tmx;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * TmxOptionService reading the saved option pages from the test resources, by way of a
+ * file url template or a local server, instead of the exchange.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class TmxOptionServiceTest extends TestCase {
+
+    private StubOptionServer server;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new StubOptionServer();
+    }
+
+
+    @Override
+    protected void tearDown() {
+        server.stop();
+    }
+
+
+    public void testParserIsReusedBetweenPages() throws SAXException, IOException {
+
+        String bmoUrl = getClass().getResource(TmxOptionPageHandlerTest.FIXTURE).toString();
+        TmxOptionService service = new TmxOptionService(bmoUrl.replace("bmo-options", "${symbol}-options"), 1);
+
+        OptionChain bmo = service.getOptionChain("bmo");
+        OptionChain cm = service.getOptionChain("cm");
+        OptionChain bmoAgain = service.getOptionChain("bmo");
+
+        assertEquals(120, bmo.getCalls().size());
+        assertEquals(new BigDecimal("58.50"), bmo.getLastPrice());
+
+        // Nothing carried over from the previous page
+        assertEquals(2, cm.getCalls().size());
+        assertEquals(1, cm.getPuts().size());
+        assertEquals(new BigDecimal("72.15"), cm.getLastPrice());
+        assertEquals("2012-06-01, 16:31", cm.getQueryTime());
+
+        assertEquals(bmo.toString(), bmoAgain.toString());
+
+    }
+
+
+    public void testRefreshReportsOnlyChanges() throws SAXException, IOException {
+
+        TmxOptionService service = new TmxOptionService(server.getUrlTemplate(), 1);
+        OptionChain chain = service.getOptionChain("cm");
+
+        final List<OptionChange> changes = new ArrayList<>();
+        OptionChangeListener listener = new OptionChangeListener() {
+            @Override
+            public void onOptionChange(OptionChange change) {
+                changes.add(change);
+            }
+        };
+
+        assertEquals(0, service.refreshOptionChain(chain, listener));
+
+        // Put the chain behind the page: the refresh moves it back
+        Option call = chain.getCalls().first();
+        call.setBidPrice(new BigDecimal("2.40"));
+        assertEquals(1, service.refreshOptionChain(chain, listener));
+        assertEquals(1, changes.size());
+        assertSame(call, changes.get(0).getOption());
+        assertTrue(changes.get(0).isBidPriceChanged());
+        assertEquals(new BigDecimal("2.450"), call.getBidPrice());
+
+    }
+
+
+    public void testPoolKeepsParsersForReuse() throws SAXException, IOException {
+
+        byte[] page = StubOptionServer.readFixture(TmxOptionPageHandlerTest.FIXTURE);
+        TmxOptionParserPool pool = new TmxOptionParserPool(2);
+
+        for (int i = 0; i < 5; i++) {
+            OptionChain chain = pool.parse("BMO", new InputSource(new ByteArrayInputStream(page)));
+            assertEquals(120, chain.getPuts().size());
+        }
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getIdleCount());
+
+        // A failed parse does not return its parser
+        try {
+            pool.parse("BMO", new InputSource("file:/no/such/page.html"));
+            fail("expected the missing page to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals(0, pool.getIdleCount());
+
+    }
+
+
+    public void testBatchIsInOrderAndReportsFailures() throws InterruptedException {
+
+        TmxOptionService service = new TmxOptionService(server.getUrlTemplate(), 2);
+
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        Map<String, OptionChain> chains = service.getOptionChains(Arrays.asList("cm", "xyz", "bmo", "cm"), failures);
+
+        assertEquals(Arrays.asList("cm", "bmo"), new ArrayList<>(chains.keySet()));
+        assertEquals(Arrays.asList("xyz"), new ArrayList<>(failures.keySet()));
+        assertTrue(String.valueOf(failures.get("xyz")), failures.get("xyz") instanceof IOException);
+        assertEquals(3, chains.get("cm").getCalls().size() + chains.get("cm").getPuts().size());
+        assertEquals(240, chains.get("bmo").getCalls().size() + chains.get("bmo").getPuts().size());
+        assertEquals(3, server.getRequestCount());
+
+    }
+
+
+    public void testBatchParallelismIsBounded() throws InterruptedException {
+
+        TmxOptionService service = new TmxOptionService(server.getUrlTemplate(), 3);
+        server.setDelayMillis(50);
+
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            symbols.add("BMO" + i);
+        }
+
+        Map<String, OptionChain> chains = service.getOptionChains(symbols);
+
+        assertEquals(12, chains.size());
+        assertEquals(120, chains.get("BMO11").getCalls().size());
+        assertEquals("BMO11", chains.get("BMO11").getSymbol());
+        assertTrue(server.getMaxInProgress() > 1);
+        assertTrue(server.getMaxInProgress() <= 3);
+
+    }
+
+
+
+    public void testUrlFromSystemProperty() throws SAXException, IOException {
+
+        System.setProperty(TmxOptionService.BASE_URL_PROPERTY, server.getUrlTemplate());
+        try {
+            OptionChain chain = new TmxOptionService().getOptionChain("cm");
+            assertEquals(new BigDecimal("72.15"), chain.getLastPrice());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            System.clearProperty(TmxOptionService.BASE_URL_PROPERTY);
+        }
+
+    }
+
+}
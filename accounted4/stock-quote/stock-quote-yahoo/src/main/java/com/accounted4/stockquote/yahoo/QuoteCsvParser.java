@@ -0,0 +1,224 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Streaming parser for the Yahoo csv quote response: one line per security, the
+ * values in the order the attributes were requested.
+ *
+ * The response is read straight from the input stream into a single byte buffer and
+ * each value is decoded directly from it, so neither the whole body, nor line strings,
+ * nor split arrays are created. Scanning bytes rather than decoded characters relies
+ * on the delimiters being ASCII in the response charset, as they are in ISO-8859-1 and
+ * UTF-8 (whose multi-byte sequences never contain ASCII bytes). Values may be quoted, as company
+ * names are, in which case they may contain commas and escaped ("") quotes; the
+ * surrounding quotes are removed. Lines may end in \n or \r\n and blank lines are
+ * skipped. Values beyond the number of requested attributes are ignored.
+ *
+ * Not thread safe: use one parser per response.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteCsvParser {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final List<QuoteAttribute> quoteAttributes;
+    private final Charset charset;
+    private final byte[] buffer;
+    private QuoteListener listener;
+
+    // Parts of the value being read which did not lie in one run of the buffer
+    private byte[] field = new byte[64];
+    private int fieldLength;
+
+    private List<HashMap<QuoteAttribute, String>> result;
+    private HashMap<QuoteAttribute, String> line;
+    private int column;
+    private boolean quotedField;
+
+
+    /**
+     * @param quoteAttributes The attributes requested, in the order their values appear on each line
+     * @param charset The response charset: ASCII compatible
+     */
+    public QuoteCsvParser(List<QuoteAttribute> quoteAttributes, Charset charset) {
+        this(quoteAttributes, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    public QuoteCsvParser(List<QuoteAttribute> quoteAttributes, Charset charset, int bufferSize) {
+        this.quoteAttributes = quoteAttributes;
+        this.charset = charset;
+        this.buffer = new byte[bufferSize];
+    }
+
+
+    /**
+     * @param listener Receives each line as soon as it has been parsed. May be null.
+     */
+    public void setListener(QuoteListener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Read the response to the end.
+     *
+     * @param in The response body
+     * @return attribute values for each line of the response
+     * @throws IOException If the response could not be read
+     */
+    public List<HashMap<QuoteAttribute, String>> parse(InputStream in) throws IOException {
+
+        result = new ArrayList<>();
+        line = null;
+        column = 0;
+        quotedField = false;
+        fieldLength = 0;
+
+        boolean inQuotes = false;
+        boolean afterQuote = false;
+
+        int length;
+        while ((length = in.read(buffer, 0, buffer.length)) != -1) {
+
+            // Start of the run of characters not yet added to the field
+            int runStart = 0;
+            int i = 0;
+
+            while (i < length) {
+
+                if (inQuotes) {
+                    // Skip to the closing quote
+                    while (i < length && buffer[i] != '"') {
+                        i++;
+                    }
+                    if (i == length) {
+                        break;
+                    }
+                    appendToField(runStart, i);
+                    runStart = ++i;
+                    inQuotes = false;
+                    afterQuote = true;
+                    continue;
+                }
+
+                // Skip to the next delimiter or quote
+                int scanStart = i;
+                byte c = 0;
+                while (i < length) {
+                    c = buffer[i];
+                    if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                        break;
+                    }
+                    i++;
+                }
+                if (i > scanStart) {
+                    afterQuote = false;
+                }
+                if (i == length) {
+                    break;
+                }
+
+                if (c == '"') {
+                    // A quote straight after a closing quote is an escaped quote: keep it
+                    appendToField(runStart, afterQuote ? i + 1 : i);
+                    runStart = ++i;
+                    inQuotes = true;
+                    afterQuote = false;
+                    quotedField = true;
+                    continue;
+                }
+
+                afterQuote = false;
+
+                if (c == ',') {
+                    endValue(runStart, i);
+                } else {
+                    endLine(runStart, i);
+                }
+                runStart = ++i;
+
+            }
+
+            // Carry the partial value over to the next buffer full
+            appendToField(runStart, length);
+
+        }
+
+        // Last line may not be terminated
+        endLine(0, 0);
+
+        return result;
+
+    }
+
+
+    /*
+     * The value ends at buffer[end], and any part of it from earlier buffer fulls or
+     * before a quote is in field. Most values lie wholly within the buffer and can be
+     * taken straight from it; otherwise the run is added to what has been collected.
+     */
+    private void endValue(int runStart, int end) {
+
+        if (null == line) {
+            line = new HashMap<>();
+        }
+
+        if (column < quoteAttributes.size()) {
+            String value;
+            if (fieldLength == 0) {
+                value = new String(buffer, runStart, end - runStart, charset);
+            } else {
+                appendToField(runStart, end);
+                value = new String(field, 0, fieldLength, charset);
+            }
+            line.put(quoteAttributes.get(column), value);
+        }
+
+        column++;
+        fieldLength = 0;
+        quotedField = false;
+
+    }
+
+
+    private void appendToField(int start, int end) {
+        int length = end - start;
+        if (fieldLength + length > field.length) {
+            field = Arrays.copyOf(field, Math.max(field.length * 2, fieldLength + length));
+        }
+        System.arraycopy(buffer, start, field, fieldLength, length);
+        fieldLength += length;
+    }
+
+
+    private void endLine(int runStart, int end) {
+
+        // Blank line, or the \n of a \r\n
+        if (null == line && runStart == end && fieldLength == 0 && !quotedField) {
+            return;
+        }
+
+        endValue(runStart, end);
+        result.add(line);
+        if (null != listener) {
+            listener.onQuote(line);
+        }
+        line = null;
+        column = 0;
+
+    }
+
+}
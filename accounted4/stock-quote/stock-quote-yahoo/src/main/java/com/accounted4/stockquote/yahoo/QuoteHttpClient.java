@@ -0,0 +1,192 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+
+/**
+ * A thread safe http client backed by a pool of persistent connections.
+ *
+ * Creating a client per query means a new TCP (and possibly TLS) handshake for every
+ * query, and each client's connection manager holds its sockets until it is garbage
+ * collected. A QuoteHttpClient is meant to be created once and shared: connections are
+ * kept alive and reused between queries, bounded in total and per host, and released
+ * by close().
+ *
+ * Responses are requested gzip compressed; use getContent() to read a response
+ * entity whatever its encoding. (HttpClient's own ResponseContentEncoding is not
+ * used: the decompressing entity it substitutes has no content length, which stops
+ * the connection from being reused.)
+ *
+ * The default settings may be overridden with the system properties:
+ * <ul>
+ *   <li>stockquote.http.maxConnections</li>
+ *   <li>stockquote.http.maxConnectionsPerRoute</li>
+ *   <li>stockquote.http.connectTimeoutMillis</li>
+ *   <li>stockquote.http.readTimeoutMillis</li>
+ *   <li>stockquote.http.keepAliveMillis</li>
+ * </ul>
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteHttpClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+    private final ThreadSafeClientConnManager connectionManager;
+    private final DefaultHttpClient httpClient;
+
+
+    /**
+     * A client with the default settings, or as overridden by system properties.
+     */
+    public QuoteHttpClient() {
+        this(Integer.getInteger("stockquote.http.maxConnections", DEFAULT_MAX_CONNECTIONS),
+             Integer.getInteger("stockquote.http.maxConnectionsPerRoute", DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+             Integer.getInteger("stockquote.http.connectTimeoutMillis", DEFAULT_CONNECT_TIMEOUT_MILLIS),
+             Integer.getInteger("stockquote.http.readTimeoutMillis", DEFAULT_READ_TIMEOUT_MILLIS),
+             Integer.getInteger("stockquote.http.keepAliveMillis", DEFAULT_KEEP_ALIVE_MILLIS));
+    }
+
+
+    /**
+     * @param maxConnections Maximum number of open connections, over all hosts
+     * @param maxConnectionsPerRoute Maximum number of open connections to any one host
+     * @param connectTimeoutMillis Time allowed to establish a connection
+     * @param readTimeoutMillis Time allowed between packets of a response
+     * @param keepAliveMillis How long an idle connection is kept for reuse, unless the
+     * server asks for less via a Keep-Alive header
+     */
+    public QuoteHttpClient(
+            int maxConnections,
+            int maxConnectionsPerRoute,
+            int connectTimeoutMillis,
+            int readTimeoutMillis,
+            final int keepAliveMillis) {
+
+        connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, readTimeoutMillis);
+        // A pooled connection may have been closed by the server while idle
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.addRequestInterceptor(new RequestAcceptEncoding());
+
+        // A request aborted by cancellation fails with an IOException: don't retry it
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler() {
+            @Override
+            public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+                Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST);
+                if (request instanceof RequestWrapper) {
+                    request = ((RequestWrapper) request).getOriginal();
+                }
+                if (request instanceof HttpUriRequest && ((HttpUriRequest) request).isAborted()) {
+                    return false;
+                }
+                return super.retryRequest(exception, executionCount, context);
+            }
+        });
+
+        // Honour the server's Keep-Alive timeout when given, but never keep a connection
+        // longer than keepAliveMillis (the default strategy would keep it indefinitely)
+        httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long serverDuration = super.getKeepAliveDuration(response, context);
+                return serverDuration > 0 ? Math.min(serverDuration, keepAliveMillis) : keepAliveMillis;
+            }
+        });
+
+    }
+
+
+    /**
+     * The pooled client. Response entities must be fully consumed (or the request
+     * aborted) for the connection to be returned to the pool.
+     *
+     * @return the shared http client
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+
+    /**
+     * The decoded content of a response entity. The connection is returned to the pool
+     * once the stream is read to the end or closed.
+     *
+     * @param entity A response entity from this client
+     * @return The entity content, decompressed if it was sent gzip or deflate encoded
+     * @throws IOException If the content cannot be read
+     */
+    public static InputStream getContent(HttpEntity entity) throws IOException {
+
+        InputStream content = entity.getContent();
+
+        Header contentEncoding = entity.getContentEncoding();
+        if (null == contentEncoding) {
+            return content;
+        }
+
+        String encoding = contentEncoding.getValue().trim();
+        if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+            return new GZIPInputStream(content);
+        }
+        if (encoding.equalsIgnoreCase("deflate")) {
+            return new InflaterInputStream(content);
+        }
+
+        return content;
+
+    }
+
+
+    /**
+     * Drop pooled connections whose keep-alive has run out. Cheap: called before each query
+     * rather than from a background thread.
+     */
+    public void closeExpiredConnections() {
+        connectionManager.closeExpiredConnections();
+    }
+
+
+    /**
+     * Close all pooled connections. The client may not be used afterwards.
+     */
+    @Override
+    public void close() {
+        connectionManager.shutdown();
+    }
+
+}
@@ -1,31 +1,117 @@
 package com.accounted4.stockquote.yahoo;
 
 
+import com.accounted4.stockquote.api.AsyncQuoteService;
+import com.accounted4.stockquote.api.QueryBatcher;
 import com.accounted4.stockquote.api.QuoteAttribute;
-import com.accounted4.stockquote.api.QuoteService;
+import com.accounted4.stockquote.api.QuoteFuture;
+import com.accounted4.stockquote.api.QuoteListener;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.util.EntityUtils;
 
 
 /**
  * An implementation of the stock quote api using a Yahoo REST service.
+ *
+ * Yahoo has moved the service before: the url used by the default constructor may be set
+ * with the system property stockquote.yahoo.url, ex: to point at a local replay server.
  * 
  * @author Glenn Heinze <glenn@gheinze.com>
  */
-public class YahooQuoteService implements QuoteService {
+public class YahooQuoteService implements AsyncQuoteService {
 
     private static String SERVICE_NAME = "Yahoo";
     
-    //TODO: get url from a properties file: url info has changed in the past, shouldn't require a recompile
-    private static final String BASE_URL = "http://finance.yahoo.com/d/quotes.csv";
+    public static final String BASE_URL = "http://finance.yahoo.com/d/quotes.csv";
+    public static final String BASE_URL_PROPERTY = "stockquote.yahoo.url";
+
+    // Yahoo answers at most 200 securities per request. Keep the security list part of
+    // the url well within the ~2000 characters servers and proxies reliably accept.
+    public static final int MAX_BATCH_SIZE = 200;
+    public static final int MAX_BATCH_LENGTH = 1500;
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+    public static final double MAX_REQUESTS_PER_SECOND = 10;
+
+    private final String baseUrl;
+    private final QuoteHttpClient quoteHttpClient;
+    private final QueryBatcher queryBatcher;
+
+    // Queries a single batch
+    private final AsyncQuoteService batchQuery = new AsyncQuoteService() {
+
+        @Override
+        public String getServiceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+            return executeBatch(securityList, quoteAttributes);
+        }
+
+        @Override
+        public QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeQueryAsync(
+                List<String> securityList, List<QuoteAttribute> quoteAttributes, QuoteListener listener, long timeout, TimeUnit unit) {
+            return executeBatchAsync(securityList, quoteAttributes, listener).withDeadline(timeout, unit);
+        }
+
+    };
+
+
+    /**
+     * A service sharing one pooled http client with all other default-constructed
+     * instances (as created by the ServiceLoader). The shared client lives as long as
+     * the process. The url is BASE_URL unless set by system property.
+     */
+    public YahooQuoteService() {
+        this(System.getProperty(BASE_URL_PROPERTY, BASE_URL), SharedClientHolder.CLIENT);
+    }
+
+
+    /**
+     * A service using the given http client. The caller owns the client and is
+     * responsible for closing it.
+     * 
+     * @param baseUrl Url of the Yahoo csv quote service
+     * @param quoteHttpClient Pooled http client over which to make queries
+     */
+    public YahooQuoteService(String baseUrl, QuoteHttpClient quoteHttpClient) {
+        this(baseUrl, quoteHttpClient, SharedClientHolder.BATCHER);
+    }
+
+
+    /**
+     * A service using the given http client and batch limits.
+     * 
+     * @param baseUrl Url of the Yahoo csv quote service
+     * @param quoteHttpClient Pooled http client over which to make queries
+     * @param queryBatcher Splits large security lists into concurrent requests
+     */
+    public YahooQuoteService(String baseUrl, QuoteHttpClient quoteHttpClient, QueryBatcher queryBatcher) {
+        this.baseUrl = baseUrl;
+        this.quoteHttpClient = quoteHttpClient;
+        this.queryBatcher = queryBatcher;
+    }
+
+
+    // Created on first use. All Yahoo services share the batcher, so its rate limits apply
+    // to the provider as a whole rather than per instance.
+    private static class SharedClientHolder {
+        static final QuoteHttpClient CLIENT = new QuoteHttpClient();
+        static final QueryBatcher BATCHER = new QueryBatcher(
+                MAX_BATCH_SIZE, MAX_BATCH_LENGTH, MAX_CONCURRENT_REQUESTS, MAX_REQUESTS_PER_SECOND,
+                QueryBatcher.getDefaultExecutor());
+    }
 
 
     @Override
@@ -34,72 +120,139 @@ public class YahooQuoteService implements QuoteService {
     }
 
 
+    /**
+     * Lists too large for a single Yahoo request are split into batches which are
+     * queried concurrently; results are returned in the order of the security list.
+     */
     @Override
     public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+        return queryBatcher.executeQuery(batchQuery, securityList, quoteAttributes);
+    }
+
+
+    /**
+     * Batches are queried concurrently on the batcher's executor. Each security's
+     * result is passed to the listener as soon as its line of the response has been
+     * read. Cancellation aborts the requests in progress, closing their connections.
+     */
+    @Override
+    public QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeQueryAsync(
+            List<String> securityList,
+            List<QuoteAttribute> quoteAttributes,
+            QuoteListener listener,
+            long timeout,
+            TimeUnit unit) {
+        return queryBatcher.executeQueryAsync(batchQuery, securityList, quoteAttributes, listener, timeout, unit);
+    }
+
+
+    private List<HashMap<QuoteAttribute, String>> executeBatch(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
         
+        HttpGet httpGet = createRequest(securityList, quoteAttributes);
+
+        try {
+            return execute(httpGet, quoteAttributes, null);
+        } catch (IOException ex) {
+            System.out.println("Error " + ex);
+        }
+
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+        
+        return result;
+    }
+
+
+    private QuoteFuture<List<HashMap<QuoteAttribute, String>>> executeBatchAsync(
+            List<String> securityList,
+            final List<QuoteAttribute> quoteAttributes,
+            final QuoteListener listener) {
+
+        final QuoteFuture<List<HashMap<QuoteAttribute, String>>> result = new QuoteFuture<>();
+        final HttpGet httpGet = createRequest(securityList, quoteAttributes);
+
+        // Closes the connection: unblocks a thread waiting on the response
+        result.addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                httpGet.abort();
+            }
+        });
+
+        try {
+            queryBatcher.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    try {
+                        result.complete(execute(httpGet, quoteAttributes, listener));
+                    } catch (IOException | RuntimeException ex) {
+                        result.fail(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            result.fail(ree);
+        }
+
+        return result;
+
+    }
+
+
+    private HttpGet createRequest(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
         String tickerList = securityListToString(securityList);
         String attributeList = attributeListToString(quoteAttributes);
-        HttpClient httpclient = new DefaultHttpClient();
-        String urlString = BASE_URL + "?" + "s=" + tickerList + "&" + "f=" + attributeList;
+        String urlString = baseUrl + "?" + "s=" + tickerList + "&" + "f=" + attributeList;
         System.out.println("Query url: " + urlString);
-        HttpGet httpGet = new HttpGet(urlString);
+        return new HttpGet(urlString);
+    }
+
+
+    private List<HashMap<QuoteAttribute, String>> execute(
+            HttpGet httpGet,
+            List<QuoteAttribute> quoteAttributes,
+            QuoteListener listener) throws IOException {
+
+        quoteHttpClient.closeExpiredConnections();
 
         try {
 
-            HttpResponse response = httpclient.execute(httpGet);
+            HttpResponse response = quoteHttpClient.getHttpClient().execute(httpGet);
             HttpEntity entity = response.getEntity();
             if (entity != null) {
-                String stringResponse = EntityUtils.toString(entity);
-                return processResponse(stringResponse, quoteAttributes);
-//                InputStream instream = entity.getContent();
-//                int l;
-//                byte[] tmp = new byte[2048];
-//                while ((l = instream.read(tmp)) != -1) {
-//                }
+                // Reading the entity to the end releases the connection back to the pool
+                return processResponse(entity, quoteAttributes, listener);
             }
 
         } catch (IOException ex) {
-            System.out.println("Error " + ex);
+            // Don't return a half read connection to the pool
+            httpGet.abort();
+            throw ex;
         }
 
-        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
-        
-        return result;
+        return new ArrayList<>();
+
     }
 
     
-    private static final String ATTRIBUTE_SEPARATOR = ",";
-    
     /*
-     * The response comes back as a csv. Parse it out
-     * 
+     * The response comes back as a csv. Parse it out as it is read.
+     * Yahoo does not declare a charset: default to the http default.
      */
     private List<HashMap<QuoteAttribute, String>> processResponse(
-            String response,
-            List<QuoteAttribute> quoteAttributes) {
-    
-        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
-        
-        // Each line is the response for one security
-        String[] lines = response.split("\n");
-        
-        for (String line : lines) {
-            
-            // Results for the attributes come back in the order requested, each separated by a comma
-            String[] items = line.split(ATTRIBUTE_SEPARATOR);
-            
-            HashMap<QuoteAttribute, String> lineItem = new HashMap<>();
-            int i = 0;
-            for (String item : items) {
-                lineItem.put(quoteAttributes.get(i++), item);
-            }
-            
-            result.add(lineItem);
-            
+            HttpEntity entity,
+            List<QuoteAttribute> quoteAttributes,
+            QuoteListener listener) throws IOException {
+
+        String charset = EntityUtils.getContentCharSet(entity);
+        try (InputStream content = QuoteHttpClient.getContent(entity)) {
+            QuoteCsvParser parser = new QuoteCsvParser(quoteAttributes, Charset.forName(null == charset ? "ISO-8859-1" : charset));
+            parser.setListener(listener);
+            return parser.parse(content);
         }
-        
-        return result;
-        
+
     }
     
     
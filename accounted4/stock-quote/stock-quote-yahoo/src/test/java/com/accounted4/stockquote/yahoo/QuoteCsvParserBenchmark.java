@@ -0,0 +1,144 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Compares the streaming QuoteCsvParser with the previous approach (read the whole
+ * body into a String, split into lines, split each line on commas) over a synthetic
+ * 10,000 security response.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.accounted4.stockquote.yahoo.QuoteCsvParserBenchmark -Dexec.classpathScope=test
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteCsvParserBenchmark {
+
+    private static final int SECURITIES = 10000;
+    private static final int ITERATIONS = 300;
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private static final List<QuoteAttribute> ATTRIBUTES = Arrays.asList(
+            QuoteAttribute.SYMBOL, QuoteAttribute.COMPANY_NAME, QuoteAttribute.LAST_TRADE_PRICE,
+            QuoteAttribute.BOOK_VALUE, QuoteAttribute.EARNINGS_PS, QuoteAttribute.DIVIDEND_PS,
+            QuoteAttribute.DIVIDEND_YIELD, QuoteAttribute.PRICE_EARNINGS);
+
+
+    public static void main(String[] args) throws IOException {
+
+        byte[] response = syntheticResponse();
+        System.out.println("Response: " + SECURITIES + " securities, " + response.length + " bytes");
+
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            check(splitting(response));
+            check(streaming(response));
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            splitting(response);
+        }
+        long splitNanos = (System.nanoTime() - start) / ITERATIONS;
+        long splitBytes = (allocatedBytes() - allocatedBefore) / ITERATIONS;
+
+        allocatedBefore = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            streaming(response);
+        }
+        long streamNanos = (System.nanoTime() - start) / ITERATIONS;
+        long streamBytes = (allocatedBytes() - allocatedBefore) / ITERATIONS;
+
+        System.out.println(String.format("read + split:     %8.2f ms/response %8d KB allocated/response", splitNanos / 1e6, splitBytes / 1024));
+        System.out.println(String.format("QuoteCsvParser:   %8.2f ms/response %8d KB allocated/response", streamNanos / 1e6, streamBytes / 1024));
+
+    }
+
+
+    /*
+     * Bytes allocated by this thread so far, where the JVM can tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+
+    private static byte[] syntheticResponse() {
+        StringBuilder sb = new StringBuilder(SECURITIES * 80);
+        for (int i = 0; i < SECURITIES; i++) {
+            sb.append("\"SYM").append(i).append(".TO\",\"COMPANY ").append(i).append(" LTD\",")
+                    .append(i % 100).append(".25,12.5,1.75,0.92,3.4,18.2\r\n");
+        }
+        return sb.toString().getBytes(LATIN1);
+    }
+
+
+    private static void check(List<HashMap<QuoteAttribute, String>> result) {
+        if (result.size() != SECURITIES) {
+            throw new IllegalStateException("Parsed " + result.size() + " lines");
+        }
+    }
+
+
+    private static List<HashMap<QuoteAttribute, String>> streaming(byte[] response) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(response)) {
+            return new QuoteCsvParser(ATTRIBUTES, LATIN1).parse(in);
+        }
+    }
+
+
+    /*
+     * YahooQuoteService's previous parsing: EntityUtils.toString then String.split
+     */
+    private static List<HashMap<QuoteAttribute, String>> splitting(byte[] response) throws IOException {
+
+        String body = readFully(new ByteArrayInputStream(response));
+
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            String[] items = line.split(",");
+            HashMap<QuoteAttribute, String> lineItem = new HashMap<>();
+            int i = 0;
+            for (String item : items) {
+                lineItem.put(ATTRIBUTES.get(i++), item);
+            }
+            result.add(lineItem);
+        }
+        return result;
+
+    }
+
+
+    private static String readFully(InputStream in) throws IOException {
+        try (Reader reader = new InputStreamReader(in, "ISO-8859-1")) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, length);
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteCsvParserTest extends TestCase {
+
+    private static final List<QuoteAttribute> ATTRIBUTES =
+            Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.COMPANY_NAME, QuoteAttribute.LAST_TRADE_PRICE);
+
+
+    public void testQuotedValueMayContainCommas() throws IOException {
+
+        List<HashMap<QuoteAttribute, String>> result = parse("\"BMO.TO\",\"BANK OF MONTREAL, INC\",58.50\n", 8192);
+
+        assertEquals(1, result.size());
+        assertEquals("BMO.TO", result.get(0).get(QuoteAttribute.SYMBOL));
+        assertEquals("BANK OF MONTREAL, INC", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+        assertEquals("58.50", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+
+    }
+
+
+    public void testEscapedQuote() throws IOException {
+        List<HashMap<QuoteAttribute, String>> result = parse("X,\"The \"\"X\"\" Co\",1\n", 8192);
+        assertEquals("The \"X\" Co", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+    }
+
+
+    public void testLineEndingsAndBlankLines() throws IOException {
+
+        List<HashMap<QuoteAttribute, String>> result = parse("A,a,1\r\n\r\nB,b,2\nC,c,3", 8192);
+
+        assertEquals(3, result.size());
+        assertEquals("1", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("B", result.get(1).get(QuoteAttribute.SYMBOL));
+        assertEquals("3", result.get(2).get(QuoteAttribute.LAST_TRADE_PRICE));
+
+    }
+
+
+    public void testEmptyValuesAndExtraValues() throws IOException {
+
+        List<HashMap<QuoteAttribute, String>> result = parse("A,,1,extra\n\"\"\n", 8192);
+
+        assertEquals(2, result.size());
+        assertEquals("", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+        assertEquals(3, result.get(0).size());
+        assertEquals("", result.get(1).get(QuoteAttribute.SYMBOL));
+
+    }
+
+
+    public void testValuesSpanningBufferBoundaries() throws IOException {
+
+        String csv = "\"BMO.TO\",\"BANK OF MONTREAL, \"\"BMO\"\"\",58.50\r\n\"T.TO\",\"TELUS\",41.00\r\n";
+
+        // Every buffer size splits some value, quote or line ending
+        for (int bufferSize = 1; bufferSize < 16; bufferSize++) {
+            List<HashMap<QuoteAttribute, String>> result = parse(csv, bufferSize);
+            assertEquals(2, result.size());
+            assertEquals("BANK OF MONTREAL, \"BMO\"", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+            assertEquals("41.00", result.get(1).get(QuoteAttribute.LAST_TRADE_PRICE));
+        }
+
+    }
+
+
+    public void testMultiByteCharacters() throws IOException {
+
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] csv = "SOC,\"Soci\u00e9t\u00e9 G\u00e9n\u00e9rale, SA\",1\n".getBytes(utf8);
+
+        // A buffer of 3 bytes splits the two byte encodings
+        List<HashMap<QuoteAttribute, String>> result = new QuoteCsvParser(ATTRIBUTES, utf8, 3).parse(new ByteArrayInputStream(csv));
+        assertEquals("Soci\u00e9t\u00e9 G\u00e9n\u00e9rale, SA", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+
+    }
+
+
+    private List<HashMap<QuoteAttribute, String>> parse(String csv, int bufferSize) throws IOException {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        return new QuoteCsvParser(ATTRIBUTES, latin1, bufferSize).parse(new ByteArrayInputStream(csv.getBytes(latin1)));
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * A local server replaying recorded Yahoo csv responses, for tests and benchmarks which
+ * should see real data without the network.
+ *
+ * The recording, quotes.csv, is a response to a query for all attributes, with the
+ * attribute codes of RECORDED_FIELDS. A query is answered with the recorded line of each
+ * symbol asked for, cut down to the attributes asked for, in the order asked. A symbol
+ * not in the recording gets what Yahoo gives an unknown symbol: the symbol, and N/A for
+ * everything else. Responses are gzipped when the client accepts it.
+ *
+ * Point the default YahooQuoteService at it with the system property
+ * YahooQuoteService.BASE_URL_PROPERTY set to getBaseUrl().
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class ReplayQuoteServer implements HttpHandler {
+
+    public static final String PATH = "/d/quotes.csv";
+    public static final String FIXTURE = "quotes.csv";
+    public static final String[] RECORDED_FIELDS = {"s", "n", "l1", "b4", "e", "d", "q", "r1", "y", "p5", "p6", "r"};
+
+    private static final String NOT_AVAILABLE = "N/A";
+
+    static {
+        // As StubQuoteServer: don't let response bodies wait on delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Map<String, String[]> recorded = new HashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+
+    public ReplayQuoteServer() throws IOException {
+        load();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext(PATH, this);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+
+    /**
+     * @return The symbols in the recording, in its order
+     */
+    public List<String> getSymbols() {
+        return new ArrayList<>(symbols);
+    }
+
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+
+    public void stop() {
+        server.stop(0);
+    }
+
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+
+        requestCount.incrementAndGet();
+
+        String query = "";
+        String fields = "";
+        for (String param : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (param.startsWith("s=")) {
+                query = param.substring(2);
+            } else if (param.startsWith("f=")) {
+                fields = param.substring(2);
+            }
+        }
+
+        // Attribute codes are a letter optionally followed by a digit
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < fields.length(); i++) {
+            int end = (i + 1 < fields.length() && Character.isDigit(fields.charAt(i + 1))) ? i + 2 : i + 1;
+            columns.add(indexOf(fields.substring(i, end)));
+            i = end - 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String symbol : query.split("\\+")) {
+            String[] values = recorded.get(symbol.toUpperCase());
+            String separator = "";
+            for (int column : columns) {
+                sb.append(separator);
+                separator = ",";
+                if (null != values && column >= 0) {
+                    sb.append(values[column]);
+                } else if (0 == column) {
+                    sb.append('"').append(symbol).append('"');
+                } else {
+                    sb.append(NOT_AVAILABLE);
+                }
+            }
+            sb.append("\r\n");
+        }
+        byte[] body = sb.toString().getBytes("ISO-8859-1");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (null != acceptEncoding && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+
+    }
+
+
+    private static int indexOf(String field) {
+        for (int i = 0; i < RECORDED_FIELDS.length; i++) {
+            if (RECORDED_FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /*
+     * Each line of the recording split into its values, kept as recorded (quotes and all)
+     * so they are replayed verbatim
+     */
+    private void load() throws IOException {
+        try (InputStream in = ReplayQuoteServer.class.getResourceAsStream(FIXTURE)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "ISO-8859-1"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] values = split(line);
+                String symbol = values[0].replace("\"", "");
+                recorded.put(symbol, values);
+                symbols.add(symbol);
+            }
+        }
+    }
+
+
+    private static String[] split(String line) {
+        List<String> values = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if ('"' == c) {
+                quoted = !quoted;
+            } else if (',' == c && !quoted) {
+                values.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+        values.add(line.substring(start));
+        return values.toArray(new String[values.size()]);
+    }
+
+}
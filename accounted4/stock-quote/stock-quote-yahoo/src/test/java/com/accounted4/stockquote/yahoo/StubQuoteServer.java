@@ -0,0 +1,142 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * A local stand-in for the Yahoo csv quote service. Answers a query for symbols
+ * "s=A+B+C" with one line per symbol: the symbol followed by a made up price for each
+ * remaining requested attribute. Responses are gzipped when the client accepts it.
+ *
+ * Records the client ports seen, so tests can tell how many connections were opened.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class StubQuoteServer implements HttpHandler {
+
+    public static final String PATH = "/d/quotes.csv";
+
+    static {
+        // The JDK server writes headers and body separately: without TCP_NODELAY the body of
+        // a response on a persistent connection waits on the client's delayed ack (~40ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger gzipCount = new AtomicInteger();
+    private volatile long delayMillis;
+
+
+    public StubQuoteServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext(PATH, this);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+
+    public int getConnectionCount() {
+        return clientPorts.size();
+    }
+
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+
+    public int getGzipCount() {
+        return gzipCount.get();
+    }
+
+
+    /**
+     * @param delayMillis Time to wait before answering each request
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+
+    public void stop() {
+        server.stop(0);
+    }
+
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+
+        requestCount.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String symbols = "";
+        String fields = "";
+        for (String param : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (param.startsWith("s=")) {
+                symbols = param.substring(2);
+            } else if (param.startsWith("f=")) {
+                fields = param.substring(2);
+            }
+        }
+
+        // Attribute codes are a letter optionally followed by a digit
+        int fieldCount = fields.replaceAll("[0-9]", "").length();
+
+        StringBuilder sb = new StringBuilder();
+        for (String symbol : symbols.split("\\+")) {
+            sb.append('"').append(symbol).append('"');
+            for (int i = 1; i < fieldCount; i++) {
+                sb.append(',').append(i).append(".25");
+            }
+            sb.append("\r\n");
+        }
+        byte[] body = sb.toString().getBytes("UTF-8");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (null != acceptEncoding && acceptEncoding.contains("gzip")) {
+            gzipCount.incrementAndGet();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.Quote;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * YahooQuoteService over recorded responses from ReplayQuoteServer, and the url set by
+ * system property.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class YahooQuoteReplayTest extends TestCase {
+
+    private ReplayQuoteServer server;
+    private QuoteHttpClient quoteHttpClient;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new ReplayQuoteServer();
+        quoteHttpClient = new QuoteHttpClient();
+    }
+
+
+    @Override
+    protected void tearDown() {
+        quoteHttpClient.close();
+        server.stop();
+    }
+
+
+    public void testRecordedQuotes() {
+
+        YahooQuoteService service = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient);
+        List<QuoteAttribute> attributes = Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.COMPANY_NAME,
+                QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.DIVIDEND_DATE, QuoteAttribute.BOOK_VALUE);
+
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(Arrays.asList("BMO.TO", "AAPL", "NOPE"), attributes);
+        assertEquals(3, result.size());
+
+        assertEquals("BMO.TO", result.get(0).get(QuoteAttribute.SYMBOL));
+        assertEquals("BANK OF MONTREAL", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+        assertEquals("58.50", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("May 29", result.get(0).get(QuoteAttribute.DIVIDEND_DATE));
+
+        List<Quote> quotes = Quote.fromMaps(result);
+        assertEquals(new BigDecimal("560.99"), quotes.get(1).getDecimal(QuoteAttribute.LAST_TRADE_PRICE));
+        assertFalse(quotes.get(1).hasValue(QuoteAttribute.BOOK_VALUE));
+        assertFalse(quotes.get(1).hasValue(QuoteAttribute.DIVIDEND_DATE));
+
+        // Unknown to Yahoo: the symbol, and nothing else
+        assertEquals("NOPE", quotes.get(2).getSymbol());
+        assertFalse(quotes.get(2).hasValue(QuoteAttribute.LAST_TRADE_PRICE));
+
+    }
+
+
+    public void testWholeRecording() {
+
+        YahooQuoteService service = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient);
+        List<String> symbols = server.getSymbols();
+
+        List<Quote> quotes = Quote.fromMaps(service.executeQuery(symbols, Arrays.asList(QuoteAttribute.values())));
+        assertEquals(symbols.size(), quotes.size());
+        for (int i = 0; i < symbols.size(); i++) {
+            assertEquals(symbols.get(i), quotes.get(i).getSymbol());
+            assertTrue(quotes.get(i).getDouble(QuoteAttribute.LAST_TRADE_PRICE) > 0);
+        }
+
+    }
+
+
+    public void testUrlFromSystemProperty() {
+
+        System.setProperty(YahooQuoteService.BASE_URL_PROPERTY, server.getBaseUrl());
+        try {
+            YahooQuoteService service = new YahooQuoteService();
+            List<HashMap<QuoteAttribute, String>> result = service.executeQuery(Arrays.asList("MSFT"), Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE));
+            assertEquals("28.45", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            System.clearProperty(YahooQuoteService.BASE_URL_PROPERTY);
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.LatencyHistogram;
+import com.accounted4.stockquote.api.QueryBatcher;
+import com.accounted4.stockquote.api.Quote;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+
+
+/**
+ * End to end throughput of YahooQuoteService under concurrent clients: fetch of the
+ * recorded quotes from a local ReplayQuoteServer, csv parse, and build of the typed Quotes.
+ * Each client queries all the recorded symbols for all attributes in a loop for a fixed
+ * time; reported are queries and quotes per second, and latency percentiles.
+ *
+ * First, for a single client, queries per second with a new http client (and so a new
+ * connection) per query, as YahooQuoteService used to do, against the pooled client.
+ *
+ * Yahoo's rate limit is left out so as to measure the service rather than the limit.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.accounted4.stockquote.yahoo.YahooQuoteServiceBenchmark -Dexec.classpathScope=test
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class YahooQuoteServiceBenchmark {
+
+    private static final int[] CLIENTS = {1, 2, 4, 8, 16};
+    private static final long WARM_UP_MILLIS = 2000;
+    private static final long RUN_MILLIS = 3000;
+
+    private static final int CLIENT_COMPARISON_QUERIES = 300;
+
+    private static final List<QuoteAttribute> ATTRIBUTES = Arrays.asList(QuoteAttribute.values());
+
+
+    public static void main(String[] args) throws Exception {
+
+        // The service prints each query url: report on stdout directly, and drop the rest
+        PrintStream report = new PrintStream(new FileOutputStream(FileDescriptor.out), true);
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        ReplayQuoteServer server = new ReplayQuoteServer();
+        QuoteHttpClient quoteHttpClient = new QuoteHttpClient();
+        try {
+
+            report.println(compareClients(server, quoteHttpClient));
+
+            report.println("Warming up");
+            run(server, quoteHttpClient, 4, WARM_UP_MILLIS);
+
+            for (int clients : CLIENTS) {
+                report.println(run(server, quoteHttpClient, clients, RUN_MILLIS));
+            }
+
+        } finally {
+            quoteHttpClient.close();
+            server.stop();
+        }
+
+    }
+
+
+    private static String compareClients(ReplayQuoteServer server, QuoteHttpClient quoteHttpClient) throws Exception {
+
+        String url = server.getBaseUrl() + "?s=BMO.TO+MSFT+T.TO&f=sl1b4";
+        YahooQuoteService service = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient, new QueryBatcher(
+                YahooQuoteService.MAX_BATCH_SIZE, YahooQuoteService.MAX_BATCH_LENGTH, YahooQuoteService.MAX_CONCURRENT_REQUESTS, 0,
+                QueryBatcher.getDefaultExecutor()));
+        List<String> symbols = Arrays.asList("BMO.TO", "MSFT", "T.TO");
+        List<QuoteAttribute> attributes = Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.BOOK_VALUE);
+
+        // Warm up both paths
+        queryWithClientPerRequest(url, 20);
+        for (int i = 0; i < 20; i++) {
+            service.executeQuery(symbols, attributes);
+        }
+
+        long start = System.nanoTime();
+        queryWithClientPerRequest(url, CLIENT_COMPARISON_QUERIES);
+        double perRequestQps = CLIENT_COMPARISON_QUERIES / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < CLIENT_COMPARISON_QUERIES; i++) {
+            service.executeQuery(symbols, attributes);
+        }
+        double pooledQps = CLIENT_COMPARISON_QUERIES / ((System.nanoTime() - start) / 1e9);
+
+        return String.format("Client per query: %.0f queries/s, pooled client: %.0f queries/s", perRequestQps, pooledQps);
+
+    }
+
+
+    /*
+     * The previous behaviour: a new client, and so a new connection, for every query.
+     */
+    private static void queryWithClientPerRequest(String url, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            DefaultHttpClient httpClient = new DefaultHttpClient();
+            try {
+                EntityUtils.toString(httpClient.execute(new HttpGet(url)).getEntity());
+            } finally {
+                httpClient.getConnectionManager().shutdown();
+            }
+        }
+    }
+
+
+    private static String run(ReplayQuoteServer server, QuoteHttpClient quoteHttpClient, int clients, final long millis) throws Exception {
+
+        QueryBatcher batcher = new QueryBatcher(
+                YahooQuoteService.MAX_BATCH_SIZE, YahooQuoteService.MAX_BATCH_LENGTH, YahooQuoteService.MAX_CONCURRENT_REQUESTS, 0,
+                QueryBatcher.getDefaultExecutor());
+        final YahooQuoteService service = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient, batcher);
+        final List<String> symbols = server.getSymbols();
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            results.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long quotes = 0;
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        List<Quote> result = Quote.fromMaps(service.executeQuery(symbols, ATTRIBUTES));
+                        latencies.record(System.nanoTime() - now);
+                        quotes += result.size();
+                    }
+                    return quotes;
+                }
+            }));
+        }
+
+        long quotes = 0;
+        for (Future<Long> result : results) {
+            quotes += result.get();
+        }
+        executor.shutdown();
+
+        double seconds = millis / 1000.0;
+        return String.format("%2d clients: %8.1f queries/s %10.0f quotes/s  p50 < %d ms  p99 < %d ms",
+                clients, latencies.getCount() / seconds, quotes / seconds,
+                latencies.getPercentileMillis(50), latencies.getPercentileMillis(99));
+
+    }
+
+}
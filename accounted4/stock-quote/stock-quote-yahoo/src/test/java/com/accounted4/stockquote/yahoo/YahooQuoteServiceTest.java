@@ -0,0 +1,216 @@
+package com.accounted4.stockquote.yahoo;
+
+
+import com.accounted4.stockquote.api.QueryBatcher;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteFuture;
+import com.accounted4.stockquote.api.QuoteListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+
+/**
+ * YahooQuoteService against a local stub server: results are parsed, connections are
+ * reused and responses are compressed. Throughput is measured by YahooQuoteServiceBenchmark.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class YahooQuoteServiceTest extends TestCase {
+
+    private static final int QUERIES = 20;
+
+    private static final List<String> SYMBOLS = Arrays.asList("BMO.TO", "MSFT", "T.TO");
+    private static final List<QuoteAttribute> ATTRIBUTES =
+            Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.BOOK_VALUE);
+
+    private StubQuoteServer server;
+    private QuoteHttpClient quoteHttpClient;
+    private YahooQuoteService service;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new StubQuoteServer();
+        quoteHttpClient = new QuoteHttpClient();
+        // Yahoo's limits, less the rate limit so as to measure throughput
+        QueryBatcher batcher = new QueryBatcher(
+                YahooQuoteService.MAX_BATCH_SIZE, YahooQuoteService.MAX_BATCH_LENGTH, YahooQuoteService.MAX_CONCURRENT_REQUESTS, 0,
+                QueryBatcher.getDefaultExecutor());
+        service = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient, batcher);
+    }
+
+
+    @Override
+    protected void tearDown() {
+        quoteHttpClient.close();
+        server.stop();
+    }
+
+
+    public void testQueryIsParsed() {
+
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(SYMBOLS, ATTRIBUTES);
+
+        assertEquals(3, result.size());
+        assertEquals("MSFT", result.get(1).get(QuoteAttribute.SYMBOL));
+        assertEquals("1.25", result.get(1).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("2.25", result.get(2).get(QuoteAttribute.BOOK_VALUE));
+
+    }
+
+
+    public void testResponsesAreCompressed() {
+        service.executeQuery(SYMBOLS, ATTRIBUTES);
+        assertEquals(1, server.getGzipCount());
+    }
+
+
+    public void testConnectionIsReused() {
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(3, service.executeQuery(SYMBOLS, ATTRIBUTES).size());
+        }
+
+        assertEquals(20, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+
+    }
+
+
+    public void testLargeListIsBatchedInOrder() {
+
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            symbols.add("S" + i + ".TO");
+        }
+
+        QueryBatcher batcher = new QueryBatcher(100, 1500, 4, 0, QueryBatcher.getDefaultExecutor());
+        YahooQuoteService batchingService = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient, batcher);
+
+        List<HashMap<QuoteAttribute, String>> result = batchingService.executeQuery(symbols, ATTRIBUTES);
+
+        assertEquals(10, server.getRequestCount());
+        assertEquals(symbols.size(), result.size());
+        for (int i = 0; i < symbols.size(); i++) {
+            assertEquals(symbols.get(i), result.get(i).get(QuoteAttribute.SYMBOL));
+        }
+
+    }
+
+
+    public void testBatchesRespectUrlLength() {
+
+        QueryBatcher batcher = new QueryBatcher(200, 20, 1, 0, QueryBatcher.getDefaultExecutor());
+
+        // 7 + 1 + 7 + 1 + 3 = 19 characters fit; the 4th name does not. An over-long name goes alone.
+        List<List<String>> batches = batcher.partition(Arrays.asList(
+                "ABCDEFG", "HIJKLMN", "OPQ", "R", "THIS.NAME.IS.TOO.LONG", "S"));
+
+        assertEquals(4, batches.size());
+        assertEquals(Arrays.asList("ABCDEFG", "HIJKLMN", "OPQ"), batches.get(0));
+        assertEquals(Arrays.asList("R"), batches.get(1));
+        assertEquals(Arrays.asList("THIS.NAME.IS.TOO.LONG"), batches.get(2));
+        assertEquals(Arrays.asList("S"), batches.get(3));
+
+    }
+
+
+    public void testAsyncQueryStreamsEachQuote() throws Exception {
+
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            symbols.add("S" + i);
+        }
+
+        final AtomicInteger quotesHeard = new AtomicInteger();
+        QueryBatcher batcher = new QueryBatcher(50, 1500, 4, 0, QueryBatcher.getDefaultExecutor());
+        YahooQuoteService batchingService = new YahooQuoteService(server.getBaseUrl(), quoteHttpClient, batcher);
+
+        QuoteFuture<List<HashMap<QuoteAttribute, String>>> future = batchingService.executeQueryAsync(
+                symbols, ATTRIBUTES,
+                new QuoteListener() {
+                    @Override
+                    public void onQuote(HashMap<QuoteAttribute, String> quote) {
+                        quotesHeard.incrementAndGet();
+                    }
+                },
+                10, TimeUnit.SECONDS);
+
+        List<HashMap<QuoteAttribute, String>> result = future.get();
+
+        assertEquals(500, quotesHeard.get());
+        assertEquals(500, result.size());
+        assertEquals("S499", result.get(499).get(QuoteAttribute.SYMBOL));
+
+    }
+
+
+    public void testDeadlineAbortsQuery() throws Exception {
+
+        server.setDelayMillis(2000);
+
+        long start = System.nanoTime();
+        QuoteFuture<List<HashMap<QuoteAttribute, String>>> future =
+                service.executeQueryAsync(SYMBOLS, ATTRIBUTES, null, 100, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get();
+            fail("Expected the deadline to pass");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof TimeoutException);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+
+    }
+
+
+    public void testCancelAbortsQuery() throws Exception {
+
+        server.setDelayMillis(2000);
+
+        QuoteFuture<List<HashMap<QuoteAttribute, String>>> future =
+                service.executeQueryAsync(SYMBOLS, ATTRIBUTES, null, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected cancellation");
+        } catch (CancellationException ce) {
+            // expected
+        }
+
+    }
+
+
+    public void testPooledClientReusesConnection() {
+
+        queryWithPooledClient(1);
+        int connectionsBefore = server.getConnectionCount();
+
+        queryWithPooledClient(QUERIES);
+
+        // Each query reuses the connection opened by the first
+        assertEquals(connectionsBefore, server.getConnectionCount());
+
+    }
+
+
+    private void queryWithPooledClient(int count) {
+        for (int i = 0; i < count; i++) {
+            service.executeQuery(SYMBOLS, ATTRIBUTES);
+        }
+    }
+
+}
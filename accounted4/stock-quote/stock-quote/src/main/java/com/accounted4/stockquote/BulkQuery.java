@@ -0,0 +1,343 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Quotes for a long list of securities, ex: tens of thousands read from a file, written
+ * out as they arrive.
+ *
+ * The list is queried in chunks, several at once. Results are written in the order of
+ * the list, a chunk at a time as soon as it and every chunk before it are complete, and
+ * flushed after each chunk: the output streams rather than waiting for the whole list.
+ * Only a few chunks beyond the one being written are queried ahead, so memory does not
+ * grow with the list.
+ *
+ * Output is CSV, with a header line of attribute names, or JSON lines, one object per
+ * quote. SYMBOL is always queried, and written first, so each quote can be matched to its
+ * security; other attributes are written in the order asked. A chunk whose query fails is
+ * reported and skipped.
+ *
+ * Progress and throughput are reported (ex: to stderr) about once a second, and in
+ * summary at the end.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class BulkQuery {
+
+    public enum Format { CSV, JSON }
+
+    public static final int DEFAULT_CHUNK_SIZE = 200;
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final QuoteService quoteService;
+    private final List<QuoteAttribute> quoteAttributes = new ArrayList<>();
+    private final Format format;
+    private final int chunkSize;
+    private final int parallelism;
+
+    private QuoteHistoryStore historyStore;
+    private PrintStream progress;
+
+    private int failedCount;
+
+
+    /**
+     * @param quoteService Service to query
+     * @param quoteAttributes Attributes to query for
+     * @param format Output format
+     * @param chunkSize Number of securities per query
+     * @param parallelism Number of queries at once
+     */
+    public BulkQuery(QuoteService quoteService, List<QuoteAttribute> quoteAttributes, Format format, int chunkSize, int parallelism) {
+
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Chunk size and parallelism must be positive");
+        }
+
+        this.quoteService = quoteService;
+        this.format = format;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+
+        this.quoteAttributes.add(QuoteAttribute.SYMBOL);
+        for (QuoteAttribute attribute : quoteAttributes) {
+            if (QuoteAttribute.SYMBOL != attribute) {
+                this.quoteAttributes.add(attribute);
+            }
+        }
+
+    }
+
+
+    /**
+     * @param historyStore Also record the results here, or null not to
+     */
+    public void setHistoryStore(QuoteHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+
+    /**
+     * @param progress Receives progress, throughput and errors, or null for none
+     */
+    public void setProgress(PrintStream progress) {
+        this.progress = progress;
+    }
+
+
+    /**
+     * Query the securities, writing the quotes as they arrive.
+     *
+     * @param securityList The securities, in the order to write their quotes
+     * @param out Receives the quotes
+     * @return Number of quotes written: fewer than the securities where the service did not
+     * know one, or a chunk failed
+     * @throws IOException If the quotes could not be written or recorded
+     * @throws InterruptedException If interrupted while waiting on a query: those in
+     * progress are cancelled
+     */
+    public int run(List<String> securityList, Writer out) throws IOException, InterruptedException {
+
+        failedCount = 0;
+        writeHeader(out);
+
+        long start = System.nanoTime();
+        long lastReport = start;
+        int done = 0;
+        int quoteCount = 0;
+
+        ExecutorService executor = newExecutor(parallelism);
+        Deque<Chunk> pending = new ArrayDeque<>();
+        int next = 0;
+
+        try {
+            while (next < securityList.size() || !pending.isEmpty()) {
+
+                // Keep a few chunks ahead of the one to be written
+                while (next < securityList.size() && pending.size() < 2 * parallelism) {
+                    int end = Math.min(next + chunkSize, securityList.size());
+                    pending.addLast(new Chunk(next, end, executor.submit(query(new ArrayList<>(securityList.subList(next, end))))));
+                    next = end;
+                }
+
+                Chunk chunk = pending.removeFirst();
+                done += chunk.end - chunk.start;
+
+                List<HashMap<QuoteAttribute, String>> rows;
+                try {
+                    rows = chunk.result.get();
+                } catch (ExecutionException ee) {
+                    failedCount += chunk.end - chunk.start;
+                    report("Error securities " + (chunk.start + 1) + " to " + chunk.end + ": " + ee.getCause());
+                    continue;
+                }
+
+                writeRows(out, rows);
+                out.flush();
+                quoteCount += rows.size();
+
+                if (null != historyStore) {
+                    historyStore.record(System.currentTimeMillis(), rows);
+                }
+
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport = now;
+                    report(String.format(Locale.ROOT, "Progress: %d of %d securities, %.0f securities/s",
+                            done, securityList.size(), done / seconds(now - start)));
+                }
+
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = seconds(System.nanoTime() - start);
+        report(String.format(Locale.ROOT, "Queried %d securities in %.1f s: %.0f securities/s, %d quotes, %d securities failed",
+                securityList.size(), seconds, securityList.size() / seconds, quoteCount, failedCount));
+
+        return quoteCount;
+
+    }
+
+
+    /**
+     * @return Number of securities in chunks which failed, in the last run
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+
+    /**
+     * Read a list of securities: separated by commas or white space, over any number of
+     * lines. Blank lines and lines starting with # are skipped.
+     *
+     * @param in The list, ex: a file or stdin
+     * @return The securities, in the order read
+     * @throws IOException If the list could not be read
+     */
+    public static List<String> readSymbols(Reader in) throws IOException {
+
+        List<String> symbols = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            for (String symbol : line.split("[,\\s]+")) {
+                if (!symbol.isEmpty()) {
+                    symbols.add(symbol);
+                }
+            }
+        }
+        return symbols;
+
+    }
+
+
+    private Callable<List<HashMap<QuoteAttribute, String>>> query(final List<String> chunk) {
+        return new Callable<List<HashMap<QuoteAttribute, String>>>() {
+            @Override
+            public List<HashMap<QuoteAttribute, String>> call() {
+                return quoteService.executeQuery(chunk, quoteAttributes);
+            }
+        };
+    }
+
+
+    private void writeHeader(Writer out) throws IOException {
+        if (Format.CSV == format) {
+            String separator = "";
+            for (QuoteAttribute attribute : quoteAttributes) {
+                out.write(separator);
+                out.write(attribute.toString());
+                separator = ",";
+            }
+            out.write('\n');
+        }
+    }
+
+
+    private void writeRows(Writer out, List<HashMap<QuoteAttribute, String>> rows) throws IOException {
+
+        StringBuilder sb = new StringBuilder(64 * rows.size());
+        for (HashMap<QuoteAttribute, String> row : rows) {
+
+            if (Format.JSON == format) {
+                JsonText.appendQuote(sb, row, quoteAttributes).append('\n');
+                continue;
+            }
+
+            String separator = "";
+            for (QuoteAttribute attribute : quoteAttributes) {
+                sb.append(separator);
+                appendCsv(sb, row.get(attribute));
+                separator = ",";
+            }
+            sb.append('\n');
+
+        }
+        out.write(sb.toString());
+
+    }
+
+
+    /*
+     * Quoted only where needed: a value with a comma, quote or line break
+     */
+    private static void appendCsv(StringBuilder sb, String value) {
+
+        if (null == value) {
+            return;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = ',' == c || '"' == c || '\n' == c || '\r' == c;
+        }
+
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+
+    }
+
+
+    private void report(String message) {
+        if (null != progress) {
+            progress.println(message);
+        }
+    }
+
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+
+    private static ExecutorService newExecutor(int threads) {
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "stock-quote-bulk-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+
+    /*
+     * A range of the security list, and its pending result
+     */
+    private static class Chunk {
+
+        final int start;
+        final int end;
+        final Future<List<HashMap<QuoteAttribute, String>>> result;
+
+
+        Chunk(int start, int end, Future<List<HashMap<QuoteAttribute, String>>> result) {
+            this.start = start;
+            this.end = end;
+            this.result = result;
+        }
+
+    }
+
+}
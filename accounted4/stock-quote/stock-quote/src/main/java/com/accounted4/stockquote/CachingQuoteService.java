@@ -0,0 +1,579 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Caches the results of any QuoteService, attribute by attribute.
+ *
+ * <ul>
+ *   <li>Each attribute has its own time to live: a last trade price goes stale in
+ *       seconds, a company name or book value in hours.</li>
+ *   <li>A value past its time to live, but within the stale-while-revalidate window,
+ *       is returned immediately while it is refreshed in the background.</li>
+ *   <li>Concurrent requests for the same security and attribute share a single fetch
+ *       from the underlying service.</li>
+ *   <li>The number of securities cached is bounded, least recently used evicted first.</li>
+ * </ul>
+ *
+ * Securities are matched case-insensitively. Fetches always ask the underlying
+ * service for SYMBOL, to match result rows to securities. Securities the service does
+ * not return are not cached. Hit, miss and fetch counts are available for monitoring.
+ *
+ * Background refreshes run on a thread of the cache's own unless an executor is given;
+ * close() stops it. Refreshes wait on the underlying service, so they are not run on
+ * the quote executor that service may itself need.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CachingQuoteService implements QuoteService, Closeable {
+
+    public static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final int DEFAULT_MAX_SECURITIES = 10000;
+
+    private final QuoteService delegate;
+    private final long maxStaleMillis;
+    private final Executor refreshExecutor;
+    // The refresh executor, if created by the cache and so shut down on close
+    private final ExecutorService ownedExecutor;
+
+    private final Map<QuoteAttribute, Long> timeToLiveMillis = new EnumMap<>(QuoteAttribute.class);
+
+    // Cached values by upper case security, in access order for LRU eviction
+    private final LinkedHashMap<String, EnumMap<QuoteAttribute, CachedValue>> cache;
+
+    // Fetches in progress, by security and attribute
+    private final ConcurrentMap<Key, Fetch> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong fetchCount = new AtomicLong();
+    private final AtomicLong fetchFailureCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+
+    /**
+     * A cache with the default times to live, stale window and size, refreshing on a
+     * thread of its own.
+     *
+     * @param delegate The service to cache
+     */
+    public CachingQuoteService(QuoteService delegate) {
+        this(delegate, DEFAULT_MAX_STALE_MILLIS, DEFAULT_MAX_SECURITIES, newRefreshExecutor(), true);
+    }
+
+
+    /**
+     * @param delegate The service to cache
+     * @param maxStaleMillis How long past its time to live a value may still be returned
+     * while it is refreshed. Zero to always wait for a fresh value.
+     * @param maxSecurities Maximum number of securities to cache
+     * @param refreshExecutor Executor for background refreshes, owned by the caller
+     */
+    public CachingQuoteService(QuoteService delegate, long maxStaleMillis, int maxSecurities, Executor refreshExecutor) {
+        this(delegate, maxStaleMillis, maxSecurities, refreshExecutor, false);
+    }
+
+
+    private CachingQuoteService(QuoteService delegate, long maxStaleMillis, final int maxSecurities, Executor refreshExecutor, boolean owned) {
+
+        this.delegate = delegate;
+        this.maxStaleMillis = maxStaleMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.ownedExecutor = owned ? (ExecutorService) refreshExecutor : null;
+
+        for (QuoteAttribute attribute : QuoteAttribute.values()) {
+            timeToLiveMillis.put(attribute, defaultTimeToLiveMillis(attribute));
+        }
+
+        cache = new LinkedHashMap<String, EnumMap<QuoteAttribute, CachedValue>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EnumMap<QuoteAttribute, CachedValue>> eldest) {
+                if (size() > maxSecurities) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    }
+
+
+    /*
+     * One daemon thread, retired when idle. Refreshes are coalesced by security and
+     * attribute, so the queue holds at most one per stale value.
+     */
+    private static ExecutorService newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "stock-quote-cache-refresh-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+    /*
+     * Prices move by the second; ratios move with the price, but are only
+     * recalculated by providers every so often; the rest changes daily at most.
+     */
+    private static long defaultTimeToLiveMillis(QuoteAttribute attribute) {
+        switch (attribute) {
+            case LAST_TRADE_PRICE:
+                return TimeUnit.SECONDS.toMillis(15);
+            case DIVIDEND_YIELD:
+            case PRICE_SALES:
+            case PRICE_BOOK:
+            case PRICE_EARNINGS:
+                return TimeUnit.MINUTES.toMillis(1);
+            default:
+                return TimeUnit.HOURS.toMillis(1);
+        }
+    }
+
+
+    /**
+     * Change how long values of an attribute are fresh.
+     *
+     * @param attribute The attribute
+     * @param millis Time to live, zero to never use a cached value without revalidating
+     */
+    public void setTimeToLive(QuoteAttribute attribute, long millis) {
+        synchronized (timeToLiveMillis) {
+            timeToLiveMillis.put(attribute, millis);
+        }
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return delegate.getServiceName();
+    }
+
+
+    @Override
+    public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+        long now = now();
+
+        // Values found, by upper case security
+        Map<String, EnumMap<QuoteAttribute, String>> found = new HashMap<>();
+        // Missing or expired: fetched by this request, or waited on from another's fetch
+        Fetch fetch = new Fetch();
+        Map<Key, Fetch> waitingOn = new LinkedHashMap<>();
+        // Past their time to live but usable: refreshed in the background
+        Fetch refresh = new Fetch();
+
+        for (String security : securityList) {
+
+            String symbol = normalize(security);
+            EnumMap<QuoteAttribute, CachedValue> cached = getCached(symbol);
+            EnumMap<QuoteAttribute, String> values = new EnumMap<>(QuoteAttribute.class);
+            found.put(symbol, values);
+
+            for (QuoteAttribute attribute : quoteAttributes) {
+
+                CachedValue value = null == cached ? null : cached.get(attribute);
+                long age = null == value ? Long.MAX_VALUE : now - value.fetchedAt;
+                long timeToLive = getTimeToLive(attribute);
+
+                if (age <= timeToLive) {
+                    hitCount.incrementAndGet();
+                    values.put(attribute, value.value);
+                    continue;
+                }
+
+                Key key = new Key(symbol, attribute);
+
+                if (null != value && age - timeToLive <= maxStaleMillis) {
+                    staleHitCount.incrementAndGet();
+                    values.put(attribute, value.value);
+                    if (null == inFlight.putIfAbsent(key, refresh)) {
+                        refresh.add(symbol, attribute, key);
+                    }
+                    continue;
+                }
+
+                missCount.incrementAndGet();
+                Fetch existing = inFlight.putIfAbsent(key, fetch);
+                if (null == existing) {
+                    fetch.add(symbol, attribute, key);
+                } else {
+                    coalescedCount.incrementAndGet();
+                    waitingOn.put(key, existing);
+                }
+
+            }
+        }
+
+        if (!refresh.isEmpty()) {
+            startRefresh(refresh);
+        }
+
+        if (!fetch.isEmpty()) {
+            fetch.run();
+            fetch.copyTo(found);
+        }
+
+        for (Map.Entry<Key, Fetch> entry : waitingOn.entrySet()) {
+            Key key = entry.getKey();
+            String value = entry.getValue().await(key.symbol, key.attribute);
+            if (null != value) {
+                found.get(key.symbol).put(key.attribute, value);
+            }
+        }
+
+        // Rows in the order requested; securities without any value are left out, as
+        // the service would have done
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>(securityList.size());
+        for (String security : securityList) {
+            EnumMap<QuoteAttribute, String> values = found.get(normalize(security));
+            if (!values.isEmpty()) {
+                result.add(new HashMap<>(values));
+            }
+        }
+
+        return result;
+
+    }
+
+
+    private void startRefresh(final Fetch refresh) {
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh.run();
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // Serve the stale values; a later request will try again
+            refresh.abandon();
+        }
+    }
+
+
+    /*
+     * ---------------------------
+     * Metrics
+     * ---------------------------
+     */
+
+    /** @return Values returned fresh from the cache */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** @return Values returned from the cache past their time to live, while being refreshed */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /** @return Values which had to be fetched before being returned */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** @return Misses which waited on a fetch already in progress rather than starting their own */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /** @return Queries made to the underlying service */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /** @return Queries to the underlying service which failed */
+    public long getFetchFailureCount() {
+        return fetchFailureCount.get();
+    }
+
+    /** @return Securities evicted to stay within the size limit */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /** @return Number of securities cached */
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+
+    /**
+     * Drop all cached values.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+
+    /**
+     * Stop the cache's own refresh thread, interrupting a refresh in progress. Stale
+     * values are still served, but no longer refreshed in the background. An executor
+     * given by the caller is left running.
+     */
+    @Override
+    public void close() {
+        if (null != ownedExecutor) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "CachingQuoteService[" + getServiceName()
+                + " size=" + getSize()
+                + " hits=" + getHitCount()
+                + " staleHits=" + getStaleHitCount()
+                + " misses=" + getMissCount()
+                + " coalesced=" + getCoalescedCount()
+                + " fetches=" + getFetchCount()
+                + " fetchFailures=" + getFetchFailureCount()
+                + " evictions=" + getEvictionCount()
+                + "]";
+    }
+
+
+    /**
+     * The current time in milliseconds; overridden in tests.
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+
+    private long getTimeToLive(QuoteAttribute attribute) {
+        synchronized (timeToLiveMillis) {
+            return timeToLiveMillis.get(attribute);
+        }
+    }
+
+
+    private EnumMap<QuoteAttribute, CachedValue> getCached(String symbol) {
+        synchronized (cache) {
+            EnumMap<QuoteAttribute, CachedValue> cached = cache.get(symbol);
+            return null == cached ? null : cached.clone();
+        }
+    }
+
+
+    private void putCached(String symbol, QuoteAttribute attribute, String value, long fetchedAt) {
+        synchronized (cache) {
+            EnumMap<QuoteAttribute, CachedValue> cached = cache.get(symbol);
+            if (null == cached) {
+                cached = new EnumMap<>(QuoteAttribute.class);
+                cache.put(symbol, cached);
+            }
+            cached.put(attribute, new CachedValue(value, fetchedAt));
+        }
+    }
+
+
+    private static String normalize(String security) {
+        return security.trim().toUpperCase(Locale.ROOT);
+    }
+
+
+    private static final class CachedValue {
+
+        final String value;
+        final long fetchedAt;
+
+        CachedValue(String value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+
+    }
+
+
+    private static final class Key {
+
+        final String symbol;
+        final QuoteAttribute attribute;
+
+        Key(String symbol, QuoteAttribute attribute) {
+            this.symbol = symbol;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return attribute == key.attribute && symbol.equals(key.symbol);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * symbol.hashCode() + attribute.hashCode();
+        }
+
+    }
+
+
+    /*
+     * One query to the underlying service, for the securities and attributes claimed
+     * by a request. Other requests needing any of the same values wait for it to finish.
+     */
+    private final class Fetch {
+
+        private final Set<String> symbols = new LinkedHashSet<>();
+        private final Set<QuoteAttribute> attributes = new LinkedHashSet<>();
+        private final List<Key> keys = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // Fetched values, by upper case security; written before done is counted down
+        private final Map<String, EnumMap<QuoteAttribute, String>> values = new HashMap<>();
+        private RuntimeException failure;
+
+
+        void add(String symbol, QuoteAttribute attribute, Key key) {
+            symbols.add(symbol);
+            attributes.add(attribute);
+            keys.add(key);
+        }
+
+
+        boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+
+        /*
+         * Query, cache the values, then release the claimed keys and any waiters
+         */
+        void run() {
+
+            try {
+
+                List<QuoteAttribute> queryAttributes = new ArrayList<>();
+                queryAttributes.add(QuoteAttribute.SYMBOL);
+                for (QuoteAttribute attribute : attributes) {
+                    if (attribute != QuoteAttribute.SYMBOL) {
+                        queryAttributes.add(attribute);
+                    }
+                }
+
+                fetchCount.incrementAndGet();
+                long fetchedAt = now();
+                List<HashMap<QuoteAttribute, String>> rows = delegate.executeQuery(new ArrayList<>(symbols), queryAttributes);
+
+                for (HashMap<QuoteAttribute, String> row : rows) {
+                    String rowSymbol = row.get(QuoteAttribute.SYMBOL);
+                    if (null == rowSymbol) {
+                        continue;
+                    }
+                    String symbol = normalize(rowSymbol);
+                    if (!symbols.contains(symbol)) {
+                        continue;
+                    }
+                    EnumMap<QuoteAttribute, String> symbolValues = new EnumMap<>(QuoteAttribute.class);
+                    for (QuoteAttribute attribute : attributes) {
+                        String value = row.get(attribute);
+                        if (null != value) {
+                            symbolValues.put(attribute, value);
+                            putCached(symbol, attribute, value, fetchedAt);
+                        }
+                    }
+                    values.put(symbol, symbolValues);
+                }
+
+            } catch (RuntimeException ex) {
+                fetchFailureCount.incrementAndGet();
+                failure = ex;
+                throw ex;
+
+            } finally {
+                abandon();
+            }
+
+        }
+
+
+        /*
+         * Release the claimed keys without (further) fetching
+         */
+        void abandon() {
+            for (Key key : keys) {
+                inFlight.remove(key, this);
+            }
+            done.countDown();
+        }
+
+
+        void copyTo(Map<String, EnumMap<QuoteAttribute, String>> found) {
+            for (Map.Entry<String, EnumMap<QuoteAttribute, String>> entry : values.entrySet()) {
+                found.get(entry.getKey()).putAll(entry.getValue());
+            }
+        }
+
+
+        /*
+         * Wait for the fetch and return one of its values: null if not returned by the service
+         */
+        String await(String symbol, QuoteAttribute attribute) {
+
+            try {
+                done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            if (null != failure) {
+                throw failure;
+            }
+
+            EnumMap<QuoteAttribute, String> symbolValues = values.get(symbol);
+            return null == symbolValues ? null : symbolValues.get(attribute);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,453 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.AsyncQuoteService;
+import com.accounted4.stockquote.api.AsyncQuoteServiceAdapter;
+import com.accounted4.stockquote.api.CircuitBreaker;
+import com.accounted4.stockquote.api.LatencyHistogram;
+import com.accounted4.stockquote.api.Quote;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteFuture;
+import com.accounted4.stockquote.api.QuoteService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Queries several quote providers as one, so that a slow or failing provider does
+ * not stall quotes. Strategies:
+ *
+ * <ul>
+ *   <li>FIRST_COMPLETE: query every provider at once and return the first answer.</li>
+ *   <li>HEDGED: query the providers in order, starting the next one whenever the
+ *       previous has failed, or has not answered within the hedge delay. The first
+ *       answer is returned.</li>
+ *   <li>MERGE: query every provider at once, wait for them all, and take each value
+ *       from the first provider, in order, which has it.</li>
+ * </ul>
+ *
+ * Queries still in progress once an answer has been chosen are cancelled. An answer
+ * is a result with at least one security in it: an empty result (which is how a
+ * provider reports a failed request) or an exception counts as a failure.
+ *
+ * Each provider has a circuit breaker, which skips it after repeated failures, and a
+ * histogram of the latency of its answers.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CompositeQuoteService implements QuoteService {
+
+    public static final String SERVICE_NAME = "Composite";
+
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    public enum Strategy { FIRST_COMPLETE, HEDGED, MERGE }
+
+    private final List<Provider> providers = new ArrayList<>();
+    private final Strategy strategy;
+    private final long hedgeDelayMillis;
+    private final long timeoutMillis;
+
+
+    /**
+     * The providers discovered on the classpath, in the order registered, with the
+     * default delays and breakers.
+     *
+     * @param strategy How to combine the providers
+     * @return A composite of the discovered services
+     */
+    public static CompositeQuoteService discover(Strategy strategy) {
+        return new CompositeQuoteService(QuoteServiceRegistry.getServices(), strategy,
+                DEFAULT_HEDGE_DELAY_MILLIS, DEFAULT_TIMEOUT_MILLIS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+
+    /**
+     * @param services The providers, in order of preference
+     * @param strategy How to combine the providers
+     * @param hedgeDelayMillis HEDGED: how long to wait for a provider before also querying the next
+     * @param timeoutMillis Time allowed for a query, over all providers
+     * @param failureThreshold Consecutive failures after which a provider is skipped
+     * @param openMillis How long a provider is skipped before it is tried again
+     */
+    public CompositeQuoteService(
+            List<QuoteService> services,
+            Strategy strategy,
+            long hedgeDelayMillis,
+            long timeoutMillis,
+            int failureThreshold,
+            long openMillis) {
+
+        for (QuoteService service : services) {
+            providers.add(new Provider(service, new CircuitBreaker(failureThreshold, openMillis)));
+        }
+        this.strategy = strategy;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.timeoutMillis = timeoutMillis;
+
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return SERVICE_NAME;
+    }
+
+
+    @Override
+    public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+        if (securityList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return strategy == Strategy.MERGE
+                ? merge(securityList, quoteAttributes)
+                : race(securityList, quoteAttributes);
+
+    }
+
+
+    /*
+     * FIRST_COMPLETE and HEDGED: the first answer wins. For FIRST_COMPLETE every
+     * provider is started up front; for HEDGED the next provider is started on a
+     * failure or when the hedge delay passes without an answer.
+     */
+    private List<HashMap<QuoteAttribute, String>> race(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>();
+        int next = 0;
+        int polled = 0;
+
+        try {
+
+            do {
+                next = startNext(next, securityList, quoteAttributes, finished, attempts);
+            } while (strategy == Strategy.FIRST_COMPLETE && next < providers.size());
+
+            while (true) {
+
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+
+                boolean more = next < providers.size();
+                if (attempts.size() == polled) {
+                    // Every query so far has failed
+                    if (!more) {
+                        break;
+                    }
+                    next = startNext(next, securityList, quoteAttributes, finished, attempts);
+                    continue;
+                }
+
+                long waitNanos = more ? Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis)) : remainingNanos;
+                Attempt attempt = finished.poll(waitNanos, TimeUnit.NANOSECONDS);
+                if (null == attempt) {
+                    // Hedge: the queries in progress are slow
+                    if (more) {
+                        next = startNext(next, securityList, quoteAttributes, finished, attempts);
+                    }
+                    continue;
+                }
+
+                polled++;
+                if (attempt.isAnswer()) {
+                    return attempt.result;
+                }
+                if (more) {
+                    // Don't wait out the hedge delay after a failure
+                    next = startNext(next, securityList, quoteAttributes, finished, attempts);
+                }
+
+            }
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            cancel(attempts);
+        }
+
+        return new ArrayList<>();
+
+    }
+
+
+    /*
+     * Every provider at once. SYMBOL is always requested, to match up the rows.
+     */
+    private List<HashMap<QuoteAttribute, String>> merge(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+        List<QuoteAttribute> queryAttributes = new ArrayList<>(quoteAttributes);
+        if (!queryAttributes.contains(QuoteAttribute.SYMBOL)) {
+            queryAttributes.add(0, QuoteAttribute.SYMBOL);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>();
+
+        try {
+
+            int next = 0;
+            while (next < providers.size()) {
+                next = startNext(next, securityList, queryAttributes, finished, attempts);
+            }
+
+            for (int pending = attempts.size(); pending > 0; pending--) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0 || null == finished.poll(remainingNanos, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            }
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            cancel(attempts);
+        }
+
+        // Each provider's rows by security, in order of preference
+        List<Map<String, HashMap<QuoteAttribute, String>>> answers = new ArrayList<>();
+        for (Attempt attempt : attempts) {
+            if (attempt.isAnswer()) {
+                Map<String, HashMap<QuoteAttribute, String>> rows = new HashMap<>();
+                for (HashMap<QuoteAttribute, String> row : attempt.result) {
+                    String symbol = row.get(QuoteAttribute.SYMBOL);
+                    if (null != symbol && !rows.containsKey(normalize(symbol))) {
+                        rows.put(normalize(symbol), row);
+                    }
+                }
+                answers.add(rows);
+            }
+        }
+
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+        for (String security : securityList) {
+
+            HashMap<QuoteAttribute, String> merged = new HashMap<>();
+            boolean found = false;
+
+            for (QuoteAttribute attribute : quoteAttributes) {
+                for (Map<String, HashMap<QuoteAttribute, String>> rows : answers) {
+                    HashMap<QuoteAttribute, String> row = rows.get(normalize(security));
+                    if (null == row) {
+                        continue;
+                    }
+                    found = true;
+                    String value = row.get(attribute);
+                    if (null != value && (!merged.containsKey(attribute) || Quote.NOT_AVAILABLE.equals(merged.get(attribute)))) {
+                        merged.put(attribute, value);
+                    }
+                    if (null != value && !Quote.NOT_AVAILABLE.equals(value)) {
+                        break;
+                    }
+                }
+            }
+
+            if (found) {
+                result.add(merged);
+            }
+
+        }
+
+        return result;
+
+    }
+
+
+    /*
+     * Start the first provider at or after next whose breaker allows it.
+     * Returns the index after it, or the number of providers if none could be started.
+     */
+    private int startNext(
+            int next,
+            List<String> securityList,
+            List<QuoteAttribute> quoteAttributes,
+            final BlockingQueue<Attempt> finished,
+            List<Attempt> attempts) {
+
+        for (; next < providers.size(); next++) {
+            Provider provider = providers.get(next);
+            if (provider.breaker.allowRequest()) {
+                final Attempt attempt = new Attempt(provider);
+                attempts.add(attempt);
+                attempt.future = provider.async.executeQueryAsync(securityList, quoteAttributes, null, timeoutMillis, TimeUnit.MILLISECONDS);
+                attempt.future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt.finish();
+                        finished.add(attempt);
+                    }
+                });
+                return next + 1;
+            }
+        }
+
+        return next;
+
+    }
+
+
+    /*
+     * Queries no longer needed are cancelled. They don't count against the provider.
+     */
+    private static void cancel(List<Attempt> attempts) {
+        for (Attempt attempt : attempts) {
+            attempt.abandon();
+        }
+    }
+
+
+    private static String normalize(String security) {
+        return security.trim().toUpperCase(Locale.ROOT);
+    }
+
+
+    /*
+     * ---------------------------
+     * Monitoring
+     * ---------------------------
+     */
+
+    /**
+     * @param serviceName A provider's name
+     * @return The provider's circuit breaker, or null if it is not one of the providers
+     */
+    public CircuitBreaker getCircuitBreaker(String serviceName) {
+        Provider provider = getProvider(serviceName);
+        return null == provider ? null : provider.breaker;
+    }
+
+
+    /**
+     * @param serviceName A provider's name
+     * @return Latencies of the provider's answers, or null if it is not one of the providers
+     */
+    public LatencyHistogram getLatencyHistogram(String serviceName) {
+        Provider provider = getProvider(serviceName);
+        return null == provider ? null : provider.latency;
+    }
+
+
+    private Provider getProvider(String serviceName) {
+        for (Provider provider : providers) {
+            if (provider.service.getServiceName().equalsIgnoreCase(serviceName)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+
+    @Override
+    public String toString() {
+        Map<String, String> status = new LinkedHashMap<>();
+        for (Provider provider : providers) {
+            status.put(provider.service.getServiceName(), provider.breaker + " " + provider.latency);
+        }
+        return SERVICE_NAME + " " + strategy + " " + status;
+    }
+
+
+    private static final class Provider {
+
+        final QuoteService service;
+        final AsyncQuoteService async;
+        final CircuitBreaker breaker;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Provider(QuoteService service, CircuitBreaker breaker) {
+            this.service = service;
+            this.async = AsyncQuoteServiceAdapter.adapt(service);
+            this.breaker = breaker;
+        }
+
+    }
+
+
+    /*
+     * One provider's part in a query
+     */
+    private static final class Attempt {
+
+        final Provider provider;
+        final long startNanos = System.nanoTime();
+        QuoteFuture<List<HashMap<QuoteAttribute, String>>> future;
+
+        // Set by finish(), before the attempt is queued as finished
+        volatile List<HashMap<QuoteAttribute, String>> result;
+
+        private boolean abandoned;
+        private boolean finished;
+
+        Attempt(Provider provider) {
+            this.provider = provider;
+        }
+
+        boolean isAnswer() {
+            return null != result && !result.isEmpty();
+        }
+
+        /*
+         * Record the outcome against the provider, unless we had stopped waiting for it
+         */
+        void finish() {
+
+            List<HashMap<QuoteAttribute, String>> rows = null;
+            try {
+                rows = future.get();
+            } catch (ExecutionException | RuntimeException ex) {
+                // Failed, timed out or cancelled
+            } catch (InterruptedException ie) {
+                // Not reached: the future is done
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (this) {
+                finished = true;
+                if (abandoned) {
+                    return;
+                }
+            }
+
+            if (null != rows && !rows.isEmpty()) {
+                provider.latency.record(System.nanoTime() - startNanos);
+                provider.breaker.recordSuccess();
+                result = rows;
+            } else {
+                provider.breaker.recordFailure();
+            }
+
+        }
+
+        void abandon() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                abandoned = true;
+            }
+            future.cancel(true);
+            // A half open breaker's trial was not decided: let another be tried
+            provider.breaker.recordAbandoned();
+        }
+
+    }
+
+}
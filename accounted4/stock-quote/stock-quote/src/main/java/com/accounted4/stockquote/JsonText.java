@@ -0,0 +1,90 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Just enough JSON for the command line's machine readable output: strings, and quotes
+ * as objects of attribute name to text value.
+ *
+ * Values are written as JSON strings, as the services give them, so nothing is lost to
+ * number formatting; a missing value is null.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+final class JsonText {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+
+    private JsonText() {
+    }
+
+
+    /**
+     * Append a JSON string, quoted and escaped, or null.
+     *
+     * @param sb Receives the text
+     * @param value The string, may be null
+     * @return sb
+     */
+    static StringBuilder appendString(StringBuilder sb, String value) {
+
+        if (null == value) {
+            return sb.append("null");
+        }
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+
+    }
+
+
+    /**
+     * Append a quote as an object, its attributes in the order given.
+     *
+     * @param sb Receives the text
+     * @param quote A row of a query result
+     * @param quoteAttributes The attributes to write
+     * @return sb
+     */
+    static StringBuilder appendQuote(StringBuilder sb, Map<QuoteAttribute, String> quote, List<QuoteAttribute> quoteAttributes) {
+        sb.append('{');
+        String separator = "";
+        for (QuoteAttribute attribute : quoteAttributes) {
+            sb.append(separator).append('"').append(attribute).append("\":");
+            appendString(sb, quote.get(attribute));
+            separator = ",";
+        }
+        return sb.append('}');
+    }
+
+}
@@ -2,11 +2,24 @@ package com.accounted4.stockquote;
 
 import com.accounted4.stockquote.api.QuoteAttribute;
 import com.accounted4.stockquote.api.QuoteService;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Locale;
 import org.apache.commons.cli.*;
 
 
@@ -25,8 +38,14 @@ public class Query {
      * Interactive
      *     -showServices
      *     -showAtributes
-     *     -service <serviceName> -symbols <symbol>[,<symbol>] -attributes <attr>[,<attr>]
+     *     -service <serviceName> -symbols <symbol>[,<symbol>] -attributes <attr>[,<attr>] [-history <directory>]
      *     -help
+     *
+     * Bulk, streaming CSV or JSON lines to stdout and progress to stderr (see BulkQuery)
+     *     -service <serviceName> -symbolFile <file|-> [-format csv|json] [-chunkSize <n>] [-threads <n>] -attributes ...
+     *
+     * Long running, answering in JSON lines (see QueryServer)
+     *     -serve [-port <port>]
      * ---------------------------
      */
     public static void main(String[] args) {
@@ -37,6 +56,7 @@ public class Query {
         Option version = new Option( "version", "print the version information and exit" );
         Option showServices = new Option( "showServices", "list the stock quoting services configured for queries" );
         Option showAttributes = new Option( "showAttributes", "list attributes that may be retrieved" );        
+        Option serve = new Option( "serve", "answer queries read a line at a time from stdin, or from clients of -port, in JSON lines" );
         
         Option service = OptionBuilder.withArgName( "serviceName" )
                                 .hasArg()
@@ -53,11 +73,42 @@ public class Query {
                                 .withDescription(  "comma separated list of attributs to query for, ex last" )
                                 .create( "attributes" );
         
+        Option history = OptionBuilder.withArgName( "directory" )
+                                .hasArg()
+                                .withDescription(  "also record numeric results in the quote history kept in the given directory" )
+                                .create( "history" );
+        
+        Option symbolFile = OptionBuilder.withArgName( "file" )
+                                .hasArg()
+                                .withDescription(  "read ticker symbols, separated by commas or white space, from the file, or stdin for -; implies -format csv" )
+                                .create( "symbolFile" );
+        
+        Option format = OptionBuilder.withArgName( "csv|json" )
+                                .hasArg()
+                                .withDescription(  "stream the quotes in order, as CSV or JSON lines, querying in chunks and in parallel" )
+                                .create( "format" );
+        
+        Option chunkSize = OptionBuilder.withArgName( "n" )
+                                .hasArg()
+                                .withDescription(  "with -format, ticker symbols per query, default " + BulkQuery.DEFAULT_CHUNK_SIZE )
+                                .create( "chunkSize" );
+        
+        Option threads = OptionBuilder.withArgName( "n" )
+                                .hasArg()
+                                .withDescription(  "with -format, queries at once, default " + BulkQuery.DEFAULT_PARALLELISM )
+                                .create( "threads" );
+        
+        Option port = OptionBuilder.withArgName( "port" )
+                                .hasArg()
+                                .withDescription(  "with -serve, listen for clients on this port of the loopback address rather than read stdin" )
+                                .create( "port" );
+        
         OptionGroup optionGroup = new OptionGroup();
         optionGroup.addOption(help);
         optionGroup.addOption(version);
         optionGroup.addOption(showServices);
         optionGroup.addOption(showAttributes);
+        optionGroup.addOption(serve);
         
         
         Options options = new Options();
@@ -66,6 +117,12 @@ public class Query {
         options.addOption(service);
         options.addOption(symbols);
         options.addOption(attributes);
+        options.addOption(history);
+        options.addOption(symbolFile);
+        options.addOption(format);
+        options.addOption(chunkSize);
+        options.addOption(threads);
+        options.addOption(port);
         
         HelpFormatter formatter = new HelpFormatter();
         
@@ -97,6 +154,12 @@ public class Query {
 
         
         
+        if (cmd.hasOption(serve.getOpt())) {
+            serve(cmd.getOptionValue(port.getOpt()));
+            return;
+        }
+        
+        
         QueryBuilder query = new QueryBuilder();
         
 
@@ -130,18 +193,8 @@ public class Query {
         String selectedAttributes = cmd.getOptionValue(attributes.getOpt(), QuoteAttribute.LAST_TRADE_PRICE.toString());
 
         // Find the named quote service
-        List<QuoteService> supportedQuoteServices = query.getSupportedQuoteServices();
-        for (QuoteService quoteService : supportedQuoteServices) {
-            
-            if (!quoteService.getServiceName().equalsIgnoreCase(selectedService)) {
-                continue;
-            }
-            // Build the list of symbols based on entered csv
-            String[] split = selectedSymbols.split(",");
-            for (int i = 0; i < split.length; i++) {
-                split[i] = split[i].trim();
-            }
-            List<String> enteredSymbols = Arrays.asList(split);
+        QuoteService quoteService = QuoteServiceRegistry.getService(selectedService);
+        if (null != quoteService) {
             
             // Build the list of attributes based on entered csv
             ArrayList<QuoteAttribute> attrList = new ArrayList<>();
@@ -153,14 +206,49 @@ public class Query {
                 }
             }
             
+            String historyDirectory = cmd.getOptionValue(history.getOpt());
+            
+            if (cmd.hasOption(symbolFile.getOpt()) || cmd.hasOption(format.getOpt())) {
+                bulk(quoteService, attrList, selectedSymbols, cmd.getOptionValue(symbolFile.getOpt()),
+                        cmd.getOptionValue(format.getOpt(), "csv"),
+                        cmd.getOptionValue(chunkSize.getOpt()), cmd.getOptionValue(threads.getOpt()),
+                        historyDirectory);
+                return;
+            }
+            
+            if (null == selectedSymbols) {
+                System.out.println("No securities selected");
+                return;
+            }
+            
+            // Build the list of symbols based on entered csv
+            String[] split = selectedSymbols.split(",");
+            for (int i = 0; i < split.length; i++) {
+                split[i] = split[i].trim();
+            }
+            List<String> enteredSymbols = Arrays.asList(split);
+            
+            // History is recorded by symbol
+            if (null != historyDirectory && !attrList.contains(QuoteAttribute.SYMBOL)) {
+                attrList.add(0, QuoteAttribute.SYMBOL);
+            }
+            
             // Query the service
             List<HashMap<QuoteAttribute, String>> result = quoteService.executeQuery(enteredSymbols, attrList);
+            
+            if (null != historyDirectory) {
+                try (QuoteHistoryStore store = new QuoteHistoryStore(Paths.get(historyDirectory))) {
+                    store.record(System.currentTimeMillis(), result);
+                } catch (IOException | IllegalArgumentException ex) {
+                    System.out.println("Could not record quote history: " + ex.getMessage());
+                }
+            }
 
-            // Dump the result
+            // Dump the result, attributes in the order asked
             for (HashMap<QuoteAttribute, String> line : result) {
                 System.out.println();
-                for ( Entry<QuoteAttribute, String> entry : line.entrySet() ) {
-                    System.out.println("  " + entry.getKey().toString() + " = " + entry.getValue());
+                for (QuoteAttribute attribute : attrList) {
+                    System.out.println("  " + attribute.toString() + " = " + line.get(attribute));
                 }
             }
             
@@ -172,4 +260,92 @@ public class Query {
     }
     
     
+    /*
+     * Long running: answer queries from stdin, or from clients of a local port. Answers are
+     * the only output on stdout; anything else the services print goes to stderr.
+     */
+    private static void serve(String port) {
+
+        PrintStream answers = System.out;
+        System.setOut(System.err);
+
+        QueryServer server = new QueryServer();
+        try {
+            if (null == port) {
+                server.serve(new InputStreamReader(System.in, "UTF-8"), new OutputStreamWriter(answers, "UTF-8"));
+            } else {
+                try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(port), 50, InetAddress.getLoopbackAddress())) {
+                    System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+                    server.listen(serverSocket);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("Error " + ex);
+        }
+
+    }
+    
+    
+    /*
+     * Bulk: symbols from -symbols, a file or stdin, quotes streamed in order to stdout as
+     * each chunk completes, progress to stderr. As with -serve, the quotes are the only
+     * output on stdout.
+     */
+    private static void bulk(QuoteService quoteService, List<QuoteAttribute> attrList,
+            String symbols, String symbolFile, String format,
+            String chunkSize, String threads, String historyDirectory) {
+
+        PrintStream quotes = System.out;
+        System.setOut(System.err);
+
+        Charset utf8 = Charset.forName("UTF-8");
+        QuoteHistoryStore store = null;
+        try {
+
+            List<String> symbolList;
+            if (null == symbolFile) {
+                symbolList = BulkQuery.readSymbols(new StringReader(null == symbols ? "" : symbols));
+            } else {
+                try (Reader in = "-".equals(symbolFile)
+                        ? new InputStreamReader(System.in, utf8)
+                        : Files.newBufferedReader(Paths.get(symbolFile), utf8)) {
+                    symbolList = BulkQuery.readSymbols(in);
+                }
+            }
+            if (symbolList.isEmpty()) {
+                System.err.println("No securities selected");
+                return;
+            }
+
+            BulkQuery bulkQuery = new BulkQuery(quoteService, attrList,
+                    BulkQuery.Format.valueOf(format.toUpperCase(Locale.ROOT)),
+                    null == chunkSize ? BulkQuery.DEFAULT_CHUNK_SIZE : Integer.parseInt(chunkSize),
+                    null == threads ? BulkQuery.DEFAULT_PARALLELISM : Integer.parseInt(threads));
+            bulkQuery.setProgress(System.err);
+            if (null != historyDirectory) {
+                store = new QuoteHistoryStore(Paths.get(historyDirectory));
+                bulkQuery.setHistoryStore(store);
+            }
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(quotes, utf8), 1 << 16);
+            bulkQuery.run(symbolList, out);
+            out.flush();
+
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error " + ex);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (null != store) {
+                try {
+                    store.close();
+                } catch (IOException ex) {
+                    System.err.println("Could not record quote history: " + ex.getMessage());
+                }
+            }
+        }
+
+    }
+    
+    
 }
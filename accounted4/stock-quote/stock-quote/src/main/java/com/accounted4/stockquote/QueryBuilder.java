@@ -3,6 +3,7 @@ package com.accounted4.stockquote;
 import com.accounted4.stockquote.api.QuoteAttribute;
 import com.accounted4.stockquote.api.QuoteService;
 import com.accounted4.stockquote.api.QuoteServiceException;
+import java.io.IOException;
 import java.util.*;
 
 
@@ -20,7 +21,7 @@ import java.util.*;
 public class QueryBuilder {
 
     
-    // Quote provider to query for information
+    // Quote provider to query for information: null for the default service
     private QuoteService selectedQuoteService;
     
     // Type of information to query for (last price, company name, etc)
@@ -31,27 +32,20 @@ public class QueryBuilder {
     // NYSE by default. One would need to use BMO.TO for the Yahoo service to check at the TSX
     private List<String> securityList;
     
-    // Available quote services are discovered on the classpath via meta-inf/services
-    private static ServiceLoader<QuoteService> quoteServiceLoader;
+    // Where to keep the results of each query, if anywhere
+    private QuoteHistoryStore historyStore;
     
     
 
     /**
-     * Initialize a new Query builder with a default query service.
+     * Initialize a new Query builder with a default query service. Cheap: available
+     * quote services are discovered once per process, by the QuoteServiceRegistry.
      */
     public QueryBuilder() {
         
         securityList = new ArrayList<>();
         quoteAttributes = new ArrayList<>();
         
-        quoteServiceLoader = ServiceLoader.load(QuoteService.class);
-        
-        // Select the first service we can find as a default service, if it exists
-        Iterator<QuoteService> serviceIterator = quoteServiceLoader.iterator();
-        if (serviceIterator.hasNext()) {
-            selectedQuoteService = serviceIterator.next();
-        }
-        
     }
     
     
@@ -67,28 +61,20 @@ public class QueryBuilder {
      * @return A list of available services
      */
     public List<QuoteService> getSupportedQuoteServices() {
-    
-        ArrayList<QuoteService> result = new ArrayList<>();
-        
-        Iterator<QuoteService> serviceIterator = quoteServiceLoader.iterator();
-        while (serviceIterator.hasNext()) {
-            result.add(serviceIterator.next());
-        }
-
-        return result;
-        
+        return QuoteServiceRegistry.getServices();
     }
 
     
     /**
      * The quote service which will be used if the query were to be 
-     * executed at this stage.
+     * executed at this stage: the first service found on the classpath, unless
+     * another has been selected.
      * 
      * @return The quote service to be used for requesting quotes. It is possible
      * for the result to be null;
      */
     public QuoteService getSelectedQuoteService() {
-        return selectedQuoteService;
+        return null == selectedQuoteService ? QuoteServiceRegistry.getDefaultService() : selectedQuoteService;
     }
 
     
@@ -112,16 +98,14 @@ public class QueryBuilder {
      */
     public void setSelectedQuoteService(String serviceName) throws QuoteServiceException {
         
-        List<QuoteService> supportedQuoteServices = getSupportedQuoteServices();
-        for (QuoteService service : supportedQuoteServices) {
-            if (service.getServiceName().equalsIgnoreCase(serviceName)) {
-                setSelectedQuoteService(service);
-                return;
-            }
+        QuoteService service = QuoteServiceRegistry.getService(serviceName);
+        if (null != service) {
+            setSelectedQuoteService(service);
+            return;
         }
 
         throw new QuoteServiceException("Unknown service name: " + serviceName + "\n" +
-                "Known services: " + supportedQuoteServices);
+                "Known services: " + getSupportedQuoteServices());
         
     }
     
@@ -200,6 +184,26 @@ public class QueryBuilder {
     }
     
     
+    /* ---------------------------
+     * History API
+     * ---------------------------
+     */
+
+    /**
+     * Record the numeric results of every query executed from now on.
+     * 
+     * @param historyStore The store to add results to, or null to stop recording
+     */
+    public void setHistoryStore(QuoteHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+    
+    
+    public QuoteHistoryStore getHistoryStore() {
+        return historyStore;
+    }
+    
+    
     /* ---------------------------
      * Execute
      * ---------------------------
@@ -215,11 +219,16 @@ public class QueryBuilder {
      *   [ [SYMBOL, BMO.TO], [NAME, BANK OF MONTREAL], [LAST_PRICE, 58.50] ]
      *  ,[ [SYMBOL, MSFT], [NAME, Microsoft], [LAST_PRICE, 30.25] ]
      * 
-     * @throws QuoteServiceException 
+     * If a history store has been set, the results are also recorded in it, provided
+     * SYMBOL was among the attributes queried. Failing to record them is reported, but
+     * does not fail the query.
+     * 
+     * @throws QuoteServiceException If the query is incomplete
      */
     public List<HashMap<QuoteAttribute, String>> executeQuery() throws QuoteServiceException {
         
-        if (null == selectedQuoteService) {
+        QuoteService quoteService = getSelectedQuoteService();
+        if (null == quoteService) {
             throw new QuoteServiceException("No quote service selected");
         }
         
@@ -231,7 +240,17 @@ public class QueryBuilder {
             throw new QuoteServiceException("No securities selected");
         }
         
-        return selectedQuoteService.executeQuery(securityList, quoteAttributes);
+        List<HashMap<QuoteAttribute, String>> result = quoteService.executeQuery(securityList, quoteAttributes);
+        
+        if (null != historyStore) {
+            try {
+                historyStore.record(System.currentTimeMillis(), result);
+            } catch (IOException | RuntimeException ex) {
+                System.out.println("Could not record quote history: " + ex);
+            }
+        }
+        
+        return result;
         
     }
 
@@ -0,0 +1,288 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.LatencyHistogram;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteServiceException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+
+/**
+ * Answers queries for as long as the process runs, so that scripts pay for JVM startup,
+ * service discovery and connection setup once rather than per quote.
+ *
+ * Commands are read a line at a time, from a reader (ex: stdin) or from clients of a
+ * local socket, and each is answered with one line of JSON:
+ *
+ *     [-id <id>] [-service <serviceName>] -symbols <symbol>[,<symbol>] [-attributes <attr>[,<attr>]]
+ *         {"id":"7","status":"ok","service":"Yahoo","latencyMillis":41.250,"quotes":[{"SYMBOL":"BMO.TO","LAST_TRADE_PRICE":"58.50"}]}
+ *
+ *     stats
+ *         {"status":"ok","queries":12,"errors":1,"p50Millis":64,"p99Millis":128}
+ *
+ *     quit
+ *         ends the session
+ *
+ * As on the command line, the service defaults to the first one discovered and the
+ * attributes to LAST_TRADE_PRICE. SYMBOL is always queried, and listed first, so each
+ * quote can be matched to its security; other attributes are listed in the order asked.
+ * The id, if given, is echoed back. A command which could not be run is answered with
+ * {"status":"error","error":"..."}.
+ *
+ * Quote services are shared by the whole process (see QuoteServiceRegistry) and keep
+ * their connections between queries. Thread safe: socket clients are served in parallel.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QueryServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String QUIT = "quit";
+    private static final String STATS = "stats";
+
+    private final Options options = new Options();
+    private final Option id;
+    private final Option service;
+    private final Option symbols;
+    private final Option attributes;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errorCount = new AtomicLong();
+
+
+    public QueryServer() {
+
+        id = optionWithArg("id", "id", "echoed in the answer");
+        service = optionWithArg("service", "serviceName", "query the given service");
+        symbols = optionWithArg("symbols", "tickerSymbols", "comma separated list of ticker symbols to query");
+        attributes = optionWithArg("attributes", "queryAttributes", "comma separated list of attributes to query for");
+
+        options.addOption(id);
+        options.addOption(service);
+        options.addOption(symbols);
+        options.addOption(attributes);
+
+    }
+
+
+    /*
+     * An option taking one argument. Built directly rather than with OptionBuilder, which
+     * keeps its state in statics.
+     */
+    private static Option optionWithArg(String name, String argName, String description) {
+        Option option = new Option(name, description);
+        option.setArgName(argName);
+        option.setArgs(1);
+        return option;
+    }
+
+
+    /**
+     * Answer commands until the input ends or a quit command.
+     *
+     * @param in Commands, one per line
+     * @param out Receives an answer per command, one per line, flushed after each
+     * @throws IOException If the commands could not be read or answered
+     */
+    public void serve(Reader in, Writer out) throws IOException {
+
+        BufferedReader reader = new BufferedReader(in);
+        String command;
+        while ((command = reader.readLine()) != null) {
+
+            command = command.trim();
+            if (command.isEmpty()) {
+                continue;
+            }
+            if (QUIT.equals(command)) {
+                return;
+            }
+
+            out.write(execute(command));
+            out.write('\n');
+            out.flush();
+
+        }
+
+    }
+
+
+    /**
+     * Serve clients of a socket, each on its own thread, until the socket is closed.
+     *
+     * @param serverSocket Socket on which to accept clients: bind it to the loopback
+     * address, there is no authentication
+     * @throws IOException If accepting failed other than by the socket being closed
+     */
+    public void listen(ServerSocket serverSocket) throws IOException {
+
+        ExecutorService sessions = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "stock-quote-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            while (!serverSocket.isClosed()) {
+
+                final Socket client;
+                try {
+                    client = serverSocket.accept();
+                } catch (IOException ex) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    throw ex;
+                }
+
+                sessions.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (Socket socket = client) {
+                            serve(new InputStreamReader(socket.getInputStream(), UTF8), new OutputStreamWriter(socket.getOutputStream(), UTF8));
+                        } catch (IOException ex) {
+                            System.out.println("Error " + ex);
+                        }
+                    }
+                });
+
+            }
+        } finally {
+            sessions.shutdown();
+        }
+
+    }
+
+
+    /**
+     * Run one command.
+     *
+     * @param command A query or stats command
+     * @return The answer, a line of JSON without the line end
+     */
+    public String execute(String command) {
+
+        if (STATS.equals(command)) {
+            StringBuilder sb = new StringBuilder("{\"status\":\"ok\"");
+            sb.append(",\"queries\":").append(latencies.getCount());
+            sb.append(",\"errors\":").append(errorCount.get());
+            sb.append(",\"p50Millis\":").append(latencies.getPercentileMillis(50));
+            sb.append(",\"p99Millis\":").append(latencies.getPercentileMillis(99));
+            return sb.append('}').toString();
+        }
+
+        CommandLine cmd;
+        try {
+            // The parser resets the shared options as it goes
+            synchronized (options) {
+                cmd = new GnuParser().parse(options, command.split("\\s+"));
+            }
+        } catch (ParseException pe) {
+            return error(null, "Malformed command: " + pe.getMessage());
+        }
+
+        String queryId = cmd.getOptionValue(id.getOpt());
+        if (!cmd.getArgList().isEmpty()) {
+            return error(queryId, "Unexpected arguments: " + cmd.getArgList());
+        }
+        if (!cmd.hasOption(symbols.getOpt())) {
+            return error(queryId, "No securities selected");
+        }
+
+        QueryBuilder query = new QueryBuilder();
+        try {
+
+            if (cmd.hasOption(service.getOpt())) {
+                query.setSelectedQuoteService(cmd.getOptionValue(service.getOpt()));
+            }
+            for (String symbol : cmd.getOptionValue(symbols.getOpt()).split(",")) {
+                if (!symbol.trim().isEmpty()) {
+                    query.addSecurity(symbol.trim());
+                }
+            }
+
+            query.addQuoteAttribute(QuoteAttribute.SYMBOL);
+            for (String attribute : cmd.getOptionValue(attributes.getOpt(), QuoteAttribute.LAST_TRADE_PRICE.toString()).split(",")) {
+                QuoteAttribute quoteAttribute;
+                try {
+                    quoteAttribute = QuoteAttribute.valueOf(attribute.trim());
+                } catch (IllegalArgumentException iae) {
+                    return error(queryId, "Unrecognized attribute: " + attribute);
+                }
+                if (QuoteAttribute.SYMBOL != quoteAttribute) {
+                    query.addQuoteAttribute(quoteAttribute);
+                }
+            }
+
+            long start = System.nanoTime();
+            List<HashMap<QuoteAttribute, String>> result = query.executeQuery();
+            long nanos = System.nanoTime() - start;
+            latencies.record(nanos);
+
+            StringBuilder sb = new StringBuilder(64 + 48 * result.size());
+            sb.append('{');
+            appendId(sb, queryId);
+            sb.append("\"status\":\"ok\",\"service\":");
+            JsonText.appendString(sb, query.getSelectedQuoteService().getServiceName());
+            sb.append(",\"latencyMillis\":").append(String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+            sb.append(",\"quotes\":[");
+            List<QuoteAttribute> quoteAttributes = query.getQuoteAttributes();
+            String separator = "";
+            for (HashMap<QuoteAttribute, String> quote : result) {
+                sb.append(separator);
+                JsonText.appendQuote(sb, quote, quoteAttributes);
+                separator = ",";
+            }
+            return sb.append("]}").toString();
+
+        } catch (QuoteServiceException | RuntimeException ex) {
+            // Including failures of the service itself
+            return error(queryId, null == ex.getMessage() ? ex.toString() : ex.getMessage());
+        }
+
+    }
+
+
+    private String error(String queryId, String message) {
+        errorCount.incrementAndGet();
+        StringBuilder sb = new StringBuilder("{");
+        appendId(sb, queryId);
+        sb.append("\"status\":\"error\",\"error\":");
+        return JsonText.appendString(sb, message).append('}').toString();
+    }
+
+
+    private static void appendId(StringBuilder sb, String queryId) {
+        if (null != queryId) {
+            sb.append("\"id\":");
+            JsonText.appendString(sb, queryId).append(',');
+        }
+    }
+
+}
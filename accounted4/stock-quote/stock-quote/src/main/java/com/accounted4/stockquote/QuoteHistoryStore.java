@@ -0,0 +1,170 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.Quote;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * A local history of quotes: a directory with a sub directory per security, holding
+ * a QuoteTimeSeries file per numeric attribute, ex:
+ *
+ * <pre>
+ *   history/BMO.TO/LAST_TRADE_PRICE.ts
+ *   history/BMO.TO/DIVIDEND_YIELD.ts
+ * </pre>
+ *
+ * Query results are added with record(); text attributes and values which are not
+ * available are skipped. Series are opened on first use and kept open until the store
+ * is closed. Thread safe.
+ *
+ * Series only grow forwards in time: a point recorded with a time before the last one
+ * in its series, as when two threads record the same security or the clock steps back,
+ * is added at the time of the last point instead.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteHistoryStore implements Closeable {
+
+    private static final String SUFFIX = ".ts";
+
+    private final Path directory;
+    private final Map<String, QuoteTimeSeries> openSeries = new HashMap<>();
+
+
+    /**
+     * @param directory Directory holding the history, created if it does not exist
+     * @throws IOException If the directory cannot be created
+     */
+    public QuoteHistoryStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+
+    /**
+     * Add query results to the history.
+     *
+     * @param timestampMillis Time of the quotes: moved forward, per series, to the time
+     * of the last point if it is earlier
+     * @param rows Query results, which must include the SYMBOL attribute. Rows without
+     * one, or with a symbol which cannot name a directory (ex: ".."), are skipped.
+     * @return Number of points added
+     * @throws IOException If a series could not be written
+     */
+    public int record(long timestampMillis, List<? extends Map<QuoteAttribute, String>> rows) throws IOException {
+
+        int count = 0;
+
+        for (Map<QuoteAttribute, String> row : rows) {
+
+            String symbol = row.get(QuoteAttribute.SYMBOL);
+            if (null == symbol || null == toDirectoryName(symbol)) {
+                continue;
+            }
+
+            Quote quote = Quote.fromMap(row);
+            for (QuoteAttribute attribute : row.keySet()) {
+                if (attribute.isNumeric() && quote.hasValue(attribute)) {
+                    getSeries(symbol, attribute).appendLatest(timestampMillis, quote.getDouble(attribute));
+                    count++;
+                }
+            }
+
+        }
+
+        return count;
+
+    }
+
+
+    /**
+     * The series for one security and attribute, created empty if there is no history yet.
+     *
+     * @param symbol The security
+     * @param attribute A numeric attribute
+     * @return The series
+     * @throws IOException If the series could not be opened
+     * @throws IllegalArgumentException If the attribute is not numeric, or the symbol
+     * cannot name a directory
+     */
+    public synchronized QuoteTimeSeries getSeries(String symbol, QuoteAttribute attribute) throws IOException {
+
+        if (!attribute.isNumeric()) {
+            throw new IllegalArgumentException(attribute + " is not numeric");
+        }
+
+        String directoryName = toDirectoryName(symbol);
+        if (null == directoryName) {
+            throw new IllegalArgumentException("Not a security: " + symbol);
+        }
+        String key = directoryName + "/" + attribute;
+        QuoteTimeSeries series = openSeries.get(key);
+        if (null == series) {
+            Path symbolDirectory = Files.createDirectories(directory.resolve(directoryName));
+            series = new QuoteTimeSeries(symbolDirectory.resolve(attribute + SUFFIX));
+            openSeries.put(key, series);
+        }
+
+        return series;
+
+    }
+
+
+    /**
+     * Compact every series in the store.
+     *
+     * @return Number of points dropped
+     * @throws IOException If a series could not be compacted
+     */
+    public int compact() throws IOException {
+
+        int dropped = 0;
+
+        try (DirectoryStream<Path> symbols = Files.newDirectoryStream(directory)) {
+            for (Path symbolDirectory : symbols) {
+                if (!Files.isDirectory(symbolDirectory)) {
+                    continue;
+                }
+                for (QuoteAttribute attribute : QuoteAttribute.values()) {
+                    if (attribute.isNumeric() && Files.exists(symbolDirectory.resolve(attribute + SUFFIX))) {
+                        dropped += getSeries(symbolDirectory.getFileName().toString(), attribute).compact();
+                    }
+                }
+            }
+        }
+
+        return dropped;
+
+    }
+
+
+    /*
+     * Upper case, with anything which could be a path separator replaced. Null for a
+     * name which would resolve to the history directory or its parent.
+     */
+    private static String toDirectoryName(String symbol) {
+        String name = symbol.trim().toUpperCase(Locale.ROOT).replace('/', '_').replace('\\', '_').replace(':', '_');
+        if (name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+            return null;
+        }
+        return name;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (QuoteTimeSeries series : openSeries.values()) {
+            series.close();
+        }
+        openSeries.clear();
+    }
+
+}
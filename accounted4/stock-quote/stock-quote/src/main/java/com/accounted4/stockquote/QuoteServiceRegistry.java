@@ -0,0 +1,126 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.QuoteService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+
+/**
+ * The quote services available on the classpath, discovered once for the whole process.
+ *
+ * Services are registered in META-INF/services (see QuoteService). Iterating a new
+ * ServiceLoader rescans those files and creates a new instance of every service, so
+ * the registry keeps one loader and the services it has created. Discovery is lazy:
+ * a service is only instantiated when a lookup has not found its match among the
+ * services created so far. Services are indexed by name, ignoring case.
+ *
+ * Thread safe. reload() discards the services found so far and starts discovery over,
+ * to pick up services added to the classpath since.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public final class QuoteServiceRegistry {
+
+    private static ServiceLoader<QuoteService> loader;
+
+    // Not yet instantiated services
+    private static Iterator<QuoteService> undiscovered;
+
+    private static final List<QuoteService> services = new ArrayList<>();
+    private static final Map<String, QuoteService> servicesByName = new HashMap<>();
+
+    static {
+        reload();
+    }
+
+
+    private QuoteServiceRegistry() {
+    }
+
+
+    /**
+     * Forget the services found so far and rescan the classpath on the next lookup.
+     */
+    public static synchronized void reload() {
+        if (null == loader) {
+            loader = ServiceLoader.load(QuoteService.class);
+        } else {
+            loader.reload();
+        }
+        undiscovered = loader.iterator();
+        services.clear();
+        servicesByName.clear();
+    }
+
+
+    /**
+     * @return The first service registered on the classpath, or null if there are none.
+     */
+    public static synchronized QuoteService getDefaultService() {
+        if (services.isEmpty()) {
+            discoverNext();
+        }
+        return services.isEmpty() ? null : services.get(0);
+    }
+
+
+    /**
+     * @param serviceName A service name, in any case
+     * @return The service with that name, or null if there is none on the classpath.
+     */
+    public static synchronized QuoteService getService(String serviceName) {
+
+        if (null == serviceName) {
+            return null;
+        }
+
+        String key = serviceName.toLowerCase(Locale.ROOT);
+        QuoteService service = servicesByName.get(key);
+        while (null == service && discoverNext()) {
+            service = servicesByName.get(key);
+        }
+
+        return service;
+
+    }
+
+
+    /**
+     * @return All services on the classpath, in the order registered.
+     */
+    public static synchronized List<QuoteService> getServices() {
+        while (discoverNext()) {
+            // instantiate the rest
+        }
+        return new ArrayList<>(services);
+    }
+
+
+    /*
+     * Instantiate the next registered service. The first of several services of the
+     * same name wins, as it would have when searching the loader.
+     */
+    private static boolean discoverNext() {
+
+        if (!undiscovered.hasNext()) {
+            return false;
+        }
+
+        QuoteService service = undiscovered.next();
+        services.add(service);
+
+        String key = service.getServiceName().toLowerCase(Locale.ROOT);
+        if (!servicesByName.containsKey(key)) {
+            servicesByName.put(key, service);
+        }
+
+        return true;
+
+    }
+
+}
@@ -0,0 +1,537 @@
+package com.accounted4.stockquote;
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteListener;
+import com.accounted4.stockquote.api.QuoteService;
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Polls quote services on behalf of subscribers, in place of each client polling in
+ * its own loop.
+ *
+ * A subscription is a set of securities and attributes, a refresh interval and a
+ * listener. The scheduler watches each security and attribute once, however many
+ * subscriptions include it, at the shortest interval asked for. On each tick, all
+ * watches for a service which are due, or will be within the batch window, are
+ * polled together in one query. Listeners are only told about values which have
+ * changed since the last poll (the first value counts as a change): each call gets
+ * the SYMBOL and the changed attributes of one security.
+ *
+ * New subscriptions start at a random point within the first jitter fraction of
+ * their interval, so that subscriptions made together do not all poll at once.
+ * Watches polled together stay together from then on.
+ *
+ * Queries run on an executor, by default a few threads the scheduler owns and stops on
+ * close, so a slow service does not hold up the others; a watch is not polled again
+ * until its previous query has returned. Listeners are called from the executor's
+ * threads. Failed queries and listeners are reported to stderr, or the stream set.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteSubscriptionScheduler implements Closeable {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 1000;
+    public static final double DEFAULT_JITTER = 0.2;
+    public static final int DEFAULT_POLL_THREADS = 4;
+
+    private final long batchWindowMillis;
+    private final double jitter;
+    private final Executor executor;
+    private final ScheduledExecutorService ticker;
+    private final Random random = new Random();
+
+    private volatile PrintStream errors = System.err;
+
+    // Guarded by this
+    private final Map<Key, Watch> watches = new LinkedHashMap<>();
+
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+
+    /**
+     * A scheduler with the default tick, batch window and jitter, ticking and running
+     * queries on DEFAULT_POLL_THREADS threads of its own.
+     */
+    public QuoteSubscriptionScheduler() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_BATCH_WINDOW_MILLIS, DEFAULT_JITTER, null);
+    }
+
+
+    /**
+     * @param tickMillis How often to look for due watches. Zero for no background
+     * thread: tick() must then be called by the owner.
+     * @param batchWindowMillis Watches due within this time of a poll are polled with it
+     * @param jitter Fraction of its interval over which a new subscription's first poll is spread
+     * @param executor Executor on which to run queries, owned by the caller. Null to run
+     * them on the scheduler's own threads, which requires a background thread.
+     */
+    public QuoteSubscriptionScheduler(long tickMillis, long batchWindowMillis, double jitter, Executor executor) {
+
+        this.batchWindowMillis = batchWindowMillis;
+        this.jitter = jitter;
+
+        if (tickMillis <= 0) {
+            if (null == executor) {
+                throw new IllegalArgumentException("An executor is required without a background thread");
+            }
+            this.executor = executor;
+            ticker = null;
+            return;
+        }
+
+        ticker = Executors.newScheduledThreadPool(null == executor ? DEFAULT_POLL_THREADS : 1, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "stock-quote-subscriptions-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor = null == executor ? ticker : executor;
+        ticker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (RuntimeException ex) {
+                    // Keep ticking
+                    reportError("Error " + ex);
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+    }
+
+
+    /**
+     * Start watching securities.
+     *
+     * @param service The service to poll
+     * @param securities Securities to watch
+     * @param attributes Attributes to watch for each security
+     * @param intervalMillis How often the values should be refreshed
+     * @param listener Told about changed values. Values already known from other
+     * subscriptions are passed to it at once, from the calling thread.
+     * @return The subscription, to cancel when no longer needed
+     */
+    public Subscription subscribe(
+            QuoteService service,
+            Collection<String> securities,
+            Collection<QuoteAttribute> attributes,
+            long intervalMillis,
+            QuoteListener listener) {
+
+        Subscription subscription = new Subscription(intervalMillis, listener);
+        long firstDue = now() + (long) (random.nextDouble() * jitter * intervalMillis);
+
+        // Values already known, from other subscriptions
+        Map<String, HashMap<QuoteAttribute, String>> known = new LinkedHashMap<>();
+
+        synchronized (this) {
+            for (String security : securities) {
+                for (QuoteAttribute attribute : attributes) {
+
+                    Key key = new Key(service, normalize(security), attribute);
+                    subscription.keys.add(key);
+
+                    Watch watch = watches.get(key);
+                    if (null == watch) {
+                        watch = new Watch(key, intervalMillis, firstDue);
+                        watches.put(key, watch);
+                    } else if (intervalMillis < watch.intervalMillis) {
+                        watch.intervalMillis = intervalMillis;
+                        watch.nextDueMillis = Math.min(watch.nextDueMillis, firstDue);
+                    }
+                    watch.subscribers.add(subscription);
+
+                    if (null != watch.lastValue) {
+                        HashMap<QuoteAttribute, String> quote = known.get(key.symbol);
+                        if (null == quote) {
+                            quote = new HashMap<>();
+                            quote.put(QuoteAttribute.SYMBOL, watch.lastSymbol);
+                            known.put(key.symbol, quote);
+                        }
+                        quote.put(attribute, watch.lastValue);
+                    }
+
+                }
+            }
+        }
+
+        subscription.deliver(known.values());
+
+        return subscription;
+
+    }
+
+
+    private synchronized void unsubscribe(Subscription subscription) {
+
+        for (Key key : subscription.keys) {
+
+            Watch watch = watches.get(key);
+            if (null == watch || !watch.subscribers.remove(subscription)) {
+                continue;
+            }
+
+            if (watch.subscribers.isEmpty()) {
+                watches.remove(key);
+                continue;
+            }
+
+            long interval = Long.MAX_VALUE;
+            for (Subscription remaining : watch.subscribers) {
+                interval = Math.min(interval, remaining.intervalMillis);
+            }
+            watch.intervalMillis = interval;
+            if (watch.polled) {
+                watch.nextDueMillis = Math.max(watch.nextDueMillis, watch.polledAtMillis + interval);
+            }
+
+        }
+
+    }
+
+
+    /**
+     * Poll every service with a due watch, batching in the watches which will soon be
+     * due. Called by the background thread unless the tick interval is zero.
+     */
+    public void tick() {
+
+        long now = now();
+        Map<QuoteService, List<Watch>> polls = new LinkedHashMap<>();
+
+        synchronized (this) {
+
+            // Services with something due
+            for (Watch watch : watches.values()) {
+                if (!watch.polling && watch.nextDueMillis <= now && !polls.containsKey(watch.key.service)) {
+                    polls.put(watch.key.service, new ArrayList<Watch>());
+                }
+            }
+            if (polls.isEmpty()) {
+                return;
+            }
+
+            // Everything they will soon need
+            for (Watch watch : watches.values()) {
+                List<Watch> poll = polls.get(watch.key.service);
+                if (null != poll && !watch.polling && watch.nextDueMillis <= now + batchWindowMillis) {
+                    watch.polling = true;
+                    poll.add(watch);
+                }
+            }
+
+        }
+
+        for (Map.Entry<QuoteService, List<Watch>> entry : polls.entrySet()) {
+            startPoll(entry.getKey(), entry.getValue());
+        }
+
+    }
+
+
+    private void startPoll(final QuoteService service, final List<Watch> poll) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    poll(service, poll);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            finishPoll(poll, new ArrayList<HashMap<QuoteAttribute, String>>());
+        }
+    }
+
+
+    /*
+     * One query for the union of the watched securities and attributes. SYMBOL is
+     * always requested, to match up the rows.
+     */
+    private void poll(QuoteService service, List<Watch> poll) {
+
+        Set<String> securities = new LinkedHashSet<>();
+        Set<QuoteAttribute> attributes = new LinkedHashSet<>();
+        attributes.add(QuoteAttribute.SYMBOL);
+        for (Watch watch : poll) {
+            securities.add(watch.key.symbol);
+            attributes.add(watch.key.attribute);
+        }
+
+        List<HashMap<QuoteAttribute, String>> rows;
+        try {
+            queryCount.incrementAndGet();
+            rows = service.executeQuery(new ArrayList<>(securities), new ArrayList<>(attributes));
+        } catch (RuntimeException ex) {
+            failureCount.incrementAndGet();
+            reportError("Error querying " + service.getServiceName() + ": " + ex);
+            rows = new ArrayList<>();
+        }
+
+        finishPoll(poll, rows);
+
+    }
+
+
+    /*
+     * Record the new values and reschedule the watches, then tell each subscriber
+     * about the changes it is interested in.
+     */
+    private void finishPoll(List<Watch> poll, List<HashMap<QuoteAttribute, String>> rows) {
+
+        Map<String, HashMap<QuoteAttribute, String>> rowsBySymbol = new HashMap<>();
+        for (HashMap<QuoteAttribute, String> row : rows) {
+            String symbol = row.get(QuoteAttribute.SYMBOL);
+            if (null != symbol) {
+                rowsBySymbol.put(normalize(symbol), row);
+            }
+        }
+
+        // Changes for each subscriber, by security
+        Map<Subscription, Map<String, HashMap<QuoteAttribute, String>>> changes = new LinkedHashMap<>();
+        long now = now();
+
+        synchronized (this) {
+            for (Watch watch : poll) {
+
+                watch.polling = false;
+                watch.polled = true;
+                watch.polledAtMillis = now;
+                watch.nextDueMillis = now + watch.intervalMillis;
+
+                HashMap<QuoteAttribute, String> row = rowsBySymbol.get(watch.key.symbol);
+                String value = null == row ? null : row.get(watch.key.attribute);
+                if (null == value || value.equals(watch.lastValue)) {
+                    continue;
+                }
+                watch.lastValue = value;
+                watch.lastSymbol = row.get(QuoteAttribute.SYMBOL);
+
+                for (Subscription subscription : watch.subscribers) {
+                    Map<String, HashMap<QuoteAttribute, String>> subscriberChanges = changes.get(subscription);
+                    if (null == subscriberChanges) {
+                        subscriberChanges = new LinkedHashMap<>();
+                        changes.put(subscription, subscriberChanges);
+                    }
+                    HashMap<QuoteAttribute, String> quote = subscriberChanges.get(watch.key.symbol);
+                    if (null == quote) {
+                        quote = new HashMap<>();
+                        quote.put(QuoteAttribute.SYMBOL, row.get(QuoteAttribute.SYMBOL));
+                        subscriberChanges.put(watch.key.symbol, quote);
+                    }
+                    quote.put(watch.key.attribute, value);
+                }
+
+            }
+        }
+
+        for (Map.Entry<Subscription, Map<String, HashMap<QuoteAttribute, String>>> entry : changes.entrySet()) {
+            entry.getKey().deliver(entry.getValue().values());
+        }
+
+    }
+
+
+    /**
+     * @param errors Receives failed queries and listeners, or null for none. stderr by
+     * default: stdout may be the answer channel, ex: Query -serve.
+     */
+    public void setErrors(PrintStream errors) {
+        this.errors = errors;
+    }
+
+
+    private void reportError(String message) {
+        PrintStream out = errors;
+        if (null != out) {
+            out.println(message);
+        }
+    }
+
+
+    /**
+     * @return Queries made to quote services
+     */
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+
+    /**
+     * @return Queries which failed
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+
+    /**
+     * @return Distinct securities and attributes being watched
+     */
+    public synchronized int getWatchCount() {
+        return watches.size();
+    }
+
+
+    /**
+     * Stop polling. Queries in progress complete, but their changes are not delivered;
+     * queries on the scheduler's own threads are interrupted.
+     */
+    @Override
+    public void close() {
+        if (null != ticker) {
+            ticker.shutdownNow();
+        }
+        List<Subscription> subscriptions = new ArrayList<>();
+        synchronized (this) {
+            for (Watch watch : watches.values()) {
+                subscriptions.addAll(watch.subscribers);
+            }
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+    }
+
+
+    /**
+     * The current time in milliseconds; overridden in tests.
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+
+    private static String normalize(String security) {
+        return security.trim().toUpperCase(Locale.ROOT);
+    }
+
+
+    /**
+     * A client's interest in a set of securities and attributes.
+     */
+    public final class Subscription {
+
+        private final long intervalMillis;
+        private final QuoteListener listener;
+        private final List<Key> keys = new ArrayList<>();
+        private volatile boolean cancelled;
+
+
+        private Subscription(long intervalMillis, QuoteListener listener) {
+            this.intervalMillis = intervalMillis;
+            this.listener = listener;
+        }
+
+
+        /**
+         * Stop receiving changes. Securities and attributes no other subscription
+         * watches are no longer polled.
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                unsubscribe(this);
+            }
+        }
+
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+
+        private void deliver(Collection<HashMap<QuoteAttribute, String>> quotes) {
+            for (HashMap<QuoteAttribute, String> quote : quotes) {
+                if (cancelled) {
+                    return;
+                }
+                try {
+                    listener.onQuote(quote);
+                } catch (RuntimeException ex) {
+                    reportError("Error in quote listener: " + ex);
+                }
+            }
+        }
+
+    }
+
+
+    private static final class Key {
+
+        final QuoteService service;
+        final String symbol;
+        final QuoteAttribute attribute;
+
+        Key(QuoteService service, String symbol, QuoteAttribute attribute) {
+            this.service = service;
+            this.symbol = symbol;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return service == key.service && attribute == key.attribute && symbol.equals(key.symbol);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(service) + symbol.hashCode()) + attribute.hashCode();
+        }
+
+    }
+
+
+    /*
+     * One security and attribute at one service, for all the subscriptions including it
+     */
+    private static final class Watch {
+
+        final Key key;
+        final Set<Subscription> subscribers = new LinkedHashSet<>();
+        long intervalMillis;
+        long nextDueMillis;
+        boolean polling;
+        boolean polled;
+        long polledAtMillis;
+        String lastValue;
+        String lastSymbol;
+
+        Watch(Key key, long intervalMillis, long nextDueMillis) {
+            this.key = key;
+            this.intervalMillis = intervalMillis;
+            this.nextDueMillis = nextDueMillis;
+        }
+
+    }
+
+}
@@ -0,0 +1,346 @@
+package com.accounted4.stockquote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * An append-only series of (timestamp, value) points in a memory-mapped file.
+ *
+ * The file is a 16 byte header (magic number, version, point count) followed by
+ * fixed size records of a timestamp in epoch milliseconds and a double value, in
+ * timestamp order. Reads go straight to the mapped pages: a point is found by binary
+ * search on the timestamps, and scans pass each point to a visitor without creating
+ * any objects, so a year of ticks can be scanned in well under a millisecond once
+ * the pages are in memory.
+ *
+ * The file grows by doubling, and is remapped when it does. The point count is
+ * written after the point, so a point is either wholly in the series or not at all.
+ * Appended points are written to the operating system's page cache; force() flushes
+ * them to disk.
+ *
+ * Thread safe: appends, compaction and reads synchronize on the series.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteTimeSeries implements Closeable {
+
+    private static final int MAGIC = 0x51545331; // "QTS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int RECORD_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int COPY_BUFFER_RECORDS = 4096;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+
+    /**
+     * Receives the points of a scan.
+     */
+    public interface PointVisitor {
+        void visit(long timestampMillis, double value);
+    }
+
+
+    /**
+     * Open a series, creating the file if it does not exist.
+     *
+     * @param file The series file
+     * @throws IOException If the file cannot be opened or is not a series
+     */
+    public QuoteTimeSeries(Path file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+
+    private void open() throws IOException {
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long length = channel.size();
+        if (length == 0) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(COUNT_OFFSET, 0);
+            size = 0;
+            return;
+        }
+
+        map((int) ((length - HEADER_BYTES) / RECORD_BYTES));
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a quote time series: " + file);
+        }
+        size = (int) buffer.getLong(COUNT_OFFSET);
+
+    }
+
+
+    private void map(int newCapacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * RECORD_BYTES);
+        capacity = newCapacity;
+    }
+
+
+    /**
+     * Add a point at the end of the series.
+     *
+     * @param timestampMillis Time of the point: not before the last point
+     * @param value The value
+     * @throws IOException If the file could not be grown
+     * @throws IllegalArgumentException If the point is older than the last point
+     */
+    public synchronized void append(long timestampMillis, double value) throws IOException {
+
+        if (size > 0 && timestampMillis < getTimestamp(size - 1)) {
+            throw new IllegalArgumentException("Point at " + timestampMillis + " is before the end of " + file);
+        }
+
+        if (size == capacity) {
+            map(capacity * 2);
+        }
+
+        int offset = HEADER_BYTES + size * RECORD_BYTES;
+        buffer.putLong(offset, timestampMillis);
+        buffer.putDouble(offset + 8, value);
+        buffer.putLong(COUNT_OFFSET, ++size);
+
+    }
+
+
+    /**
+     * Add a point at the end of the series, at the time given or, if that is before the
+     * last point (ex: the clock stepped back, or another thread recorded a later time
+     * first), at the time of the last point.
+     *
+     * @param timestampMillis Time of the point
+     * @param value The value
+     * @return The time at which the point was added
+     * @throws IOException If the file could not be grown
+     */
+    public synchronized long appendLatest(long timestampMillis, double value) throws IOException {
+        if (size > 0) {
+            timestampMillis = Math.max(timestampMillis, getTimestamp(size - 1));
+        }
+        append(timestampMillis, value);
+        return timestampMillis;
+    }
+
+
+    /**
+     * @return Number of points in the series
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    public synchronized long getTimestamp(int index) {
+        return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES);
+    }
+
+
+    public synchronized double getValue(int index) {
+        return buffer.getDouble(HEADER_BYTES + index * RECORD_BYTES + 8);
+    }
+
+
+    /**
+     * @param timestampMillis A time
+     * @return Index of the first point at or after the time: size() if there is none
+     */
+    public synchronized int indexOf(long timestampMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < timestampMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Visit the points from one time up to another, in order.
+     *
+     * @param fromMillis Start time, inclusive
+     * @param toMillis End time, exclusive
+     * @param visitor Receives each point
+     * @return Number of points visited
+     */
+    public synchronized int scan(long fromMillis, long toMillis, PointVisitor visitor) {
+        int end = indexOf(toMillis);
+        int count = 0;
+        for (int i = indexOf(fromMillis); i < end; i++, count++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES;
+            visitor.visit(buffer.getLong(offset), buffer.getDouble(offset + 8));
+        }
+        return count;
+    }
+
+
+    /**
+     * Visit the latest points, oldest first.
+     *
+     * @param count Number of points wanted
+     * @param visitor Receives each point
+     * @return Number of points visited: fewer than asked for if the series is shorter
+     */
+    public synchronized int last(int count, PointVisitor visitor) {
+        int start = Math.max(0, size - count);
+        for (int i = start; i < size; i++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES;
+            visitor.visit(buffer.getLong(offset), buffer.getDouble(offset + 8));
+        }
+        return size - start;
+    }
+
+
+    /**
+     * Drop points which repeat the value before them, keeping the latest point, and
+     * shrink the file to fit. Polling records the same value many times over; the
+     * series still answers the value at any time the same way afterwards.
+     *
+     * The compacted series is written, unmapped and at its final size, to a new file.
+     * The old file is then closed and unmapped before the new one replaces it, and the
+     * new one mapped, so the series is intact whether or not compaction completes.
+     *
+     * @return Number of points dropped
+     * @throws IOException If the compacted series could not be written
+     */
+    public synchronized int compact() throws IOException {
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+
+        int kept = 0;
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+            ByteBuffer records = ByteBuffer.allocate(COPY_BUFFER_RECORDS * RECORD_BYTES);
+            long position = HEADER_BYTES;
+            for (int i = 0; i < size; i++) {
+                double value = getValue(i);
+                boolean repeat = i > 0 && i < size - 1 && Double.compare(value, getValue(i - 1)) == 0;
+                if (repeat) {
+                    continue;
+                }
+                if (!records.hasRemaining()) {
+                    position += writeFully(target, records, position);
+                }
+                records.putLong(getTimestamp(i)).putDouble(value);
+                kept++;
+            }
+            // Room for at least one point, so the series can grow by doubling
+            if (0 == kept) {
+                records.position(RECORD_BYTES);
+            }
+            writeFully(target, records, position);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(kept);
+            writeFully(target, header, 0);
+            target.force(true);
+
+        }
+
+        int dropped = size - kept;
+        channel.close();
+        unmap(buffer);
+        buffer = null;
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            open();
+        }
+        return dropped;
+
+    }
+
+
+    /*
+     * Write out what has been put in the buffer, and clear it
+     */
+    private static int writeFully(FileChannel target, ByteBuffer source, long position) throws IOException {
+        source.flip();
+        int length = source.remaining();
+        while (source.hasRemaining()) {
+            target.write(source, position + length - source.remaining());
+        }
+        source.clear();
+        return length;
+    }
+
+
+    /*
+     * Release a mapping now rather than when it is garbage collected, where the runtime
+     * allows it: otherwise some platforms refuse to replace the mapped file. The buffer
+     * must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer mapped) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), mapped);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Not available: try the older way
+        }
+        try {
+            Method cleaner = mapped.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object clean = cleaner.invoke(mapped);
+            if (null != clean) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Left to the garbage collector
+        }
+    }
+
+
+    /**
+     * Flush appended points to disk.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+
+    /**
+     * Close the file. The mapping itself is released when the series is garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+
+    @Override
+    public String toString() {
+        return "QuoteTimeSeries[" + file + ", " + size() + " points]";
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * BulkQuery chunking, ordering and formatting, with the stub providers of the test
+ * META-INF/services and a service whose early chunks are slowest.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class BulkQueryTest extends TestCase {
+
+    private StubQuoteProvider alpha;
+
+
+    @Override
+    protected void setUp() {
+        alpha = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Alpha");
+        alpha.reset();
+    }
+
+
+    public void testReadSymbols() throws IOException {
+        assertEquals(Arrays.asList("BMO.TO", "MSFT", "IBM", "RY.TO", "TD.TO"),
+                BulkQuery.readSymbols(new StringReader("# portfolio\nBMO.TO, MSFT\n\n  IBM\tRY.TO,,TD.TO\n")));
+    }
+
+
+    public void testCsvIsWrittenInOrder() throws Exception {
+
+        BulkQuery bulkQuery = new BulkQuery(alpha,
+                Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.COMPANY_NAME), BulkQuery.Format.CSV, 2, 3);
+        StringWriter out = new StringWriter();
+        assertEquals(5, bulkQuery.run(Arrays.asList("A", "B", "C,D", "E\"", "F"), out));
+
+        assertEquals("SYMBOL,LAST_TRADE_PRICE,COMPANY_NAME\n"
+                + "A,1.00,A from Stub-Alpha\n"
+                + "B,1.00,B from Stub-Alpha\n"
+                + "\"C,D\",1.00,\"C,D from Stub-Alpha\"\n"
+                + "\"E\"\"\",1.00,\"E\"\" from Stub-Alpha\"\n"
+                + "F,1.00,F from Stub-Alpha\n", out.toString());
+        assertEquals(3, alpha.queries.get());
+
+    }
+
+
+    public void testJsonIsWrittenInOrderWhateverOrderChunksComplete() throws Exception {
+
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            symbols.add("S" + i);
+        }
+
+        BulkQuery bulkQuery = new BulkQuery(new SlowFirstService(), Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE), BulkQuery.Format.JSON, 3, 4);
+        StringWriter out = new StringWriter();
+        assertEquals(40, bulkQuery.run(symbols, out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(40, lines.length);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("{\"SYMBOL\":\"S" + i + "\",\"LAST_TRADE_PRICE\":\"" + i + "\"}", lines[i]);
+        }
+
+    }
+
+
+    public void testFailedChunksAreReportedAndSkipped() throws Exception {
+
+        alpha.failing = true;
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+
+        BulkQuery bulkQuery = new BulkQuery(alpha, Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE), BulkQuery.Format.CSV, 2, 2);
+        bulkQuery.setProgress(new PrintStream(progress, true, "UTF-8"));
+        StringWriter out = new StringWriter();
+        assertEquals(0, bulkQuery.run(Arrays.asList("A", "B", "C"), out));
+
+        assertEquals("SYMBOL,LAST_TRADE_PRICE\n", out.toString());
+        assertEquals(3, bulkQuery.getFailedCount());
+
+        String report = progress.toString("UTF-8");
+        assertTrue(report, report.contains("Error securities 1 to 2: java.lang.IllegalStateException: Stub-Alpha is down"));
+        assertTrue(report, report.contains("Error securities 3 to 3:"));
+        assertTrue(report, report.contains("Queried 3 securities in "));
+        assertTrue(report, report.contains(" 0 quotes, 3 securities failed"));
+
+    }
+
+
+    /*
+     * Quotes each security with its number as the price; the earlier the chunk, the longer
+     * it takes, so that later chunks complete first.
+     */
+    private static class SlowFirstService implements QuoteService {
+
+        @Override
+        public String getServiceName() {
+            return "Slow-First";
+        }
+
+
+        @Override
+        public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+            int first = Integer.parseInt(securityList.get(0).substring(1));
+            try {
+                Thread.sleep(Math.max(0, 40 - first));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+            for (String security : securityList) {
+                HashMap<QuoteAttribute, String> quote = new HashMap<>();
+                quote.put(QuoteAttribute.SYMBOL, security);
+                quote.put(QuoteAttribute.LAST_TRADE_PRICE, security.substring(1));
+                result.add(quote);
+            }
+            return result;
+
+        }
+
+    }
+
+}
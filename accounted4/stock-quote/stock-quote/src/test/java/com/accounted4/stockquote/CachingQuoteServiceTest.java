@@ -0,0 +1,353 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+
+/**
+ * CachingQuoteService against a fake service which counts its queries: attribute
+ * times to live, coalescing of concurrent requests, stale-while-revalidate and
+ * eviction. The clock is set by the tests.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CachingQuoteServiceTest extends TestCase {
+
+    private static final List<QuoteAttribute> PRICE =
+            Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.LAST_TRADE_PRICE);
+    private static final List<QuoteAttribute> NAME =
+            Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.COMPANY_NAME);
+
+    private FakeQuoteService fake;
+    private QueuedExecutor refreshes;
+    private long now;
+    private CachingQuoteService cache;
+
+
+    @Override
+    protected void setUp() {
+        fake = new FakeQuoteService();
+        refreshes = new QueuedExecutor();
+        cache = newCache(10);
+    }
+
+
+    private CachingQuoteService newCache(int maxSecurities) {
+        return new CachingQuoteService(fake, 10000, maxSecurities, refreshes) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+
+    public void testFreshValuesComeFromCache() {
+
+        List<HashMap<QuoteAttribute, String>> first = cache.executeQuery(Arrays.asList("BMO.TO", "MSFT"), PRICE);
+        List<HashMap<QuoteAttribute, String>> second = cache.executeQuery(Arrays.asList("msft", "BMO.TO"), PRICE);
+
+        assertEquals(1, fake.queries.get());
+        assertEquals(2, first.size());
+        assertEquals("1.00", first.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("MSFT", second.get(0).get(QuoteAttribute.SYMBOL));
+        assertEquals(first.get(0), second.get(1));
+        assertEquals(4, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+
+    }
+
+
+    public void testOnlyMissingAttributesAreFetched() {
+
+        cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        List<HashMap<QuoteAttribute, String>> result = cache.executeQuery(
+                Collections.singletonList("MSFT"),
+                Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.COMPANY_NAME));
+
+        assertEquals(2, fake.queries.get());
+        assertEquals(Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.COMPANY_NAME), fake.lastAttributes);
+        assertEquals("1.00", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("MSFT Inc", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+
+    }
+
+
+    public void testTimeToLiveIsPerAttribute() {
+
+        cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        cache.executeQuery(Collections.singletonList("MSFT"), NAME);
+        assertEquals(2, fake.queries.get());
+
+        // The price expires, the name does not
+        now += TimeUnit.SECONDS.toMillis(30);
+        cache.executeQuery(Collections.singletonList("MSFT"), NAME);
+        assertEquals(2, fake.queries.get());
+
+        List<HashMap<QuoteAttribute, String>> result = cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        assertEquals(3, fake.queries.get());
+        assertEquals(Collections.singletonList(QuoteAttribute.LAST_TRADE_PRICE), fake.lastAttributes.subList(1, 2));
+        assertEquals("3.00", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+
+        cache.setTimeToLive(QuoteAttribute.COMPANY_NAME, 0);
+        now += 1;
+        cache.executeQuery(Collections.singletonList("MSFT"), NAME);
+        assertEquals(4, fake.queries.get());
+
+    }
+
+
+    public void testStaleValueIsServedWhileRefreshing() {
+
+        cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+
+        // Past the 15 second time to live, within the 10 second stale window
+        now += TimeUnit.SECONDS.toMillis(20);
+        List<HashMap<QuoteAttribute, String>> stale = cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+
+        assertEquals("1.00", stale.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals(1, fake.queries.get());
+        assertEquals(2, cache.getStaleHitCount());
+        assertEquals("one refresh for both requests", 1, refreshes.tasks.size());
+
+        refreshes.runAll();
+        assertEquals(2, fake.queries.get());
+
+        List<HashMap<QuoteAttribute, String>> fresh = cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        assertEquals("2.00", fresh.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals(2, fake.queries.get());
+
+        // Past the stale window: wait for the value
+        now += TimeUnit.SECONDS.toMillis(60);
+        List<HashMap<QuoteAttribute, String>> expired = cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        assertEquals("3.00", expired.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertTrue(refreshes.tasks.isEmpty());
+
+    }
+
+
+    public void testDefaultCacheRefreshesOnItsOwnThreadUntilClosed() throws Exception {
+
+        CachingQuoteService owned = new CachingQuoteService(fake) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+
+        try {
+            owned.executeQuery(Collections.singletonList("MSFT"), PRICE);
+
+            now += TimeUnit.SECONDS.toMillis(20);
+            owned.executeQuery(Collections.singletonList("MSFT"), PRICE);
+            for (int i = 0; i < 500 && fake.queries.get() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, fake.queries.get());
+            assertTrue(fake.lastThread, fake.lastThread.startsWith("stock-quote-cache-refresh-"));
+        } finally {
+            owned.close();
+        }
+
+        // Still served, no longer refreshed
+        now += TimeUnit.SECONDS.toMillis(20);
+        assertEquals(1, owned.executeQuery(Collections.singletonList("MSFT"), PRICE).size());
+        Thread.sleep(50);
+        assertEquals(2, fake.queries.get());
+
+    }
+
+
+    public void testConcurrentRequestsShareOneFetch() throws Exception {
+
+        final int requests = 8;
+        fake.block = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+
+        try {
+
+            List<Future<List<HashMap<QuoteAttribute, String>>>> results = new ArrayList<>();
+            Callable<List<HashMap<QuoteAttribute, String>>> request = new Callable<List<HashMap<QuoteAttribute, String>>>() {
+                @Override
+                public List<HashMap<QuoteAttribute, String>> call() {
+                    return cache.executeQuery(Arrays.asList("BMO.TO", "MSFT"), PRICE);
+                }
+            };
+
+            // The first request starts the fetch, the others find it in progress
+            results.add(executor.submit(request));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fake.queries.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            for (int i = 1; i < requests; i++) {
+                results.add(executor.submit(request));
+            }
+            while (cache.getCoalescedCount() < (requests - 1) * 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            fake.block.countDown();
+
+            for (Future<List<HashMap<QuoteAttribute, String>>> result : results) {
+                List<HashMap<QuoteAttribute, String>> rows = result.get(5, TimeUnit.SECONDS);
+                assertEquals(2, rows.size());
+                assertEquals("1.00", rows.get(1).get(QuoteAttribute.LAST_TRADE_PRICE));
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, fake.queries.get());
+        assertEquals(1, cache.getFetchCount());
+        assertEquals((requests - 1) * 4, cache.getCoalescedCount());
+
+    }
+
+
+    public void testUnknownSecuritiesAreLeftOutAndNotCached() {
+
+        List<HashMap<QuoteAttribute, String>> result = cache.executeQuery(Arrays.asList("MSFT", "NOPE"), PRICE);
+        assertEquals(1, result.size());
+
+        cache.executeQuery(Collections.singletonList("NOPE"), PRICE);
+        assertEquals(2, fake.queries.get());
+        assertEquals(1, cache.getSize());
+
+    }
+
+
+    public void testLeastRecentlyUsedIsEvicted() {
+
+        cache = newCache(2);
+        cache.executeQuery(Collections.singletonList("A"), PRICE);
+        cache.executeQuery(Collections.singletonList("B"), PRICE);
+        cache.executeQuery(Collections.singletonList("A"), PRICE);
+        cache.executeQuery(Collections.singletonList("C"), PRICE);
+        assertEquals(3, fake.queries.get());
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.executeQuery(Collections.singletonList("A"), PRICE);
+        assertEquals(3, fake.queries.get());
+        cache.executeQuery(Collections.singletonList("B"), PRICE);
+        assertEquals(4, fake.queries.get());
+
+    }
+
+
+    public void testFailureIsPropagatedAndNotCached() {
+
+        fake.fail = true;
+        try {
+            cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+            fail("expected the service failure");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, cache.getFetchFailureCount());
+
+        fake.fail = false;
+        List<HashMap<QuoteAttribute, String>> result = cache.executeQuery(Collections.singletonList("MSFT"), PRICE);
+        assertEquals(1, result.size());
+        assertEquals(2, fake.queries.get());
+
+    }
+
+
+    /*
+     * Knows every security but NOPE. The price goes up by a dollar with every query.
+     */
+    private static class FakeQuoteService implements QuoteService {
+
+        final AtomicInteger queries = new AtomicInteger();
+        volatile List<QuoteAttribute> lastAttributes;
+        volatile String lastThread;
+        volatile CountDownLatch block;
+        volatile boolean fail;
+
+        @Override
+        public String getServiceName() {
+            return "Fake";
+        }
+
+        @Override
+        public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+            int query = queries.incrementAndGet();
+            lastAttributes = new ArrayList<>(quoteAttributes);
+            lastThread = Thread.currentThread().getName();
+
+            if (null != block) {
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fail) {
+                throw new IllegalStateException("service down");
+            }
+
+            List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+            for (String security : securityList) {
+                if (security.equals("NOPE")) {
+                    continue;
+                }
+                HashMap<QuoteAttribute, String> row = new HashMap<>();
+                for (QuoteAttribute attribute : quoteAttributes) {
+                    switch (attribute) {
+                        case SYMBOL:
+                            row.put(attribute, security);
+                            break;
+                        case COMPANY_NAME:
+                            row.put(attribute, security + " Inc");
+                            break;
+                        default:
+                            row.put(attribute, query + ".00");
+                    }
+                }
+                result.add(row);
+            }
+            return result;
+
+        }
+
+    }
+
+
+    private static class QueuedExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> run = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : run) {
+                task.run();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.CircuitBreaker;
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * CompositeQuoteService over the two stub providers registered in the test
+ * META-INF/services: Stub-Alpha, preferred, quoting 1.00 and Stub-Beta quoting 2.00.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class CompositeQuoteServiceTest extends TestCase {
+
+    private static final List<String> SECURITIES = Arrays.asList("BMO.TO", "MSFT");
+    private static final List<QuoteAttribute> ATTRIBUTES =
+            Arrays.asList(QuoteAttribute.SYMBOL, QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.COMPANY_NAME);
+
+    private StubQuoteProvider alpha;
+    private StubQuoteProvider beta;
+
+
+    @Override
+    protected void setUp() {
+        alpha = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Alpha");
+        beta = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Beta");
+        alpha.reset();
+        beta.reset();
+    }
+
+
+    private CompositeQuoteService composite(CompositeQuoteService.Strategy strategy, long hedgeDelayMillis) {
+        List<QuoteService> services = Arrays.<QuoteService>asList(alpha, beta);
+        return new CompositeQuoteService(services, strategy, hedgeDelayMillis, 5000, 2, 200);
+    }
+
+
+    private static String price(List<HashMap<QuoteAttribute, String>> result) {
+        return result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE);
+    }
+
+
+    public void testDiscoverFindsRegisteredProviders() {
+        CompositeQuoteService discovered = CompositeQuoteService.discover(CompositeQuoteService.Strategy.HEDGED);
+        assertNotNull(discovered.getCircuitBreaker("stub-alpha"));
+        assertNotNull(discovered.getLatencyHistogram("Stub-Beta"));
+        assertNull(discovered.getCircuitBreaker("Stub-Gamma"));
+    }
+
+
+    public void testFirstCompleteReturnsFastestAndCancelsTheRest() throws InterruptedException {
+
+        alpha.delayMillis = 2000;
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.FIRST_COMPLETE, 0);
+
+        long start = System.currentTimeMillis();
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(SECURITIES, ATTRIBUTES);
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(2, result.size());
+        assertEquals("2.00", price(result));
+        assertEquals(1, alpha.queries.get());
+
+        // The slow query was interrupted, and not held against its provider
+        Thread.sleep(100);
+        assertEquals(1, alpha.interrupted.get());
+        assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker("Stub-Alpha").getState());
+        assertEquals(1, service.getLatencyHistogram("Stub-Beta").getCount());
+        assertEquals(0, service.getLatencyHistogram("Stub-Alpha").getCount());
+
+    }
+
+
+    public void testHedgedUsesPrimaryWhenItIsFast() {
+
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.HEDGED, 1000);
+
+        assertEquals("1.00", price(service.executeQuery(SECURITIES, ATTRIBUTES)));
+        assertEquals(0, beta.queries.get());
+
+    }
+
+
+    public void testHedgedQueriesBackupAfterDelay() {
+
+        alpha.delayMillis = 2000;
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.HEDGED, 100);
+
+        long start = System.currentTimeMillis();
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(SECURITIES, ATTRIBUTES);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("2.00", price(result));
+        assertTrue("waited " + elapsed, elapsed >= 100 && elapsed < 1000);
+
+    }
+
+
+    public void testHedgedQueriesBackupAtOnceOnFailure() {
+
+        alpha.failing = true;
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.HEDGED, 2000);
+
+        long start = System.currentTimeMillis();
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(SECURITIES, ATTRIBUTES);
+
+        assertEquals("2.00", price(result));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+    }
+
+
+    public void testMergeTakesEachValueFromFirstProviderWithIt() {
+
+        alpha.knowsNames = false;
+        alpha.unknownSecurities.add("MSFT");
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.MERGE, 0);
+
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(
+                Arrays.asList("BMO.TO", "MSFT", "NOPE"),
+                Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.COMPANY_NAME));
+
+        assertEquals(3, result.size());
+
+        assertEquals("1.00", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("BMO.TO from Stub-Beta", result.get(0).get(QuoteAttribute.COMPANY_NAME));
+        assertFalse("not requested", result.get(0).containsKey(QuoteAttribute.SYMBOL));
+
+        assertEquals("2.00", result.get(1).get(QuoteAttribute.LAST_TRADE_PRICE));
+
+    }
+
+
+    public void testMergeLeavesOutSecuritiesNoProviderKnows() {
+
+        alpha.unknownSecurities.add("NOPE");
+        beta.unknownSecurities.add("NOPE");
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.MERGE, 0);
+
+        List<HashMap<QuoteAttribute, String>> result = service.executeQuery(Arrays.asList("NOPE", "MSFT"), ATTRIBUTES);
+
+        assertEquals(1, result.size());
+        assertEquals("MSFT", result.get(0).get(QuoteAttribute.SYMBOL));
+
+    }
+
+
+    public void testBreakerSkipsFailingProviderThenRetriesIt() throws InterruptedException {
+
+        alpha.failing = true;
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.HEDGED, 2000);
+
+        // Two failures open the breaker
+        service.executeQuery(SECURITIES, ATTRIBUTES);
+        service.executeQuery(SECURITIES, ATTRIBUTES);
+        CircuitBreaker breaker = service.getCircuitBreaker("Stub-Alpha");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertEquals("2.00", price(service.executeQuery(SECURITIES, ATTRIBUTES)));
+        assertEquals(2, alpha.queries.get());
+        assertEquals(1, breaker.getRejectedCount());
+
+        // Once open long enough, a trial query succeeds and closes it
+        alpha.failing = false;
+        Thread.sleep(250);
+        assertEquals("1.00", price(service.executeQuery(SECURITIES, ATTRIBUTES)));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    }
+
+
+    public void testNoAnswerIsEmptyResult() {
+
+        alpha.failing = true;
+        beta.failing = true;
+        CompositeQuoteService service = composite(CompositeQuoteService.Strategy.FIRST_COMPLETE, 0);
+
+        assertTrue(service.executeQuery(SECURITIES, ATTRIBUTES).isEmpty());
+        assertEquals(1, alpha.queries.get());
+        assertEquals(1, beta.queries.get());
+
+    }
+
+}
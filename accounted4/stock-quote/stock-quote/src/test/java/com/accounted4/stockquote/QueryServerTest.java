@@ -0,0 +1,122 @@
+package com.accounted4.stockquote;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import junit.framework.TestCase;
+
+
+/**
+ * QueryServer answering commands from a reader and from socket clients, with the stub
+ * providers of the test META-INF/services.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QueryServerTest extends TestCase {
+
+    private StubQuoteProvider alpha;
+    private QueryServer server;
+
+
+    @Override
+    protected void setUp() {
+        alpha = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Alpha");
+        alpha.reset();
+        ((StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Beta")).reset();
+        server = new QueryServer();
+    }
+
+
+    public void testQueryIsAnsweredInJson() {
+
+        String answer = server.execute("-id 7 -service stub-alpha -symbols BMO.TO,\"MSFT -attributes COMPANY_NAME,LAST_TRADE_PRICE");
+        assertTrue(answer, answer.startsWith("{\"id\":\"7\",\"status\":\"ok\",\"service\":\"Stub-Alpha\",\"latencyMillis\":"));
+        assertTrue(answer, answer.endsWith(",\"quotes\":["
+                + "{\"SYMBOL\":\"BMO.TO\",\"COMPANY_NAME\":\"BMO.TO from Stub-Alpha\",\"LAST_TRADE_PRICE\":\"1.00\"},"
+                + "{\"SYMBOL\":\"\\\"MSFT\",\"COMPANY_NAME\":\"\\\"MSFT from Stub-Alpha\",\"LAST_TRADE_PRICE\":\"1.00\"}]}"));
+
+    }
+
+
+    public void testErrorsAreAnswered() {
+
+        assertEquals("{\"id\":\"1\",\"status\":\"error\",\"error\":\"Unrecognized attribute: PRICE\"}",
+                server.execute("-id 1 -service Stub-Alpha -symbols BMO.TO -attributes PRICE"));
+        assertTrue(server.execute("-service Nope -symbols BMO.TO").contains("\"error\":\"Unknown service name: Nope"));
+        assertEquals("{\"status\":\"error\",\"error\":\"No securities selected\"}", server.execute("-service Stub-Alpha"));
+        assertTrue(server.execute("-bogus").startsWith("{\"status\":\"error\",\"error\":\"Malformed command"));
+
+        alpha.failing = true;
+        assertEquals("{\"status\":\"error\",\"error\":\"Stub-Alpha is down\"}", server.execute("-service Stub-Alpha -symbols BMO.TO"));
+
+        String stats = server.execute("stats");
+        assertTrue(stats, stats.startsWith("{\"status\":\"ok\",\"queries\":0,\"errors\":5,"));
+
+    }
+
+
+    public void testSessionEndsOnQuit() throws IOException {
+
+        StringWriter out = new StringWriter();
+        server.serve(new StringReader("-service Stub-Alpha -symbols A\n\n-service Stub-Alpha -symbols B\nquit\n-service Stub-Alpha -symbols C\n"), out);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"SYMBOL\":\"A\""));
+        assertTrue(lines[1].contains("\"SYMBOL\":\"B\""));
+        assertEquals(2, alpha.queries.get());
+
+        assertTrue(server.execute("stats").startsWith("{\"status\":\"ok\",\"queries\":2,\"errors\":0,"));
+
+    }
+
+
+    public void testSocketClientsAreServed() throws Exception {
+
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread listener = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.listen(serverSocket);
+                } catch (IOException ex) {
+                    fail(ex.toString());
+                }
+            }
+        });
+        listener.start();
+
+        try (Socket first = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+             Socket second = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+
+            // Interleaved: each client's session is independent
+            assertTrue(ask(first, "-id 1 -service Stub-Alpha -symbols A").startsWith("{\"id\":\"1\",\"status\":\"ok\""));
+            assertTrue(ask(second, "-id 2 -service Stub-Beta -symbols B").contains("\"LAST_TRADE_PRICE\":\"2.00\""));
+            assertTrue(ask(first, "-id 3 -service Stub-Alpha -symbols C").contains("\"SYMBOL\":\"C\""));
+
+        } finally {
+            serverSocket.close();
+        }
+
+        listener.join(5000);
+        assertFalse(listener.isAlive());
+
+    }
+
+
+    private static String ask(Socket socket, String command) throws IOException {
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+        out.write(command + "\n");
+        out.flush();
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+    }
+
+}
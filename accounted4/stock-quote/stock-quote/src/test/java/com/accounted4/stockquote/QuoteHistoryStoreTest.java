@@ -0,0 +1,360 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteServiceException;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+
+/**
+ * QuoteTimeSeries and QuoteHistoryStore in a temporary directory.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteHistoryStoreTest extends TestCase {
+
+    private Path directory;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("quote-history");
+    }
+
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    public void testPointsSurviveReopeningAndGrowth() throws IOException {
+
+        Path file = directory.resolve("series.ts");
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+            for (int i = 0; i < 5000; i++) {
+                series.append(1000L * i, i / 4.0);
+            }
+        }
+
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+            assertEquals(5000, series.size());
+            assertEquals(4999000L, series.getTimestamp(4999));
+            assertEquals(1249.75, series.getValue(4999));
+            series.append(5000000L, 1.0);
+            assertEquals(5001, series.size());
+        }
+
+    }
+
+
+    public void testRangeScanAndLast() throws IOException {
+
+        try (QuoteTimeSeries series = new QuoteTimeSeries(directory.resolve("series.ts"))) {
+
+            for (int i = 0; i < 100; i++) {
+                series.append(10L * i, i);
+            }
+
+            Points points = new Points();
+            assertEquals(3, series.scan(15, 45, points));
+            assertEquals(Arrays.asList(20L, 30L, 40L), points.timestamps);
+
+            points = new Points();
+            assertEquals(0, series.scan(2000, 3000, points));
+
+            points = new Points();
+            assertEquals(2, series.last(2, points));
+            assertEquals(Arrays.asList(980L, 990L), points.timestamps);
+            assertEquals(Arrays.asList(98.0, 99.0), points.values);
+
+            assertEquals(100, series.last(500, new Points()));
+
+        }
+
+    }
+
+
+    public void testPointsMustBeInOrder() throws IOException {
+
+        try (QuoteTimeSeries series = new QuoteTimeSeries(directory.resolve("series.ts"))) {
+            series.append(100, 1);
+            series.append(100, 2);
+            try {
+                series.append(99, 3);
+                fail("expected an out of order point to be refused");
+            } catch (IllegalArgumentException expected) {
+            }
+            assertEquals(2, series.size());
+        }
+
+    }
+
+
+    public void testCompactionDropsRepeatedValues() throws IOException {
+
+        Path file = directory.resolve("series.ts");
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+
+            double[] values = { 1, 1, 1, 2, 2, 1, 1 };
+            for (int i = 0; i < values.length; i++) {
+                series.append(i, values[i]);
+            }
+
+            assertEquals(3, series.compact());
+
+            Points points = new Points();
+            series.scan(Long.MIN_VALUE, Long.MAX_VALUE, points);
+            assertEquals(Arrays.asList(0L, 3L, 5L, 6L), points.timestamps);
+            assertEquals(Arrays.asList(1.0, 2.0, 1.0, 1.0), points.values);
+
+            // The file shrank to fit, and is still appendable
+            assertEquals(16 + 4 * 16, Files.size(file));
+            series.append(7, 3);
+            assertEquals(5, series.size());
+
+        }
+        assertFalse(Files.exists(directory.resolve("series.ts.compact")));
+
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+            assertEquals(5, series.size());
+            assertEquals(3.0, series.getValue(4));
+        }
+
+    }
+
+
+    public void testCompactionOfEmptySeries() throws IOException {
+
+        Path file = directory.resolve("empty.ts");
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+            assertEquals(0, series.compact());
+            assertEquals(0, series.size());
+            series.append(1, 1);
+            series.append(2, 2);
+            assertEquals(2, series.size());
+        }
+
+    }
+
+
+    public void testSymbolsWhichCannotNameADirectoryAreSkipped() throws IOException {
+
+        try (QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            List<HashMap<QuoteAttribute, String>> rows = new ArrayList<>();
+            for (String symbol : new String[] {".", "..", " ", "BMO.TO"}) {
+                rows.add(row(symbol, "58.50", "Bank of Montreal"));
+            }
+            assertEquals(1, store.record(1000, rows));
+
+            try {
+                store.getSeries("..", QuoteAttribute.LAST_TRADE_PRICE);
+                fail("Expected .. to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+            assertFalse(Files.exists(directory.resolve("LAST_TRADE_PRICE.ts")));
+            assertFalse(Files.exists(directory.resolve("history/LAST_TRADE_PRICE.ts")));
+
+        }
+
+    }
+
+
+    public void testStoreRecordsNumericResults() throws IOException {
+
+        try (QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            List<HashMap<QuoteAttribute, String>> rows = new ArrayList<>();
+            rows.add(row("BMO.TO", "58.50", "Bank of Montreal"));
+            rows.add(row("MSFT", "N/A", "Microsoft"));
+
+            assertEquals(1, store.record(1000, rows));
+            rows.set(0, row("BMO.TO", "58.75", "Bank of Montreal"));
+            assertEquals(1, store.record(2000, rows));
+
+            Points points = new Points();
+            store.getSeries("bmo.to", QuoteAttribute.LAST_TRADE_PRICE).scan(0, 3000, points);
+            assertEquals(Arrays.asList(58.5, 58.75), points.values);
+            assertEquals(0, store.getSeries("MSFT", QuoteAttribute.LAST_TRADE_PRICE).size());
+
+            assertTrue(Files.exists(directory.resolve("history/BMO.TO/LAST_TRADE_PRICE.ts")));
+
+        }
+
+    }
+
+
+    public void testQueryBuilderRecordsIntoStore() throws IOException, QuoteServiceException {
+
+        StubQuoteProvider alpha = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Alpha");
+        alpha.reset();
+
+        try (QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            QueryBuilder query = new QueryBuilder();
+            query.setSelectedQuoteService(alpha);
+            query.setHistoryStore(store);
+            query.addSecurity("BMO.TO");
+            query.addSecurity("MSFT");
+            query.addQuoteAttribute(QuoteAttribute.SYMBOL);
+            query.addQuoteAttribute(QuoteAttribute.LAST_TRADE_PRICE);
+            query.executeQuery();
+            query.executeQuery();
+
+            QuoteTimeSeries series = store.getSeries("MSFT", QuoteAttribute.LAST_TRADE_PRICE);
+            assertEquals(2, series.size());
+            assertEquals(1.0, series.getValue(1));
+
+        }
+
+    }
+
+
+    public void testStoreMovesOlderPointsForward() throws IOException {
+
+        try (QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            List<HashMap<QuoteAttribute, String>> rows = new ArrayList<>();
+            rows.add(row("BMO.TO", "58.50", "Bank of Montreal"));
+            assertEquals(1, store.record(2000, rows));
+
+            // The clock stepped back
+            rows.set(0, row("BMO.TO", "58.75", "Bank of Montreal"));
+            assertEquals(1, store.record(1000, rows));
+            rows.set(0, row("BMO.TO", "59.00", "Bank of Montreal"));
+            assertEquals(1, store.record(3000, rows));
+
+            Points points = new Points();
+            store.getSeries("BMO.TO", QuoteAttribute.LAST_TRADE_PRICE).scan(0, 4000, points);
+            assertEquals(Arrays.asList(2000L, 2000L, 3000L), points.timestamps);
+            assertEquals(Arrays.asList(58.5, 58.75, 59.0), points.values);
+
+        }
+
+    }
+
+
+    public void testConcurrentRecordingOfOneSecurity() throws Exception {
+
+        final int threads = 8;
+        final int recordsPerThread = 200;
+
+        try (final QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final CountDownLatch go = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        go.await();
+                        int count = 0;
+                        for (int i = 0; i < recordsPerThread; i++) {
+                            // Times taken before the store's lock, so out of order between threads
+                            long timestamp = 1000L * i + thread;
+                            count += store.record(timestamp, Arrays.asList(row("BMO.TO", Integer.toString(i), "Bank of Montreal")));
+                        }
+                        return count;
+                    }
+                }));
+            }
+            go.countDown();
+
+            int recorded = 0;
+            for (Future<Integer> result : results) {
+                recorded += result.get(10, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+            assertEquals(threads * recordsPerThread, recorded);
+
+            QuoteTimeSeries series = store.getSeries("BMO.TO", QuoteAttribute.LAST_TRADE_PRICE);
+            assertEquals(threads * recordsPerThread, series.size());
+            for (int i = 1; i < series.size(); i++) {
+                assertTrue(series.getTimestamp(i - 1) <= series.getTimestamp(i));
+            }
+
+        }
+
+    }
+
+
+    public void testQueryBuilderSurvivesHistoryFailure() throws IOException, QuoteServiceException {
+
+        StubQuoteProvider alpha = (StubQuoteProvider) QuoteServiceRegistry.getService("Stub-Alpha");
+        alpha.reset();
+
+        // A file which is not a series, where MSFT's prices would go
+        Path msft = Files.createDirectories(directory.resolve("history/MSFT"));
+        Files.write(msft.resolve("LAST_TRADE_PRICE.ts"), "not a series, not at all".getBytes("UTF-8"));
+
+        try (QuoteHistoryStore store = new QuoteHistoryStore(directory.resolve("history"))) {
+
+            QueryBuilder query = new QueryBuilder();
+            query.setSelectedQuoteService(alpha);
+            query.setHistoryStore(store);
+            query.addSecurity("MSFT");
+            query.addQuoteAttribute(QuoteAttribute.SYMBOL);
+            query.addQuoteAttribute(QuoteAttribute.LAST_TRADE_PRICE);
+
+            List<HashMap<QuoteAttribute, String>> result = query.executeQuery();
+            assertEquals(1, result.size());
+            assertEquals("1.00", result.get(0).get(QuoteAttribute.LAST_TRADE_PRICE));
+
+        }
+
+    }
+
+
+    private static HashMap<QuoteAttribute, String> row(String symbol, String price, String name) {
+        HashMap<QuoteAttribute, String> row = new HashMap<>();
+        row.put(QuoteAttribute.SYMBOL, symbol);
+        row.put(QuoteAttribute.LAST_TRADE_PRICE, price);
+        row.put(QuoteAttribute.COMPANY_NAME, name);
+        return row;
+    }
+
+
+    private static class Points implements QuoteTimeSeries.PointVisitor {
+
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Double> values = new ArrayList<>();
+
+        @Override
+        public void visit(long timestampMillis, double value) {
+            timestamps.add(timestampMillis);
+            values.add(value);
+        }
+
+    }
+
+}
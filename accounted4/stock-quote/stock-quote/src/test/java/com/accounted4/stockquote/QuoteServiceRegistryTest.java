@@ -0,0 +1,62 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteService;
+import com.accounted4.stockquote.api.QuoteServiceException;
+import java.util.List;
+import junit.framework.TestCase;
+
+
+/**
+ * QuoteServiceRegistry against the Yahoo and stub services registered on the test classpath.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteServiceRegistryTest extends TestCase {
+
+    public void testLookupIgnoresCaseAndReusesInstances() {
+
+        QuoteService service = QuoteServiceRegistry.getService("yahoo");
+        assertNotNull(service);
+        assertSame(service, QuoteServiceRegistry.getService("YAHOO"));
+
+        List<QuoteService> services = QuoteServiceRegistry.getServices();
+        assertTrue(services.contains(service));
+        assertSame(QuoteServiceRegistry.getDefaultService(), services.get(0));
+
+        assertNull(QuoteServiceRegistry.getService("no such service"));
+        assertNull(QuoteServiceRegistry.getService(null));
+
+    }
+
+
+    public void testReloadCreatesNewInstances() {
+
+        QuoteService service = QuoteServiceRegistry.getService("Yahoo");
+        QuoteServiceRegistry.reload();
+        QuoteService reloaded = QuoteServiceRegistry.getService("Yahoo");
+
+        assertNotNull(reloaded);
+        assertNotSame(service, reloaded);
+
+    }
+
+
+    public void testQueryBuildersShareServices() throws QuoteServiceException {
+
+        QueryBuilder first = new QueryBuilder();
+        QueryBuilder second = new QueryBuilder();
+        assertSame(first.getSelectedQuoteService(), second.getSelectedQuoteService());
+
+        second.setSelectedQuoteService("yAhOo");
+        assertSame(QuoteServiceRegistry.getService("Yahoo"), second.getSelectedQuoteService());
+
+        try {
+            second.setSelectedQuoteService("Nope");
+            fail("expected an unknown service");
+        } catch (QuoteServiceException expected) {
+        }
+
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteListener;
+import com.accounted4.stockquote.api.QuoteService;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+
+/**
+ * QuoteSubscriptionScheduler ticked by hand, with a clock set by the tests and
+ * queries run on the ticking thread, against a fake service whose prices the tests set.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteSubscriptionSchedulerTest extends TestCase {
+
+    private static final List<QuoteAttribute> PRICE = Collections.singletonList(QuoteAttribute.LAST_TRADE_PRICE);
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeQuoteService service;
+    private long now;
+    private QuoteSubscriptionScheduler scheduler;
+
+
+    @Override
+    protected void setUp() {
+        service = new FakeQuoteService();
+        scheduler = new QuoteSubscriptionScheduler(0, 1000, 0, DIRECT) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+
+    @Override
+    protected void tearDown() {
+        scheduler.close();
+    }
+
+
+    public void testOverlappingSubscriptionsShareOneQuery() {
+
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        scheduler.subscribe(service, Arrays.asList("BMO.TO", "MSFT"), PRICE, 10000, first);
+        scheduler.subscribe(service, Arrays.asList("msft", "T.TO"), PRICE, 10000, second);
+        assertEquals(3, scheduler.getWatchCount());
+
+        scheduler.tick();
+
+        assertEquals(1, service.queries.size());
+        assertEquals(Arrays.asList("BMO.TO", "MSFT", "T.TO"), service.queries.get(0));
+        assertEquals("1.00", first.last("BMO.TO").get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("1.00", first.last("MSFT").get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("1.00", second.last("T.TO").get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertNull(first.last("T.TO"));
+
+        // Not due again until the interval has passed
+        now += 5000;
+        scheduler.tick();
+        assertEquals(1, service.queries.size());
+
+    }
+
+
+    public void testOnlyChangesArePushed() {
+
+        RecordingListener listener = new RecordingListener();
+        scheduler.subscribe(service, Arrays.asList("BMO.TO", "MSFT"),
+                Arrays.asList(QuoteAttribute.LAST_TRADE_PRICE, QuoteAttribute.COMPANY_NAME), 1000, listener);
+
+        scheduler.tick();
+        assertEquals(2, listener.quotes.size());
+        HashMap<QuoteAttribute, String> first = listener.last("MSFT");
+        assertEquals("MSFT", first.get(QuoteAttribute.SYMBOL));
+        assertEquals("MSFT Inc", first.get(QuoteAttribute.COMPANY_NAME));
+
+        // Nothing changed
+        now += 1000;
+        scheduler.tick();
+        assertEquals(2, service.queries.size());
+        assertEquals(2, listener.quotes.size());
+
+        // MSFT's price changed: only it is pushed
+        service.prices.put("MSFT", "1.50");
+        now += 1000;
+        scheduler.tick();
+        assertEquals(3, listener.quotes.size());
+        HashMap<QuoteAttribute, String> change = listener.last("MSFT");
+        assertEquals("1.50", change.get(QuoteAttribute.LAST_TRADE_PRICE));
+        assertEquals("MSFT", change.get(QuoteAttribute.SYMBOL));
+        assertFalse(change.containsKey(QuoteAttribute.COMPANY_NAME));
+
+    }
+
+
+    public void testWatchesDueWithinWindowAreBatched() {
+
+        RecordingListener listener = new RecordingListener();
+        scheduler.subscribe(service, Collections.singletonList("BMO.TO"), PRICE, 5000, listener);
+        now += 500;
+        scheduler.subscribe(service, Collections.singletonList("MSFT"), PRICE, 5000, listener);
+        now += 3000;
+        scheduler.subscribe(service, Collections.singletonList("T.TO"), PRICE, 5000, listener);
+
+        // BMO.TO and MSFT are due, T.TO is too but was only just subscribed
+        scheduler.tick();
+        assertEquals(1, service.queries.size());
+        assertEquals(3, service.queries.get(0).size());
+
+        // All three now poll together
+        now += 5000;
+        scheduler.tick();
+        assertEquals(2, service.queries.size());
+        assertEquals(3, service.queries.get(1).size());
+
+    }
+
+
+    public void testShortestIntervalWinsAndCancelStopsPolling() {
+
+        RecordingListener slow = new RecordingListener();
+        RecordingListener fast = new RecordingListener();
+        QuoteSubscriptionScheduler.Subscription slowSubscription =
+                scheduler.subscribe(service, Collections.singletonList("MSFT"), PRICE, 60000, slow);
+        scheduler.tick();
+
+        // A new subscriber gets the known value straight away
+        QuoteSubscriptionScheduler.Subscription fastSubscription =
+                scheduler.subscribe(service, Collections.singletonList("MSFT"), PRICE, 1000, fast);
+        assertEquals("1.00", fast.last("MSFT").get(QuoteAttribute.LAST_TRADE_PRICE));
+
+        now += 1000;
+        scheduler.tick();
+        assertEquals(2, service.queries.size());
+
+        fastSubscription.cancel();
+        now += 1000;
+        service.prices.put("MSFT", "2.00");
+        scheduler.tick();
+        assertEquals(2, service.queries.size());
+
+        slowSubscription.cancel();
+        assertEquals(0, scheduler.getWatchCount());
+        now += 60000;
+        scheduler.tick();
+        assertEquals(2, service.queries.size());
+        assertEquals(1, slow.quotes.size());
+
+    }
+
+
+    public void testFailedQueryIsRetriedNextInterval() throws UnsupportedEncodingException {
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        scheduler.setErrors(new PrintStream(errors, true, "UTF-8"));
+
+        RecordingListener listener = new RecordingListener();
+        scheduler.subscribe(service, Collections.singletonList("MSFT"), PRICE, 1000, listener);
+
+        service.failing = true;
+        scheduler.tick();
+        assertEquals(1, scheduler.getFailureCount());
+        assertTrue(listener.quotes.isEmpty());
+        assertEquals("Error querying Fake: java.lang.IllegalStateException: service down",
+                errors.toString("UTF-8").trim());
+
+        service.failing = false;
+        now += 1000;
+        scheduler.tick();
+        assertEquals(1, listener.quotes.size());
+
+    }
+
+
+    public void testBackgroundTicking() throws InterruptedException {
+
+        QuoteSubscriptionScheduler background = new QuoteSubscriptionScheduler(10, 100, 0.5, DIRECT);
+        final CountDownLatch received = new CountDownLatch(2);
+
+        try {
+            background.subscribe(service, Arrays.asList("BMO.TO", "MSFT"), PRICE, 50, new QuoteListener() {
+                @Override
+                public void onQuote(HashMap<QuoteAttribute, String> quote) {
+                    received.countDown();
+                }
+            });
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+        } finally {
+            background.close();
+        }
+
+    }
+
+
+    public void testDefaultSchedulerPollsOnItsOwnThreads() throws InterruptedException {
+
+        QuoteSubscriptionScheduler owned = new QuoteSubscriptionScheduler();
+        final CountDownLatch received = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        try {
+            owned.subscribe(service, Collections.singletonList("MSFT"), PRICE, 50, new QuoteListener() {
+                @Override
+                public void onQuote(HashMap<QuoteAttribute, String> quote) {
+                    threads.add(Thread.currentThread().getName());
+                    received.countDown();
+                }
+            });
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertTrue(threads.toString(), threads.get(0).startsWith("stock-quote-subscriptions-"));
+        } finally {
+            owned.close();
+        }
+
+    }
+
+
+    private static class RecordingListener implements QuoteListener {
+
+        final List<HashMap<QuoteAttribute, String>> quotes = new ArrayList<>();
+
+        @Override
+        public synchronized void onQuote(HashMap<QuoteAttribute, String> quote) {
+            quotes.add(quote);
+        }
+
+        synchronized HashMap<QuoteAttribute, String> last(String symbol) {
+            for (int i = quotes.size() - 1; i >= 0; i--) {
+                if (symbol.equals(quotes.get(i).get(QuoteAttribute.SYMBOL))) {
+                    return quotes.get(i);
+                }
+            }
+            return null;
+        }
+
+    }
+
+
+    /*
+     * Prices default to 1.00; records the securities of each query
+     */
+    private static class FakeQuoteService implements QuoteService {
+
+        final List<List<String>> queries = Collections.synchronizedList(new ArrayList<List<String>>());
+        final Map<String, String> prices = new ConcurrentHashMap<>();
+        volatile boolean failing;
+
+        @Override
+        public String getServiceName() {
+            return "Fake";
+        }
+
+        @Override
+        public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+            queries.add(new ArrayList<>(securityList));
+            if (failing) {
+                throw new IllegalStateException("service down");
+            }
+
+            List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+            for (String security : securityList) {
+                HashMap<QuoteAttribute, String> row = new HashMap<>();
+                for (QuoteAttribute attribute : quoteAttributes) {
+                    switch (attribute) {
+                        case SYMBOL:
+                            row.put(attribute, security);
+                            break;
+                        case COMPANY_NAME:
+                            row.put(attribute, security + " Inc");
+                            break;
+                        default:
+                            String price = prices.get(security);
+                            row.put(attribute, null == price ? "1.00" : price);
+                    }
+                }
+                result.add(row);
+            }
+            return result;
+
+        }
+
+    }
+
+}
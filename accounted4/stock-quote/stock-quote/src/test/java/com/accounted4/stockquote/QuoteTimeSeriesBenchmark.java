@@ -0,0 +1,102 @@
+package com.accounted4.stockquote;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times reads of a year of 15 second ticks (6.5 trading hours a day, 252 days) from
+ * a QuoteTimeSeries: a full range scan, a one day range scan and the last 100 points.
+ *
+ * Run from the test classpath: java com.accounted4.stockquote.QuoteTimeSeriesBenchmark
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public class QuoteTimeSeriesBenchmark {
+
+    private static final long TICK_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final int TICKS_PER_DAY = (int) (TimeUnit.MINUTES.toMillis(390) / TICK_MILLIS);
+    private static final int DAYS = 252;
+    private static final int ROUNDS = 200;
+
+
+    public static void main(String[] args) throws IOException {
+
+        Path file = Files.createTempFile("quote-series", ".ts");
+        Files.delete(file);
+
+        try (QuoteTimeSeries series = new QuoteTimeSeries(file)) {
+
+            long start = System.nanoTime();
+            long timestamp = 0;
+            double price = 50;
+            for (int day = 0; day < DAYS; day++) {
+                timestamp = day * TimeUnit.DAYS.toMillis(1);
+                for (int tick = 0; tick < TICKS_PER_DAY; tick++) {
+                    price += (tick % 7 - 3) * 0.01;
+                    series.append(timestamp, price);
+                    timestamp += TICK_MILLIS;
+                }
+            }
+            long appendNanos = System.nanoTime() - start;
+            System.out.println(series.size() + " points appended in " + TimeUnit.NANOSECONDS.toMillis(appendNanos) + "ms");
+
+            Sum sum = new Sum();
+            long oneDayStart = 100 * TimeUnit.DAYS.toMillis(1);
+            long oneDayEnd = oneDayStart + TimeUnit.DAYS.toMillis(1);
+
+            // Warm up
+            for (int i = 0; i < ROUNDS; i++) {
+                series.scan(0, Long.MAX_VALUE, sum);
+                series.scan(oneDayStart, oneDayEnd, sum);
+                series.last(100, sum);
+            }
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                series.scan(0, Long.MAX_VALUE, sum);
+            }
+            report("year scan", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                series.scan(oneDayStart, oneDayEnd, sum);
+            }
+            report("day scan", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                series.last(100, sum);
+            }
+            report("last 100", System.nanoTime() - start);
+
+            // Keep the work from being optimized away
+            System.out.println("(checksum " + sum.total + ")");
+
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+    }
+
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("%-10s %8.3fms", name, nanos / 1e6 / ROUNDS));
+    }
+
+
+    private static class Sum implements QuoteTimeSeries.PointVisitor {
+
+        double total;
+
+        @Override
+        public void visit(long timestampMillis, double value) {
+            total += value;
+        }
+
+    }
+
+}
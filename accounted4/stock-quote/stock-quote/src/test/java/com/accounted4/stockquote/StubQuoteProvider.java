@@ -0,0 +1,121 @@
+package com.accounted4.stockquote;
+
+
+import com.accounted4.stockquote.api.QuoteAttribute;
+import com.accounted4.stockquote.api.QuoteService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Local quote providers registered in the test META-INF/services, whose speed,
+ * failures and answers the tests set. Get the registered instance from the
+ * QuoteServiceRegistry and reset() it before use.
+ *
+ * @author Glenn Heinze <glenn@gheinze.com>
+ */
+public abstract class StubQuoteProvider implements QuoteService {
+
+    private final String serviceName;
+    private final String price;
+
+    final AtomicInteger queries = new AtomicInteger();
+    final AtomicInteger interrupted = new AtomicInteger();
+    volatile long delayMillis;
+    volatile boolean failing;
+    volatile boolean knowsNames;
+    final Set<String> unknownSecurities = new HashSet<>();
+
+
+    StubQuoteProvider(String serviceName, String price) {
+        this.serviceName = serviceName;
+        this.price = price;
+        reset();
+    }
+
+
+    /*
+     * Answers at once, knows every security and their names
+     */
+    final void reset() {
+        queries.set(0);
+        interrupted.set(0);
+        delayMillis = 0;
+        failing = false;
+        knowsNames = true;
+        synchronized (unknownSecurities) {
+            unknownSecurities.clear();
+        }
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return serviceName;
+    }
+
+
+    @Override
+    public List<HashMap<QuoteAttribute, String>> executeQuery(List<String> securityList, List<QuoteAttribute> quoteAttributes) {
+
+        queries.incrementAndGet();
+
+        List<HashMap<QuoteAttribute, String>> result = new ArrayList<>();
+
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ie) {
+                interrupted.incrementAndGet();
+                return result;
+            }
+        }
+        if (failing) {
+            throw new IllegalStateException(serviceName + " is down");
+        }
+
+        for (String security : securityList) {
+            synchronized (unknownSecurities) {
+                if (unknownSecurities.contains(security)) {
+                    continue;
+                }
+            }
+            HashMap<QuoteAttribute, String> row = new HashMap<>();
+            for (QuoteAttribute attribute : quoteAttributes) {
+                switch (attribute) {
+                    case SYMBOL:
+                        row.put(attribute, security);
+                        break;
+                    case COMPANY_NAME:
+                        row.put(attribute, knowsNames ? security + " from " + serviceName : "N/A");
+                        break;
+                    default:
+                        row.put(attribute, price);
+                }
+            }
+            result.add(row);
+        }
+
+        return result;
+
+    }
+
+
+    public static class Alpha extends StubQuoteProvider {
+        public Alpha() {
+            super("Stub-Alpha", "1.00");
+        }
+    }
+
+
+    public static class Beta extends StubQuoteProvider {
+        public Beta() {
+            super("Stub-Beta", "2.00");
+        }
+    }
+
+}